@@ -22,6 +22,7 @@ import static org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveO
 import hivemall.mix.MixMessage.MixEventName;
 import hivemall.mix.client.MixClient;
 import hivemall.model.DenseModel;
+import hivemall.model.ModelDump;
 import hivemall.model.NewDenseModel;
 import hivemall.model.NewSpaceEfficientDenseModel;
 import hivemall.model.NewSparseModel;
@@ -277,7 +278,9 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         final StopWatch elapsed = new StopWatch();
         final long lines;
         try {
-            if (useCovariance()) {
+            if (ModelDump.isSupported(keyOI)) {
+                lines = loadModelDump(model, new File(filename), keyOI, useCovariance());
+            } else if (useCovariance()) {
                 lines = loadPredictionModel(model, new File(filename), keyOI,
                     writableFloatObjectInspector, writableFloatObjectInspector);
             } else {
@@ -295,6 +298,33 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         }
     }
 
+    /**
+     * Loads a model through binary dumps of model files, which are memory-mapped and shared by the
+     * tasks on a node.
+     */
+    private static long loadModelDump(@Nonnull final PredictionModel model,
+            @Nonnull final File file, @Nonnull final PrimitiveObjectInspector keyOI,
+            final boolean hasCovar) throws IOException {
+        long count = 0L;
+        if (!file.exists()) {
+            return count;
+        }
+        final String name = file.getName();
+        if (name.endsWith(".crc") || name.startsWith(".")) {
+            return count;
+        }
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                count += loadModelDump(model, f, keyOI, hasCovar);
+            }
+        } else {
+            ModelDump dump = ModelDump.map(file, keyOI, hasCovar);
+            dump.loadTo(model);
+            count += dump.size();
+        }
+        return count;
+    }
+
     private static long loadPredictionModel(PredictionModel model, File file,
             PrimitiveObjectInspector keyOI, WritableFloatObjectInspector valueOI)
             throws IOException, SerDeException {
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.anomaly;
+
+import hivemall.UDTFWithOptions;
+import hivemall.anomaly.ChangeFinderUDF.ChangeFinder;
+import hivemall.anomaly.ChangeFinderUDF.Parameters;
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * ChangeFinder over a whole time series given as an array. Unlike the stateful `changefinder` UDF,
+ * each row is an independent series, so that many series are scored in parallel by any tasks
+ * without ordering rows.
+ */
+@Description(
+        name = "changefinder_series",
+        value = "_FUNC_(array<double>|array<array<double>> xs [, const string options])"
+                + " - Returns outlier/change-point scores and decisions of each point of a series using ChangeFinder."
+                + " It will return a relation consists of <int idx, double outlier_score, double changepoint_score [, boolean is_outlier [, boolean is_changepoint]]>")
+public final class ChangeFinderSeriesUDTF extends UDTFWithOptions {
+
+    private ListObjectInspector seriesOI;
+    @Nullable
+    private ListObjectInspector xListOI;
+    @Nullable
+    private PrimitiveObjectInspector xOI;
+    private Parameters params;
+
+    private double[] scores;
+    private Object[] forwardObjs;
+    private IntWritable idx;
+    private DoubleWritable outlierScore;
+    private DoubleWritable changepointScore;
+    @Nullable
+    private BooleanWritable isOutlier;
+    @Nullable
+    private BooleanWritable isChangepoint;
+
+    public ChangeFinderSeriesUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        Parameters.addOptions(opts);
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        CommandLine cl = null;
+        if (argOIs.length == 2) {
+            String rawArgs = HiveUtils.getConstString(argOIs[1]);
+            cl = parseOptions(rawArgs);
+            params.set(cl);
+        }
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 1 && argOIs.length != 2) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 1 or 2 arguments: array<double>|array<array<double>> xs [, const string options]");
+        }
+        this.seriesOI = HiveUtils.asListOI(argOIs[0]);
+        ObjectInspector elemOI = seriesOI.getListElementObjectInspector();
+        if (HiveUtils.isListOI(elemOI)) {
+            this.xListOI = HiveUtils.asListOI(elemOI);
+        } else if (HiveUtils.isNumberOI(elemOI)) {
+            this.xOI = HiveUtils.asDoubleCompatibleOI(elemOI);
+        } else {
+            throw new UDFArgumentException(
+                "_FUNC_ takes array<double>|array<array<double>> for the first argument: "
+                        + argOIs[0].getTypeName());
+        }
+
+        this.params = new Parameters();
+        processOptions(argOIs);
+
+        this.scores = new double[2];
+        this.idx = new IntWritable();
+        this.outlierScore = new DoubleWritable();
+        this.changepointScore = new DoubleWritable();
+
+        final ArrayList<String> fieldNames = new ArrayList<String>();
+        final ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("idx");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("outlier_score");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        fieldNames.add("changepoint_score");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        if (params.outlierThreshold != -1d) {
+            fieldNames.add("is_outlier");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
+            this.isOutlier = new BooleanWritable();
+            if (params.changepointThreshold != -1d) {
+                fieldNames.add("is_changepoint");
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
+                this.isChangepoint = new BooleanWritable();
+                this.forwardObjs = new Object[] {idx, outlierScore, changepointScore, isOutlier,
+                        isChangepoint};
+            } else {
+                this.forwardObjs = new Object[] {idx, outlierScore, changepointScore, isOutlier};
+            }
+        } else {
+            this.forwardObjs = new Object[] {idx, outlierScore, changepointScore};
+        }
+
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        final Object series = args[0];
+        if (series == null) {
+            return;
+        }
+
+        // scores of a series do not depend on other rows
+        final ChangeFinder changeFinder = newChangeFinder();
+        for (int i = 0, size = seriesOI.getListLength(series); i < size; i++) {
+            Object x = seriesOI.getListElement(series, i);
+            if (x == null) {
+                continue;
+            }
+            changeFinder.update(x, scores);
+
+            idx.set(i);
+            outlierScore.set(scores[0]);
+            changepointScore.set(scores[1]);
+            if (isOutlier != null) {
+                isOutlier.set(scores[0] >= params.outlierThreshold);
+                if (isChangepoint != null) {
+                    isChangepoint.set(scores[1] >= params.changepointThreshold);
+                }
+            }
+            forward(forwardObjs);
+        }
+    }
+
+    @Nonnull
+    private ChangeFinder newChangeFinder() throws UDFArgumentException {
+        if (xListOI != null) {
+            return new ChangeFinder2D(params, xListOI);
+        } else {
+            return new ChangeFinder1D(params, xOI);
+        }
+    }
+
+    @Override
+    public void close() throws HiveException {
+        this.forwardObjs = null;
+        this.idx = null;
+        this.outlierScore = null;
+        this.changepointScore = null;
+        this.isOutlier = null;
+        this.isChangepoint = null;
+    }
+
+}
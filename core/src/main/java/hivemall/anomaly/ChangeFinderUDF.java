@@ -77,58 +77,14 @@ public final class ChangeFinderUDF extends UDFWithOptions {
     @Override
     protected Options getOptions() {
         Options opts = new Options();
-        opts.addOption("k", "AR", true, "The order of AR model (i.e., AR(k)) [default: 7]");
-        opts.addOption("r1", "x_forget", true,
-            "Discounting parameter for outlier detection [range: (0,1); default: 0.02]");
-        opts.addOption("r2", "y_forget", true,
-            "Discounting parameter for change-point detection [range: (0,1); default: 0.02]");
-        opts.addOption("T1", "x_window", true,
-            "Number of past samples to include for calculating outlier score [default: 7]");
-        opts.addOption("T2", "y_window", true,
-            "Number of past samples to include for calculating change-point score [default: 7]");
-        opts.addOption(
-            "outlier_threshold",
-            "x_threshold",
-            true,
-            "Score threshold (inclusive) for determining outlier existence [default: -1, do not output decision]");
-        opts.addOption(
-            "changepoint_threshold",
-            "y_threshold",
-            true,
-            "Score threshold (inclusive) for determining change-point existence [default: -1, do not output decision]");
-        opts.addOption("loss1", "lossfunc1", true,
-            "Loss function for outliter scoring [default: hellinger, logloss]");
-        opts.addOption("loss2", "lossfunc2", true,
-            "Loss function for change point scoring [default: hellinger, logloss]");
+        Parameters.addOptions(opts);
         return opts;
     }
 
     @Override
     protected CommandLine processOptions(String optionValues) throws UDFArgumentException {
         CommandLine cl = parseOptions(optionValues);
-
-        this._params.k = Primitives.parseInt(cl.getOptionValue("k"), _params.k);
-        this._params.r1 = Primitives.parseDouble(cl.getOptionValue("r1"), _params.r1);
-        this._params.r2 = Primitives.parseDouble(cl.getOptionValue("r2"), _params.r2);
-        this._params.T1 = Primitives.parseInt(cl.getOptionValue("T1"), _params.T1);
-        this._params.T2 = Primitives.parseInt(cl.getOptionValue("T2"), _params.T2);
-        this._params.outlierThreshold = Primitives.parseDouble(
-            cl.getOptionValue("outlier_threshold"), _params.outlierThreshold);
-        this._params.changepointThreshold = Primitives.parseDouble(
-            cl.getOptionValue("changepoint_threshold"), _params.changepointThreshold);
-        this._params.lossFunc1 = LossFunction.resolve(cl.getOptionValue("lossfunc1",
-            LossFunction.hellinger.name()));
-        this._params.lossFunc2 = LossFunction.resolve(cl.getOptionValue("lossfunc2",
-            LossFunction.hellinger.name()));
-
-        Preconditions.checkArgument(_params.k >= 2, "K must be greater than 1: " + _params.k);
-        Preconditions.checkArgument(_params.r1 > 0.d && _params.r1 < 1.d,
-            "r1 must be in range (0,1): " + _params.r1);
-        Preconditions.checkArgument(_params.r2 > 0.d && _params.r2 < 1.d,
-            "r2 must be in range (0,1): " + _params.r2);
-        Preconditions.checkArgument(_params.T1 >= 2, "T1 must be greather than 1: " + _params.T1);
-        Preconditions.checkArgument(_params.T2 >= 2, "T2 must be greather than 1: " + _params.T2);
-
+        _params.set(cl);
         return cl;
     }
 
@@ -246,6 +202,56 @@ public final class ChangeFinderUDF extends UDFWithOptions {
             this.lossFunc2 = func;
         }
 
+        static void addOptions(@Nonnull final Options opts) {
+            opts.addOption("k", "AR", true, "The order of AR model (i.e., AR(k)) [default: 7]");
+            opts.addOption("r1", "x_forget", true,
+                "Discounting parameter for outlier detection [range: (0,1); default: 0.02]");
+            opts.addOption("r2", "y_forget", true,
+                "Discounting parameter for change-point detection [range: (0,1); default: 0.02]");
+            opts.addOption("T1", "x_window", true,
+                "Number of past samples to include for calculating outlier score [default: 7]");
+            opts.addOption("T2", "y_window", true,
+                "Number of past samples to include for calculating change-point score [default: 7]");
+            opts.addOption(
+                "outlier_threshold",
+                "x_threshold",
+                true,
+                "Score threshold (inclusive) for determining outlier existence [default: -1, do not output decision]");
+            opts.addOption(
+                "changepoint_threshold",
+                "y_threshold",
+                true,
+                "Score threshold (inclusive) for determining change-point existence [default: -1, do not output decision]");
+            opts.addOption("loss1", "lossfunc1", true,
+                "Loss function for outliter scoring [default: hellinger, logloss]");
+            opts.addOption("loss2", "lossfunc2", true,
+                "Loss function for change point scoring [default: hellinger, logloss]");
+        }
+
+        void set(@Nonnull final CommandLine cl) {
+            this.k = Primitives.parseInt(cl.getOptionValue("k"), k);
+            this.r1 = Primitives.parseDouble(cl.getOptionValue("r1"), r1);
+            this.r2 = Primitives.parseDouble(cl.getOptionValue("r2"), r2);
+            this.T1 = Primitives.parseInt(cl.getOptionValue("T1"), T1);
+            this.T2 = Primitives.parseInt(cl.getOptionValue("T2"), T2);
+            this.outlierThreshold = Primitives.parseDouble(
+                cl.getOptionValue("outlier_threshold"), outlierThreshold);
+            this.changepointThreshold = Primitives.parseDouble(
+                cl.getOptionValue("changepoint_threshold"), changepointThreshold);
+            this.lossFunc1 = LossFunction.resolve(cl.getOptionValue("lossfunc1",
+                LossFunction.hellinger.name()));
+            this.lossFunc2 = LossFunction.resolve(cl.getOptionValue("lossfunc2",
+                LossFunction.hellinger.name()));
+
+            Preconditions.checkArgument(k >= 2, "K must be greater than 1: " + k);
+            Preconditions.checkArgument(r1 > 0.d && r1 < 1.d,
+                "r1 must be in range (0,1): " + r1);
+            Preconditions.checkArgument(r2 > 0.d && r2 < 1.d,
+                "r2 must be in range (0,1): " + r2);
+            Preconditions.checkArgument(T1 >= 2, "T1 must be greather than 1: " + T1);
+            Preconditions.checkArgument(T2 >= 2, "T2 must be greather than 1: " + T2);
+        }
+
     }
 
     public interface ChangeFinder {
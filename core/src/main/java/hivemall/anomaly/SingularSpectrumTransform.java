@@ -28,6 +28,7 @@ import hivemall.utils.math.MatrixUtils;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.TreeMap;
 
 import javax.annotation.Nonnull;
@@ -71,7 +72,19 @@ final class SingularSpectrumTransform implements SingularSpectrumTransformInterf
     @Nonnull
     private final double[] q;
 
+    // for IKA; C = H H^T of the past trajectory matrix H is kept up to date by rank-one updates
+    private double[][] C;
+    private int numRankOneUpdates;
+    private final int refreshInterval;
+    private final double[] tmpW;
+
     SingularSpectrumTransform(@Nonnull Parameters params, @Nonnull PrimitiveObjectInspector oi) {
+        // recompute C from scratch every (w * n) updates to bound accumulated rounding errors
+        this(params, oi, params.w * params.n, new Random());
+    }
+
+    SingularSpectrumTransform(@Nonnull Parameters params, @Nonnull PrimitiveObjectInspector oi,
+            int refreshInterval, @Nonnull Random rand) {
         this.oi = oi;
         this.scoreFunc = params.scoreFunc;
 
@@ -84,6 +97,7 @@ final class SingularSpectrumTransform implements SingularSpectrumTransformInterf
         this.r = params.r;
         this.k = params.k;
         Preconditions.checkArgument(params.k >= params.r);
+        Preconditions.checkArgument(refreshInterval >= 1);
 
         // (w + n) past samples for the n-past-windows
         // (w + m) current samples for the m-current-windows, starting from offset g
@@ -96,7 +110,7 @@ final class SingularSpectrumTransform implements SingularSpectrumTransformInterf
         this.q = new double[window];
         double norm = 0.d;
         for (int i = 0; i < window; i++) {
-            this.q[i] = Math.random();
+            this.q[i] = rand.nextDouble();
             norm += q[i] * q[i];
         }
         norm = Math.sqrt(norm);
@@ -104,42 +118,60 @@ final class SingularSpectrumTransform implements SingularSpectrumTransformInterf
         for (int i = 0; i < window; i++) {
             this.q[i] = q[i] / norm;
         }
+
+        this.C = null;
+        this.numRankOneUpdates = 0;
+        this.refreshInterval = refreshInterval;
+        this.tmpW = new double[window];
     }
 
     @Override
     public void update(@Nonnull final Object arg, @Nonnull final double[] outScores)
             throws HiveException {
         double x = PrimitiveObjectInspectorUtils.getDouble(arg, oi);
+        if (C != null) {
+            // the oldest column of H leaves the past trajectory matrix
+            rankOneUpdate(C, xSeries, 0, window, -1.d);
+        }
         xRing.add(x).toArray(xSeries, true /* FIFO */);
 
         // need to wait until the buffer is filled
         if (!xRing.isFull()) {
             outScores[0] = 0.d;
-        } else {
-            // create past trajectory matrix and find its left singular vectors
-            RealMatrix H = new Array2DRowRealMatrix(window, nPastWindow);
-            for (int i = 0; i < nPastWindow; i++) {
-                H.setColumn(i, Arrays.copyOfRange(xSeries, i, i + window));
-            }
+            return;
+        }
 
-            // create current trajectory matrix and find its left singular vectors
-            RealMatrix G = new Array2DRowRealMatrix(window, nCurrentWindow);
-            int currentHead = pastSize + currentOffset;
-            for (int i = 0; i < nCurrentWindow; i++) {
-                G.setColumn(i,
-                    Arrays.copyOfRange(xSeries, currentHead + i, currentHead + i + window));
-            }
+        switch (scoreFunc) {
+            case svd: {
+                // create past trajectory matrix and find its left singular vectors
+                RealMatrix H = new Array2DRowRealMatrix(window, nPastWindow);
+                for (int i = 0; i < nPastWindow; i++) {
+                    H.setColumn(i, Arrays.copyOfRange(xSeries, i, i + window));
+                }
 
-            switch (scoreFunc) {
-                case svd:
-                    outScores[0] = computeScoreSVD(H, G);
-                    break;
-                case ika:
-                    outScores[0] = computeScoreIKA(H, G);
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected score function: " + scoreFunc);
+                // create current trajectory matrix and find its left singular vectors
+                RealMatrix G = new Array2DRowRealMatrix(window, nCurrentWindow);
+                int currentHead = pastSize + currentOffset;
+                for (int i = 0; i < nCurrentWindow; i++) {
+                    G.setColumn(i,
+                        Arrays.copyOfRange(xSeries, currentHead + i, currentHead + i + window));
+                }
+                outScores[0] = computeScoreSVD(H, G);
+                break;
             }
+            case ika: {
+                if (C == null || ++numRankOneUpdates >= refreshInterval) {
+                    this.C = computeHHt(xSeries, window, nPastWindow, C);
+                    this.numRankOneUpdates = 0;
+                } else {
+                    // the latest column of H enters the past trajectory matrix
+                    rankOneUpdate(C, xSeries, nPastWindow - 1, window, 1.d);
+                }
+                outScores[0] = computeScoreIKA();
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unexpected score function: " + scoreFunc);
         }
     }
 
@@ -168,13 +200,18 @@ final class SingularSpectrumTransform implements SingularSpectrumTransformInterf
      * Number of iterations for the Power method and QR method is fixed to 1 for efficiency. This
      * may cause failure (i.e. meaningless scores) depending on datasets and initial values.
      *
+     * Neither trajectory matrix is materialized; the power method reads the current trajectory
+     * matrix G directly from the series, and the Lanczos method runs on the incrementally updated
+     * H H^T. A point still costs O(k w^2) since the Krylov subspace is rebuilt from the updated
+     * `q`, so that the cost is not independent of the window size w. Keeping the Krylov basis
+     * across points instead changes the scores beyond the thresholds tuned for this method.
      */
-    private double computeScoreIKA(@Nonnull final RealMatrix H, @Nonnull final RealMatrix G) {
+    private double computeScoreIKA() {
         // assuming n = m = window, and keep track the left singular vector as `q`
-        MatrixUtils.power1(G, q, 1, q, new double[window]);
+        power1(xSeries, pastSize + currentOffset, window, nCurrentWindow, q, tmpW);
 
         RealMatrix T = new Array2DRowRealMatrix(k, k);
-        MatrixUtils.lanczosTridiagonalization(H.multiply(H.transpose()), q, T);
+        MatrixUtils.lanczosTridiagonalization(C, q, T);
 
         double[] eigvals = new double[k];
         RealMatrix eigvecs = new Array2DRowRealMatrix(k, k);
@@ -198,4 +235,87 @@ final class SingularSpectrumTransform implements SingularSpectrumTransformInterf
         }
         return 1.d - Math.sqrt(s);
     }
+
+    /**
+     * Computes C = H H^T where the i-th column of the (w x n) Hankel matrix H is
+     * <code>xs[i, i + w)</code>.
+     */
+    @Nonnull
+    static double[][] computeHHt(@Nonnull final double[] xs, final int w, final int n,
+            final double[][] dst) {
+        final double[][] C = (dst == null) ? new double[w][w] : dst;
+        for (int i = 0; i < w; i++) {
+            for (int j = i; j < w; j++) {
+                double sum = 0.d;
+                for (int l = 0; l < n; l++) {
+                    sum += xs[l + i] * xs[l + j];
+                }
+                C[i][j] = sum;
+                C[j][i] = sum;
+            }
+        }
+        return C;
+    }
+
+    /**
+     * C += sign * h h^T for the column <code>h = xs[offset, offset + w)</code>.
+     */
+    static void rankOneUpdate(@Nonnull final double[][] C, @Nonnull final double[] xs,
+            final int offset, final int w, final double sign) {
+        for (int i = 0; i < w; i++) {
+            final double hi = sign * xs[offset + i];
+            final double[] Ci = C[i];
+            for (int j = i; j < w; j++) {
+                final double v = Ci[j] + hi * xs[offset + j];
+                Ci[j] = v;
+                C[j][i] = v;
+            }
+        }
+    }
+
+    /**
+     * One iteration of the power method for the (w x m) Hankel matrix G whose j-th column is
+     * <code>xs[head + j, head + j + w)</code>, which is the same as
+     * {@link MatrixUtils#power1(RealMatrix, double[], int, double[], double[])} with
+     * <code>nIter = 1</code> where m = w.
+     */
+    private static void power1(@Nonnull final double[] xs, final int head, final int w,
+            final int m, @Nonnull final double[] u, @Nonnull final double[] tmp) {
+        // tmp = G u
+        for (int i = 0; i < w; i++) {
+            double sum = 0.d;
+            for (int j = 0; j < m; j++) {
+                sum += xs[head + j + i] * u[j];
+            }
+            tmp[i] = sum;
+        }
+        // u = G^T tmp / || G^T tmp ||
+        double norm = 0.d;
+        for (int j = 0; j < m; j++) {
+            double sum = 0.d;
+            for (int i = 0; i < w; i++) {
+                sum += xs[head + j + i] * tmp[i];
+            }
+            u[j] = sum;
+            norm += sum * sum;
+        }
+        norm = Math.sqrt(norm);
+        for (int j = 0; j < m; j++) {
+            u[j] /= norm;
+        }
+        // u = G u / || G u ||
+        norm = 0.d;
+        for (int i = 0; i < w; i++) {
+            double sum = 0.d;
+            for (int j = 0; j < m; j++) {
+                sum += xs[head + j + i] * u[j];
+            }
+            tmp[i] = sum;
+            norm += sum * sum;
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < w; i++) {
+            u[i] = tmp[i] / norm;
+        }
+    }
 }
@@ -81,64 +81,14 @@ public final class SingularSpectrumTransformUDF extends UDFWithOptions {
     @Override
     protected Options getOptions() {
         Options opts = new Options();
-        opts.addOption("w", "window", true,
-            "Number of samples which affects change-point score [default: 30]");
-        opts.addOption("n", "n_past", true,
-            "Number of past windows for change-point scoring [default: equal to `w` = 30]");
-        opts.addOption("m", "n_current", true,
-            "Number of current windows for change-point scoring [default: equal to `w` = 30]");
-        opts.addOption("g", "current_offset", true,
-            "Offset of the current windows from the updating sample [default: `-w` = -30]");
-        opts.addOption("r", "n_component", true,
-            "Number of singular vectors (i.e. principal components) [default: 3]");
-        opts.addOption(
-            "k",
-            "n_dim",
-            true,
-            "Number of dimensions for the Krylov subspaces [default: 5 (`2*r` if `r` is even, `2*r-1` otherwise)]");
-        opts.addOption("score", "scorefunc", true, "Score function [default: svd, ika]");
-        opts.addOption(
-            "th",
-            "threshold",
-            true,
-            "Score threshold (inclusive) for determining change-point existence [default: -1, do not output decision]");
+        Parameters.addOptions(opts);
         return opts;
     }
 
     @Override
     protected CommandLine processOptions(String optionValues) throws UDFArgumentException {
         CommandLine cl = parseOptions(optionValues);
-
-        this._params.w = Primitives.parseInt(cl.getOptionValue("w"), _params.w);
-        this._params.n = Primitives.parseInt(cl.getOptionValue("n"), _params.w);
-        this._params.m = Primitives.parseInt(cl.getOptionValue("m"), _params.w);
-        this._params.g = Primitives.parseInt(cl.getOptionValue("g"), -1 * _params.w);
-        this._params.r = Primitives.parseInt(cl.getOptionValue("r"), _params.r);
-        this._params.k = Primitives.parseInt(cl.getOptionValue("k"),
-            (_params.r % 2 == 0) ? (2 * _params.r) : (2 * _params.r - 1));
-
-        this._params.scoreFunc = ScoreFunction.resolve(cl.getOptionValue("scorefunc",
-            ScoreFunction.svd.name()));
-        if ((_params.w != _params.n || _params.w != _params.m)
-                && _params.scoreFunc == ScoreFunction.ika) {
-            throw new UDFArgumentException("IKA-based efficient SST requires w = n = m");
-        }
-
-        this._params.changepointThreshold = Primitives.parseDouble(cl.getOptionValue("th"),
-            _params.changepointThreshold);
-
-        Preconditions.checkArgument(_params.w >= 2, UDFArgumentException.class,
-            "w must be greather than 1: " + _params.w);
-        Preconditions.checkArgument(_params.r >= 1, UDFArgumentException.class,
-            "r must be greater than 0: " + _params.r);
-        Preconditions.checkArgument(_params.k >= 1, UDFArgumentException.class,
-            "k must be greater than 0: " + _params.k);
-        Preconditions.checkArgument(_params.k >= _params.r, UDFArgumentException.class,
-            "k must be equals to or greather than r: k=" + _params.k + ", r" + _params.r);
-        Preconditions.checkArgument(_params.changepointThreshold > 0.d
-                && _params.changepointThreshold < 1.d, UDFArgumentException.class,
-            "changepointThreshold must be in range (0, 1): " + _params.changepointThreshold);
-
+        _params.set(cl);
         return cl;
     }
 
@@ -230,6 +180,61 @@ public final class SingularSpectrumTransformUDF extends UDFWithOptions {
         void set(@Nonnull ScoreFunction func) {
             this.scoreFunc = func;
         }
+
+        static void addOptions(@Nonnull final Options opts) {
+            opts.addOption("w", "window", true,
+                "Number of samples which affects change-point score [default: 30]");
+            opts.addOption("n", "n_past", true,
+                "Number of past windows for change-point scoring [default: equal to `w` = 30]");
+            opts.addOption("m", "n_current", true,
+                "Number of current windows for change-point scoring [default: equal to `w` = 30]");
+            opts.addOption("g", "current_offset", true,
+                "Offset of the current windows from the updating sample [default: `-w` = -30]");
+            opts.addOption("r", "n_component", true,
+                "Number of singular vectors (i.e. principal components) [default: 3]");
+            opts.addOption(
+                "k",
+                "n_dim",
+                true,
+                "Number of dimensions for the Krylov subspaces [default: 5 (`2*r` if `r` is even, `2*r-1` otherwise)]");
+            opts.addOption("score", "scorefunc", true, "Score function [default: svd, ika]");
+            opts.addOption(
+                "th",
+                "threshold",
+                true,
+                "Score threshold (inclusive) for determining change-point existence [default: -1, do not output decision]");
+        }
+
+        void set(@Nonnull final CommandLine cl) throws UDFArgumentException {
+            this.w = Primitives.parseInt(cl.getOptionValue("w"), w);
+            this.n = Primitives.parseInt(cl.getOptionValue("n"), w);
+            this.m = Primitives.parseInt(cl.getOptionValue("m"), w);
+            this.g = Primitives.parseInt(cl.getOptionValue("g"), -1 * w);
+            this.r = Primitives.parseInt(cl.getOptionValue("r"), r);
+            this.k = Primitives.parseInt(cl.getOptionValue("k"),
+                (r % 2 == 0) ? (2 * r) : (2 * r - 1));
+
+            this.scoreFunc = ScoreFunction.resolve(cl.getOptionValue("scorefunc",
+                ScoreFunction.svd.name()));
+            if ((w != n || w != m) && scoreFunc == ScoreFunction.ika) {
+                throw new UDFArgumentException("IKA-based efficient SST requires w = n = m");
+            }
+
+            this.changepointThreshold = Primitives.parseDouble(cl.getOptionValue("th"),
+                changepointThreshold);
+
+            Preconditions.checkArgument(w >= 2, UDFArgumentException.class,
+                "w must be greather than 1: " + w);
+            Preconditions.checkArgument(r >= 1, UDFArgumentException.class,
+                "r must be greater than 0: " + r);
+            Preconditions.checkArgument(k >= 1, UDFArgumentException.class,
+                "k must be greater than 0: " + k);
+            Preconditions.checkArgument(k >= r, UDFArgumentException.class,
+                "k must be equals to or greather than r: k=" + k + ", r" + r);
+            Preconditions.checkArgument(changepointThreshold > 0.d
+                    && changepointThreshold < 1.d, UDFArgumentException.class,
+                "changepointThreshold must be in range (0, 1): " + changepointThreshold);
+        }
     }
 
     public interface SingularSpectrumTransformInterface {
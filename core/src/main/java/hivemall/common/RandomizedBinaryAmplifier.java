@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * A variant of {@link RandomizedAmplifier} for serialized rows. A row is copied once into a
+ * contiguous byte arena, and the shuffling buffers hold the index of its entry and its age
+ * instead of objects. An entry is released when all the xtimes copies of the row are dropped out.
+ * When the arena runs out of space, live entries are compacted in place, and the arena grows only
+ * when they would occupy more than half of it.
+ */
+public final class RandomizedBinaryAmplifier {
+
+    private static final int INITIAL_ARENA_SIZE = 64 * 1024;
+
+    private final int numBuffers;
+    private final int xtimes;
+
+    // shuffling buffers
+    @Nonnull
+    private final int[][] slots;
+    /** sequence number of the entry in a slot; a larger value is newer */
+    @Nonnull
+    private final long[][] ages;
+    private int position;
+    private long sequence;
+
+    @Nonnull
+    private final Random[] randoms;
+
+    // arena
+    @Nonnull
+    private byte[] arena;
+    private int used;
+    private int liveBytes;
+
+    // entries
+    @Nonnull
+    private int[] offsets;
+    @Nonnull
+    private int[] lengths;
+    /** number of slots referring to an entry */
+    @Nonnull
+    private int[] refs;
+    @Nonnull
+    private int[] freeEntries;
+    private int numFreeEntries;
+    private int numEntries;
+    /** (offset, entry) pairs of live entries sorted in compaction */
+    @Nonnull
+    private long[] liveEntries;
+
+    private DropoutListener listener = null;
+
+    public RandomizedBinaryAmplifier(int numBuffers, int xtimes) {
+        this(numBuffers, xtimes, null);
+    }
+
+    public RandomizedBinaryAmplifier(int numBuffers, int xtimes, long seed) {
+        this(numBuffers, xtimes, Long.valueOf(seed));
+    }
+
+    private RandomizedBinaryAmplifier(int numBuffers, int xtimes, Long seed) {
+        if (numBuffers < 1) {
+            throw new IllegalArgumentException("numBuffers must be greater than 0: " + numBuffers);
+        }
+        if (xtimes < 1) {
+            throw new IllegalArgumentException("xtime must be greater than 0: " + xtimes);
+        }
+        this.numBuffers = numBuffers;
+        this.xtimes = xtimes;
+        this.slots = new int[xtimes][numBuffers];
+        this.ages = new long[xtimes][numBuffers];
+        this.position = 0;
+        this.sequence = 0L;
+        this.randoms = new Random[xtimes];
+        for (int i = 0; i < xtimes; i++) {
+            randoms[i] = (seed == null) ? new Random() : new Random(seed.longValue() + i);
+        }
+
+        this.arena = new byte[INITIAL_ARENA_SIZE];
+        this.used = 0;
+        this.liveBytes = 0;
+        final int expectedEntries = Math.min(numBuffers, 1024) + 1;
+        this.offsets = new int[expectedEntries];
+        this.lengths = new int[expectedEntries];
+        this.refs = new int[expectedEntries];
+        this.freeEntries = new int[expectedEntries];
+        this.numFreeEntries = 0;
+        this.numEntries = 0;
+        this.liveEntries = new long[expectedEntries];
+    }
+
+    public void setDropoutListener(DropoutListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of bytes of the arena
+     */
+    public int arenaSize() {
+        return arena.length;
+    }
+
+    public void add(@Nonnull final byte[] b, final int off, final int len) throws HiveException {
+        final int e = allocate(b, off, len);
+        final long age = sequence++;
+
+        if (position < numBuffers) {
+            for (int x = 0; x < xtimes; x++) {
+                slots[x][position] = e;
+                ages[x][position] = age;
+            }
+            position++;
+            if (position == numBuffers) {
+                for (int x = 0; x < xtimes; x++) {
+                    shuffle(slots[x], ages[x], numBuffers, randoms[x]);
+                }
+            }
+        } else {
+            for (int x = 0; x < xtimes; x++) {
+                final int[] slot = slots[x];
+                final long[] slotAges = ages[x];
+                final Random rnd = randoms[x];
+                int rindex1 = rnd.nextInt(numBuffers);
+                int rindex2 = rnd.nextInt(numBuffers);
+                // bias to hold old entry
+                final int i = (slotAges[rindex1] >= slotAges[rindex2]) ? rindex1 : rindex2;
+                dropout(slot[i]);
+                slot[i] = e;
+                slotAges[i] = age;
+            }
+        }
+    }
+
+    public void sweepAll() throws HiveException {
+        if (position < numBuffers && position > 1) {// shuffle an unfilled buffer
+            for (int x = 0; x < xtimes; x++) {
+                shuffle(slots[x], ages[x], position, randoms[x]);
+            }
+        }
+        for (int i = 0; i < position; i++) {
+            for (int x = 0; x < xtimes; x++) {
+                dropout(slots[x][i]);
+            }
+        }
+        this.position = 0;
+        this.used = 0;
+        this.liveBytes = 0;
+        this.numFreeEntries = 0;
+        this.numEntries = 0;
+    }
+
+    private void dropout(final int e) throws HiveException {
+        if (listener != null) {
+            listener.onDrop(arena, offsets[e], lengths[e]);
+        }
+        if (--refs[e] == 0) {
+            liveBytes -= lengths[e];
+            freeEntries[numFreeEntries++] = e;
+        }
+    }
+
+    private int allocate(@Nonnull final byte[] b, final int off, final int len) {
+        if (used + len > arena.length) {
+            compact(len);
+        }
+
+        final int e;
+        if (numFreeEntries > 0) {
+            e = freeEntries[--numFreeEntries];
+        } else {
+            e = numEntries++;
+            if (e == offsets.length) {
+                int newLength = Math.max(16, e + (e >> 1));
+                this.offsets = Arrays.copyOf(offsets, newLength);
+                this.lengths = Arrays.copyOf(lengths, newLength);
+                this.refs = Arrays.copyOf(refs, newLength);
+                this.freeEntries = Arrays.copyOf(freeEntries, newLength);
+            }
+        }
+        System.arraycopy(b, off, arena, used, len);
+        offsets[e] = used;
+        lengths[e] = len;
+        refs[e] = xtimes;
+        used += len;
+        liveBytes += len;
+        return e;
+    }
+
+    /**
+     * Slides live entries to the head of the arena in the order of their offsets. The arena is
+     * reused as long as the free space after compaction is at least the size of the live entries,
+     * so that compaction is amortized; otherwise, live entries are moved to a larger arena.
+     */
+    private void compact(@Nonnegative final int len) {
+        final long required = 2L * (liveBytes + len);
+        if (required > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Arena size exceeds the limit: " + required);
+        }
+        final byte[] src = arena;
+        final byte[] dst;
+        if (required <= src.length) {
+            dst = src;
+        } else {
+            int capacity = src.length;
+            while (capacity < required) {
+                capacity = (int) Math.min(2L * capacity, Integer.MAX_VALUE - 8);
+            }
+            dst = new byte[capacity];
+        }
+
+        final int[] refs = this.refs;
+        final int[] offsets = this.offsets;
+        final int[] lengths = this.lengths;
+        if (liveEntries.length < numEntries) {
+            this.liveEntries = new long[offsets.length];
+        }
+        final long[] live = liveEntries;
+        int numLive = 0;
+        for (int e = 0; e < numEntries; e++) {
+            if (refs[e] != 0) {
+                live[numLive++] = ((long) offsets[e] << 32) | e;
+            }
+        }
+        Arrays.sort(live, 0, numLive);
+
+        // an entry never moves forward, and thus does not overwrite unmoved entries
+        int pos = 0;
+        for (int i = 0; i < numLive; i++) {
+            final int e = (int) live[i];
+            final int length = lengths[e];
+            System.arraycopy(src, offsets[e], dst, pos, length);
+            offsets[e] = pos;
+            pos += length;
+        }
+        this.arena = dst;
+        this.used = pos;
+    }
+
+    /**
+     * Fisher–Yates shuffle of slots and their ages
+     */
+    private static void shuffle(@Nonnull final int[] slot, @Nonnull final long[] age,
+            final int size, @Nonnull final Random rnd) {
+        for (int i = size; i > 1; i--) {
+            final int j = rnd.nextInt(i);
+            final int tmp = slot[i - 1];
+            slot[i - 1] = slot[j];
+            slot[j] = tmp;
+            final long tmpAge = age[i - 1];
+            age[i - 1] = age[j];
+            age[j] = tmpAge;
+        }
+    }
+
+    public interface DropoutListener {
+        /**
+         * The bytes of a dropped row are valid only until this method returns.
+         */
+        void onDrop(@Nonnull byte[] b, int off, int len) throws HiveException;
+    }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import hivemall.utils.codec.VariableByteCodec;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.FastByteArrayInputStream;
+import hivemall.utils.io.FastByteArrayOutputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * A sort-free AUC estimator for binary classification.
+ *
+ * Scores in [0,1] are counted into fixed-width histograms of positive and negative samples. Each
+ * partial aggregation is independent of the input order and two partials are merged in O(bins).
+ * Pairs that fall into the same bin are counted as ties, so the absolute error of the estimate is
+ * bounded by {@code sum_b(pos_b * neg_b) / (2 * P * N)}, which is at most
+ * {@code 1 / (2 * num_bins)} when scores are uniformly spread. The bound is returned along with
+ * the AUC when {@code with_error_bound} is true.
+ */
+@Description(
+        name = "approx_auc",
+        value = "_FUNC_(double score, int label [, const int num_bins = 10000"
+                + " [, const boolean with_error_bound = false]])"
+                + " - Returns AUC estimated by score histograms without sorting the input,"
+                + " or struct<auc double, error_bound double> if `with_error_bound` is true")
+public final class HistogramAUCUDAF extends AbstractGenericUDAFResolver {
+
+    static final int DEFAULT_NUM_BINS = 10000;
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(@Nonnull GenericUDAFParameterInfo info)
+            throws SemanticException {
+        ObjectInspector[] OIs = info.getParameterObjectInspectors();
+
+        if (OIs.length < 2 || OIs.length > 4) {
+            throw new UDFArgumentLengthException("Specify two, three, or four arguments.");
+        }
+        if (!HiveUtils.isNumberOI(OIs[0])) {
+            throw new UDFArgumentTypeException(0, "Only number type argument is acceptable but "
+                    + OIs[0].getTypeName() + " was passed as `score`");
+        }
+        if (!HiveUtils.isIntegerOI(OIs[1])) {
+            throw new UDFArgumentTypeException(1, "Only int type argument is acceptable but "
+                    + OIs[1].getTypeName() + " was passed as `label`");
+        }
+        if (OIs.length >= 3) {
+            if (!HiveUtils.isIntegerOI(OIs[2])) {
+                throw new UDFArgumentTypeException(2,
+                    "Only int type argument is acceptable but " + OIs[2].getTypeName()
+                            + " was passed as `num_bins`");
+            }
+        }
+        boolean withErrorBound = false;
+        if (OIs.length == 4) {
+            // known here since evaluators of PARTIAL2 and FINAL only see partial results
+            withErrorBound = HiveUtils.getConstBoolean(OIs[3]);
+        }
+
+        return new HistogramAUCEvaluator(withErrorBound);
+    }
+
+    public static final class HistogramAUCEvaluator extends GenericUDAFEvaluator {
+
+        // PARTIAL1 and COMPLETE
+        private PrimitiveObjectInspector scoreOI;
+        private PrimitiveObjectInspector labelOI;
+        private int numBins = DEFAULT_NUM_BINS;
+
+        private final boolean withErrorBound;
+
+        // PARTIAL2 and FINAL
+        private BinaryObjectInspector partialOI;
+
+        public HistogramAUCEvaluator() {
+            this(false);
+        }
+
+        public HistogramAUCEvaluator(boolean withErrorBound) {
+            this.withErrorBound = withErrorBound;
+        }
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] OIs) throws HiveException {
+            super.init(mode, OIs);
+
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                this.scoreOI = HiveUtils.asDoubleCompatibleOI(OIs[0]);
+                this.labelOI = HiveUtils.asIntegerOI(OIs[1]);
+                if (OIs.length >= 3) {
+                    this.numBins = HiveUtils.getConstInt(OIs[2]);
+                    if (numBins < 1) {
+                        throw new UDFArgumentException(
+                            "`num_bins` must be greater than 0: " + numBins);
+                    }
+                }
+            } else {// from partial aggregation
+                this.partialOI = HiveUtils.asBinaryOI(OIs[0]);
+            }
+
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            } else if (withErrorBound) {// terminate
+                List<String> fieldNames = new ArrayList<String>(2);
+                List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(2);
+                fieldNames.add("auc");
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+                fieldNames.add("error_bound");
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+                outputOI = ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames,
+                    fieldOIs);
+            } else {// terminate
+                outputOI = PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+            }
+            return outputOI;
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            HistogramAUCAggregationBuffer myAggr = new HistogramAUCAggregationBuffer();
+            reset(myAggr);
+            return myAggr;
+        }
+
+        @Override
+        public void reset(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            HistogramAUCAggregationBuffer myAggr = (HistogramAUCAggregationBuffer) agg;
+            myAggr.reset(numBins);
+        }
+
+        @Override
+        public void iterate(@SuppressWarnings("deprecation") AggregationBuffer agg,
+                Object[] parameters) throws HiveException {
+            if (parameters[0] == null || parameters[1] == null) {
+                return;
+            }
+
+            double score = HiveUtils.getDouble(parameters[0], scoreOI);
+            if (score < 0.d || score > 1.d) {
+                throw new UDFArgumentException("score value MUST be in range [0,1]: " + score);
+            }
+
+            int label = PrimitiveObjectInspectorUtils.getInt(parameters[1], labelOI);
+            if (label == -1) {
+                label = 0;
+            } else if (label != 0 && label != 1) {
+                throw new UDFArgumentException("label MUST be 0/1 or -1/1: " + label);
+            }
+
+            HistogramAUCAggregationBuffer myAggr = (HistogramAUCAggregationBuffer) agg;
+            myAggr.iterate(score, label);
+        }
+
+        @Override
+        public BytesWritable terminatePartial(
+                @SuppressWarnings("deprecation") AggregationBuffer agg) throws HiveException {
+            HistogramAUCAggregationBuffer myAggr = (HistogramAUCAggregationBuffer) agg;
+            try {
+                return new BytesWritable(myAggr.serialize());
+            } catch (IOException e) {
+                throw new HiveException("Failed to serialize score histograms", e);
+            }
+        }
+
+        @Override
+        public void merge(@SuppressWarnings("deprecation") AggregationBuffer agg, Object partial)
+                throws HiveException {
+            if (partial == null) {
+                return;
+            }
+
+            byte[] b = partialOI.getPrimitiveJavaObject(partial);
+            HistogramAUCAggregationBuffer myAggr = (HistogramAUCAggregationBuffer) agg;
+            try {
+                myAggr.merge(b);
+            } catch (IOException e) {
+                throw new HiveException("Failed to deserialize score histograms", e);
+            }
+        }
+
+        @Override
+        public Object terminate(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            HistogramAUCAggregationBuffer myAggr = (HistogramAUCAggregationBuffer) agg;
+            double result = myAggr.get();
+            if (withErrorBound) {
+                return new Object[] {new DoubleWritable(result),
+                        new DoubleWritable(myAggr.errorBound())};
+            }
+            return new DoubleWritable(result);
+        }
+
+    }
+
+    @AggregationType(estimable = true)
+    public static final class HistogramAUCAggregationBuffer extends AbstractAggregationBuffer {
+
+        long[] pos, neg;
+
+        public HistogramAUCAggregationBuffer() {
+            super();
+        }
+
+        void reset(int numBins) {
+            if (pos == null || pos.length != numBins) {
+                this.pos = new long[numBins];
+                this.neg = new long[numBins];
+            } else {
+                Arrays.fill(pos, 0L);
+                Arrays.fill(neg, 0L);
+            }
+        }
+
+        void iterate(double score, int label) {
+            final int numBins = pos.length;
+            int bin = (int) (score * numBins);
+            if (bin == numBins) { // score == 1.0
+                bin = numBins - 1;
+            }
+            if (label == 1) {
+                pos[bin]++;
+            } else {
+                neg[bin]++;
+            }
+        }
+
+        /**
+         * Serializes the histograms as varint numBins followed by (varint binGap, varint pos,
+         * varint neg) for each non-empty bin.
+         */
+        @Nonnull
+        byte[] serialize() throws IOException {
+            final int numBins = pos.length;
+            final FastByteArrayOutputStream os = new FastByteArrayOutputStream(1024);
+            VariableByteCodec.encodeUnsignedInt(numBins, os);
+            int prev = -1;
+            for (int i = 0; i < numBins; i++) {
+                if (pos[i] == 0L && neg[i] == 0L) {
+                    continue;
+                }
+                VariableByteCodec.encodeUnsignedInt(i - prev, os);
+                VariableByteCodec.encodeUnsignedLong(pos[i], os);
+                VariableByteCodec.encodeUnsignedLong(neg[i], os);
+                prev = i;
+            }
+            return os.toByteArray();
+        }
+
+        void merge(@Nonnull final byte[] partial) throws IOException, HiveException {
+            final FastByteArrayInputStream is = new FastByteArrayInputStream(partial);
+            final int numBins = VariableByteCodec.decodeUnsignedInt(is);
+            if (numBins != pos.length) {
+                if (isEmpty()) {// num_bins is not known in PARTIAL2 and FINAL
+                    reset(numBins);
+                } else {
+                    throw new HiveException(
+                        "Cannot merge histograms of different `num_bins`: " + pos.length
+                                + " and " + numBins);
+                }
+            }
+            int bin = -1;
+            while (is.available() > 0) {
+                bin += VariableByteCodec.decodeUnsignedInt(is);
+                if (bin >= numBins) {
+                    throw new HiveException("Illegal bin index: " + bin);
+                }
+                pos[bin] += VariableByteCodec.decodeUnsignedLong(is);
+                neg[bin] += VariableByteCodec.decodeUnsignedLong(is);
+            }
+        }
+
+        private boolean isEmpty() {
+            for (int i = 0; i < pos.length; i++) {
+                if (pos[i] != 0L || neg[i] != 0L) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Sweeps bins from the highest score. A negative sample is ranked below every positive
+         * sample in higher bins and ties with half of the positive samples in its own bin.
+         */
+        double get() throws HiveException {
+            double area = 0.d;
+            long tp = 0L, fp = 0L;
+            for (int i = pos.length - 1; i >= 0; i--) {
+                final long p = pos[i], n = neg[i];
+                area += n * (tp + p / 2.d);
+                tp += p;
+                fp += n;
+            }
+
+            if (tp == 0L || fp == 0L) {
+                throw new HiveException(
+                    "AUC score is not defined because there is only one class in `label`.");
+            }
+            return area / ((double) tp * fp);
+        }
+
+        /**
+         * Returns the upper bound of the absolute difference between {@link #get()} and the exact
+         * AUC, which comes from the pairs whose order within a bin is unknown.
+         */
+        double errorBound() {
+            double ties = 0.d;
+            long tp = 0L, fp = 0L;
+            for (int i = 0; i < pos.length; i++) {
+                ties += (double) pos[i] * neg[i];
+                tp += pos[i];
+                fp += neg[i];
+            }
+            if (tp == 0L || fp == 0L) {
+                return 0.d;
+            }
+            return ties / (2.d * tp * fp);
+        }
+
+        @Override
+        public int estimate() {
+            return 2 * 8 * pos.length;
+        }
+    }
+
+}
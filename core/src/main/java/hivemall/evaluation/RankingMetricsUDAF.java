@@ -0,0 +1,495 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import hivemall.utils.collections.maps.Long2IntOpenHashTable;
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Computes nDCG, Precision, Recall, MRR, MAP and AUC of binary responses at several cutoffs in a
+ * single pass. Each metric at K is the same as the corresponding UDAF with
+ * {@code recommendSize = min(K, rankItems.size)}.
+ */
+@Description(
+        name = "ranking_metrics",
+        value = "_FUNC_(array rankItems, array correctItems, const array<int> | const int k)"
+                + " - Returns struct<ndcg, precision, recall, mrr, average_precision, auc>"
+                + " of which each field is map<int k, double score>")
+public final class RankingMetricsUDAF extends AbstractGenericUDAFResolver {
+
+    static final String[] METRICS = new String[] {"ndcg", "precision", "recall", "mrr",
+            "average_precision", "auc"};
+    private static final int NDCG = 0, PRECISION = 1, RECALL = 2, MRR = 3, MAP = 4, AUC = 5;
+
+    private static final double LOG2 = Math.log(2.d);
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(@Nonnull GenericUDAFParameterInfo info)
+            throws SemanticException {
+        ObjectInspector[] OIs = info.getParameterObjectInspectors();
+        if (OIs.length != 3) {
+            throw new UDFArgumentLengthException("_FUNC_ takes three arguments");
+        }
+
+        if (!isPrimitiveListOI(OIs[0])) {
+            throw new UDFArgumentTypeException(0,
+                "The first argument `array rankItems` is invalid form: " + OIs[0].getTypeName());
+        }
+        if (!isPrimitiveListOI(OIs[1])) {
+            throw new UDFArgumentTypeException(1,
+                "The second argument `array correctItems` is invalid form: "
+                        + OIs[1].getTypeName());
+        }
+        if (!ObjectInspectorUtils.isConstantObjectInspector(OIs[2])) {
+            throw new UDFArgumentTypeException(2,
+                "The third argument `k` must be a constant int or array<int>: "
+                        + OIs[2].getTypeName());
+        }
+
+        return new Evaluator();
+    }
+
+    private static boolean isPrimitiveListOI(@Nonnull final ObjectInspector oi) {
+        return HiveUtils.isListOI(oi)
+                && HiveUtils.isPrimitiveOI(((ListObjectInspector) oi).getListElementObjectInspector());
+    }
+
+    public static final class Evaluator extends GenericUDAFEvaluator {
+
+        // PARTIAL1 and COMPLETE
+        private ListObjectInspector recommendListOI;
+        private PrimitiveObjectInspector recommendElemOI;
+        private ListObjectInspector truthListOI;
+        private PrimitiveObjectInspector truthElemOI;
+        private boolean integerItems;
+        private int[] ks;
+
+        // PARTIAL2 and FINAL
+        private StructObjectInspector internalMergeOI;
+        private StructField ksField;
+        private StructField countField;
+        private StructField sumsField;
+
+        public Evaluator() {}
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+            super.init(mode, parameters);
+
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                this.recommendListOI = HiveUtils.asListOI(parameters[0]);
+                this.recommendElemOI = HiveUtils.asPrimitiveObjectInspector(recommendListOI.getListElementObjectInspector());
+                this.truthListOI = HiveUtils.asListOI(parameters[1]);
+                this.truthElemOI = HiveUtils.asPrimitiveObjectInspector(truthListOI.getListElementObjectInspector());
+                this.integerItems = HiveUtils.isIntegerOI(recommendElemOI)
+                        && HiveUtils.isIntegerOI(truthElemOI);
+                this.ks = parseCutoffs(parameters[2]);
+            } else {// from partial aggregation
+                StructObjectInspector soi = (StructObjectInspector) parameters[0];
+                this.internalMergeOI = soi;
+                this.ksField = soi.getStructFieldRef("ks");
+                this.countField = soi.getStructFieldRef("count");
+                this.sumsField = soi.getStructFieldRef("sums");
+            }
+
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = internalMergeOI();
+            } else {// terminate
+                outputOI = outputOI();
+            }
+            return outputOI;
+        }
+
+        @Nonnull
+        private static int[] parseCutoffs(@Nonnull final ObjectInspector oi)
+                throws UDFArgumentException {
+            final int[] ks;
+            if (HiveUtils.isListOI(oi)) {
+                ks = HiveUtils.getConstIntArray(oi);
+                if (ks == null || ks.length == 0) {
+                    throw new UDFArgumentException("`k` must not be empty");
+                }
+            } else {
+                ks = new int[] {HiveUtils.getAsConstInt(oi)};
+            }
+            for (int k : ks) {
+                if (k <= 0) {
+                    throw new UDFArgumentException("`k` must be greater than 0: " + k);
+                }
+            }
+            Arrays.sort(ks);
+            return ks;
+        }
+
+        private static StructObjectInspector internalMergeOI() {
+            ArrayList<String> fieldNames = new ArrayList<String>();
+            ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+
+            fieldNames.add("ks");
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+            fieldNames.add("count");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+            fieldNames.add("sums");
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        private static StructObjectInspector outputOI() {
+            ArrayList<String> fieldNames = new ArrayList<String>();
+            ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+
+            for (String metric : METRICS) {
+                fieldNames.add(metric);
+                fieldOIs.add(ObjectInspectorFactory.getStandardMapObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                    PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+            }
+
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        @Override
+        public RankingMetricsAggregationBuffer getNewAggregationBuffer() throws HiveException {
+            RankingMetricsAggregationBuffer myAggr = new RankingMetricsAggregationBuffer();
+            reset(myAggr);
+            return myAggr;
+        }
+
+        @Override
+        public void reset(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            RankingMetricsAggregationBuffer myAggr = (RankingMetricsAggregationBuffer) agg;
+            myAggr.reset(ks);
+        }
+
+        @Override
+        public void iterate(@SuppressWarnings("deprecation") AggregationBuffer agg,
+                Object[] parameters) throws HiveException {
+            RankingMetricsAggregationBuffer myAggr = (RankingMetricsAggregationBuffer) agg;
+
+            final Object truthObj = parameters[1];
+            if (truthObj == null) {
+                return;
+            }
+            final int truthSize = truthListOI.getListLength(truthObj);
+            if (truthSize <= 0) {
+                return; // metrics are not defined without correct items
+            }
+            final Object recommendObj = parameters[0];
+            final int recommendSize = (recommendObj == null) ? 0
+                    : recommendListOI.getListLength(recommendObj);
+
+            if (integerItems) {
+                myAggr.iterateIntegerItems(recommendObj, recommendSize, recommendListOI,
+                    recommendElemOI, truthObj, truthSize, truthListOI, truthElemOI);
+            } else {
+                myAggr.iterateObjectItems(recommendObj, recommendSize, recommendListOI,
+                    recommendElemOI, truthObj, truthSize, truthListOI, truthElemOI);
+            }
+        }
+
+        @Override
+        public Object terminatePartial(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            RankingMetricsAggregationBuffer myAggr = (RankingMetricsAggregationBuffer) agg;
+
+            final Object[] partialResult = new Object[3];
+            if (myAggr.ks == null) {
+                partialResult[0] = new ArrayList<IntWritable>(0);
+                partialResult[1] = new LongWritable(0L);
+                partialResult[2] = new ArrayList<DoubleWritable>(0);
+                return partialResult;
+            }
+            final int[] ks = myAggr.ks;
+            final List<IntWritable> ksList = new ArrayList<IntWritable>(ks.length);
+            for (int k : ks) {
+                ksList.add(new IntWritable(k));
+            }
+            final double[] sums = myAggr.sums;
+            final List<DoubleWritable> sumsList = new ArrayList<DoubleWritable>(sums.length);
+            for (double s : sums) {
+                sumsList.add(new DoubleWritable(s));
+            }
+            partialResult[0] = ksList;
+            partialResult[1] = new LongWritable(myAggr.count);
+            partialResult[2] = sumsList;
+            return partialResult;
+        }
+
+        @Override
+        public void merge(@SuppressWarnings("deprecation") AggregationBuffer agg, Object partial)
+                throws HiveException {
+            if (partial == null) {
+                return;
+            }
+
+            Object ksObj = internalMergeOI.getStructFieldData(partial, ksField);
+            Object countObj = internalMergeOI.getStructFieldData(partial, countField);
+            Object sumsObj = internalMergeOI.getStructFieldData(partial, sumsField);
+
+            ListObjectInspector ksOI = (ListObjectInspector) ksField.getFieldObjectInspector();
+            ListObjectInspector sumsOI = (ListObjectInspector) sumsField.getFieldObjectInspector();
+            final int numKs = ksOI.getListLength(ksObj);
+            if (numKs == 0) {
+                return;
+            }
+            final int[] ks = new int[numKs];
+            for (int i = 0; i < numKs; i++) {
+                ks[i] = PrimitiveObjectInspectorFactory.writableIntObjectInspector.get(ksOI.getListElement(
+                    ksObj, i));
+            }
+            final int numSums = sumsOI.getListLength(sumsObj);
+            final double[] sums = new double[numSums];
+            for (int i = 0; i < numSums; i++) {
+                sums[i] = PrimitiveObjectInspectorFactory.writableDoubleObjectInspector.get(sumsOI.getListElement(
+                    sumsObj, i));
+            }
+            long count = PrimitiveObjectInspectorFactory.writableLongObjectInspector.get(countObj);
+
+            RankingMetricsAggregationBuffer myAggr = (RankingMetricsAggregationBuffer) agg;
+            myAggr.merge(ks, count, sums);
+        }
+
+        @Override
+        public Object terminate(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            RankingMetricsAggregationBuffer myAggr = (RankingMetricsAggregationBuffer) agg;
+
+            final Object[] result = new Object[METRICS.length];
+            for (int m = 0; m < METRICS.length; m++) {
+                result[m] = myAggr.get(m);
+            }
+            return result;
+        }
+
+    }
+
+    public static final class RankingMetricsAggregationBuffer extends AbstractAggregationBuffer {
+
+        /** Sorted cutoffs, or null until known in PARTIAL2 and FINAL */
+        @Nullable
+        int[] ks;
+        long count;
+        /** sums[metric * ks.length + i] holds the sum of a metric at ks[i] */
+        double[] sums;
+
+        // per-row working memory
+        private final Long2IntOpenHashTable truthIds;
+        private final Set<Object> truthItems;
+        @Nonnull
+        private boolean[] hits;
+
+        public RankingMetricsAggregationBuffer() {
+            super();
+            this.truthIds = new Long2IntOpenHashTable(64);
+            this.truthItems = new HashSet<Object>(64);
+            this.hits = new boolean[16];
+        }
+
+        void reset(@Nullable int[] ks) {
+            this.ks = ks;
+            this.count = 0L;
+            this.sums = (ks == null) ? null : new double[METRICS.length * ks.length];
+        }
+
+        void iterateIntegerItems(@Nullable Object recommendObj, int recommendSize,
+                @Nonnull ListObjectInspector recommendListOI,
+                @Nonnull PrimitiveObjectInspector recommendElemOI, @Nonnull Object truthObj,
+                int truthSize, @Nonnull ListObjectInspector truthListOI,
+                @Nonnull PrimitiveObjectInspector truthElemOI) {
+            final Long2IntOpenHashTable set = truthIds;
+            set.clear();
+            for (int i = 0; i < truthSize; i++) {
+                Object o = truthListOI.getListElement(truthObj, i);
+                if (o != null) {
+                    set.put(PrimitiveObjectInspectorUtils.getLong(o, truthElemOI), 1);
+                }
+            }
+
+            final int n = Math.min(recommendSize, ks[ks.length - 1]);
+            final boolean[] hits = hitsBuffer(n);
+            for (int i = 0; i < n; i++) {
+                Object o = recommendListOI.getListElement(recommendObj, i);
+                hits[i] = (o != null)
+                        && set.containsKey(PrimitiveObjectInspectorUtils.getLong(o, recommendElemOI));
+            }
+
+            iterate(hits, n, recommendSize, truthSize);
+        }
+
+        void iterateObjectItems(@Nullable Object recommendObj, int recommendSize,
+                @Nonnull ListObjectInspector recommendListOI,
+                @Nonnull PrimitiveObjectInspector recommendElemOI, @Nonnull Object truthObj,
+                int truthSize, @Nonnull ListObjectInspector truthListOI,
+                @Nonnull PrimitiveObjectInspector truthElemOI) {
+            final Set<Object> set = truthItems;
+            set.clear();
+            for (int i = 0; i < truthSize; i++) {
+                Object o = truthListOI.getListElement(truthObj, i);
+                if (o != null) {
+                    set.add(truthElemOI.getPrimitiveJavaObject(o));
+                }
+            }
+
+            final int n = Math.min(recommendSize, ks[ks.length - 1]);
+            final boolean[] hits = hitsBuffer(n);
+            for (int i = 0; i < n; i++) {
+                Object o = recommendListOI.getListElement(recommendObj, i);
+                hits[i] = (o != null) && set.contains(recommendElemOI.getPrimitiveJavaObject(o));
+            }
+
+            iterate(hits, n, recommendSize, truthSize);
+        }
+
+        @Nonnull
+        private boolean[] hitsBuffer(final int n) {
+            if (hits.length < n) {
+                this.hits = new boolean[Math.max(n, hits.length * 2)];
+            }
+            return hits;
+        }
+
+        /**
+         * Sweeps the top of a ranked list once and accumulates every metric when the sweep reaches
+         * each cutoff.
+         *
+         * @param hits whether the i-th recommended item is correct for i in [0, n)
+         */
+        private void iterate(@Nonnull final boolean[] hits, final int n, final int recommendSize,
+                final int truthSize) {
+            final int[] ks = this.ks;
+            final int numKs = ks.length;
+
+            int tp = 0, firstHit = -1;
+            long correctPairs = 0L;
+            double dcg = 0.d, sumPrecision = 0.d;
+
+            int j = 0;
+            for (; j < numKs && Math.min(ks[j], recommendSize) == 0; j++) {
+                accumulate(j, 0, truthSize, 0, firstHit, correctPairs, dcg, sumPrecision);
+            }
+            for (int i = 0; i < n && j < numKs; i++) {
+                if (hits[i]) {
+                    tp++;
+                    dcg += LOG2 / Math.log(i + 2);
+                    sumPrecision += tp / (i + 1.d);
+                    if (firstHit == -1) {
+                        firstHit = i;
+                    }
+                } else {
+                    correctPairs += tp;
+                }
+                final int k = i + 1;
+                for (; j < numKs && Math.min(ks[j], recommendSize) == k; j++) {
+                    accumulate(j, k, truthSize, tp, firstHit, correctPairs, dcg, sumPrecision);
+                }
+            }
+            count++;
+        }
+
+        private void accumulate(final int j, final int k, final int truthSize, final int tp,
+                final int firstHit, final long correctPairs, final double dcg,
+                final double sumPrecision) {
+            final int numKs = ks.length;
+            final double[] sums = this.sums;
+
+            double idcg = BinaryResponsesMeasures.IDCG(Math.min(k, truthSize));
+            if (idcg > 0.d) {
+                sums[NDCG * numKs + j] += dcg / idcg;
+            }
+            if (k > 0) {
+                sums[PRECISION * numKs + j] += (double) tp / k;
+            }
+            sums[RECALL * numKs + j] += (double) tp / truthSize;
+            if (firstHit != -1) {
+                sums[MRR * numKs + j] += 1.d / (firstHit + 1.d);
+            }
+            sums[MAP * numKs + j] += sumPrecision / truthSize;
+            long nPairs = (long) tp * (k - tp);
+            sums[AUC * numKs + j] += (nPairs == 0L) ? 0.5d : (double) correctPairs / nPairs;
+        }
+
+        void merge(@Nonnull int[] o_ks, long o_count, @Nonnull double[] o_sums)
+                throws HiveException {
+            if (ks == null) {
+                reset(o_ks);
+            } else if (!Arrays.equals(ks, o_ks)) {
+                throw new HiveException("Cannot merge metrics of different cutoffs: "
+                        + Arrays.toString(ks) + " and " + Arrays.toString(o_ks));
+            }
+            count += o_count;
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += o_sums[i];
+            }
+        }
+
+        @Nonnull
+        Map<IntWritable, DoubleWritable> get(final int metric) {
+            final Map<IntWritable, DoubleWritable> map = new LinkedHashMap<IntWritable, DoubleWritable>();
+            if (ks == null) {
+                return map;
+            }
+            final int numKs = ks.length;
+            for (int j = 0; j < numKs; j++) {
+                double avg = (count == 0L) ? 0.d : sums[metric * numKs + j] / count;
+                map.put(new IntWritable(ks[j]), new DoubleWritable(avg));
+            }
+            return map;
+        }
+    }
+
+}
@@ -20,6 +20,7 @@ package hivemall.fm;
 
 import hivemall.fm.FactorizationMachineModel.VInitScheme;
 import hivemall.optimizer.EtaEstimator;
+import hivemall.utils.io.ReplayBuffer.SpillCodec;
 import hivemall.utils.lang.Primitives;
 
 import javax.annotation.Nonnull;
@@ -63,6 +64,8 @@ class FMHyperParameters {
     int iters = 1;
     boolean conversionCheck = true;
     double convergenceRate = 0.005d;
+    SpillCodec spillCodec = SpillCodec.none;
+    boolean shuffle = false;
 
     // adaptive regularization
     boolean adaptiveReglarization = false;
@@ -79,9 +82,10 @@ class FMHyperParameters {
                 + ", lambdaV=" + lambdaV + ", sigma=" + sigma + ", seed=" + seed + ", vInit="
                 + vInit + ", minTarget=" + minTarget + ", maxTarget=" + maxTarget + ", eta=" + eta
                 + ", numFeatures=" + numFeatures + ", iters=" + iters + ", conversionCheck="
-                + conversionCheck + ", convergenceRate=" + convergenceRate
-                + ", adaptiveReglarization=" + adaptiveReglarization + ", validationRatio="
-                + validationRatio + ", validationThreshold=" + validationThreshold
+                + conversionCheck + ", convergenceRate=" + convergenceRate + ", spillCodec="
+                + spillCodec + ", shuffle=" + shuffle + ", adaptiveReglarization="
+                + adaptiveReglarization + ", validationRatio=" + validationRatio
+                + ", validationThreshold=" + validationThreshold
                 + ", parseFeatureAsInt=" + parseFeatureAsInt + "]";
     }
 
@@ -105,6 +109,12 @@ class FMHyperParameters {
         this.iters = Primitives.parseInt(cl.getOptionValue("iterations"), iters);
         this.conversionCheck = !cl.hasOption("disable_cvtest");
         this.convergenceRate = Primitives.parseDouble(cl.getOptionValue("cv_rate"), convergenceRate);
+        try {
+            this.spillCodec = SpillCodec.resolve(cl.getOptionValue("spill_codec"));
+        } catch (IllegalArgumentException e) {
+            throw new UDFArgumentException(e.getMessage());
+        }
+        this.shuffle = cl.hasOption("shuffle");
         this.adaptiveReglarization = cl.hasOption("adaptive_regularizaion");
         this.validationRatio = Primitives.parseFloat(cl.getOptionValue("validation_ratio"),
             validationRatio);
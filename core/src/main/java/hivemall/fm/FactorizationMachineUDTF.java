@@ -27,8 +27,7 @@ import hivemall.optimizer.LossFunctions.LossType;
 import hivemall.fm.FMStringFeatureMapModel.Entry;
 import hivemall.utils.collections.IMapIterator;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.io.FileUtils;
-import hivemall.utils.io.NioStatefullSegment;
+import hivemall.utils.io.ReplayBuffer;
 import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.SizeOf;
 import hivemall.utils.math.MathUtils;
@@ -107,9 +106,8 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
      */
     protected long _t;
 
-    // file IO
-    private ByteBuffer _inputBuf;
-    private NioStatefullSegment _fileIO;
+    // for iterations
+    private ReplayBuffer _replayBuf;
 
     @Override
     protected Options getOptions() {
@@ -142,6 +140,10 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
             "Whether to disable convergence check [default: OFF]");
         opts.addOption("cv_rate", "convergence_rate", true,
             "Threshold to determine convergence [default: 0.005]");
+        opts.addOption("spill_codec", true,
+            "Codec to compress spilled training examples [none, deflate, lz4] (default: none)");
+        opts.addOption("shuffle", false,
+            "Replay training examples in a random order for each iteration [default: OFF]");
         // adaptive regularization
         if (isAdaptiveRegularizationSupported()) {
             opts.addOption("adareg", "adaptive_regularizaion", false,
@@ -295,53 +297,29 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
             return;
         }
 
-        ByteBuffer inputBuf = _inputBuf;
-        NioStatefullSegment dst = _fileIO;
-        if (inputBuf == null) {
-            final File file;
-            try {
-                file = File.createTempFile("hivemall_fm", ".sgmt");
-                file.deleteOnExit();
-                if (!file.canWrite()) {
-                    throw new UDFArgumentException("Cannot write a temporary file: "
-                            + file.getAbsolutePath());
-                }
-                LOG.info("Record training examples to a file: " + file.getAbsolutePath());
-            } catch (IOException ioe) {
-                throw new UDFArgumentException(ioe);
-            } catch (Throwable e) {
-                throw new UDFArgumentException(e);
+        ReplayBuffer replayBuf = _replayBuf;
+        if (replayBuf == null) {
+            replayBuf = new ReplayBuffer("hivemall_fm", _params.spillCodec.newCodec());
+            if (_params.shuffle) {
+                replayBuf.setShuffle(_params.seed);
             }
-
-            this._inputBuf = inputBuf = ByteBuffer.allocateDirect(1024 * 1024); // 1 MiB
-            this._fileIO = dst = new NioStatefullSegment(file, false);
+            this._replayBuf = replayBuf;
         }
 
         int xBytes = Feature.requiredBytes(x);
         int recordBytes = SizeOf.INT + SizeOf.DOUBLE + xBytes;
-        int requiredBytes = SizeOf.INT + recordBytes;
-        int remain = inputBuf.remaining();
-        if (remain < requiredBytes) {
-            writeBuffer(inputBuf, dst);
+        final ByteBuffer buf;
+        try {
+            buf = replayBuf.reserve(recordBytes);
+        } catch (IOException e) {
+            throw new HiveException("Exception causes while recording a training example", e);
         }
 
-        inputBuf.putInt(recordBytes);
-        inputBuf.putInt(x.length);
+        buf.putInt(x.length);
         for (Feature f : x) {
-            f.writeTo(inputBuf);
-        }
-        inputBuf.putDouble(y);
-    }
-
-    private static void writeBuffer(@Nonnull ByteBuffer srcBuf, @Nonnull NioStatefullSegment dst)
-            throws HiveException {
-        srcBuf.flip();
-        try {
-            dst.write(srcBuf);
-        } catch (IOException e) {
-            throw new HiveException("Exception causes while writing a buffer to file", e);
+            f.writeTo(buf);
         }
-        srcBuf.clear();
+        buf.putDouble(y);
     }
 
     public void train(@Nonnull final Feature[] x, final double y,
@@ -521,10 +499,8 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
     }
 
     protected void runTrainingIteration(int iterations) throws HiveException {
-        final ByteBuffer inputBuf = this._inputBuf;
-        final NioStatefullSegment fileIO = this._fileIO;
-        assert (inputBuf != null);
-        assert (fileIO != null);
+        final ReplayBuffer replayBuf = this._replayBuf;
+        assert (replayBuf != null);
         final long numTrainingExamples = _t;
         final boolean adaregr = _va_rand != null;
 
@@ -533,131 +509,57 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
             "hivemall.fm.FactorizationMachines$Counter", "iteration");
 
         try {
-            if (fileIO.getPosition() == 0L) {// run iterations w/o temporary file
-                if (inputBuf.position() == 0) {
-                    return; // no training example
-                }
-                inputBuf.flip();
-
-                int iter = 2;
-                for (; iter <= iterations; iter++) {
-                    reportProgress(reporter);
-                    setCounterValue(iterCounter, iter);
-
-                    while (inputBuf.remaining() > 0) {
-                        int bytes = inputBuf.getInt();
-                        assert (bytes > 0) : bytes;
-                        int xLength = inputBuf.getInt();
-                        final Feature[] x = new Feature[xLength];
-                        for (int j = 0; j < xLength; j++) {
-                            x[j] = instantiateFeature(inputBuf);
-                        }
-                        double y = inputBuf.getDouble();
-                        // invoke train
-                        ++_t;
-                        train(x, y, adaregr);
-                    }
-                    if (_cvState.isConverged(iter, numTrainingExamples)) {
-                        break;
-                    }
-                    inputBuf.rewind();
-                }
-                LOG.info("Performed " + Math.min(iter, iterations) + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on memory (thus " + NumberUtils.formatNumber(_t)
-                        + " training updates in total) ");
-            } else {// read training examples in the temporary file and invoke train for each example
-
-                // write training examples in buffer to a temporary file
-                if (inputBuf.remaining() > 0) {
-                    writeBuffer(inputBuf, fileIO);
-                }
-                try {
-                    fileIO.flush();
-                } catch (IOException e) {
-                    throw new HiveException("Failed to flush a file: "
-                            + fileIO.getFile().getAbsolutePath(), e);
-                }
-                if (LOG.isInfoEnabled()) {
-                    File tmpFile = fileIO.getFile();
+            if (replayBuf.getNumRecords() == 0L) {
+                return; // no training example
+            }
+
+            int iter = 2;
+            for (; iter <= iterations; iter++) {
+                setCounterValue(iterCounter, iter);
+
+                replayBuf.rewind(reporter);
+                if (iter == 2 && replayBuf.isSpilled() && LOG.isInfoEnabled()) {
+                    File tmpFile = replayBuf.getFile();
                     LOG.info("Wrote " + numTrainingExamples
                             + " records to a temporary file for iterative training: "
-                            + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
+                            + tmpFile.getAbsolutePath() + " (" + replayBuf.getSpillStatistics()
                             + ")");
                 }
 
-                // run iterations
-                int iter = 2;
-                for (; iter <= iterations; iter++) {
-                    setCounterValue(iterCounter, iter);
-
-                    inputBuf.clear();
-                    fileIO.resetPosition();
-                    while (true) {
-                        reportProgress(reporter);
-                        // TODO prefetch
-                        // writes training examples to a buffer in the temporary file
-                        final int bytesRead;
-                        try {
-                            bytesRead = fileIO.read(inputBuf);
-                        } catch (IOException e) {
-                            throw new HiveException("Failed to read a file: "
-                                    + fileIO.getFile().getAbsolutePath(), e);
-                        }
-                        if (bytesRead == 0) { // reached file EOF
-                            break;
-                        }
-                        assert (bytesRead > 0) : bytesRead;
-
-                        // reads training examples from a buffer
-                        inputBuf.flip();
-                        int remain = inputBuf.remaining();
-                        if (remain < SizeOf.INT) {
-                            throw new HiveException("Illegal file format was detected");
-                        }
-                        while (remain >= SizeOf.INT) {
-                            int pos = inputBuf.position();
-                            int recordBytes = inputBuf.getInt();
-                            remain -= SizeOf.INT;
-                            if (remain < recordBytes) {
-                                inputBuf.position(pos);
-                                break;
-                            }
-
-                            final int xLength = inputBuf.getInt();
-                            final Feature[] x = new Feature[xLength];
-                            for (int j = 0; j < xLength; j++) {
-                                x[j] = instantiateFeature(inputBuf);
-                            }
-                            double y = inputBuf.getDouble();
-
-                            // invoke training
-                            ++_t;
-                            train(x, y, adaregr);
-
-                            remain -= recordBytes;
-                        }
-                        inputBuf.compact();
-                    }
-                    if (_cvState.isConverged(iter, numTrainingExamples)) {
-                        break;
+                ByteBuffer buf;
+                while ((buf = replayBuf.next()) != null) {
+                    final int xLength = buf.getInt();
+                    final Feature[] x = new Feature[xLength];
+                    for (int j = 0; j < xLength; j++) {
+                        x[j] = instantiateFeature(buf);
                     }
+                    double y = buf.getDouble();
+
+                    // invoke training
+                    ++_t;
+                    train(x, y, adaregr);
+                }
+                if (replayBuf.isCompressed() && LOG.isInfoEnabled()) {
+                    LOG.info("Iteration #" + iter + " " + replayBuf.getDecodeStatistics());
+                }
+                if (_cvState.isConverged(iter, numTrainingExamples)) {
+                    break;
                 }
-                LOG.info("Performed " + Math.min(iter, iterations) + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on a secondary storage (thus "
-                        + NumberUtils.formatNumber(_t) + " training updates in total)");
             }
+            LOG.info("Performed " + Math.min(iter, iterations) + " iterations of "
+                    + NumberUtils.formatNumber(numTrainingExamples) + " training examples "
+                    + (replayBuf.isSpilled() ? "on a secondary storage" : "on memory")
+                    + " (thus " + NumberUtils.formatNumber(_t) + " training updates in total)");
+        } catch (IOException e) {
+            throw new HiveException("Failed to replay training examples", e);
         } finally {
             // delete the temporary file and release resources
             try {
-                fileIO.close(true);
+                replayBuf.close();
             } catch (IOException e) {
-                throw new HiveException("Failed to close a file: "
-                        + fileIO.getFile().getAbsolutePath(), e);
+                throw new HiveException("Failed to close a replay buffer", e);
             }
-            this._inputBuf = null;
-            this._fileIO = null;
+            this._replayBuf = null;
         }
     }
 
@@ -19,8 +19,8 @@
 package hivemall.ftvec.amplify;
 
 import hivemall.UDTFWithOptions;
-import hivemall.common.RandomizedAmplifier;
-import hivemall.common.RandomizedAmplifier.DropoutListener;
+import hivemall.common.RandomizedBinaryAmplifier;
+import hivemall.common.RandomizedBinaryAmplifier.DropoutListener;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.lang.Primitives;
 
@@ -32,22 +32,35 @@ import org.apache.commons.cli.Options;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.ByteStream;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.lazy.ByteArrayRef;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryFactory;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryStruct;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
-import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
-import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
 
 @Description(name = "rand_amplify", value = "_FUNC_(const int xtimes [, const string options], *)"
         + " - amplify the input records x-times in map-side")
-public final class RandomAmplifierUDTF extends UDTFWithOptions implements DropoutListener<Object[]> {
+public final class RandomAmplifierUDTF extends UDTFWithOptions implements DropoutListener {
 
     private boolean hasOption = false;
     private long seed = -1L;
     private int numBuffers = 1000;
 
-    private transient ObjectInspector[] argOIs;
-    private transient RandomizedAmplifier<Object[]> amplifier;
+    private transient List<ObjectInspector> rowOIs;
+    private transient RandomizedBinaryAmplifier amplifier;
+
+    // rows are kept in LazyBinary format and forwarded without deserialization
+    private transient Object[] row;
+    private transient ByteStream.Output rowBuf;
+    private transient ByteArrayRef rowRef;
+    private transient LazyBinaryStruct rowStruct;
 
     @Override
     protected Options getOptions() {
@@ -83,49 +96,60 @@ public final class RandomAmplifierUDTF extends UDTFWithOptions implements Dropou
         if (xtimes < 1) {
             throw new UDFArgumentException("Illegal xtimes value: " + xtimes);
         }
-        this.argOIs = argOIs;
 
         processOptions(argOIs);
 
-        this.amplifier = (seed == -1L) ? new RandomizedAmplifier<Object[]>(numBuffers, xtimes)
-                : new RandomizedAmplifier<Object[]>(numBuffers, xtimes, seed);
+        this.amplifier = (seed == -1L) ? new RandomizedBinaryAmplifier(numBuffers, xtimes)
+                : new RandomizedBinaryAmplifier(numBuffers, xtimes, seed);
         amplifier.setDropoutListener(this);
 
         final List<String> fieldNames = new ArrayList<String>();
-        final List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        final List<TypeInfo> fieldTypes = new ArrayList<TypeInfo>();
+        final List<ObjectInspector> rowOIs = new ArrayList<ObjectInspector>();
         final int argStartIndex = hasOption ? 2 : 1;
         for (int i = argStartIndex; i < numArgs; i++) {
             fieldNames.add("c" + (i - 1));
-            ObjectInspector rawOI = argOIs[i];
-            ObjectInspector retOI = ObjectInspectorUtils.getStandardObjectInspector(rawOI,
-                ObjectInspectorCopyOption.DEFAULT);
-            fieldOIs.add(retOI);
+            fieldTypes.add(TypeInfoUtils.getTypeInfoFromObjectInspector(argOIs[i]));
+            rowOIs.add(argOIs[i]);
         }
-        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        this.rowOIs = rowOIs;
+        this.row = new Object[rowOIs.size()];
+        this.rowBuf = new ByteStream.Output();
+        this.rowRef = new ByteArrayRef();
+
+        TypeInfo rowType = TypeInfoFactory.getStructTypeInfo(fieldNames, fieldTypes);
+        ObjectInspector rowOI = LazyBinaryUtils.getLazyBinaryObjectInspectorFromTypeInfo(rowType);
+        StructObjectInspector outputOI = (StructObjectInspector) rowOI;
+        this.rowStruct = (LazyBinaryStruct) LazyBinaryFactory.createLazyBinaryObject(outputOI);
+        return outputOI;
     }
 
     @Override
     public void process(Object[] args) throws HiveException {
         final int argStartIndex = hasOption ? 2 : 1;
-        final Object[] row = new Object[args.length - argStartIndex];
-        for (int i = argStartIndex; i < args.length; i++) {
-            Object arg = args[i];
-            ObjectInspector argOI = argOIs[i];
-            row[i - argStartIndex] = ObjectInspectorUtils.copyToStandardObject(arg, argOI,
-                ObjectInspectorCopyOption.DEFAULT);
+        System.arraycopy(args, argStartIndex, row, 0, row.length);
+        rowBuf.reset();
+        try {
+            LazyBinarySerDe.serializeStruct(rowBuf, row, rowOIs);
+        } catch (SerDeException e) {
+            throw new HiveException(e);
         }
-        amplifier.add(row);
+        amplifier.add(rowBuf.getData(), 0, rowBuf.getCount());
     }
 
     @Override
     public void close() throws HiveException {
         amplifier.sweepAll();
         this.amplifier = null;
+        this.row = null;
+        this.rowBuf = null;
     }
 
     @Override
-    public void onDrop(Object[] row) throws HiveException {
-        forward(row);
+    public void onDrop(byte[] b, int off, int len) throws HiveException {
+        rowRef.setData(b);
+        rowStruct.init(rowRef, off, len);
+        forward(rowStruct);
     }
 
 }
@@ -20,7 +20,13 @@ package hivemall.ftvec.binning;
 
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.WritableUtils;
+import hivemall.utils.lang.CommandLineUtils;
 import hivemall.utils.lang.Preconditions;
+import hivemall.utils.lang.Primitives;
+import hivemall.utils.math.KLLSketch;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
@@ -31,13 +37,13 @@ import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
-import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryArray;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
@@ -45,23 +51,27 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectIn
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.WritableBooleanObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.WritableDoubleObjectInspector;
 import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import javax.annotation.Nonnull;
+
 @Description(name = "build_bins",
-        value = "_FUNC_(number weight, const int num_of_bins[, const boolean auto_shrink = false])"
-                + " - Return quantiles representing bins: array<double>")
+        value = "_FUNC_(number weight, const int num_of_bins[, const boolean auto_shrink = false]"
+                + "[, const string options]) - Return quantiles representing bins: array<double>",
+        extended = "options: -seed <long> to choose items of the quantile sketch to be kept")
 public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
     @Override
     public GenericUDAFEvaluator getEvaluator(GenericUDAFParameterInfo info)
             throws SemanticException {
         ObjectInspector[] OIs = info.getParameterObjectInspectors();
 
-        if (OIs.length != 2 && OIs.length != 3) {
-            throw new UDFArgumentLengthException("Specify two or three arguments.");
+        if (OIs.length < 2 || OIs.length > 4) {
+            throw new UDFArgumentLengthException("Specify two, three, or four arguments.");
         }
 
         if (!HiveUtils.isNumberOI(OIs[0])) {
@@ -74,7 +84,18 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                     + OIs[1].getTypeName() + " was passed as `num_of_bins`");
         }
 
-        if (OIs.length == 3) {
+        int numArgs = OIs.length;
+        long seed = KLLSketch.DEFAULT_SEED;
+        if (numArgs >= 3 && HiveUtils.isConstString(OIs[numArgs - 1])) {
+            // known here since evaluators of PARTIAL2 and FINAL only see partial results
+            seed = getSeed(HiveUtils.getConstString(OIs[numArgs - 1]));
+            numArgs--;
+        }
+        if (numArgs == 4) {
+            throw new UDFArgumentTypeException(3, "Only const string type argument is acceptable"
+                    + " but " + OIs[3].getTypeName() + " was passed as `options`");
+        }
+        if (numArgs == 3) {
             if (!HiveUtils.isBooleanOI(OIs[2])) {
                 throw new UDFArgumentTypeException(2,
                     "Only boolean type argument is acceptable but " + OIs[2].getTypeName()
@@ -82,7 +103,15 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             }
         }
 
-        return new BuildBinsUDAFEvaluator();
+        return new BuildBinsUDAFEvaluator(seed);
+    }
+
+    private static long getSeed(@Nonnull final String optionValue) throws UDFArgumentException {
+        Options opts = new Options();
+        opts.addOption("seed", true,
+            "Seed value of a random number generator to choose items of the sketch to be kept");
+        CommandLine cl = CommandLineUtils.parseOptions(optionValue.split("\\s+"), opts);
+        return Primitives.parseLong(cl.getOptionValue("seed"), KLLSketch.DEFAULT_SEED);
     }
 
     private static class BuildBinsUDAFEvaluator extends GenericUDAFEvaluator {
@@ -91,29 +120,37 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
 
         // PARTIAL2 and FINAL
         private StructObjectInspector structOI;
-        private StructField autoShrinkField, histogramField, quantilesField;
+        private StructField autoShrinkField, sketchField, quantilesField;
         private BooleanObjectInspector autoShrinkOI;
-        private StandardListObjectInspector histogramOI;
-        private DoubleObjectInspector histogramElOI;
+        private BinaryObjectInspector sketchOI;
         private StandardListObjectInspector quantilesOI;
         private DoubleObjectInspector quantileOI;
 
-        private int nBGBins = 10000; // # of bins for creating histogram (background bins)
         private int nBins; // # of bins for result
         private boolean autoShrink = false; // default: false
         private double[] quantiles; // for reset
+        private long seed = KLLSketch.DEFAULT_SEED;
+        /** the number of sketches created by this evaluator, by which each sketch is seeded */
+        private long numSketches = 0L;
+
+        BuildBinsUDAFEvaluator() {} // for serialization
+
+        BuildBinsUDAFEvaluator(long seed) {
+            super();
+            this.seed = seed;
+        }
 
         @AggregationType(estimable = true)
         static final class BuildBinsAggregationBuffer extends AbstractAggregationBuffer {
             boolean autoShrink;
-            NumericHistogram histogram; // histogram used for quantile approximation
+            KLLSketch sketch; // sketch used for quantile approximation
             double[] quantiles; // the quantiles requested
 
             BuildBinsAggregationBuffer() {}
 
             @Override
             public int estimate() {
-                return (histogram != null ? histogram.lengthFor() : 0) // histogram
+                return (sketch != null ? 8 * sketch.getNumRetained() : 0) // sketch
                         + 20 + 8 * (quantiles != null ? quantiles.length : 0) // quantiles
                         + 4; // autoShrink
             }
@@ -128,7 +165,7 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
 
                 // set const values
                 nBins = HiveUtils.getConstInt(OIs[1]);
-                if (OIs.length == 3) {
+                if (OIs.length >= 3 && HiveUtils.isBooleanOI(OIs[2])) {
                     autoShrink = HiveUtils.getConstBoolean(OIs[2]);
                 }
 
@@ -143,23 +180,22 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             } else {
                 structOI = (StructObjectInspector) OIs[0];
                 autoShrinkField = structOI.getStructFieldRef("autoShrink");
-                histogramField = structOI.getStructFieldRef("histogram");
+                sketchField = structOI.getStructFieldRef("sketch");
                 quantilesField = structOI.getStructFieldRef("quantiles");
                 autoShrinkOI = (WritableBooleanObjectInspector) autoShrinkField.getFieldObjectInspector();
-                histogramOI = (StandardListObjectInspector) histogramField.getFieldObjectInspector();
+                sketchOI = (BinaryObjectInspector) sketchField.getFieldObjectInspector();
                 quantilesOI = (StandardListObjectInspector) quantilesField.getFieldObjectInspector();
-                histogramElOI = (WritableDoubleObjectInspector) histogramOI.getListElementObjectInspector();
                 quantileOI = (WritableDoubleObjectInspector) quantilesOI.getListElementObjectInspector();
             }
 
             if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {
                 final ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
                 fieldOIs.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
-                fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
                 fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
 
                 return ObjectInspectorFactory.getStandardStructObjectInspector(
-                    Arrays.asList("autoShrink", "histogram", "quantiles"), fieldOIs);
+                    Arrays.asList("autoShrink", "sketch", "quantiles"), fieldOIs);
             } else {
                 return ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
             }
@@ -177,7 +213,6 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
         @Override
         public AbstractAggregationBuffer getNewAggregationBuffer() throws HiveException {
             final BuildBinsAggregationBuffer myAgg = new BuildBinsAggregationBuffer();
-            myAgg.histogram = new NumericHistogram();
             reset(myAgg);
             return myAgg;
         }
@@ -187,15 +222,16 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                 throws HiveException {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
             myAgg.autoShrink = autoShrink;
-            myAgg.histogram.reset();
-            myAgg.histogram.allocate(nBGBins);
+            // rank errors (about 2.3/k) are kept small relative to the width of a bin
+            myAgg.sketch = new KLLSketch(Math.max(KLLSketch.DEFAULT_K, 10 * nBins),
+                seed + numSketches++);
             myAgg.quantiles = quantiles;
         }
 
         @Override
         public void iterate(@SuppressWarnings("deprecation") AggregationBuffer agg,
                 Object[] parameters) throws HiveException {
-            Preconditions.checkArgument(parameters.length == 2 || parameters.length == 3);
+            Preconditions.checkArgument(parameters.length >= 2 && parameters.length <= 4);
 
             if (parameters[0] == null || parameters[1] == null) {
                 return;
@@ -203,7 +239,7 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
 
             // Get and process the current datum
-            myAgg.histogram.add(PrimitiveObjectInspectorUtils.getDouble(parameters[0], weightOI));
+            myAgg.sketch.update(PrimitiveObjectInspectorUtils.getDouble(parameters[0], weightOI));
         }
 
         @Override
@@ -217,9 +253,15 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
 
             myAgg.autoShrink = autoShrinkOI.get(structOI.getStructFieldData(other, autoShrinkField));
 
-            final List<?> histogram = ((LazyBinaryArray) structOI.getStructFieldData(other,
-                histogramField)).getList();
-            myAgg.histogram.merge(histogram, histogramElOI);
+            final BytesWritable b = sketchOI.getPrimitiveWritableObject(structOI.getStructFieldData(
+                other, sketchField));
+            final KLLSketch sketch = KLLSketch.deserialize(b.getBytes(), 0, b.getLength(),
+                seed + numSketches++);
+            if (myAgg.sketch.isEmpty()) {
+                myAgg.sketch = sketch; // keep k of the partial aggregation
+            } else {
+                myAgg.sketch.merge(sketch);
+            }
 
             final double[] quantiles = HiveUtils.asDoubleArray(
                 structOI.getStructFieldData(other, quantilesField), quantilesOI, quantileOI);
@@ -234,7 +276,7 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
             final Object[] partialResult = new Object[3];
             partialResult[0] = new BooleanWritable(myAgg.autoShrink);
-            partialResult[1] = myAgg.histogram.serialize();
+            partialResult[1] = new BytesWritable(myAgg.sketch.serialize());
             partialResult[2] = (myAgg.quantiles != null) ? WritableUtils.toWritableList(myAgg.quantiles)
                     : Collections.singletonList(new DoubleWritable(0));
             return partialResult;
@@ -245,7 +287,7 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                 throws HiveException {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
 
-            if (myAgg.histogram.getUsedBins() < 1) { // SQL standard - return null for zero elements
+            if (myAgg.sketch.isEmpty()) { // SQL standard - return null for zero elements
                 return null;
             } else {
                 Preconditions.checkNotNull(myAgg.quantiles);
@@ -255,8 +297,9 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                 double prev = Double.NEGATIVE_INFINITY;
 
                 result.add(new DoubleWritable(Double.NEGATIVE_INFINITY));
-                for (int i = 0; i < myAgg.quantiles.length; i++) {
-                    final double val = myAgg.histogram.quantile(myAgg.quantiles[i]);
+                final double[] values = myAgg.sketch.quantiles(myAgg.quantiles);
+                for (int i = 0; i < values.length; i++) {
+                    final double val = values[i];
 
                     // check duplication
                     if (prev == val) {
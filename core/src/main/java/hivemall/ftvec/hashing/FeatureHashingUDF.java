@@ -24,9 +24,12 @@ import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hashing.MurmurHash3;
 import hivemall.utils.lang.Primitives;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -42,20 +45,40 @@ import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 
 @Description(name = "feature_hashing",
         value = "_FUNC_(array<string> features [, const string options])"
-                + " - returns a hashed feature vector in array<string>")
+                + " - returns a hashed feature vector in array<string>, or in array<int> with -indices"
+                + " and map<int,float> with -map")
 @UDFType(deterministic = true, stateful = false)
 public final class FeatureHashingUDF extends UDFWithOptions {
 
     @Nullable
     private ListObjectInspector _listOI;
+    /** Set when features are given as Text and can be hashed on their UTF-8 bytes */
+    @Nullable
+    private StringObjectInspector _textOI;
     private int _numFeatures = MurmurHash3.DEFAULT_NUM_FEATURES;
+    private boolean _indices = false;
+    private boolean _map = false;
 
+    // reused output objects
+    @Nullable
+    private List<Object> _returnObj;
     @Nullable
-    private List<Text> _returnObj;
+    private Map<IntWritable, FloatWritable> _returnMap;
+    @Nonnull
+    private final List<Text> _texts = new ArrayList<Text>();
+    @Nonnull
+    private final List<IntWritable> _ints = new ArrayList<IntWritable>();
+    @Nonnull
+    private final List<FloatWritable> _floats = new ArrayList<FloatWritable>();
+    @Nonnull
+    private final byte[] _digits = new byte[11];
 
     public FeatureHashingUDF() {}
 
@@ -69,6 +92,10 @@ public final class FeatureHashingUDF extends UDFWithOptions {
         Options opts = new Options();
         opts.addOption("features", "num_features", true,
             "The number of features [default: 16777217 (2^24)]");
+        opts.addOption("indices", false,
+            "Returns hashed feature indices in array<int>, ignoring feature values");
+        opts.addOption("map", false,
+            "Returns a map<int,float> of hashed feature indices and summed feature values");
         return opts;
     }
 
@@ -77,6 +104,11 @@ public final class FeatureHashingUDF extends UDFWithOptions {
         CommandLine cl = parseOptions(optionValue);
 
         this._numFeatures = Primitives.parseInt(cl.getOptionValue("num_features"), _numFeatures);
+        this._indices = cl.hasOption("indices");
+        this._map = cl.hasOption("map");
+        if (_indices && _map) {
+            throw new UDFArgumentException("-indices and -map cannot be specified together");
+        }
         return cl;
     }
 
@@ -89,16 +121,35 @@ public final class FeatureHashingUDF extends UDFWithOptions {
         }
         ObjectInspector argOI0 = argOIs[0];
         this._listOI = HiveUtils.isListOI(argOI0) ? (ListObjectInspector) argOI0 : null;
+        ObjectInspector featureOI = (_listOI == null) ? argOI0
+                : _listOI.getListElementObjectInspector();
+        this._textOI = null;
+        if (HiveUtils.isStringOI(featureOI)) {
+            StringObjectInspector stringOI = (StringObjectInspector) featureOI;
+            if (stringOI.preferWritable()) {
+                this._textOI = stringOI;
+            }
+        }
 
         if (argOIs.length == 2) {
             String opts = HiveUtils.getConstString(argOIs[1]);
             processOptions(opts);
         }
 
+        final ObjectInspector elemOI;
+        if (_indices) {
+            elemOI = PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+        } else if (_map) {
+            return ObjectInspectorFactory.getStandardMapObjectInspector(
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+        } else {
+            elemOI = PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+        }
         if (_listOI == null) {
-            return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+            return elemOI;
         } else {
-            return ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+            return ObjectInspectorFactory.getStandardListObjectInspector(elemOI);
         }
     }
 
@@ -109,49 +160,241 @@ public final class FeatureHashingUDF extends UDFWithOptions {
             return null;
         }
 
+        if (_map) {
+            return evaluateMap(arg0);
+        }
         if (_listOI == null) {
-            return evaluateScalar(arg0);
+            return evaluateFeature(arg0, 0);
         } else {
             return evaluateList(arg0);
         }
     }
 
     @Nonnull
-    private Text evaluateScalar(@Nonnull final Object arg0) {
-        String fv = arg0.toString();
-        return new Text(featureHashing(fv, _numFeatures));
-    }
-
-    @Nonnull
-    private List<Text> evaluateList(@Nonnull final Object arg0) {
+    private List<Object> evaluateList(@Nonnull final Object arg0) throws HiveException {
         final int len = _listOI.getListLength(arg0);
-        List<Text> list = _returnObj;
+        List<Object> list = _returnObj;
         if (list == null) {
-            list = new ArrayList<Text>(len);
+            list = new ArrayList<Object>(len);
             this._returnObj = list;
         } else {
             list.clear();
         }
 
-        final int numFeatures = _numFeatures;
         for (int i = 0; i < len; i++) {
             Object obj = _listOI.getListElement(arg0, i);
             if (obj == null) {
                 continue;
             }
-            String fv = obj.toString();
-            Text t = new Text(featureHashing(fv, numFeatures));
-            list.add(t);
+            list.add(evaluateFeature(obj, list.size()));
         }
 
         return list;
     }
 
+    /**
+     * Hashes a feature into the i-th reused output object.
+     */
+    @Nonnull
+    private Object evaluateFeature(@Nonnull final Object obj, final int i) throws HiveException {
+        if (_indices) {
+            final int h;
+            if (_textOI == null) {
+                h = featureIndex(obj.toString(), _numFeatures);
+            } else {
+                Text t = _textOI.getPrimitiveWritableObject(obj);
+                h = featureIndex(t.getBytes(), 0, t.getLength(), _numFeatures);
+            }
+            IntWritable ret = intWritable(i);
+            ret.set(h);
+            return ret;
+        }
+
+        Text ret = text(i);
+        if (_textOI == null) {
+            ret.set(featureHashing(obj.toString(), _numFeatures));
+        } else {
+            featureHashing(_textOI.getPrimitiveWritableObject(obj), _numFeatures, ret, _digits);
+        }
+        return ret;
+    }
+
+    @Nonnull
+    private Map<IntWritable, FloatWritable> evaluateMap(@Nonnull final Object arg0)
+            throws HiveException {
+        Map<IntWritable, FloatWritable> map = _returnMap;
+        if (map == null) {
+            map = new HashMap<IntWritable, FloatWritable>();
+            this._returnMap = map;
+        } else {
+            map.clear();
+        }
+
+        if (_listOI == null) {
+            putFeature(arg0, map);
+        } else {
+            final int len = _listOI.getListLength(arg0);
+            for (int i = 0; i < len; i++) {
+                Object obj = _listOI.getListElement(arg0, i);
+                if (obj == null) {
+                    continue;
+                }
+                putFeature(obj, map);
+            }
+        }
+        return map;
+    }
+
+    private void putFeature(@Nonnull final Object obj,
+            @Nonnull final Map<IntWritable, FloatWritable> map) throws HiveException {
+        final int h;
+        final float v;
+        if (_textOI == null) {
+            String fv = obj.toString();
+            h = featureIndex(fv, _numFeatures);
+            v = featureValue(fv);
+        } else {
+            Text t = _textOI.getPrimitiveWritableObject(obj);
+            byte[] b = t.getBytes();
+            int len = t.getLength();
+            h = featureIndex(b, 0, len, _numFeatures);
+            v = featureValue(b, 0, len);
+        }
+
+        // keys in the map are not modified until the map is cleared
+        final int size = map.size();
+        IntWritable key = intWritable(size);
+        key.set(h);
+        FloatWritable value = map.get(key);
+        if (value == null) {
+            value = floatWritable(size);
+            value.set(v);
+            map.put(key, value);
+        } else {
+            value.set(value.get() + v);
+        }
+    }
+
+    @Nonnull
+    private Text text(final int i) {
+        if (i < _texts.size()) {
+            return _texts.get(i);
+        }
+        Text t = new Text();
+        _texts.add(t);
+        return t;
+    }
+
+    @Nonnull
+    private IntWritable intWritable(final int i) {
+        if (i < _ints.size()) {
+            return _ints.get(i);
+        }
+        IntWritable w = new IntWritable();
+        _ints.add(w);
+        return w;
+    }
+
+    @Nonnull
+    private FloatWritable floatWritable(final int i) {
+        if (i < _floats.size()) {
+            return _floats.get(i);
+        }
+        FloatWritable w = new FloatWritable();
+        _floats.add(w);
+        return w;
+    }
+
+    /**
+     * Byte-level version of {@link #featureHashing(String, int)} that hashes the UTF-8 bytes of
+     * the feature name in place and writes the hashed feature to <code>out</code>.
+     *
+     * @param digits a buffer of at least 11 bytes to format a hash value
+     */
+    static void featureHashing(@Nonnull final Text in, final int numFeatures,
+            @Nonnull final Text out, @Nonnull final byte[] digits) {
+        final byte[] b = in.getBytes();
+        final int len = in.getLength();
+        final int headPos = indexOf(b, 0, len, (byte) ':');
+        out.clear();
+        if (headPos == -1) {
+            if (isBiasFeature(b, 0, len, headPos)) {
+                out.append(b, 0, len);
+                return;
+            }
+            int h = mhash(b, 0, len, numFeatures);
+            appendInt(out, h, digits);
+        } else {
+            final int tailPos = lastIndexOf(b, 0, len, (byte) ':');
+            if (headPos == tailPos) {
+                if (isBiasFeature(b, 0, len, headPos)) {
+                    out.append(b, 0, len);
+                    return;
+                }
+                int h = mhash(b, 0, headPos, numFeatures);
+                appendInt(out, h, digits);
+                out.append(b, headPos, len - headPos);
+            } else {
+                out.append(b, 0, headPos + 1); // field
+                int h = mhash(b, headPos + 1, tailPos - headPos - 1, numFeatures);
+                appendInt(out, h, digits);
+                out.append(b, tailPos, len - tailPos);
+            }
+        }
+    }
+
+    /**
+     * Returns the hashed index of a <code>feature[:value]</code> or 0 for the bias clause. As in
+     * {@link #featureHashing(String, int)}, <code>0:v</code> is the bias clause only if v is 1.
+     */
+    static int featureIndex(@Nonnull final String fv, final int numFeatures)
+            throws HiveException {
+        final int pos = fv.indexOf(':');
+        if (pos != -1 && fv.indexOf(':', pos + 1) != -1) {
+            throw new HiveException("Field-aware features are not supported: " + fv);
+        }
+        if (isBiasFeature(fv, pos)) {
+            return HivemallConstants.BIAS_CLAUSE_HASHVAL;
+        }
+        final String f = (pos == -1) ? fv : fv.substring(0, pos);
+        return mhash(f, numFeatures);
+    }
+
+    static int featureIndex(@Nonnull final byte[] b, final int off, final int len,
+            final int numFeatures) throws HiveException {
+        int pos = indexOf(b, off, len, (byte) ':');
+        if (pos != -1 && pos != lastIndexOf(b, off, len, (byte) ':')) {
+            throw new HiveException("Field-aware features are not supported: "
+                    + decode(b, off, len));
+        }
+        if (isBiasFeature(b, off, len, pos)) {
+            return HivemallConstants.BIAS_CLAUSE_HASHVAL;
+        }
+        final int flen = (pos == -1) ? len : pos - off;
+        return mhash(b, off, flen, numFeatures);
+    }
+
+    static float featureValue(@Nonnull final String fv) {
+        final int pos = fv.indexOf(':');
+        if (pos == -1) {
+            return 1.f;
+        }
+        return Float.parseFloat(fv.substring(pos + 1));
+    }
+
+    static float featureValue(@Nonnull final byte[] b, final int off, final int len) {
+        final int pos = indexOf(b, off, len, (byte) ':');
+        if (pos == -1) {
+            return 1.f;
+        }
+        return Float.parseFloat(decode(b, pos + 1, off + len - pos - 1));
+    }
+
     @Nonnull
     static String featureHashing(@Nonnull final String fv, final int numFeatures) {
         final int headPos = fv.indexOf(':');
         if (headPos == -1) {
-            if (fv.equals(HivemallConstants.BIAS_CLAUSE)) {
+            if (isBiasFeature(fv, headPos)) {
                 return fv;
             }
             int h = mhash(fv, numFeatures);
@@ -159,15 +402,11 @@ public final class FeatureHashingUDF extends UDFWithOptions {
         } else {
             final int tailPos = fv.lastIndexOf(':');
             if (headPos == tailPos) {
+                if (isBiasFeature(fv, headPos)) {
+                    return fv;
+                }
                 String f = fv.substring(0, headPos);
                 String tail = fv.substring(headPos);
-                if (f.equals(HivemallConstants.BIAS_CLAUSE)) {
-                    String v = fv.substring(headPos + 1);
-                    double d = Double.parseDouble(v);
-                    if (d == 1.d) {
-                        return fv;
-                    }
-                }
                 int h = mhash(f, numFeatures);
                 return h + tail;
             } else {
@@ -188,4 +427,82 @@ public final class FeatureHashingUDF extends UDFWithOptions {
         return r + 1;
     }
 
+    /**
+     * Returns the same value as {@link #mhash(String, int)} for UTF-8 bytes.
+     */
+    static int mhash(@Nonnull final byte[] b, final int off, final int len,
+            final int numFeatures) {
+        int r = MurmurHash3.murmurhash3_x86_32(b, off, len, 0x9747b28c) % numFeatures;
+        if (r < 0) {
+            r += numFeatures;
+        }
+        return r + 1;
+    }
+
+    /**
+     * Returns true if a non-field-aware feature is the bias clause, i.e., <code>0</code> or
+     * <code>0:1</code>; other values of <code>0</code> are hashed as a usual feature.
+     *
+     * @param pos the position of ':' in the feature, or -1 if the feature has no value
+     */
+    private static boolean isBiasFeature(@Nonnull final String fv, final int pos) {
+        if (pos == -1) {
+            return fv.equals(HivemallConstants.BIAS_CLAUSE);
+        }
+        if (pos != HivemallConstants.BIAS_CLAUSE.length()
+                || !fv.startsWith(HivemallConstants.BIAS_CLAUSE)) {
+            return false;
+        }
+        return Double.parseDouble(fv.substring(pos + 1)) == 1.d;
+    }
+
+    private static boolean isBiasFeature(@Nonnull final byte[] b, final int off, final int len,
+            final int pos) {
+        if (pos == -1) {
+            return len == 1 && b[off] == '0';
+        }
+        if (pos - off != 1 || b[off] != '0') {
+            return false;
+        }
+        return Double.parseDouble(decode(b, pos + 1, off + len - pos - 1)) == 1.d;
+    }
+
+    private static int indexOf(@Nonnull final byte[] b, final int off, final int len,
+            final byte c) {
+        for (int i = off, end = off + len; i < end; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(@Nonnull final byte[] b, final int off, final int len,
+            final byte c) {
+        for (int i = off + len - 1; i >= off; i--) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Nonnull
+    private static String decode(@Nonnull final byte[] b, final int off, final int len) {
+        return new String(b, off, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the decimal representation of a non-negative int.
+     */
+    private static void appendInt(@Nonnull final Text out, int v, @Nonnull final byte[] digits) {
+        assert (v >= 0) : v;
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        out.append(digits, pos, digits.length - pos);
+    }
+
 }
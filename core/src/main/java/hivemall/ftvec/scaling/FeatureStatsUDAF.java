@@ -0,0 +1,427 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.scaling;
+
+import hivemall.utils.collections.maps.Bytes2IntOpenHashTable;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.FastByteArrayOutputStream;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Computes count, min, max, mean, and population variance of each feature in one pass. Features
+ * are either columns of <code>array&lt;number&gt;</code>, keyed by their indices, or
+ * <code>feature:value</code> strings. Means and variances are updated by Welford's method as in
+ * {@link hivemall.common.OnlineVariance} and partial aggregations are combined by the parallel
+ * algorithm of Chan et al.
+ */
+@Description(name = "feature_stats",
+        value = "_FUNC_(array<number>|array<string> features)"
+                + " - Returns map<string, array<double>> of [count, min, max, mean, variance]"
+                + " for each feature")
+public final class FeatureStatsUDAF extends AbstractGenericUDAFResolver {
+
+    public static final int COUNT = 0, MIN = 1, MAX = 2, MEAN = 3, VARIANCE = 4;
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] typeInfo) throws SemanticException {
+        if (typeInfo.length != 1) {
+            throw new UDFArgumentTypeException(typeInfo.length - 1,
+                "Exactly one argument is expected");
+        }
+        if (!HiveUtils.isListTypeInfo(typeInfo[0])) {
+            throw new UDFArgumentTypeException(0,
+                "_FUNC_(array<number>|array<string> features) is expected: " + typeInfo[0]);
+        }
+        TypeInfo elemType = ((ListTypeInfo) typeInfo[0]).getListElementTypeInfo();
+        if (!HiveUtils.isNumberTypeInfo(elemType) && !HiveUtils.isStringTypeInfo(elemType)) {
+            throw new UDFArgumentTypeException(0,
+                "_FUNC_(array<number>|array<string> features) is expected: " + typeInfo[0]);
+        }
+        return new Evaluator();
+    }
+
+    public static class Evaluator extends GenericUDAFEvaluator {
+
+        private ListObjectInspector featuresOI;
+        private PrimitiveObjectInspector featureOI;
+        private boolean named;
+        private BinaryObjectInspector mergeOI;
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] argOIs) throws HiveException {
+            super.init(mode, argOIs);
+
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                this.featuresOI = HiveUtils.asListOI(argOIs[0]);
+                this.featureOI = HiveUtils.asPrimitiveObjectInspector(featuresOI.getListElementObjectInspector());
+                this.named = HiveUtils.isStringOI(featureOI);
+            } else {// from partial aggregation
+                this.mergeOI = (BinaryObjectInspector) argOIs[0];
+            }
+
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            } else {// terminate
+                outputOI = ObjectInspectorFactory.getStandardMapObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                    ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+            }
+            return outputOI;
+        }
+
+        @Override
+        public StatsBuffer getNewAggregationBuffer() throws HiveException {
+            StatsBuffer buf = new StatsBuffer();
+            reset(buf);
+            return buf;
+        }
+
+        @Override
+        public void reset(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            ((StatsBuffer) agg).reset();
+        }
+
+        @Override
+        public void iterate(@SuppressWarnings("deprecation") AggregationBuffer agg,
+                Object[] parameters) throws HiveException {
+            final Object arg0 = parameters[0];
+            if (arg0 == null) {
+                return;
+            }
+            final StatsBuffer buf = (StatsBuffer) agg;
+            final int size = featuresOI.getListLength(arg0);
+            if (named) {
+                buf.setNamed(true);
+                for (int i = 0; i < size; i++) {
+                    Object o = featuresOI.getListElement(arg0, i);
+                    if (o == null) {
+                        continue;
+                    }
+                    String s = PrimitiveObjectInspectorUtils.getString(o, featureOI);
+                    final int pos = s.indexOf(':');
+                    if (pos == 0) {
+                        throw new HiveException("Invalid feature value representation: " + s);
+                    }
+                    final byte[] name;
+                    final double value;
+                    if (pos > 0) {
+                        name = s.substring(0, pos).getBytes(StandardCharsets.UTF_8);
+                        try {
+                            value = Double.parseDouble(s.substring(pos + 1));
+                        } catch (NumberFormatException e) {
+                            throw new HiveException("Invalid feature value representation: " + s,
+                                e);
+                        }
+                    } else {
+                        name = s.getBytes(StandardCharsets.UTF_8);
+                        value = 1.d;
+                    }
+                    buf.update(buf.column(name, 0, name.length), value);
+                }
+            } else {
+                buf.setNamed(false);
+                for (int i = 0; i < size; i++) {
+                    Object o = featuresOI.getListElement(arg0, i);
+                    if (o == null) {
+                        continue;
+                    }
+                    buf.update(i, PrimitiveObjectInspectorUtils.getDouble(o, featureOI));
+                }
+            }
+        }
+
+        @Override
+        public BytesWritable terminatePartial(
+                @SuppressWarnings("deprecation") AggregationBuffer agg) throws HiveException {
+            StatsBuffer buf = (StatsBuffer) agg;
+            if (buf.numColumns == 0) {
+                return null;
+            }
+            try {
+                return new BytesWritable(buf.serialize());
+            } catch (IOException e) {
+                throw new HiveException("Failed to serialize feature stats", e);
+            }
+        }
+
+        @Override
+        public void merge(@SuppressWarnings("deprecation") AggregationBuffer agg, Object other)
+                throws HiveException {
+            if (other == null) {
+                return;
+            }
+            BytesWritable b = mergeOI.getPrimitiveWritableObject(other);
+            try {
+                ((StatsBuffer) agg).merge(b.getBytes(), b.getLength());
+            } catch (BufferUnderflowException e) {
+                throw new HiveException("Feature stats are truncated", e);
+            }
+        }
+
+        @Override
+        public Map<Text, List<DoubleWritable>> terminate(
+                @SuppressWarnings("deprecation") AggregationBuffer agg) throws HiveException {
+            final StatsBuffer buf = (StatsBuffer) agg;
+            final int numColumns = buf.numColumns;
+            if (numColumns == 0) {
+                return null;
+            }
+            final Map<Text, List<DoubleWritable>> result = new HashMap<Text, List<DoubleWritable>>(
+                (int) (numColumns / 0.75f) + 1);
+            byte[] name = new byte[16];
+            for (int col = 0; col < numColumns; col++) {
+                final long n = buf.counts[col];
+                if (n == 0L) {
+                    continue;
+                }
+                final Text key = new Text();
+                if (buf.names == null) {
+                    key.set(Integer.toString(col));
+                } else {
+                    int len = buf.names.getKeyLength(col);
+                    if (len > name.length) {
+                        name = new byte[Math.max(len, name.length * 2)];
+                    }
+                    buf.names.getKey(col, name, 0);
+                    key.set(name, 0, len);
+                }
+                result.put(key, Arrays.asList(new DoubleWritable(n), new DoubleWritable(
+                    buf.mins[col]), new DoubleWritable(buf.maxs[col]), new DoubleWritable(
+                    buf.means[col]), new DoubleWritable(buf.m2s[col] / n)));
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Statistics of columns in primitive arrays.
+     */
+    static final class StatsBuffer extends AbstractAggregationBuffer {
+
+        /** feature names where the i-th entry is the i-th column, or null for indexed columns */
+        @Nullable
+        Bytes2IntOpenHashTable names;
+        boolean namedSet;
+
+        int numColumns;
+        long[] counts;
+        double[] mins, maxs, means, m2s;
+
+        StatsBuffer() {
+            super();
+        }
+
+        void reset() {
+            this.names = null;
+            this.namedSet = false;
+            this.numColumns = 0;
+            this.counts = new long[0];
+            this.mins = new double[0];
+            this.maxs = new double[0];
+            this.means = new double[0];
+            this.m2s = new double[0];
+        }
+
+        void setNamed(final boolean named) throws HiveException {
+            if (namedSet) {
+                if (named != (names != null)) {
+                    throw new HiveException(
+                        "Indexed features and named features cannot be aggregated together");
+                }
+                return;
+            }
+            if (named) {
+                this.names = new Bytes2IntOpenHashTable(256);
+            }
+            this.namedSet = true;
+        }
+
+        int column(@Nonnull final byte[] name, final int offset, final int length) {
+            final Bytes2IntOpenHashTable names = this.names;
+            assert (names != null);
+            int col = names.find(name, offset, length);
+            if (col == -1) {
+                names.addTo(name, offset, length, 0);
+                col = names.size() - 1;
+            }
+            return col;
+        }
+
+        void update(final int col, final double x) {
+            if (Double.isNaN(x)) {
+                return;
+            }
+            ensureColumns(col + 1);
+            final long n = ++counts[col];
+            if (n == 1L) {
+                mins[col] = x;
+                maxs[col] = x;
+            } else {
+                if (x < mins[col]) {
+                    mins[col] = x;
+                }
+                if (x > maxs[col]) {
+                    maxs[col] = x;
+                }
+            }
+            final double delta = x - means[col];
+            means[col] += delta / n;
+            m2s[col] += delta * (x - means[col]);
+        }
+
+        void merge(final int col, final long n, final double min, final double max,
+                final double mean, final double m2) {
+            if (n == 0L) {
+                return;
+            }
+            ensureColumns(col + 1);
+            final long na = counts[col];
+            if (na == 0L) {
+                counts[col] = n;
+                mins[col] = min;
+                maxs[col] = max;
+                means[col] = mean;
+                m2s[col] = m2;
+                return;
+            }
+            final long total = na + n;
+            final double delta = mean - means[col];
+            counts[col] = total;
+            mins[col] = Math.min(mins[col], min);
+            maxs[col] = Math.max(maxs[col], max);
+            means[col] += delta * n / total;
+            m2s[col] += m2 + delta * delta * ((double) na * n / total);
+        }
+
+        private void ensureColumns(final int required) {
+            if (required > counts.length) {
+                int newLength = Math.max(required, counts.length * 2);
+                this.counts = Arrays.copyOf(counts, newLength);
+                this.mins = Arrays.copyOf(mins, newLength);
+                this.maxs = Arrays.copyOf(maxs, newLength);
+                this.means = Arrays.copyOf(means, newLength);
+                this.m2s = Arrays.copyOf(m2s, newLength);
+            }
+            if (required > numColumns) {
+                this.numColumns = required;
+            }
+        }
+
+        /**
+         * Serializes columns into
+         * <code>boolean named, int n, n columns of ([int length, byte[] name], long count, double min, double max, double mean, double m2)</code>
+         * .
+         */
+        @Nonnull
+        byte[] serialize() throws IOException {
+            final int numColumns = this.numColumns;
+            final Bytes2IntOpenHashTable names = this.names;
+            final FastByteArrayOutputStream bos = new FastByteArrayOutputStream(5 + numColumns
+                    * 40 + (names == null ? 0 : names.keyBytes() + numColumns * 4));
+            final DataOutputStream out = new DataOutputStream(bos);
+            out.writeBoolean(names != null);
+            out.writeInt(numColumns);
+            byte[] name = new byte[16];
+            for (int col = 0; col < numColumns; col++) {
+                if (names != null) {
+                    int len = names.getKeyLength(col);
+                    if (len > name.length) {
+                        name = new byte[Math.max(len, name.length * 2)];
+                    }
+                    names.getKey(col, name, 0);
+                    out.writeInt(len);
+                    out.write(name, 0, len);
+                }
+                out.writeLong(counts[col]);
+                out.writeDouble(mins[col]);
+                out.writeDouble(maxs[col]);
+                out.writeDouble(means[col]);
+                out.writeDouble(m2s[col]);
+            }
+            out.flush();
+            return bos.toByteArray();
+        }
+
+        void merge(@Nonnull final byte[] b, final int length) throws HiveException {
+            final ByteBuffer buf = ByteBuffer.wrap(b, 0, length);
+            final boolean named = buf.get() != 0;
+            setNamed(named);
+            final int numColumns = buf.getInt();
+            for (int i = 0; i < numColumns; i++) {
+                final int col;
+                if (named) {
+                    int len = buf.getInt();
+                    int pos = buf.position();
+                    if (pos + len > length) {
+                        throw new BufferUnderflowException();
+                    }
+                    col = column(b, pos, len);
+                    buf.position(pos + len);
+                } else {
+                    col = i;
+                }
+                long n = buf.getLong();
+                double min = buf.getDouble();
+                double max = buf.getDouble();
+                double mean = buf.getDouble();
+                double m2 = buf.getDouble();
+                merge(col, n, min, max, mean, m2);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.scaling;
+
+import hivemall.UDFWithOptions;
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFType;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Standardizes features by the statistics of {@link FeatureStatsUDAF}.
+ */
+@Description(name = "standardize",
+        value = "_FUNC_(array<number>|array<string> features, map<string, array<double>> stats"
+                + " [, const string options]) - Returns features standardized by zscore (default)"
+                + " or min-max normalization in array<float> or array<string>")
+@UDFType(deterministic = true, stateful = false)
+public final class StandardizeUDF extends UDFWithOptions {
+
+    private ListObjectInspector featuresOI;
+    private PrimitiveObjectInspector featureOI;
+    private boolean named;
+    private MapObjectInspector statsOI;
+    private PrimitiveObjectInspector statsKeyOI;
+    private ListObjectInspector statsValueOI;
+    private PrimitiveObjectInspector statsElemOI;
+
+    private boolean minmax = false;
+
+    /** set when the stats are a constant */
+    @Nullable
+    private Map<String, double[]> constStats;
+
+    // reused objects
+    @Nonnull
+    private final Map<String, double[]> stats = new HashMap<String, double[]>();
+    @Nonnull
+    private final List<Object> result = new ArrayList<Object>();
+
+    public StandardizeUDF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("minmax", false,
+            "Use min-max normalization instead of zscore [default: false]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(@Nonnull String optionValue) throws UDFArgumentException {
+        CommandLine cl = parseOptions(optionValue);
+        this.minmax = cl.hasOption("minmax");
+        return cl;
+    }
+
+    @Override
+    public ObjectInspector initialize(@Nonnull ObjectInspector[] argOIs)
+            throws UDFArgumentException {
+        if (argOIs.length != 2 && argOIs.length != 3) {
+            throw new UDFArgumentLengthException(
+                "The standardize function takes 2 or 3 arguments: " + argOIs.length);
+        }
+        this.featuresOI = HiveUtils.asListOI(argOIs[0]);
+        this.featureOI = HiveUtils.asPrimitiveObjectInspector(featuresOI.getListElementObjectInspector());
+        this.named = HiveUtils.isStringOI(featureOI);
+        if (!named && !HiveUtils.isNumberOI(featureOI)) {
+            throw new UDFArgumentException("array<number> or array<string> is expected: "
+                    + argOIs[0].getTypeName());
+        }
+        this.statsOI = HiveUtils.asMapOI(argOIs[1]);
+        this.statsKeyOI = HiveUtils.asPrimitiveObjectInspector(statsOI.getMapKeyObjectInspector());
+        this.statsValueOI = HiveUtils.asListOI(statsOI.getMapValueObjectInspector());
+        this.statsElemOI = HiveUtils.asDoubleCompatibleOI(statsValueOI.getListElementObjectInspector());
+
+        if (argOIs.length == 3) {
+            processOptions(HiveUtils.getConstString(argOIs[2]));
+        }
+
+        if (ObjectInspectorUtils.isConstantObjectInspector(argOIs[1])) {
+            Object constValue = ObjectInspectorUtils.getWritableConstantValue(argOIs[1]);
+            if (constValue != null) {
+                Map<String, double[]> m = new HashMap<String, double[]>();
+                parseStats(constValue, m);
+                this.constStats = m;
+            }
+        }
+
+        if (named) {
+            return ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+        } else {
+            return ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+        }
+    }
+
+    @Override
+    public List<Object> evaluate(@Nonnull DeferredObject[] arguments) throws HiveException {
+        final Object arg0 = arguments[0].get();
+        if (arg0 == null) {
+            return null;
+        }
+        Map<String, double[]> stats = constStats;
+        if (stats == null) {
+            Object arg1 = arguments[1].get();
+            if (arg1 == null) {
+                throw new HiveException("stats should not be null");
+            }
+            // Hive may reuse a row object with different contents, so the stats are parsed for
+            // each row unless they are a constant
+            stats = this.stats;
+            parseStats(arg1, stats);
+        }
+
+        final List<Object> result = this.result;
+        result.clear();
+        final int size = featuresOI.getListLength(arg0);
+        for (int i = 0; i < size; i++) {
+            Object o = featuresOI.getListElement(arg0, i);
+            if (o == null) {
+                result.add(null);
+                continue;
+            }
+            if (named) {
+                String s = PrimitiveObjectInspectorUtils.getString(o, featureOI);
+                final int pos = s.indexOf(':');
+                if (pos == 0) {
+                    throw new HiveException("Invalid feature value representation: " + s);
+                }
+                // a bare feature name has value 1.0 as in feature_stats
+                String f = (pos > 0) ? s.substring(0, pos) : s;
+                double[] st = stats.get(f);
+                if (st == null) {
+                    result.add(new Text(s));
+                    continue;
+                }
+                final double v;
+                if (pos > 0) {
+                    try {
+                        v = Double.parseDouble(s.substring(pos + 1));
+                    } catch (NumberFormatException e) {
+                        throw new HiveException("Invalid feature value representation: " + s, e);
+                    }
+                } else {
+                    v = 1.d;
+                }
+                result.add(new Text(f + ':' + scale(v, st)));
+            } else {
+                double v = PrimitiveObjectInspectorUtils.getDouble(o, featureOI);
+                double[] st = stats.get(Integer.toString(i));
+                result.add(new FloatWritable((st == null) ? (float) v : scale(v, st)));
+            }
+        }
+        return result;
+    }
+
+    private float scale(final double value, @Nonnull final double[] st) throws HiveException {
+        if (minmax) {
+            final double min = st[FeatureStatsUDAF.MIN], max = st[FeatureStatsUDAF.MAX];
+            if (min == max) {
+                return 0.5f;
+            }
+            if (value < min) {
+                return 0.f;
+            }
+            if (value > max) {
+                return 1.f;
+            }
+            return (float) ((value - min) / (max - min));
+        } else {
+            final double stddev = Math.sqrt(st[FeatureStatsUDAF.VARIANCE]);
+            if (stddev == 0.d) {
+                return 0.f;
+            }
+            return (float) ((value - st[FeatureStatsUDAF.MEAN]) / stddev);
+        }
+    }
+
+    private void parseStats(@Nonnull final Object statsObj, @Nonnull final Map<String, double[]> dst)
+            throws UDFArgumentException {
+        dst.clear();
+        final Map<?, ?> map = statsOI.getMap(statsObj);
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            Object k = e.getKey();
+            if (k == null) {
+                continue;
+            }
+            double[] st = HiveUtils.asDoubleArray(e.getValue(), statsValueOI, statsElemOI);
+            if (st == null || st.length <= FeatureStatsUDAF.VARIANCE) {
+                throw new UDFArgumentException("Invalid stats of `" + k + "`: "
+                        + Arrays.toString(st));
+            }
+            dst.put(PrimitiveObjectInspectorUtils.getString(k, statsKeyOI), st);
+        }
+    }
+
+    @Override
+    public String getDisplayString(String[] children) {
+        return "standardize(" + Arrays.toString(children) + ')';
+    }
+
+}
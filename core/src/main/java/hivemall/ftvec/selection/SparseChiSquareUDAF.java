@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.selection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Chi-square statistics of sparse features computed in the same way as
+ * <code>chi2(transpose_and_dot(Y, X), transpose_and_dot(array_avg(Y), array_sum(X)))</code>
+ * without materializing <code>#classes x #features</code> matrices.
+ */
+@Description(name = "chi2_sparse",
+        value = "_FUNC_(array<string> features, int|array<int> label [, const int k])"
+                + " - Returns the top-k features by chi2 value as"
+                + " struct<feature:array<string>, chi2:array<double>, pvalue:array<double>>"
+                + " in descending order")
+public final class SparseChiSquareUDAF extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(GenericUDAFParameterInfo info)
+            throws SemanticException {
+        SparseFeatureSelectionEvaluator.checkArguments(info.getParameterObjectInspectors());
+        return new Evaluator();
+    }
+
+    public static final class Evaluator extends SparseFeatureSelectionEvaluator {
+
+        public Evaluator() {
+            super();
+        }
+
+        @Override
+        ObjectInspector getOutputOI() {
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+            return ObjectInspectorFactory.getStandardStructObjectInspector(
+                Arrays.asList("feature", "chi2", "pvalue"), fieldOIs);
+        }
+
+        @Override
+        void checkValue(@Nonnull Text feature, double value) throws HiveException {
+            if (value < 0.d) {
+                throw new UDFArgumentException("chi2 requires non-negative feature values: "
+                        + feature);
+            }
+        }
+
+        @Override
+        public Object[] terminate(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            final SparseClassMoments moments = (SparseClassMoments) agg;
+            final int nFeatures = moments.getNumFeatures();
+            if (nFeatures == 0) {
+                return null;
+            }
+            final int nClasses = moments.getNumClasses();
+            if (nClasses < 2) {
+                throw new HiveException("chi2 requires at least two classes: " + nClasses);
+            }
+
+            final double[] scores = chi2(moments);
+            final int[] top = SparseClassMoments.topK(scores, nFeatures,
+                (moments.k == -1) ? nFeatures : moments.k);
+            final ChiSquaredDistribution distribution = new ChiSquaredDistribution(
+                nClasses - 1.d);
+            final List<Text> features = new ArrayList<Text>(top.length);
+            final List<DoubleWritable> chi2s = new ArrayList<DoubleWritable>(top.length);
+            final List<DoubleWritable> pvalues = new ArrayList<DoubleWritable>(top.length);
+            for (int f : top) {
+                features.add(moments.getFeatureName(f, new Text()));
+                chi2s.add(new DoubleWritable(scores[f]));
+                pvalues.add(new DoubleWritable(1.d - distribution.cumulativeProbability(scores[f])));
+            }
+            return new Object[] {features, chi2s, pvalues};
+        }
+
+        /**
+         * Computes chi2 of each feature where an observed value is the sum of a feature in a
+         * class and an expected value is the sum of a feature multiplied by the class
+         * probability. NaN is set to features of which sums are zero.
+         */
+        @Nonnull
+        static double[] chi2(@Nonnull final SparseClassMoments moments) {
+            final int nClasses = moments.getNumClasses();
+            final int nFeatures = moments.getNumFeatures();
+            final double total = moments.getTotalCount();
+            final double[] classProbs = new double[nClasses];
+            for (int j = 0; j < nClasses; j++) {
+                classProbs[j] = moments.getClassCount(j) / total;
+            }
+
+            final double[] result = new double[nFeatures];
+            final double[] observed = new double[nClasses];
+            for (int i = 0; i < nFeatures; i++) {
+                double featureCount = 0.d;
+                for (int j = 0; j < nClasses; j++) {
+                    observed[j] = moments.sum(j, i);
+                    featureCount += observed[j];
+                }
+                if (featureCount <= 0.d) {
+                    result[i] = Double.NaN;
+                    continue;
+                }
+                double sumSq = 0.d;
+                for (int j = 0; j < nClasses; j++) {
+                    final double expected = classProbs[j] * featureCount;
+                    if (expected > 0.d) {
+                        final double dev = observed[j] - expected;
+                        sumSq += dev * dev / expected;
+                    }
+                }
+                result[i] = sumSq;
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.selection;
+
+import hivemall.utils.collections.maps.Bytes2IntOpenHashTable;
+import hivemall.utils.io.FastByteArrayOutputStream;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Per-class moments of sparse features. Only non-zero entries of a feature are accumulated, by
+ * Welford's method, into primitive arrays indexed by the feature id given by a
+ * {@link Bytes2IntOpenHashTable} of feature names. Absent entries are regarded as zeros and
+ * folded in when a mean or a variance is requested, using the number of rows of each class.
+ */
+final class SparseClassMoments extends AbstractAggregationBuffer {
+
+    private static final int INITIAL_FEATURES = 256;
+
+    /** the number of features to select, or -1 to select all */
+    int k;
+
+    @Nonnull
+    private Bytes2IntOpenHashTable names;
+    private int numFeatures;
+
+    private int numClasses;
+    @Nonnull
+    private long[] classCounts;
+    // shape = (#classes, #features)
+    @Nonnull
+    private long[][] counts;
+    @Nonnull
+    private double[][] means;
+    @Nonnull
+    private double[][] m2s;
+
+    SparseClassMoments() {
+        super();
+        reset();
+    }
+
+    void reset() {
+        this.k = -1;
+        this.names = new Bytes2IntOpenHashTable(INITIAL_FEATURES);
+        this.numFeatures = 0;
+        this.numClasses = 0;
+        this.classCounts = new long[0];
+        this.counts = new long[0][];
+        this.means = new double[0][];
+        this.m2s = new double[0][];
+    }
+
+    int getNumFeatures() {
+        return numFeatures;
+    }
+
+    int getNumClasses() {
+        return numClasses;
+    }
+
+    long getClassCount(final int clazz) {
+        return classCounts[clazz];
+    }
+
+    long getTotalCount() {
+        long total = 0L;
+        for (int c = 0; c < numClasses; c++) {
+            total += classCounts[c];
+        }
+        return total;
+    }
+
+    /**
+     * @return the feature id of a name, which is assigned in the order of appearance
+     */
+    int feature(@Nonnull final byte[] name, final int offset, final int length) {
+        int f = names.find(name, offset, length);
+        if (f == -1) {
+            names.addTo(name, offset, length, 0);
+            f = names.size() - 1;
+            ensureFeatures(f + 1);
+        }
+        return f;
+    }
+
+    @Nonnull
+    Text getFeatureName(final int f, @Nonnull final Text dst) {
+        byte[] b = new byte[names.getKeyLength(f)];
+        names.getKey(f, b, 0);
+        dst.set(b);
+        return dst;
+    }
+
+    /**
+     * Counts a row of a class. Must be called once for each row in addition to
+     * {@link #update(int, int, double)} of its non-zero entries.
+     *
+     * @param numClasses the number of classes known from the label, which is at least clazz + 1
+     */
+    void addRow(final int clazz, final int numClasses) {
+        ensureClasses(numClasses);
+        classCounts[clazz]++;
+    }
+
+    void update(final int clazz, final int f, final double x) {
+        final long n = ++counts[clazz][f];
+        final double[] mean = means[clazz];
+        final double delta = x - mean[f];
+        mean[f] += delta / n;
+        m2s[clazz][f] += delta * (x - mean[f]);
+    }
+
+    /**
+     * Merges moments of non-zero entries by the parallel algorithm of Chan et al.
+     */
+    void merge(final int clazz, final int f, final long n, final double mean, final double m2) {
+        final long na = counts[clazz][f];
+        if (na == 0L) {
+            counts[clazz][f] = n;
+            means[clazz][f] = mean;
+            m2s[clazz][f] = m2;
+            return;
+        }
+        final long total = na + n;
+        final double delta = mean - means[clazz][f];
+        counts[clazz][f] = total;
+        means[clazz][f] += delta * n / total;
+        m2s[clazz][f] += m2 + delta * delta * ((double) na * n / total);
+    }
+
+    /**
+     * @return the sum of the values of a feature in a class
+     */
+    double sum(final int clazz, final int f) {
+        return counts[clazz][f] * means[clazz][f];
+    }
+
+    /**
+     * @return the mean of a feature in a class where absent entries are zeros
+     */
+    double mean(final int clazz, final int f) {
+        final long n = classCounts[clazz];
+        return (n == 0L) ? 0.d : sum(clazz, f) / n;
+    }
+
+    /**
+     * @return the population variance of a feature in a class where absent entries are zeros
+     */
+    double variance(final int clazz, final int f) {
+        final long n = classCounts[clazz];
+        if (n == 0L) {
+            return 0.d;
+        }
+        final long nnz = counts[clazz][f];
+        final double mean = means[clazz][f];
+        // merge with (n - nnz) zeros
+        final double m2 = m2s[clazz][f] + mean * mean * ((double) nnz * (n - nnz) / n);
+        return m2 / n;
+    }
+
+    private void ensureClasses(final int required) {
+        if (required <= numClasses) {
+            return;
+        }
+        if (required > classCounts.length) {
+            int newLength = Math.max(required, classCounts.length * 2);
+            this.classCounts = Arrays.copyOf(classCounts, newLength);
+            this.counts = Arrays.copyOf(counts, newLength);
+            this.means = Arrays.copyOf(means, newLength);
+            this.m2s = Arrays.copyOf(m2s, newLength);
+        }
+        final int capacity = (numClasses == 0) ? Math.max(INITIAL_FEATURES, numFeatures)
+                : counts[0].length;
+        for (int c = numClasses; c < required; c++) {
+            counts[c] = new long[capacity];
+            means[c] = new double[capacity];
+            m2s[c] = new double[capacity];
+        }
+        this.numClasses = required;
+    }
+
+    private void ensureFeatures(final int required) {
+        this.numFeatures = required;
+        if (numClasses == 0 || required <= counts[0].length) {
+            return;
+        }
+        final int newLength = Math.max(required, counts[0].length * 2);
+        for (int c = 0; c < numClasses; c++) {
+            counts[c] = Arrays.copyOf(counts[c], newLength);
+            means[c] = Arrays.copyOf(means[c], newLength);
+            m2s[c] = Arrays.copyOf(m2s[c], newLength);
+        }
+    }
+
+    /**
+     * Serializes moments into
+     * <code>vint k + 1, vint #classes, #classes of vlong count, vint #features, #features of (vint length, byte[] name, #classes of (vlong count, [double mean, double m2])) </code>
+     * where mean and m2 are omitted for zero counts.
+     */
+    @Nonnull
+    byte[] serialize() throws IOException {
+        final int numClasses = this.numClasses;
+        final int numFeatures = this.numFeatures;
+        final FastByteArrayOutputStream bos = new FastByteArrayOutputStream(10 + numClasses * 9
+                + names.keyBytes() + numFeatures * (5 + numClasses * 17));
+        final DataOutputStream out = new DataOutputStream(bos);
+        WritableUtils.writeVInt(out, k + 1);
+        WritableUtils.writeVInt(out, numClasses);
+        for (int c = 0; c < numClasses; c++) {
+            WritableUtils.writeVLong(out, classCounts[c]);
+        }
+        WritableUtils.writeVInt(out, numFeatures);
+        byte[] name = new byte[64];
+        for (int f = 0; f < numFeatures; f++) {
+            int len = names.getKeyLength(f);
+            if (len > name.length) {
+                name = new byte[Math.max(len, name.length * 2)];
+            }
+            names.getKey(f, name, 0);
+            WritableUtils.writeVInt(out, len);
+            out.write(name, 0, len);
+            for (int c = 0; c < numClasses; c++) {
+                final long n = counts[c][f];
+                WritableUtils.writeVLong(out, n);
+                if (n != 0L) {
+                    out.writeDouble(means[c][f]);
+                    out.writeDouble(m2s[c][f]);
+                }
+            }
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Merges serialized moments given by {@link #serialize()}.
+     */
+    void merge(@Nonnull final byte[] b, final int length) throws IOException {
+        int pos = 0;
+        this.k = WritableComparator.readVInt(b, pos) - 1;
+        pos += WritableUtils.decodeVIntSize(b[pos]);
+        final int numClasses = WritableComparator.readVInt(b, pos);
+        pos += WritableUtils.decodeVIntSize(b[pos]);
+        if (numClasses > 0) {
+            ensureClasses(numClasses);
+        }
+        for (int c = 0; c < numClasses; c++) {
+            classCounts[c] += WritableComparator.readVLong(b, pos);
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+        }
+        final int numFeatures = WritableComparator.readVInt(b, pos);
+        pos += WritableUtils.decodeVIntSize(b[pos]);
+        for (int i = 0; i < numFeatures; i++) {
+            final int len = WritableComparator.readVInt(b, pos);
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            if (pos + len > length) {
+                throw new IOException("Class moments are truncated");
+            }
+            final int f = feature(b, pos, len);
+            pos += len;
+            for (int c = 0; c < numClasses; c++) {
+                final long n = WritableComparator.readVLong(b, pos);
+                pos += WritableUtils.decodeVIntSize(b[pos]);
+                if (n != 0L) {
+                    double mean = WritableComparator.readDouble(b, pos);
+                    double m2 = WritableComparator.readDouble(b, pos + 8);
+                    pos += 16;
+                    merge(c, f, n, mean, m2);
+                }
+            }
+            if (pos > length) {
+                throw new IOException("Class moments are truncated");
+            }
+        }
+    }
+
+    /**
+     * Selects the indices of the top-k scores in descending order using a bounded min-heap. NaN
+     * scores are never selected and ties are broken by smaller indices.
+     */
+    @Nonnull
+    static int[] topK(@Nonnull final double[] scores, final int size, final int k) {
+        final int[] heap = new int[Math.max(0, Math.min(k, size))];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (Double.isNaN(scores[i])) {
+                continue;
+            }
+            if (n < heap.length) {
+                heap[n] = i;
+                siftUp(heap, n++, scores);
+            } else if (n > 0 && less(heap[0], i, scores)) {
+                heap[0] = i;
+                siftDown(heap, 0, n, scores);
+            }
+        }
+        // pop the minimum to the tail
+        for (int last = n - 1; last > 0; last--) {
+            final int min = heap[0];
+            heap[0] = heap[last];
+            heap[last] = min;
+            siftDown(heap, 0, last, scores);
+        }
+        return (n == heap.length) ? heap : Arrays.copyOf(heap, n);
+    }
+
+    /** whether the score of i ranks lower than the one of j */
+    private static boolean less(final int i, final int j, @Nonnull final double[] scores) {
+        final int cmp = Double.compare(scores[i], scores[j]);
+        return cmp < 0 || (cmp == 0 && i > j);
+    }
+
+    private static void siftUp(@Nonnull final int[] heap, int pos, @Nonnull final double[] scores) {
+        final int x = heap[pos];
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (!less(x, heap[parent], scores)) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = x;
+    }
+
+    private static void siftDown(@Nonnull final int[] heap, int pos, final int size,
+            @Nonnull final double[] scores) {
+        final int x = heap[pos];
+        final int half = size >>> 1;
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            final int right = child + 1;
+            if (right < size && less(heap[right], heap[child], scores)) {
+                child = right;
+            }
+            if (!less(heap[child], x, scores)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = x;
+    }
+
+}
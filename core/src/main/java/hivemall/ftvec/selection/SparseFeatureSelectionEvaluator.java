@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.selection;
+
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Base evaluator of feature selection aggregates taking
+ * <code>(array&lt;string&gt; features, int|array&lt;int&gt; label [, const int k])</code> where
+ * features are sparse <code>feature:value</code> strings and a label is either a class index or
+ * a one-hot vector. Per-class moments are kept in a {@link SparseClassMoments}.
+ */
+abstract class SparseFeatureSelectionEvaluator extends GenericUDAFEvaluator {
+
+    // PARTIAL1 and COMPLETE
+    private ListObjectInspector featuresOI;
+    private StringObjectInspector featureOI;
+    private PrimitiveObjectInspector labelOI;
+    private ListObjectInspector labelsOI;
+    private int k;
+
+    // PARTIAL2 and FINAL
+    private BinaryObjectInspector mergeOI;
+
+    SparseFeatureSelectionEvaluator() {
+        super();
+    }
+
+    static void checkArguments(@Nonnull final ObjectInspector[] OIs) throws UDFArgumentException {
+        if (OIs.length != 2 && OIs.length != 3) {
+            throw new UDFArgumentLengthException("Specify two or three arguments: " + OIs.length);
+        }
+        if (!HiveUtils.isListOI(OIs[0])
+                || !HiveUtils.isStringOI(((ListObjectInspector) OIs[0]).getListElementObjectInspector())) {
+            throw new UDFArgumentTypeException(0,
+                "Only array<string> type argument is acceptable but " + OIs[0].getTypeName()
+                        + " was passed as `features`");
+        }
+        if (!HiveUtils.isIntegerOI(OIs[1])
+                && !(HiveUtils.isListOI(OIs[1]) && HiveUtils.isIntegerOI(((ListObjectInspector) OIs[1]).getListElementObjectInspector()))) {
+            throw new UDFArgumentTypeException(1,
+                "Only int or array<int> type argument is acceptable but " + OIs[1].getTypeName()
+                        + " was passed as `label`");
+        }
+        if (OIs.length == 3 && !ObjectInspectorUtils.isConstantObjectInspector(OIs[2])) {
+            throw new UDFArgumentTypeException(2, "`k` should be a constant int");
+        }
+    }
+
+    @Override
+    public ObjectInspector init(Mode mode, ObjectInspector[] OIs) throws HiveException {
+        super.init(mode, OIs);
+
+        // initialize input
+        if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+            this.featuresOI = HiveUtils.asListOI(OIs[0]);
+            this.featureOI = HiveUtils.asStringOI(featuresOI.getListElementObjectInspector());
+            if (HiveUtils.isListOI(OIs[1])) {
+                this.labelsOI = HiveUtils.asListOI(OIs[1]);
+                this.labelOI = HiveUtils.asIntegerOI(labelsOI.getListElementObjectInspector());
+            } else {
+                this.labelsOI = null;
+                this.labelOI = HiveUtils.asIntegerOI(OIs[1]);
+            }
+            if (OIs.length == 3) {
+                this.k = HiveUtils.getAsConstInt(OIs[2]);
+                if (k < 1) {
+                    throw new UDFArgumentException("`k` must be greater than 0: " + k);
+                }
+            } else {
+                this.k = -1;
+            }
+        } else {// from partial aggregation
+            this.mergeOI = HiveUtils.asBinaryOI(OIs[0]);
+        }
+
+        // initialize output
+        if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+            return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+        } else {// terminate
+            return getOutputOI();
+        }
+    }
+
+    @Nonnull
+    abstract ObjectInspector getOutputOI();
+
+    /**
+     * Checks a value of a feature to be accumulated.
+     */
+    void checkValue(@Nonnull Text feature, double value) throws HiveException {}
+
+    @Override
+    public SparseClassMoments getNewAggregationBuffer() throws HiveException {
+        return new SparseClassMoments();
+    }
+
+    @Override
+    public void reset(@SuppressWarnings("deprecation") AggregationBuffer agg)
+            throws HiveException {
+        ((SparseClassMoments) agg).reset();
+    }
+
+    @Override
+    public void iterate(@SuppressWarnings("deprecation") AggregationBuffer agg,
+            Object[] parameters) throws HiveException {
+        final Object featuresObj = parameters[0];
+        final Object labelObj = parameters[1];
+        if (featuresObj == null || labelObj == null) {
+            return;
+        }
+
+        final SparseClassMoments moments = (SparseClassMoments) agg;
+        moments.k = k;
+        final int clazz = classIndex(labelObj);
+        moments.addRow(clazz, (labelsOI == null) ? clazz + 1 : labelsOI.getListLength(labelObj));
+
+        final int size = featuresOI.getListLength(featuresObj);
+        for (int i = 0; i < size; i++) {
+            final Object o = featuresOI.getListElement(featuresObj, i);
+            if (o == null) {
+                continue;
+            }
+            final Text t = featureOI.getPrimitiveWritableObject(o);
+            final byte[] b = t.getBytes();
+            final int len = t.getLength();
+            int pos = -1;
+            for (int j = 0; j < len; j++) {
+                if (b[j] == ':') {
+                    pos = j;
+                    break;
+                }
+            }
+            if (pos == 0) {
+                throw new UDFArgumentException("Invalid feature value representation: " + t);
+            }
+            final double value;
+            if (pos > 0) {
+                try {
+                    value = Double.parseDouble(Text.decode(b, pos + 1, len - pos - 1));
+                } catch (NumberFormatException e) {
+                    throw new UDFArgumentException("Invalid feature value representation: "
+                            + t);
+                } catch (CharacterCodingException e) {
+                    throw new UDFArgumentException("Invalid feature value representation: "
+                            + t);
+                }
+            } else {
+                pos = len;
+                value = 1.d;
+            }
+            if (value == 0.d || Double.isNaN(value)) {
+                continue; // zeros are implicit
+            }
+            checkValue(t, value);
+            moments.update(clazz, moments.feature(b, 0, pos), value);
+        }
+    }
+
+    private int classIndex(@Nonnull final Object labelObj) throws UDFArgumentException {
+        if (labelsOI == null) {
+            final int label = PrimitiveObjectInspectorUtils.getInt(labelObj, labelOI);
+            if (label < 0) {
+                throw new UDFArgumentException("Class label must be non-negative: " + label);
+            }
+            return label;
+        }
+
+        final List<?> labels = labelsOI.getList(labelObj);
+        final int nClasses = labels.size();
+        if (nClasses < 2) {
+            throw new UDFArgumentException(
+                "Specify one-hot vectorized array of at least two classes: " + labels);
+        }
+        int clazz = -1;
+        for (int i = 0; i < nClasses; i++) {
+            final int label = PrimitiveObjectInspectorUtils.getInt(labels.get(i), labelOI);
+            if (label == 1) {// assumes one hot encoding
+                if (clazz != -1) {
+                    throw new UDFArgumentException(
+                        "Specify one-hot vectorized array. Multiple hot elements found.");
+                }
+                clazz = i;
+            } else if (label != 0) {
+                throw new UDFArgumentException(
+                    "Assumed one-hot encoding (0/1) but found an invalid label: " + label);
+            }
+        }
+        if (clazz == -1) {
+            throw new UDFArgumentException(
+                "Specify one-hot vectorized array for label. Hot element not found.");
+        }
+        return clazz;
+    }
+
+    @Override
+    public BytesWritable terminatePartial(@SuppressWarnings("deprecation") AggregationBuffer agg)
+            throws HiveException {
+        final SparseClassMoments moments = (SparseClassMoments) agg;
+        if (moments.getNumClasses() == 0) {
+            return null;
+        }
+        try {
+            return new BytesWritable(moments.serialize());
+        } catch (IOException e) {
+            throw new HiveException("Failed to serialize class moments", e);
+        }
+    }
+
+    @Override
+    public void merge(@SuppressWarnings("deprecation") AggregationBuffer agg, Object other)
+            throws HiveException {
+        if (other == null) {
+            return;
+        }
+        final BytesWritable b = mergeOI.getPrimitiveWritableObject(other);
+        try {
+            ((SparseClassMoments) agg).merge(b.getBytes(), b.getLength());
+        } catch (IOException e) {
+            throw new HiveException(e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new HiveException("Class moments are truncated", e);
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.selection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+@Description(name = "snr_sparse",
+        value = "_FUNC_(array<string> features, int|array<int> label [, const int k])"
+                + " - Returns the top-k features by Signal Noise Ratio as"
+                + " struct<feature:array<string>, snr:array<double>> in descending order")
+public final class SparseSignalNoiseRatioUDAF extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(GenericUDAFParameterInfo info)
+            throws SemanticException {
+        SparseFeatureSelectionEvaluator.checkArguments(info.getParameterObjectInspectors());
+        return new Evaluator();
+    }
+
+    public static final class Evaluator extends SparseFeatureSelectionEvaluator {
+
+        public Evaluator() {
+            super();
+        }
+
+        @Override
+        ObjectInspector getOutputOI() {
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+            return ObjectInspectorFactory.getStandardStructObjectInspector(
+                Arrays.asList("feature", "snr"), fieldOIs);
+        }
+
+        @Override
+        public Object[] terminate(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            final SparseClassMoments moments = (SparseClassMoments) agg;
+            final int nFeatures = moments.getNumFeatures();
+            if (nFeatures == 0) {
+                return null;
+            }
+
+            final double[] scores = snr(moments);
+            final int[] top = SparseClassMoments.topK(scores, nFeatures,
+                (moments.k == -1) ? nFeatures : moments.k);
+            final List<Text> features = new ArrayList<Text>(top.length);
+            final List<DoubleWritable> snrs = new ArrayList<DoubleWritable>(top.length);
+            for (int f : top) {
+                features.add(moments.getFeatureName(f, new Text()));
+                snrs.add(new DoubleWritable(scores[f]));
+            }
+            return new Object[] {features, snrs};
+        }
+
+        /**
+         * Computes SNR of each feature summed over pairs of classes in the same way as
+         * {@link SignalNoiseRatioUDAF}.
+         */
+        @Nonnull
+        static double[] snr(@Nonnull final SparseClassMoments moments) {
+            final int nClasses = moments.getNumClasses();
+            final int nFeatures = moments.getNumFeatures();
+            final long[] ns = new long[nClasses];
+            for (int j = 0; j < nClasses; j++) {
+                ns[j] = moments.getClassCount(j);
+            }
+
+            final double[] result = new double[nFeatures];
+            final double[] means = new double[nClasses]; // for memorization
+            final double[] sds = new double[nClasses];
+            for (int i = 0; i < nFeatures; i++) {
+                for (int j = 0; j < nClasses; j++) {
+                    means[j] = moments.mean(j, i);
+                    sds[j] = Math.sqrt(moments.variance(j, i));
+                }
+                for (int j = 1; j < nClasses; j++) {
+                    if (ns[j] == 0) {
+                        continue;
+                    }
+                    for (int k = 0; k < j; k++) {
+                        // avoid comparing between classes having only single entry
+                        if (ns[k] == 0 || (ns[j] == 1 && ns[k] == 1)) {
+                            continue;
+                        }
+                        final double snr = Math.abs(means[j] - means[k]) / (sds[j] + sds[k]);
+                        // NaN when all related values are equal
+                        if (!Double.isNaN(snr)) {
+                            result[i] += snr; // accept `Infinity`
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+    }
+
+}
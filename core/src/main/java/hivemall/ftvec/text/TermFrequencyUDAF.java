@@ -18,108 +18,265 @@
  */
 package hivemall.ftvec.text;
 
-import hivemall.utils.lang.mutable.MutableInt;
+import hivemall.utils.collections.maps.Bytes2IntOpenHashTable;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.FastByteArrayOutputStream;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import org.apache.hadoop.hive.ql.exec.Description;
-import org.apache.hadoop.hive.ql.exec.UDAF;
-import org.apache.hadoop.hive.ql.exec.UDAFEvaluator;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
-@SuppressWarnings("deprecation")
+/**
+ * Counts terms in an open-addressing table of UTF-8 bytes. The partial aggregation is a binary of
+ *
+ * <pre>
+ * long globalCount, vint n, n entries of (int hash, vint length, byte[] term, vint count)
+ * </pre>
+ *
+ * which is merged without re-hashing terms.
+ */
 @Description(name = "tf",
         value = "_FUNC_(string text) - Return a term frequency in <string, float>")
-public final class TermFrequencyUDAF extends UDAF {
+public final class TermFrequencyUDAF extends AbstractGenericUDAFResolver {
 
-    public static class Evaluator implements UDAFEvaluator {
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] typeInfo) throws SemanticException {
+        if (typeInfo.length != 1) {
+            throw new UDFArgumentTypeException(typeInfo.length - 1,
+                "Exactly one argument is expected");
+        }
+        if (!HiveUtils.isPrimitiveTypeInfo(typeInfo[0])) {
+            throw new UDFArgumentTypeException(0, "_FUNC_(string text) is expected: "
+                    + typeInfo[0]);
+        }
+        return new Evaluator();
+    }
+
+    public static class Evaluator extends GenericUDAFEvaluator {
 
-        public static class PartialResult {
+        private PrimitiveObjectInspector termOI;
+        /** Set when terms are given as Text and counted on their UTF-8 bytes */
+        @Nullable
+        private StringObjectInspector textOI;
+        private BinaryObjectInspector mergeOI;
 
-            private final Map<Text, MutableInt> map;
-            private long globalCount;
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] argOIs) throws HiveException {
+            super.init(mode, argOIs);
 
-            public PartialResult() {
-                this.map = new HashMap<Text, MutableInt>();
-                this.globalCount = 0L;
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                this.termOI = HiveUtils.asPrimitiveObjectInspector(argOIs[0]);
+                this.textOI = null;
+                if (HiveUtils.isStringOI(termOI) && termOI.preferWritable()) {
+                    this.textOI = (StringObjectInspector) termOI;
+                }
+            } else {// from partial aggregation
+                this.mergeOI = (BinaryObjectInspector) argOIs[0];
             }
 
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            } else {// terminate
+                outputOI = ObjectInspectorFactory.getStandardMapObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                    PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+            }
+            return outputOI;
         }
 
-        private PartialResult partial;
+        static class TermCountBuffer extends AbstractAggregationBuffer {
+            @Nullable
+            Bytes2IntOpenHashTable counts;
+            long globalCount;
+
+            TermCountBuffer() {
+                super();
+            }
+
+            @Nonnull
+            Bytes2IntOpenHashTable counts() {
+                if (counts == null) {
+                    this.counts = new Bytes2IntOpenHashTable();
+                }
+                return counts;
+            }
+        }
 
         @Override
-        public void init() {
-            this.partial = null;
+        public TermCountBuffer getNewAggregationBuffer() throws HiveException {
+            TermCountBuffer ret = new TermCountBuffer();
+            reset(ret);
+            return ret;
         }
 
-        public boolean iterate(Text term) {
-            if (term == null) {
-                return true;
-            }
+        @Override
+        public void reset(@SuppressWarnings("deprecation") AggregationBuffer aggr)
+                throws HiveException {
+            TermCountBuffer agg = (TermCountBuffer) aggr;
+            agg.counts = null;
+            agg.globalCount = 0L;
+        }
 
-            if (partial == null) {
-                this.partial = new PartialResult();
-                partial.map.put(new Text(term), new MutableInt(1));
+        @Override
+        public void iterate(@SuppressWarnings("deprecation") AggregationBuffer aggr,
+                Object[] parameters) throws HiveException {
+            assert (parameters.length == 1);
+            final Object arg0 = parameters[0];
+            if (arg0 == null) {
+                return;
+            }
+            TermCountBuffer agg = (TermCountBuffer) aggr;
+            if (textOI != null) {
+                Text term = textOI.getPrimitiveWritableObject(arg0);
+                agg.counts().addTo(term.getBytes(), 0, term.getLength(), 1);
             } else {
-                final Map<Text, MutableInt> map = partial.map;
-                MutableInt count = map.get(term);
-                if (count == null) {
-                    map.put(new Text(term), new MutableInt(1));
-                } else {
-                    int newcount = count.getValue() + 1;
-                    count.setValue(newcount);
-                }
+                byte[] term = PrimitiveObjectInspectorUtils.getString(arg0, termOI).getBytes(
+                    StandardCharsets.UTF_8);
+                agg.counts().addTo(term, 0, term.length, 1);
             }
-            partial.globalCount++;
-            return true;
+            agg.globalCount++;
         }
 
-        public PartialResult terminatePartial() {
-            return partial;
+        @Override
+        public BytesWritable terminatePartial(
+                @SuppressWarnings("deprecation") AggregationBuffer aggr) throws HiveException {
+            TermCountBuffer agg = (TermCountBuffer) aggr;
+            if (agg.counts == null) {
+                return null;
+            }
+            try {
+                return new BytesWritable(serialize(agg.counts, agg.globalCount));
+            } catch (IOException e) {
+                throw new HiveException("Failed to serialize term counts", e);
+            }
         }
 
-        public boolean merge(PartialResult other) {
+        @Override
+        public void merge(@SuppressWarnings("deprecation") AggregationBuffer aggr, Object other)
+                throws HiveException {
             if (other == null) {
-                return true;
-            }
-            if (partial == null) {
-                this.partial = new PartialResult();
+                return;
             }
-            final Map<Text, MutableInt> this_map = partial.map;
-            final Map<Text, MutableInt> other_map = other.map;
-            for (Map.Entry<Text, MutableInt> e : other_map.entrySet()) {
-                Text term = e.getKey();
-                MutableInt other_count = e.getValue();
-                MutableInt this_count = this_map.get(term);
-                if (this_count == null) {
-                    this_map.put(term, other_count);
-                } else {
-                    int newcount = this_count.getValue() + other_count.getValue();
-                    this_count.setValue(newcount);
-                }
+            BytesWritable b = mergeOI.getPrimitiveWritableObject(other);
+            TermCountBuffer agg = (TermCountBuffer) aggr;
+            try {
+                agg.globalCount += deserialize(b.getBytes(), b.getLength(), agg.counts());
+            } catch (IOException e) {
+                throw new HiveException("Failed to deserialize term counts", e);
             }
-            partial.globalCount += other.globalCount;
-            return true;
         }
 
-        public Map<Text, FloatWritable> terminate() {
-            if (partial == null) {
+        @Override
+        public Map<Text, FloatWritable> terminate(
+                @SuppressWarnings("deprecation") AggregationBuffer aggr) throws HiveException {
+            TermCountBuffer agg = (TermCountBuffer) aggr;
+            final Bytes2IntOpenHashTable counts = agg.counts;
+            if (counts == null) {
                 return null;
             }
-            final long globalCount = partial.globalCount;
-            final Map<Text, FloatWritable> tfmap = new HashMap<Text, FloatWritable>();
-            for (Map.Entry<Text, MutableInt> e : partial.map.entrySet()) {
-                Text term = e.getKey();
-                float other_count = e.getValue().getValue();
-                float freq = other_count / globalCount;
+            final float globalCount = agg.globalCount;
+            final int size = counts.size();
+            final Map<Text, FloatWritable> tfmap = new HashMap<Text, FloatWritable>(
+                (int) (size / 0.75f) + 1);
+            byte[] buf = new byte[64];
+            for (int i = 0; i < size; i++) {
+                int len = counts.getKeyLength(i);
+                if (len > buf.length) {
+                    buf = new byte[Math.max(len, buf.length * 2)];
+                }
+                counts.getKey(i, buf, 0);
+                Text term = new Text();
+                term.set(buf, 0, len);
+                float freq = counts.getValue(i) / globalCount;
                 tfmap.put(term, new FloatWritable(freq));
             }
-            this.partial = null;
             return tfmap;
         }
+
+    }
+
+    @Nonnull
+    static byte[] serialize(@Nonnull final Bytes2IntOpenHashTable counts, final long globalCount)
+            throws IOException {
+        final int size = counts.size();
+        final FastByteArrayOutputStream bos = new FastByteArrayOutputStream(
+            counts.keyBytes() + size * 8 + 16);
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeLong(globalCount);
+        WritableUtils.writeVInt(out, size);
+        byte[] buf = new byte[64];
+        for (int i = 0; i < size; i++) {
+            int len = counts.getKeyLength(i);
+            if (len > buf.length) {
+                buf = new byte[Math.max(len, buf.length * 2)];
+            }
+            counts.getKey(i, buf, 0);
+            out.writeInt(counts.getHash(i));
+            WritableUtils.writeVInt(out, len);
+            out.write(buf, 0, len);
+            WritableUtils.writeVInt(out, counts.getValue(i));
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Adds the term counts of a partial aggregation to <code>dst</code>.
+     *
+     * @return the global count of the partial aggregation
+     */
+    static long deserialize(@Nonnull final byte[] b, final int length,
+            @Nonnull final Bytes2IntOpenHashTable dst) throws IOException {
+        if (length < 9) {
+            throw new IOException("Illegal length of term counts: " + length);
+        }
+        final long globalCount = WritableComparator.readLong(b, 0);
+        int pos = 8;
+        final int size = WritableComparator.readVInt(b, pos);
+        pos += WritableUtils.decodeVIntSize(b[pos]);
+        for (int i = 0; i < size; i++) {
+            int hash = WritableComparator.readInt(b, pos);
+            pos += 4;
+            int len = WritableComparator.readVInt(b, pos);
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            int termPos = pos;
+            pos += len;
+            int count = WritableComparator.readVInt(b, pos);
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            if (pos > length) {
+                throw new IOException("Term counts are truncated");
+            }
+            dst.addTo(hash, b, termPos, len, count);
+        }
+        return globalCount;
     }
 
 }
@@ -18,20 +18,26 @@
  */
 package hivemall.ftvec.trans;
 
+import hivemall.utils.collections.maps.Bytes2IntOpenHashTable;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.hadoop.WritableUtils;
-import hivemall.utils.lang.Identifier;
+import hivemall.utils.io.FastByteArrayOutputStream;
+import hivemall.utils.lang.CommandLineUtils;
 import hivemall.utils.lang.Preconditions;
+import hivemall.utils.lang.Primitives;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
@@ -41,7 +47,6 @@ import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
-import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -50,12 +55,38 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.Object
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.Writable;
-
-@Description(name = "onehot_encoding",
-        value = "_FUNC_(PRIMITIVE feature, ...) - Compute onehot encoded label for each feature")
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Assigns an index to each distinct value of features. Distinct values of a feature are kept as
+ * their serialized {@link Writable} bytes in a {@link Bytes2IntOpenHashTable} and a partial
+ * aggregation is a varint-coded binary.
+ * <p>
+ * With <code>-max_cardinality N</code>, at most N distinct values of each feature are indexed so
+ * that the memory of the aggregation is bounded. The rest of each feature falls back to its own
+ * range of <code>-tail_buckets B</code> hashed indices following the ones of all features, i.e.,
+ * <code>tail_offset + (i - 1) * B + mhash(value, B)</code> for the i-th feature, where
+ * <code>tail_offset</code> is the number of indexed values, and the output struct reports
+ * <code>tail_offset</code>, <code>tail_buckets</code>, and whether each feature is
+ * <code>truncated</code>.
+ */
+@Description(
+        name = "onehot_encoding",
+        value = "_FUNC_(PRIMITIVE feature, ... [, const string options])"
+                + " - Compute onehot encoded label for each feature",
+        extended = "options: -max_cardinality <N> to index at most N distinct values of each"
+                + " feature and hash the rest into -tail_buckets <B> [default: N] indices per"
+                + " feature following tail_offset of the output struct. The N values indexed are"
+                + " the ones that arrive first, which depends on input splits and task"
+                + " scheduling, so indices are not deterministic with -max_cardinality.")
 @UDFType(deterministic = true, stateful = true)
 public final class OnehotEncodingUDAF extends AbstractGenericUDAFResolver {
 
@@ -88,53 +119,95 @@ public final class OnehotEncodingUDAF extends AbstractGenericUDAFResolver {
 
         // input OI
         private PrimitiveObjectInspector[] inputElemOIs;
+        private int maxCardinality;
+        private int tailBuckets;
+        /** true if -max_cardinality is given */
+        private boolean capped;
         // merge input OI
         private StructObjectInspector mergeOI;
-        private StructField[] fields;
-        private ListObjectInspector[] fieldOIs;
+        private StructField setsField;
+        private BinaryObjectInspector setsOI;
 
         public GenericUDAFOnehotEncodingEvaluator() {}
 
+        @Nonnull
+        private static Options getOptions() {
+            Options opts = new Options();
+            opts.addOption("max_cardinality", true,
+                "The maximum number of distinct values to be indexed for each feature");
+            opts.addOption("tail_buckets", true,
+                "The number of hashed indices for the rest of each feature"
+                        + " [default: max_cardinality]");
+            return opts;
+        }
+
         @Override
         public ObjectInspector init(Mode m, ObjectInspector[] argOIs) throws HiveException {
             super.init(m, argOIs);
 
             // initialize input
             if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {// from original data
-                this.inputElemOIs = new PrimitiveObjectInspector[argOIs.length];
-                for (int i = 0; i < argOIs.length; i++) {
+                int numFeatures = argOIs.length;
+                this.maxCardinality = -1;
+                this.tailBuckets = 0;
+                if (numFeatures > 1 && isOptions(argOIs[numFeatures - 1])) {
+                    numFeatures--;
+                    String rawArgs = HiveUtils.getConstString(argOIs[numFeatures]);
+                    CommandLine cl = CommandLineUtils.parseOptions(rawArgs.split("\\s+"),
+                        getOptions());
+                    this.maxCardinality = Primitives.parseInt(
+                        cl.getOptionValue("max_cardinality"), -1);
+                    if (maxCardinality < 1) {
+                        throw new UDFArgumentException(
+                            "A positive integer MUST be set to an option `-max_cardinality`: "
+                                    + maxCardinality);
+                    }
+                    this.tailBuckets = Primitives.parseInt(cl.getOptionValue("tail_buckets"),
+                        maxCardinality);
+                    if (tailBuckets < 1) {
+                        throw new UDFArgumentException(
+                            "A positive integer MUST be set to an option `-tail_buckets`: "
+                                    + tailBuckets);
+                    }
+                }
+                this.capped = (maxCardinality != -1);
+                this.inputElemOIs = new PrimitiveObjectInspector[numFeatures];
+                for (int i = 0; i < numFeatures; i++) {
                     inputElemOIs[i] = HiveUtils.asPrimitiveObjectInspector(argOIs[i]);
                 }
             } else {// from partial aggregation
                 Preconditions.checkArgument(argOIs.length == 1);
                 this.mergeOI = HiveUtils.asStructOI(argOIs[0]);
-                final int numFields = mergeOI.getAllStructFieldRefs().size();
-                this.fields = new StructField[numFields];
-                this.fieldOIs = new ListObjectInspector[numFields];
+                this.capped = false;
+                for (StructField field : mergeOI.getAllStructFieldRefs()) {
+                    if (TAIL_BUCKETS.equals(field.getFieldName())) {
+                        this.capped = true;
+                    }
+                }
+                final int numFields = mergeOI.getAllStructFieldRefs().size() - (capped ? 2 : 1);
                 this.inputElemOIs = new PrimitiveObjectInspector[numFields];
                 for (int i = 0; i < numFields; i++) {
                     StructField field = mergeOI.getStructFieldRef("f" + String.valueOf(i));
-                    fields[i] = field;
-                    ListObjectInspector fieldOI = HiveUtils.asListOI(field.getFieldObjectInspector());
-                    fieldOIs[i] = fieldOI;
-                    inputElemOIs[i] = HiveUtils.asPrimitiveObjectInspector(fieldOI.getListElementObjectInspector());
+                    inputElemOIs[i] = HiveUtils.asPrimitiveObjectInspector(field.getFieldObjectInspector());
                 }
+                this.setsField = mergeOI.getStructFieldRef("sets");
+                this.setsOI = HiveUtils.asBinaryOI(setsField.getFieldObjectInspector());
             }
 
             // initialize output
             final ObjectInspector outputOI;
             switch (m) {
-                case PARTIAL1:// from original data to partial aggregation data                    
-                    outputOI = internalMergeOutputOI(inputElemOIs);
+                case PARTIAL1:// from original data to partial aggregation data
+                    outputOI = internalMergeOutputOI(inputElemOIs, capped);
                     break;
                 case PARTIAL2:// from partial aggregation data to partial aggregation data
-                    outputOI = internalMergeOutputOI(inputElemOIs);
+                    outputOI = internalMergeOutputOI(inputElemOIs, capped);
                     break;
                 case COMPLETE:// from original data directly to full aggregation
-                    outputOI = terminalOutputOI(inputElemOIs);
+                    outputOI = terminalOutputOI(inputElemOIs, capped);
                     break;
                 case FINAL: // from partial aggregation to full aggregation
-                    outputOI = terminalOutputOI(inputElemOIs);
+                    outputOI = terminalOutputOI(inputElemOIs, capped);
                     break;
                 default:
                     throw new IllegalStateException("Illegal mode: " + m);
@@ -142,27 +215,67 @@ public final class OnehotEncodingUDAF extends AbstractGenericUDAFResolver {
             return outputOI;
         }
 
+        /**
+         * A trailing constant string is taken as options only if it starts with a known option,
+         * so that a constant feature value such as <code>'-1'</code> or <code>'-'</code> is
+         * encoded as is.
+         */
+        private static boolean isOptions(@Nonnull final ObjectInspector oi)
+                throws UDFArgumentException {
+            if (!HiveUtils.isConstString(oi)) {
+                return false;
+            }
+            String s = HiveUtils.getConstString(oi);
+            if (s == null) {
+                return false;
+            }
+            String first = s.trim().split("\\s+", 2)[0];
+            return first.length() > 1 && first.startsWith("-")
+                    && getOptions().hasOption(first);
+        }
+
+        /**
+         * A partial aggregation is <code>struct&lt;f0, f1, ..., [tail_buckets:int,]
+         * sets:binary&gt;</code> where <code>sets</code> is given by
+         * {@link EncodingBuffer#serialize()}. Fields <code>f0, f1, ...</code> and
+         * <code>tail_buckets</code> are always null; they are kept only for their object
+         * inspectors since PARTIAL2 and FINAL evaluators receive nothing but this struct. They need
+         * the types of features to deserialize the values in <code>sets</code> and to type the keys
+         * of the output maps, and whether <code>-max_cardinality</code> is given to type the
+         * output.
+         */
         @Nonnull
         private static StructObjectInspector internalMergeOutputOI(
-                @CheckForNull PrimitiveObjectInspector[] inputOIs) throws UDFArgumentException {
+                @CheckForNull PrimitiveObjectInspector[] inputOIs, final boolean capped)
+                throws UDFArgumentException {
             Preconditions.checkNotNull(inputOIs);
 
             final int numOIs = inputOIs.length;
-            final List<String> fieldNames = new ArrayList<String>(numOIs);
-            final List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(numOIs);
+            final List<String> fieldNames = new ArrayList<String>(numOIs + 1);
+            final List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(numOIs + 1);
             for (int i = 0; i < numOIs; i++) {
                 fieldNames.add("f" + String.valueOf(i));
-                ObjectInspector elemOI = ObjectInspectorUtils.getStandardObjectInspector(
-                    inputOIs[i], ObjectInspectorCopyOption.WRITABLE);
-                ListObjectInspector listOI = ObjectInspectorFactory.getStandardListObjectInspector(elemOI);
-                fieldOIs.add(listOI);
+                fieldOIs.add(ObjectInspectorUtils.getStandardObjectInspector(inputOIs[i],
+                    ObjectInspectorCopyOption.WRITABLE));
+            }
+            if (capped) {
+                fieldNames.add(TAIL_BUCKETS);
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
             }
+            fieldNames.add("sets");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
             return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
         }
 
+        /**
+         * The output is <code>struct&lt;f1, f2, ...&gt;</code> of
+         * <code>map&lt;value, int&gt;</code> followed by
+         * <code>tail_offset:int, tail_buckets:int, truncated:array&lt;boolean&gt;</code> if
+         * <code>-max_cardinality</code> is given.
+         */
         @Nonnull
         private static StructObjectInspector terminalOutputOI(
-                @CheckForNull PrimitiveObjectInspector[] inputOIs) {
+                @CheckForNull PrimitiveObjectInspector[] inputOIs, final boolean capped) {
             Preconditions.checkNotNull(inputOIs);
             Preconditions.checkArgument(inputOIs.length >= 1, inputOIs.length);
 
@@ -176,6 +289,14 @@ public final class OnehotEncodingUDAF extends AbstractGenericUDAFResolver {
                     keyOI, PrimitiveObjectInspectorFactory.javaIntObjectInspector);
                 fieldOIs.add(mapOI);
             }
+            if (capped) {
+                fieldNames.add("tail_offset");
+                fieldOIs.add(PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+                fieldNames.add(TAIL_BUCKETS);
+                fieldOIs.add(PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+                fieldNames.add("truncated");
+                fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaBooleanObjectInspector));
+            }
             return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
         }
 
@@ -201,14 +322,24 @@ public final class OnehotEncodingUDAF extends AbstractGenericUDAFResolver {
             Preconditions.checkNotNull(inputElemOIs);
 
             EncodingBuffer buf = (EncodingBuffer) aggregationBuffer;
-            buf.iterate(parameters, inputElemOIs);
+            buf.iterate(parameters, inputElemOIs, maxCardinality, tailBuckets);
         }
 
         @SuppressWarnings("deprecation")
         @Override
         public Object[] terminatePartial(AggregationBuffer aggregationBuffer) throws HiveException {
             EncodingBuffer buf = (EncodingBuffer) aggregationBuffer;
-            return buf.partial();
+            if (buf.sets == null) {
+                return null;
+            }
+            // fields other than sets are left null; see internalMergeOutputOI()
+            final Object[] partial = new Object[inputElemOIs.length + (capped ? 2 : 1)];
+            try {
+                partial[partial.length - 1] = new BytesWritable(buf.serialize());
+            } catch (IOException e) {
+                throw new HiveException("Failed to serialize distinct values", e);
+            }
+            return partial;
         }
 
         @SuppressWarnings("deprecation")
@@ -219,39 +350,80 @@ public final class OnehotEncodingUDAF extends AbstractGenericUDAFResolver {
             }
 
             EncodingBuffer buf = (EncodingBuffer) aggregationBuffer;
-            buf.merge(partial, mergeOI, fields, fieldOIs);
+            Object sets = mergeOI.getStructFieldData(partial, setsField);
+            BytesWritable b = setsOI.getPrimitiveWritableObject(sets);
+            try {
+                buf.merge(b.getBytes(), b.getLength());
+            } catch (IOException e) {
+                throw new HiveException("Failed to merge distinct values", e);
+            }
         }
 
         @SuppressWarnings("deprecation")
         @Override
         public Object[] terminate(AggregationBuffer aggregationBuffer) throws HiveException {
             EncodingBuffer buf = (EncodingBuffer) aggregationBuffer;
-            return buf.terminate();
+            return buf.terminate(inputElemOIs);
         }
     }
 
+    private static final String TAIL_BUCKETS = "tail_buckets";
+
     public static final class EncodingBuffer extends AbstractAggregationBuffer {
 
+        private static final int INITIAL_SIZE = 256;
+
+        /** distinct values of each feature as serialized writables */
         @Nullable
-        private Identifier<Writable>[] identifiers;
+        private Bytes2IntOpenHashTable[] sets;
+        /** the maximum number of distinct values of each feature, or -1 if unbounded */
+        private int maxCardinality;
+        /** the number of hashed indices for the rest of each feature, or 0 if unbounded */
+        private int tailBuckets;
+        /** whether a feature has more than maxCardinality distinct values */
+        @Nullable
+        private boolean[] truncated;
+
+        @Nullable
+        private FastByteArrayOutputStream scratch;
+        @Nullable
+        private DataOutputStream scratchOut;
 
         public EncodingBuffer() {}
 
         void reset() {
-            this.identifiers = null;
+            this.sets = null;
+            this.maxCardinality = -1;
+            this.tailBuckets = 0;
+            this.truncated = null;
+        }
+
+        private void init(final int numFeatures, final int maxCardinality,
+                final int tailBuckets) {
+            final Bytes2IntOpenHashTable[] sets = new Bytes2IntOpenHashTable[numFeatures];
+            for (int i = 0; i < numFeatures; i++) {
+                sets[i] = new Bytes2IntOpenHashTable(
+                    (maxCardinality == -1) ? INITIAL_SIZE : Math.min(maxCardinality,
+                        INITIAL_SIZE));
+            }
+            this.sets = sets;
+            this.maxCardinality = maxCardinality;
+            this.tailBuckets = tailBuckets;
+            this.truncated = new boolean[numFeatures];
         }
 
-        @SuppressWarnings("unchecked")
         void iterate(@Nonnull final Object[] args,
-                @Nonnull final PrimitiveObjectInspector[] inputOIs) throws HiveException {
-            Preconditions.checkArgument(args.length == inputOIs.length);
-
-            final int length = args.length;
-            if (identifiers == null) {
-                this.identifiers = new Identifier[length];
-                for (int i = 0; i < length; i++) {
-                    identifiers[i] = new Identifier<>(1);
-                }
+                @Nonnull final PrimitiveObjectInspector[] inputOIs, final int maxCardinality,
+                final int tailBuckets) throws HiveException {
+            final int length = inputOIs.length;
+            Preconditions.checkArgument(args.length >= length);
+
+            if (sets == null) {
+                init(length, maxCardinality, tailBuckets);
+            }
+            if (scratch == null) {
+                this.scratch = new FastByteArrayOutputStream(64);
+                this.scratchOut = new DataOutputStream(scratch);
             }
 
             for (int i = 0; i < length; i++) {
@@ -259,75 +431,153 @@ public final class OnehotEncodingUDAF extends AbstractGenericUDAFResolver {
                 if (arg == null) {
                     continue;
                 }
-                Writable writable = WritableUtils.copyToWritable(arg, inputOIs[i]);
-                identifiers[i].put(writable);
+                Writable writable = (Writable) inputOIs[i].getPrimitiveWritableObject(arg);
+                scratch.reset();
+                try {
+                    writable.write(scratchOut);
+                    scratchOut.flush();
+                } catch (IOException e) {
+                    throw new HiveException("Failed to serialize " + writable, e);
+                }
+                add(i, scratch.getInternalArray(), 0, scratch.size());
             }
         }
 
-        @Nullable
-        Object[] partial() throws HiveException {
-            if (identifiers == null) {
-                return null;
+        private void add(final int i, @Nonnull final byte[] b, final int offset,
+                final int length) {
+            final Bytes2IntOpenHashTable set = sets[i];
+            if (maxCardinality != -1 && set.size() >= maxCardinality) {
+                if (!truncated[i] && set.find(b, offset, length) == -1) {
+                    truncated[i] = true; // long tail falls into the hashed indices
+                }
+                return;
             }
+            set.addTo(b, offset, length, 0);
+        }
 
-            final int length = identifiers.length;
-            final Object[] partial = new Object[length];
-            for (int i = 0; i < length; i++) {
-                Set<Writable> id = identifiers[i].getMap().keySet();
-                final List<Writable> list = new ArrayList<Writable>(id.size());
-                for (Writable e : id) {
-                    Preconditions.checkNotNull(e);
-                    list.add(e);
+        /**
+         * Serializes distinct values into
+         * <code>vint maxCardinality + 1, vint tailBuckets, vint #features, #features of (vint n, n of (vint length, byte[] value), boolean truncated))</code>
+         * .
+         */
+        @Nonnull
+        byte[] serialize() throws IOException {
+            final Bytes2IntOpenHashTable[] sets = this.sets;
+            Preconditions.checkNotNull(sets);
+            int estimate = 10;
+            for (Bytes2IntOpenHashTable set : sets) {
+                estimate += 5 + set.keyBytes() + set.size() * 2;
+            }
+            final FastByteArrayOutputStream bos = new FastByteArrayOutputStream(estimate);
+            final DataOutputStream out = new DataOutputStream(bos);
+            WritableUtils.writeVInt(out, maxCardinality + 1);
+            WritableUtils.writeVInt(out, tailBuckets);
+            WritableUtils.writeVInt(out, sets.length);
+            byte[] buf = new byte[64];
+            for (int i = 0; i < sets.length; i++) {
+                final Bytes2IntOpenHashTable set = sets[i];
+                final int size = set.size();
+                WritableUtils.writeVInt(out, size);
+                for (int j = 0; j < size; j++) {
+                    int len = set.getKeyLength(j);
+                    if (len > buf.length) {
+                        buf = new byte[Math.max(len, buf.length * 2)];
+                    }
+                    set.getKey(j, buf, 0);
+                    WritableUtils.writeVInt(out, len);
+                    out.write(buf, 0, len);
                 }
-                partial[i] = list;
+                out.writeBoolean(truncated[i]);
             }
-            return partial;
+            out.flush();
+            return bos.toByteArray();
         }
 
-        @SuppressWarnings("unchecked")
-        void merge(@Nonnull final Object partial, @Nonnull final StructObjectInspector mergeOI,
-                @Nonnull final StructField[] fields, @Nonnull final ListObjectInspector[] fieldOIs) {
-            Preconditions.checkArgument(fields.length == fieldOIs.length);
-
-            final int numFields = fieldOIs.length;
-            if (identifiers == null) {
-                this.identifiers = new Identifier[numFields];
+        void merge(@Nonnull final byte[] b, final int length) throws IOException {
+            int pos = 0;
+            final int maxCardinality = WritableComparator.readVInt(b, pos) - 1;
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            final int tailBuckets = WritableComparator.readVInt(b, pos);
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            final int numFeatures = WritableComparator.readVInt(b, pos);
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            if (sets == null) {
+                init(numFeatures, maxCardinality, tailBuckets);
+            }
+            if (sets.length != numFeatures) {
+                throw new IOException("Mismatched number of features: " + sets.length + " != "
+                        + numFeatures);
             }
-            Preconditions.checkArgument(fields.length == identifiers.length);
 
-            for (int i = 0; i < numFields; i++) {
-                Identifier<Writable> id = identifiers[i];
-                if (id == null) {
-                    id = new Identifier<>(1);
-                    identifiers[i] = id;
+            for (int i = 0; i < numFeatures; i++) {
+                final int size = WritableComparator.readVInt(b, pos);
+                pos += WritableUtils.decodeVIntSize(b[pos]);
+                for (int j = 0; j < size; j++) {
+                    final int len = WritableComparator.readVInt(b, pos);
+                    pos += WritableUtils.decodeVIntSize(b[pos]);
+                    if (pos + len > length) {
+                        throw new IOException("Distinct values are truncated");
+                    }
+                    add(i, b, pos, len);
+                    pos += len;
+                }
+                if (pos >= length) {
+                    throw new IOException("Distinct values are truncated");
                 }
-                final Object fieldData = mergeOI.getStructFieldData(partial, fields[i]);
-                final ListObjectInspector fieldOI = fieldOIs[i];
-                for (int j = 0, size = fieldOI.getListLength(fieldData); j < size; j++) {
-                    Object o = fieldOI.getListElement(fieldData, j);
-                    Preconditions.checkNotNull(o);
-                    id.valueOf((Writable) o);
+                if (b[pos++] != 0) {
+                    truncated[i] = true;
                 }
             }
         }
 
+        /**
+         * Assigns indices starting from 1 to the distinct values of features in the order of
+         * appearance, followed by the range of hashed indices if the cardinality is bounded.
+         */
         @Nullable
-        Object[] terminate() {
-            if (identifiers == null) {
+        Object[] terminate(@Nonnull final PrimitiveObjectInspector[] keyOIs)
+                throws HiveException {
+            if (sets == null) {
                 return null;
             }
-            final Object[] ret = new Object[identifiers.length];
+            final boolean capped = (maxCardinality != -1);
+            final Object[] ret = new Object[capped ? sets.length + 3 : sets.length];
+            final DataInputBuffer in = new DataInputBuffer();
+            byte[] buf = new byte[64];
             int max = 0;
-            for (int i = 0; i < identifiers.length; i++) {
-                final Map<Writable, Integer> m = identifiers[i].getMap();
-                if (max != 0) {
-                    for (Map.Entry<Writable, Integer> e : m.entrySet()) {
-                        int original = e.getValue().intValue();
-                        e.setValue(Integer.valueOf(max + original));
+            for (int i = 0; i < sets.length; i++) {
+                final Bytes2IntOpenHashTable set = sets[i];
+                final Class<?> keyClass = keyOIs[i].getPrimitiveWritableClass();
+                final int size = set.size();
+                final Map<Writable, Integer> m = new HashMap<Writable, Integer>(
+                    (int) (size / 0.75f) + 1);
+                for (int j = 0; j < size; j++) {
+                    int len = set.getKeyLength(j);
+                    if (len > buf.length) {
+                        buf = new byte[Math.max(len, buf.length * 2)];
                     }
+                    set.getKey(j, buf, 0);
+                    in.reset(buf, len);
+                    Writable key = (Writable) ReflectionUtils.newInstance(keyClass, null);
+                    try {
+                        key.readFields(in);
+                    } catch (IOException e) {
+                        throw new HiveException("Failed to deserialize a value of "
+                                + keyClass.getSimpleName(), e);
+                    }
+                    m.put(key, Integer.valueOf(max + j + 1));
                 }
                 ret[i] = m;
-                max += m.size();
+                max += size;
+            }
+            if (capped) {
+                final List<Boolean> truncatedList = new ArrayList<Boolean>(sets.length);
+                for (boolean t : truncated) {
+                    truncatedList.add(Boolean.valueOf(t));
+                }
+                ret[sets.length] = Integer.valueOf(max);
+                ret[sets.length + 1] = Integer.valueOf(tailBuckets);
+                ret[sets.length + 2] = truncatedList;
             }
             return ret;
         }
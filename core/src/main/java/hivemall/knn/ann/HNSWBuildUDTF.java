@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.UDTFWithOptions;
+import hivemall.knn.ann.HNSWIndex.Metric;
+import hivemall.utils.codec.Base91;
+import hivemall.utils.codec.DeflateCodec;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Builds an HNSW graph over the given vectors and emits it as a Base91-encoded compressed model
+ * when the task closes. Run it in a single task (e.g., after `CLUSTER BY` a constant) to get one
+ * index, or in several tasks to get shards that `hnsw_knn` searches together.
+ */
+@Description(name = "hnsw_build",
+        value = "_FUNC_(bigint id, array<float|double|string> features [, const string options])"
+                + " - Returns a relation consists of <string model>")
+public final class HNSWBuildUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(HNSWBuildUDTF.class);
+
+    private PrimitiveObjectInspector idOI;
+    private VectorBuffer vector;
+
+    // Options
+    private Metric metric;
+    private int M;
+    private int efConstruction;
+    private long seed;
+
+    private HNSWIndex index;
+
+    public HNSWBuildUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("metric", true, "Distance metric [cosine, euclid] (default: cosine)");
+        opts.addOption("M", "max_links", true,
+            "The maximum number of links of a node, doubled in the bottom layer [default: 16]");
+        opts.addOption("ef", "ef_construction", true,
+            "The size of candidate list on construction [default: 200]");
+        opts.addOption("seed", true, "Seed value for the level generator [default: 31]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        CommandLine cl = null;
+        String metricName = null;
+        int M = 16;
+        int efConstruction = 200;
+        long seed = 31L;
+
+        if (argOIs.length >= 3) {
+            String rawArgs = HiveUtils.getConstString(argOIs[2]);
+            cl = parseOptions(rawArgs);
+            metricName = cl.getOptionValue("metric");
+            M = Primitives.parseInt(cl.getOptionValue("max_links"), M);
+            if (M < 2) {
+                throw new UDFArgumentException("`-M` must be greater than 1: " + M);
+            }
+            efConstruction = Primitives.parseInt(cl.getOptionValue("ef_construction"),
+                efConstruction);
+            if (efConstruction < 1) {
+                throw new UDFArgumentException("`-ef_construction` must be positive: "
+                        + efConstruction);
+            }
+            seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
+        }
+        try {
+            this.metric = Metric.resolve(metricName);
+        } catch (IllegalArgumentException e) {
+            throw new UDFArgumentException(e.getMessage());
+        }
+        this.M = M;
+        this.efConstruction = efConstruction;
+        this.seed = seed;
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 2 && argOIs.length != 3) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 2 or 3 arguments: bigint id, array<float|double|string> features [, const string options]");
+        }
+        this.idOI = HiveUtils.asLongCompatibleOI(argOIs[0]);
+        this.vector = new VectorBuffer(argOIs[1]);
+
+        processOptions(argOIs);
+
+        this.index = null;
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("model");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        final Object arg0 = args[0];
+        final VectorBuffer vector = this.vector;
+        if (arg0 == null || !vector.parse(args[1])) {
+            return;
+        }
+        final long id = PrimitiveObjectInspectorUtils.getLong(arg0, idOI);
+
+        HNSWIndex index = this.index;
+        if (index == null) {
+            int dims = vector.isDense() ? vector.length() : 0;
+            if (vector.isDense() && dims == 0) {
+                throw new HiveException("Dense vector must not be empty");
+            }
+            index = new HNSWIndex(metric, dims, M, efConstruction, seed);
+            this.index = index;
+        }
+
+        try {
+            if (vector.isDense()) {
+                index.add(id, vector.toDense());
+            } else {
+                index.add(id, vector.indices(), vector.values(), vector.length());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage() + " for id " + id, e);
+        }
+    }
+
+    @Override
+    public void close() throws HiveException {
+        final HNSWIndex index = this.index;
+        if (index == null) {
+            return;
+        }
+        this.index = null;
+
+        final StopWatch elapsed = new StopWatch();
+        final byte[] model;
+        try {
+            model = serialize(index);
+        } catch (IOException e) {
+            throw new HiveException("Failed to serialize an HNSW index", e);
+        }
+        logger.info("Built an HNSW index of " + index.size() + " vectors ("
+                + NumberUtils.prettySize(model.length) + ") and serialized in " + elapsed);
+        forward(new Object[] {new Text(model)});
+    }
+
+    @Nonnull
+    static byte[] serialize(@Nonnull final HNSWIndex index) throws IOException {
+        byte[] b = index.serialize();
+        final DeflateCodec codec = new DeflateCodec(true, false);
+        try {
+            b = codec.compress(b);
+        } finally {
+            IOUtils.closeQuietly(codec);
+        }
+        return Base91.encode(b);
+    }
+
+    @Nonnull
+    static HNSWIndex deserialize(@Nonnull final byte[] b, final int len) throws IOException {
+        byte[] decoded = Base91.decode(b, 0, len);
+        final DeflateCodec codec = new DeflateCodec(false, true);
+        try {
+            decoded = codec.decompress(decoded);
+        } finally {
+            IOUtils.closeQuietly(codec);
+        }
+        try {
+            return HNSWIndex.deserialize(decoded, 0, decoded.length);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed HNSW index", e);
+        }
+    }
+
+}
@@ -0,0 +1,830 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.utils.lang.SizeOf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Hierarchical Navigable Small World (HNSW) graph for approximate nearest neighbor search over
+ * dense or sparse vectors.
+ *
+ * Vectors are kept in flat arrays: {@code values[i * dims + j]} for dense vectors, or CSR arrays of
+ * sorted indices and values for sparse vectors (dims = 0). Links of the bottom layer are kept in a
+ * flat {@code int[]} of fixed stride, and those of upper layers, which only a small fraction of
+ * nodes have, in a per-node {@code int[]}.
+ *
+ * @link https://arxiv.org/abs/1603.09320
+ */
+@NotThreadSafe
+public final class HNSWIndex {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final byte VERSION = 1;
+    private static final int MAX_LEVEL = 16;
+
+    public enum Metric {
+        cosine, euclid;
+
+        @Nonnull
+        public static Metric resolve(@Nullable final String name) {
+            if (name == null) {
+                return cosine;
+            }
+            try {
+                return valueOf(name.toLowerCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported metric: " + name);
+            }
+        }
+    }
+
+    @Nonnull
+    private final Metric metric;
+    /** the number of dimensions of dense vectors, or 0 for sparse vectors */
+    @Nonnegative
+    private final int dims;
+    /** the maximum number of links of a node in upper layers */
+    private final int M;
+    /** the maximum number of links of a node in the bottom layer */
+    private final int M0;
+    private final int efConstruction;
+    private final double levelMult;
+    @Nullable
+    private final Random rnd;
+
+    // vectors
+    private int size;
+    @Nonnull
+    private long[] ids;
+    @Nonnull
+    private int[] offsets;
+    @Nonnull
+    private int[] indices;
+    @Nonnull
+    private float[] values;
+    /** L2 norm for cosine, squared L2 norm for euclid */
+    @Nonnull
+    private float[] norms;
+
+    // graph
+    @Nonnull
+    private byte[] levels;
+    /** [count, link*M0] of each node */
+    @Nonnull
+    private int[] layer0;
+    /** [count, link*M] of each level above the bottom layer */
+    @Nonnull
+    private int[][] upperLinks;
+    private int entryPoint;
+    private int maxLevel;
+
+    // query state
+    @Nullable
+    private int[] qIndices;
+    @Nonnull
+    private float[] qValues;
+    private int qOffset, qLength;
+    private float qNorm;
+
+    // work buffers
+    @Nonnull
+    private int[] visited;
+    private int visitedEpoch;
+    @Nonnull
+    private final Heap candidates, results;
+    @Nonnull
+    private int[] selIds;
+    @Nonnull
+    private float[] selDists;
+
+    /**
+     * @param dims the number of dimensions of dense vectors, or 0 for sparse vectors
+     * @param M the maximum number of links of a node, which is doubled for the bottom layer
+     * @param efConstruction the size of dynamic candidate list at construction
+     */
+    public HNSWIndex(@Nonnull Metric metric, @Nonnegative int dims, int M, int efConstruction,
+            long seed) {
+        this(metric, dims, M, efConstruction, new Random(seed), 1024);
+    }
+
+    private HNSWIndex(@Nonnull Metric metric, @Nonnegative int dims, int M, int efConstruction,
+            @Nullable Random rnd, int capacity) {
+        if (dims < 0) {
+            throw new IllegalArgumentException("dims must be non-negative: " + dims);
+        }
+        if (M < 2) {
+            throw new IllegalArgumentException("M must be greater than 1: " + M);
+        }
+        if (efConstruction < 1) {
+            throw new IllegalArgumentException("efConstruction must be positive: "
+                    + efConstruction);
+        }
+        this.metric = metric;
+        this.dims = dims;
+        this.M = M;
+        this.M0 = M * 2;
+        this.efConstruction = efConstruction;
+        this.levelMult = 1.d / Math.log(M);
+        this.rnd = rnd;
+
+        capacity = Math.max(capacity, 1);
+        this.size = 0;
+        this.ids = new long[capacity];
+        this.offsets = new int[capacity + 1];
+        this.indices = new int[(dims == 0) ? capacity * 16 : 0];
+        this.values = new float[(dims == 0) ? capacity * 16 : capacity * dims];
+        this.norms = new float[capacity];
+        this.levels = new byte[capacity];
+        this.layer0 = new int[capacity * (M0 + 1)];
+        this.upperLinks = new int[capacity][];
+        this.entryPoint = -1;
+        this.maxLevel = -1;
+
+        this.qValues = values;
+        this.visited = new int[capacity];
+        this.visitedEpoch = 0;
+        this.candidates = new Heap(false);
+        this.results = new Heap(true);
+        this.selIds = new int[M0 + 1];
+        this.selDists = new float[M0 + 1];
+    }
+
+    @Nonnull
+    public Metric getMetric() {
+        return metric;
+    }
+
+    public int getDimensions() {
+        return dims;
+    }
+
+    public boolean isDense() {
+        return dims > 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getId(final int node) {
+        return ids[node];
+    }
+
+    /**
+     * Adds a dense vector and links it into the graph.
+     */
+    public void add(final long id, @Nonnull final float[] vector) {
+        if (dims == 0) {
+            throw new IllegalStateException("Dense vector is given for a sparse index");
+        }
+        if (vector.length != dims) {
+            throw new IllegalArgumentException("Expected " + dims + " dimensions but was "
+                    + vector.length);
+        }
+        final int node = size;
+        ensureCapacity(node + 1, 0);
+        System.arraycopy(vector, 0, values, node * dims, dims);
+        insert(node, id);
+    }
+
+    /**
+     * Adds a sparse vector of which indices are sorted in ascending order and links it into the
+     * graph.
+     */
+    public void add(final long id, @Nonnull final int[] idx, @Nonnull final float[] val,
+            final int length) {
+        if (dims != 0) {
+            throw new IllegalStateException("Sparse vector is given for a dense index");
+        }
+        final int node = size;
+        final int start = offsets[node];
+        ensureCapacity(node + 1, start + length);
+        System.arraycopy(idx, 0, indices, start, length);
+        System.arraycopy(val, 0, values, start, length);
+        offsets[node + 1] = start + length;
+        insert(node, id);
+    }
+
+    private void ensureCapacity(final int numNodes, final int nnz) {
+        if (numNodes > ids.length) {
+            final int cap = Math.max(numNodes, ids.length * 2);
+            this.ids = Arrays.copyOf(ids, cap);
+            this.offsets = Arrays.copyOf(offsets, cap + 1);
+            this.norms = Arrays.copyOf(norms, cap);
+            this.levels = Arrays.copyOf(levels, cap);
+            this.layer0 = Arrays.copyOf(layer0, cap * (M0 + 1));
+            this.upperLinks = Arrays.copyOf(upperLinks, cap);
+            this.visited = Arrays.copyOf(visited, cap);
+            if (dims > 0) {
+                this.values = Arrays.copyOf(values, cap * dims);
+            }
+        }
+        if (dims == 0 && nnz > values.length) {
+            final int cap = Math.max(nnz, values.length * 2);
+            this.indices = Arrays.copyOf(indices, cap);
+            this.values = Arrays.copyOf(values, cap);
+        }
+    }
+
+    private void insert(final int node, final long id) {
+        if (rnd == null) {
+            throw new IllegalStateException("Cannot add a vector to a deserialized index");
+        }
+        ids[node] = id;
+        norms[node] = computeNorm(node);
+        size = node + 1;
+
+        int level = (int) (-Math.log(1.d - rnd.nextDouble()) * levelMult);
+        level = Math.min(level, MAX_LEVEL);
+        levels[node] = (byte) level;
+        if (level > 0) {
+            upperLinks[node] = new int[level * (M + 1)];
+        }
+
+        if (entryPoint < 0) {
+            this.entryPoint = node;
+            this.maxLevel = level;
+            return;
+        }
+
+        setQueryNode(node);
+        int cur = entryPoint;
+        float curDist = distance(cur);
+        for (int l = maxLevel; l > level; l--) {
+            cur = greedySearch(cur, curDist, l);
+            curDist = distance(cur);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            searchLayer(cur, curDist, efConstruction, l);
+            final int numResults = drainResults();
+            // the closest one is the entry point of the next layer
+            cur = selIds[0];
+            curDist = selDists[0];
+            final int numSelected = selectNeighbors(selIds, selDists, numResults, M);
+            connect(node, l, selIds, numSelected);
+        }
+
+        if (level > maxLevel) {
+            this.entryPoint = node;
+            this.maxLevel = level;
+        }
+    }
+
+    /**
+     * Sets links of a new node and adds a reverse link to each neighbor, pruning the neighbor's
+     * links by the heuristic when it is full.
+     */
+    private void connect(final int node, final int level, @Nonnull final int[] neighbors,
+            final int numNeighbors) {
+        final int[] links = links(node, level);
+        final int base = linkBase(node, level);
+        links[base] = numNeighbors;
+        System.arraycopy(neighbors, 0, links, base + 1, numNeighbors);
+        final int[] targets = Arrays.copyOf(neighbors, numNeighbors);
+
+        final int maxLinks = (level == 0) ? M0 : M;
+        for (int e : targets) {
+            final int[] eLinks = links(e, level);
+            final int eBase = linkBase(e, level);
+            final int count = eLinks[eBase];
+            if (count < maxLinks) {
+                eLinks[eBase + 1 + count] = node;
+                eLinks[eBase] = count + 1;
+                continue;
+            }
+            // prune links of e by the heuristic
+            final int[] ids = selIds;
+            final float[] dists = selDists;
+            for (int i = 0; i < count; i++) {
+                int n = eLinks[eBase + 1 + i];
+                ids[i] = n;
+                dists[i] = nodeDistance(e, n);
+            }
+            ids[count] = node;
+            dists[count] = nodeDistance(e, node);
+            sortByDistance(ids, dists, count + 1);
+            final int numSelected = selectNeighbors(ids, dists, count + 1, maxLinks);
+            System.arraycopy(ids, 0, eLinks, eBase + 1, numSelected);
+            eLinks[eBase] = numSelected;
+        }
+    }
+
+    /**
+     * Selects up to m neighbors from candidates sorted by distance in ascending order so that a
+     * candidate closer to an already selected neighbor than to the base is skipped. Selected ones
+     * are moved to the head of the arrays.
+     */
+    private int selectNeighbors(@Nonnull final int[] ids, @Nonnull final float[] dists,
+            final int numCandidates, final int m) {
+        if (numCandidates <= m) {
+            return numCandidates;
+        }
+        int numSelected = 0;
+        for (int i = 0; i < numCandidates && numSelected < m; i++) {
+            final int c = ids[i];
+            final float d = dists[i];
+            boolean good = true;
+            for (int j = 0; j < numSelected; j++) {
+                if (nodeDistance(c, ids[j]) < d) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                ids[numSelected] = c;
+                dists[numSelected] = d;
+                numSelected++;
+            }
+        }
+        return numSelected;
+    }
+
+    @Nonnull
+    private int[] links(final int node, final int level) {
+        return (level == 0) ? layer0 : upperLinks[node];
+    }
+
+    private int linkBase(final int node, final int level) {
+        return (level == 0) ? node * (M0 + 1) : (level - 1) * (M + 1);
+    }
+
+    private int greedySearch(int cur, float curDist, final int level) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            final int[] links = links(cur, level);
+            final int base = linkBase(cur, level);
+            for (int i = 1, end = links[base]; i <= end; i++) {
+                final int e = links[base + i];
+                final float d = distance(e);
+                if (d < curDist) {
+                    cur = e;
+                    curDist = d;
+                    changed = true;
+                }
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * Searches the nearest ef nodes to the query in a layer into {@link #results}.
+     */
+    private void searchLayer(final int ep, final float epDist, final int ef, final int level) {
+        final int epoch = nextVisitedEpoch();
+        final int[] visited = this.visited;
+        final Heap candidates = this.candidates;
+        final Heap results = this.results;
+        candidates.clear();
+        results.clear();
+
+        visited[ep] = epoch;
+        candidates.push(epDist, ep);
+        results.push(epDist, ep);
+        while (candidates.size() > 0) {
+            final float cDist = candidates.peekKey();
+            if (cDist > results.peekKey() && results.size() >= ef) {
+                break;
+            }
+            final int c = candidates.pop();
+            final int[] links = links(c, level);
+            final int base = linkBase(c, level);
+            for (int i = 1, end = links[base]; i <= end; i++) {
+                final int e = links[base + i];
+                if (visited[e] == epoch) {
+                    continue;
+                }
+                visited[e] = epoch;
+                final float d = distance(e);
+                if (results.size() < ef || d < results.peekKey()) {
+                    candidates.push(d, e);
+                    results.push(d, e);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+    }
+
+    private int nextVisitedEpoch() {
+        if (++visitedEpoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            this.visitedEpoch = 1;
+        }
+        return visitedEpoch;
+    }
+
+    /**
+     * Moves {@link #results} to {@link #selIds} and {@link #selDists} in ascending order of
+     * distance.
+     */
+    private int drainResults() {
+        final Heap results = this.results;
+        final int n = results.size();
+        if (selIds.length < n) {
+            this.selIds = new int[Math.max(n, M0 + 1)];
+            this.selDists = new float[selIds.length];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            selDists[i] = results.peekKey();
+            selIds[i] = results.pop();
+        }
+        return n;
+    }
+
+    /**
+     * Searches the approximate k nearest neighbors of a dense query vector.
+     *
+     * @return the number of neighbors put in {@code nodes} and {@code dists}, in ascending order of
+     *         distance
+     */
+    public int search(@Nonnull final float[] query, final int k, final int ef,
+            @Nonnull final int[] nodes, @Nonnull final float[] dists) {
+        if (dims == 0) {
+            throw new IllegalStateException("Dense query is given for a sparse index");
+        }
+        if (query.length != dims) {
+            throw new IllegalArgumentException("Expected " + dims + " dimensions but was "
+                    + query.length);
+        }
+        setQuery(null, query, dims);
+        return search(k, ef, nodes, dists);
+    }
+
+    /**
+     * Searches the approximate k nearest neighbors of a sparse query vector of which indices are
+     * sorted in ascending order.
+     *
+     * @return the number of neighbors put in {@code nodes} and {@code dists}, in ascending order of
+     *         distance
+     */
+    public int search(@Nonnull final int[] idx, @Nonnull final float[] val, final int length,
+            final int k, final int ef, @Nonnull final int[] nodes, @Nonnull final float[] dists) {
+        if (dims != 0) {
+            throw new IllegalStateException("Sparse query is given for a dense index");
+        }
+        setQuery(idx, val, length);
+        return search(k, ef, nodes, dists);
+    }
+
+    private int search(final int k, final int ef, @Nonnull final int[] nodes,
+            @Nonnull final float[] dists) {
+        if (entryPoint < 0 || k <= 0) {
+            return 0;
+        }
+        int cur = entryPoint;
+        float curDist = distance(cur);
+        for (int l = maxLevel; l > 0; l--) {
+            cur = greedySearch(cur, curDist, l);
+            curDist = distance(cur);
+        }
+        searchLayer(cur, curDist, Math.max(ef, k), 0);
+        final int n = drainResults();
+        final int numResults = Math.min(Math.min(n, k), nodes.length);
+        for (int i = 0; i < numResults; i++) {
+            nodes[i] = selIds[i];
+            dists[i] = finalizeDistance(selDists[i]);
+        }
+        return numResults;
+    }
+
+    // ------------------------------------------------------------
+    // distance
+
+    private float computeNorm(final int node) {
+        float sum = 0.f;
+        final float[] values = this.values;
+        final int start = (dims > 0) ? node * dims : offsets[node];
+        final int end = (dims > 0) ? start + dims : offsets[node + 1];
+        for (int i = start; i < end; i++) {
+            sum += values[i] * values[i];
+        }
+        return (metric == Metric.cosine) ? (float) Math.sqrt(sum) : sum;
+    }
+
+    private void setQueryNode(final int node) {
+        this.qIndices = (dims > 0) ? null : indices;
+        this.qValues = values;
+        this.qOffset = (dims > 0) ? node * dims : offsets[node];
+        this.qLength = (dims > 0) ? dims : offsets[node + 1] - offsets[node];
+        this.qNorm = norms[node];
+    }
+
+    private void setQuery(@Nullable final int[] idx, @Nonnull final float[] val, final int length) {
+        this.qIndices = idx;
+        this.qValues = val;
+        this.qOffset = 0;
+        this.qLength = length;
+        float sum = 0.f;
+        for (int i = 0; i < length; i++) {
+            sum += val[i] * val[i];
+        }
+        this.qNorm = (metric == Metric.cosine) ? (float) Math.sqrt(sum) : sum;
+    }
+
+    /**
+     * @return the distance between the query and a node, which is squared for euclid
+     */
+    private float distance(final int node) {
+        return distance(qIndices, qValues, qOffset, qLength, qNorm, node);
+    }
+
+    private float nodeDistance(final int a, final int b) {
+        if (dims > 0) {
+            return distance(null, values, a * dims, dims, norms[a], b);
+        }
+        int start = offsets[a];
+        return distance(indices, values, start, offsets[a + 1] - start, norms[a], b);
+    }
+
+    private float distance(@Nullable final int[] aIdx, @Nonnull final float[] aVal,
+            final int aOff, final int aLen, final float aNorm, final int b) {
+        final float[] values = this.values;
+        if (dims > 0) {
+            final int bOff = b * dims;
+            if (metric == Metric.euclid) {
+                float sum = 0.f;
+                for (int i = 0; i < dims; i++) {
+                    float diff = aVal[aOff + i] - values[bOff + i];
+                    sum += diff * diff;
+                }
+                return sum;
+            }
+            float dot = 0.f;
+            for (int i = 0; i < dims; i++) {
+                dot += aVal[aOff + i] * values[bOff + i];
+            }
+            return cosineDistance(dot, aNorm, norms[b]);
+        }
+
+        // merge join of sorted indices
+        final int[] indices = this.indices;
+        float dot = 0.f;
+        int i = aOff, j = offsets[b];
+        final int aEnd = aOff + aLen, bEnd = offsets[b + 1];
+        while (i < aEnd && j < bEnd) {
+            final int ai = aIdx[i], bj = indices[j];
+            if (ai == bj) {
+                dot += aVal[i] * values[j];
+                i++;
+                j++;
+            } else if (ai < bj) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        if (metric == Metric.euclid) {
+            return Math.max(0.f, aNorm + norms[b] - 2.f * dot);
+        }
+        return cosineDistance(dot, aNorm, norms[b]);
+    }
+
+    private static float cosineDistance(final float dot, final float aNorm, final float bNorm) {
+        if (aNorm == 0.f || bNorm == 0.f) {
+            return 1.f;
+        }
+        return 1.f - dot / (aNorm * bNorm);
+    }
+
+    private float finalizeDistance(final float d) {
+        return (metric == Metric.euclid) ? (float) Math.sqrt(d) : d;
+    }
+
+    private static void sortByDistance(@Nonnull final int[] ids, @Nonnull final float[] dists,
+            final int n) {
+        // insertion sort as n is at most M0 + 1
+        for (int i = 1; i < n; i++) {
+            final int id = ids[i];
+            final float d = dists[i];
+            int j = i - 1;
+            for (; j >= 0 && dists[j] > d; j--) {
+                ids[j + 1] = ids[j];
+                dists[j + 1] = dists[j];
+            }
+            ids[j + 1] = id;
+            dists[j + 1] = d;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // serialization
+
+    @Nonnull
+    public byte[] serialize() {
+        final int n = size;
+        final int nnz = (dims > 0) ? n * dims : offsets[n];
+        long bytes = SizeOf.INT + 2 + SizeOf.INT * 6L;
+        bytes += (SizeOf.LONG + 1L) * n;
+        bytes += (dims > 0) ? SizeOf.FLOAT * (long) nnz : SizeOf.INT * (n + 1L)
+                + (SizeOf.INT + SizeOf.FLOAT) * (long) nnz;
+        bytes += SizeOf.INT * (long) n * (M0 + 1);
+        for (int i = 0; i < n; i++) {
+            bytes += SizeOf.INT * (long) levels[i] * (M + 1);
+        }
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too large index to serialize: " + bytes + " bytes");
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate((int) bytes);
+        buf.putInt(MAGIC);
+        buf.put(VERSION);
+        buf.put((byte) metric.ordinal());
+        buf.putInt(dims);
+        buf.putInt(M);
+        buf.putInt(efConstruction);
+        buf.putInt(n);
+        buf.putInt(entryPoint);
+        buf.putInt(maxLevel);
+        buf.asLongBuffer().put(ids, 0, n);
+        buf.position(buf.position() + SizeOf.LONG * n);
+        buf.put(levels, 0, n);
+        if (dims == 0) {
+            putInts(buf, offsets, n + 1);
+            putInts(buf, indices, nnz);
+        }
+        buf.asFloatBuffer().put(values, 0, nnz);
+        buf.position(buf.position() + SizeOf.FLOAT * nnz);
+        putInts(buf, layer0, n * (M0 + 1));
+        for (int i = 0; i < n; i++) {
+            if (levels[i] > 0) {
+                putInts(buf, upperLinks[i], upperLinks[i].length);
+            }
+        }
+        assert (!buf.hasRemaining());
+        return buf.array();
+    }
+
+    @Nonnull
+    public static HNSWIndex deserialize(@Nonnull final byte[] b, final int off, final int len) {
+        final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+        if (buf.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not an HNSW index");
+        }
+        final byte version = buf.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported HNSW index version: " + version);
+        }
+        final Metric metric = Metric.values()[buf.get()];
+        final int dims = buf.getInt();
+        final int M = buf.getInt();
+        final int efConstruction = buf.getInt();
+        final int n = buf.getInt();
+
+        final HNSWIndex index = new HNSWIndex(metric, dims, M, efConstruction, null, n);
+        index.entryPoint = buf.getInt();
+        index.maxLevel = buf.getInt();
+        buf.asLongBuffer().get(index.ids, 0, n);
+        buf.position(buf.position() + SizeOf.LONG * n);
+        buf.get(index.levels, 0, n);
+        final int nnz;
+        if (dims == 0) {
+            getInts(buf, index.offsets, n + 1);
+            nnz = index.offsets[n];
+            index.indices = new int[nnz];
+            index.values = new float[nnz];
+            getInts(buf, index.indices, nnz);
+        } else {
+            nnz = n * dims;
+        }
+        buf.asFloatBuffer().get(index.values, 0, nnz);
+        buf.position(buf.position() + SizeOf.FLOAT * nnz);
+        getInts(buf, index.layer0, n * (index.M0 + 1));
+        for (int i = 0; i < n; i++) {
+            final int level = index.levels[i];
+            if (level > 0) {
+                int[] links = new int[level * (M + 1)];
+                getInts(buf, links, links.length);
+                index.upperLinks[i] = links;
+            }
+        }
+        index.size = n;
+        for (int i = 0; i < n; i++) {
+            index.norms[i] = index.computeNorm(i);
+        }
+        return index;
+    }
+
+    private static void putInts(@Nonnull final ByteBuffer buf, @Nonnull final int[] src,
+            final int length) {
+        buf.asIntBuffer().put(src, 0, length);
+        buf.position(buf.position() + SizeOf.INT * length);
+    }
+
+    private static void getInts(@Nonnull final ByteBuffer buf, @Nonnull final int[] dst,
+            final int length) {
+        buf.asIntBuffer().get(dst, 0, length);
+        buf.position(buf.position() + SizeOf.INT * length);
+    }
+
+    /**
+     * A binary heap of (float key, int value) pairs.
+     */
+    private static final class Heap {
+
+        private final boolean maxHeap;
+        @Nonnull
+        private float[] keys;
+        @Nonnull
+        private int[] vals;
+        private int size;
+
+        Heap(boolean maxHeap) {
+            this.maxHeap = maxHeap;
+            this.keys = new float[64];
+            this.vals = new int[64];
+            this.size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        float peekKey() {
+            return keys[0];
+        }
+
+        private boolean above(final float a, final float b) {
+            return maxHeap ? a > b : a < b;
+        }
+
+        void push(final float key, final int val) {
+            if (size == keys.length) {
+                this.keys = Arrays.copyOf(keys, size * 2);
+                this.vals = Arrays.copyOf(vals, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (!above(key, keys[parent])) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                vals[i] = vals[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            vals[i] = val;
+        }
+
+        int pop() {
+            final int top = vals[0];
+            final int last = --size;
+            if (last > 0) {
+                final float key = keys[last];
+                final int val = vals[last];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= last) {
+                        break;
+                    }
+                    if (child + 1 < last && above(keys[child + 1], keys[child])) {
+                        child++;
+                    }
+                    if (!above(keys[child], key)) {
+                        break;
+                    }
+                    keys[i] = keys[child];
+                    vals[i] = vals[child];
+                    i = child;
+                }
+                keys[i] = key;
+                vals[i] = val;
+            }
+            return top;
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.UDTFWithOptions;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.HadoopUtils;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Map-side k-NN search over HNSW indexes built by `hnsw_build`. A file or directory of the model
+ * table put in the distributed cache is loaded once per task, and each line is regarded as an index
+ * shard. Neighbors of all the shards are merged by distance.
+ */
+@Description(name = "hnsw_knn",
+        value = "_FUNC_(array<float|double|string> features, const string filepath [, const string options])"
+                + " - Returns a relation consists of <int rank, bigint id, float distance>")
+public final class HNSWSearchUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(HNSWSearchUDTF.class);
+
+    private VectorBuffer vector;
+    private String modelPath;
+
+    // Options
+    private int k;
+    private int ef;
+
+    private HNSWIndex[] shards;
+
+    // work buffers
+    private int[] nodes;
+    private float[] dists;
+    private long[] mergedIds;
+    private float[] mergedDists;
+    private int[] order;
+    private Object[] forwardObjs;
+    private IntWritable rank;
+    private LongWritable id;
+    private FloatWritable distance;
+
+    public HNSWSearchUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("k", true, "The number of neighbors to return [default: 10]");
+        opts.addOption("ef", true,
+            "The size of candidate list on search, which trades latency for recall [default: max(k, 64)]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        CommandLine cl = null;
+        int k = 10;
+        int ef = -1;
+
+        if (argOIs.length >= 3) {
+            String rawArgs = HiveUtils.getConstString(argOIs[2]);
+            cl = parseOptions(rawArgs);
+            k = Primitives.parseInt(cl.getOptionValue("k"), k);
+            if (k < 1) {
+                throw new UDFArgumentException("`-k` must be positive: " + k);
+            }
+            ef = Primitives.parseInt(cl.getOptionValue("ef"), ef);
+        }
+        this.k = k;
+        this.ef = (ef < 1) ? Math.max(k, 64) : Math.max(ef, k);
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 2 && argOIs.length != 3) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 2 or 3 arguments: array<float|double|string> features, const string filepath [, const string options]");
+        }
+        this.vector = new VectorBuffer(argOIs[0]);
+        this.modelPath = HiveUtils.getConstString(argOIs[1]);
+
+        processOptions(argOIs);
+
+        this.shards = null;
+        this.rank = new IntWritable();
+        this.id = new LongWritable();
+        this.distance = new FloatWritable();
+        this.forwardObjs = new Object[] {rank, id, distance};
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("rank");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("id");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        fieldNames.add("distance");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (shards == null) {
+            loadModel(new File(modelPath));
+        }
+        final VectorBuffer vector = this.vector;
+        if (!vector.parse(args[0])) {
+            return;
+        }
+
+        final HNSWIndex[] shards = this.shards;
+        int numMerged = 0;
+        for (HNSWIndex index : shards) {
+            final int n;
+            try {
+                if (index.isDense()) {
+                    n = index.search(vector.toDense(), k, ef, nodes, dists);
+                } else {
+                    n = index.search(vector.indices(), vector.values(), vector.length(), k, ef,
+                        nodes, dists);
+                }
+            } catch (IllegalStateException e) {
+                throw new HiveException(e.getMessage(), e);
+            } catch (IllegalArgumentException e) {
+                throw new HiveException(e.getMessage(), e);
+            }
+            for (int i = 0; i < n; i++) {
+                mergedIds[numMerged] = index.getId(nodes[i]);
+                mergedDists[numMerged] = dists[i];
+                numMerged++;
+            }
+        }
+
+        final int[] order = this.order;
+        for (int i = 0; i < numMerged; i++) {
+            order[i] = i;
+        }
+        if (shards.length > 1) {
+            sortByDistance(order, mergedDists, numMerged);
+        }
+        for (int i = 0, size = Math.min(k, numMerged); i < size; i++) {
+            rank.set(i + 1);
+            id.set(mergedIds[order[i]]);
+            distance.set(mergedDists[order[i]]);
+            forward(forwardObjs);
+        }
+    }
+
+    private static void sortByDistance(@Nonnull final int[] order, @Nonnull final float[] dists,
+            final int n) {
+        for (int i = 1; i < n; i++) {
+            final int o = order[i];
+            final float d = dists[o];
+            int j = i - 1;
+            for (; j >= 0 && dists[order[j]] > d; j--) {
+                order[j + 1] = order[j];
+            }
+            order[j + 1] = o;
+        }
+    }
+
+    private void loadModel(@Nonnull final File file) throws HiveException {
+        final StopWatch elapsed = new StopWatch();
+        final List<HNSWIndex> list = new ArrayList<HNSWIndex>();
+        try {
+            loadShards(file, list);
+        } catch (IOException e) {
+            throw new HiveException("Failed to load a model: " + file, e);
+        }
+        if (list.isEmpty()) {
+            throw new HiveException("No HNSW index found in distributed cache: " + file);
+        }
+        this.shards = list.toArray(new HNSWIndex[list.size()]);
+
+        long numVectors = 0L;
+        for (HNSWIndex index : shards) {
+            numVectors += index.size();
+        }
+        this.nodes = new int[k];
+        this.dists = new float[k];
+        this.mergedIds = new long[k * shards.length];
+        this.mergedDists = new float[k * shards.length];
+        this.order = new int[k * shards.length];
+
+        logger.info("Loaded " + shards.length + " HNSW index shard(s) of " + numVectors
+                + " vectors from distributed cache '" + file + "' in " + elapsed);
+    }
+
+    private static void loadShards(@Nonnull final File file, @Nonnull final List<HNSWIndex> list)
+            throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        if (file.getName().endsWith(".crc")) {
+            return;
+        }
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                loadShards(f, list);
+            }
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = HadoopUtils.getBufferedReader(file);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                byte[] b = line.getBytes(StandardCharsets.US_ASCII);
+                list.add(HNSWBuildUDTF.deserialize(b, b.length));
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    @Override
+    public void close() throws HiveException {
+        this.shards = null;
+        this.nodes = null;
+        this.dists = null;
+        this.mergedIds = null;
+        this.mergedDists = null;
+        this.order = null;
+    }
+
+}
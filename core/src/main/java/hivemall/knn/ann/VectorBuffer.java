@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hashing.MurmurHash3;
+import hivemall.utils.lang.ArrayUtils;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+
+/**
+ * Reusable buffer to parse {@code array<float|double>} as a dense vector, or
+ * {@code array<string>} of {@code index[:value]} as a sparse vector of which indices are sorted.
+ * Non-numeric indices are hashed by MurmurHash3.
+ */
+final class VectorBuffer {
+
+    @Nonnull
+    private final ListObjectInspector listOI;
+    @Nonnull
+    private final PrimitiveObjectInspector elemOI;
+    private final boolean dense;
+
+    @Nonnull
+    private int[] indices;
+    @Nonnull
+    private float[] values;
+    @Nonnull
+    private int[] scratch;
+    private int length;
+
+    VectorBuffer(@Nonnull ObjectInspector argOI) throws UDFArgumentException {
+        this.listOI = HiveUtils.asListOI(argOI);
+        ObjectInspector elemOI = listOI.getListElementObjectInspector();
+        if (HiveUtils.isNumberOI(elemOI)) {
+            this.elemOI = HiveUtils.asDoubleCompatibleOI(elemOI);
+            this.dense = true;
+        } else if (HiveUtils.isStringOI(elemOI)) {
+            this.elemOI = HiveUtils.asStringOI(elemOI);
+            this.dense = false;
+        } else {
+            throw new UDFArgumentException(
+                "Features must be array<float|double> or array<string>: " + argOI.getTypeName());
+        }
+        this.indices = new int[16];
+        this.values = new float[16];
+        this.scratch = new int[16];
+    }
+
+    boolean isDense() {
+        return dense;
+    }
+
+    @Nonnull
+    int[] indices() {
+        return indices;
+    }
+
+    @Nonnull
+    float[] values() {
+        return values;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return a dense vector of the exact length
+     */
+    @Nonnull
+    float[] toDense() {
+        return Arrays.copyOf(values, length);
+    }
+
+    /**
+     * @return false if the argument is null
+     */
+    boolean parse(final Object arg) throws HiveException {
+        this.length = 0;
+        if (arg == null) {
+            return false;
+        }
+        final int size = listOI.getListLength(arg);
+        ensureCapacity(size);
+        if (dense) {
+            for (int i = 0; i < size; i++) {
+                Object o = listOI.getListElement(arg, i);
+                values[i] = (o == null) ? 0.f : (float) PrimitiveObjectInspectorUtils.getDouble(
+                    o, elemOI);
+            }
+            this.length = size;
+            return true;
+        }
+
+        int n = 0;
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            Object o = listOI.getListElement(arg, i);
+            if (o == null) {
+                continue;
+            }
+            String s = PrimitiveObjectInspectorUtils.getString(o, elemOI);
+            int pos = s.indexOf(':');
+            if (pos == 0) {
+                throw new HiveException("Invalid feature value representation: " + s);
+            }
+            int end = (pos > 0) ? pos : s.length();
+            indices[n] = parseIndex(s, end);
+            values[n] = (pos > 0) ? Float.parseFloat(s.substring(pos + 1)) : 1.f;
+            if (n > 0 && indices[n] <= indices[n - 1]) {
+                sorted = false;
+            }
+            n++;
+        }
+        if (!sorted) {
+            ArrayUtils.sort(indices, scratch, values, n);
+            // values of duplicate indices are summed up
+            int j = 0;
+            for (int i = 1; i < n; i++) {
+                if (indices[i] == indices[j]) {
+                    values[j] += values[i];
+                } else {
+                    j++;
+                    indices[j] = indices[i];
+                    values[j] = values[i];
+                }
+            }
+            n = (n == 0) ? 0 : j + 1;
+        }
+        this.length = n;
+        return true;
+    }
+
+    private void ensureCapacity(final int size) {
+        if (size > values.length) {
+            int cap = Math.max(size, values.length * 2);
+            this.indices = new int[cap];
+            this.values = new float[cap];
+            this.scratch = new int[cap];
+        }
+    }
+
+    private static int parseIndex(@Nonnull final String s, final int end) {
+        if (end <= 9) {
+            int v = 0;
+            int i = 0;
+            for (; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                v = v * 10 + (c - '0');
+            }
+            if (i == end) {
+                return v;
+            }
+        }
+        int h = MurmurHash3.murmurhash3_x86_32(s, 0, end, 0x9747b28c);
+        return h & 0x7FFFFFFF;
+    }
+
+}
@@ -19,6 +19,7 @@
 package hivemall.knn.distance;
 
 import hivemall.knn.similarity.AngularSimilarityUDF;
+import hivemall.knn.similarity.SparseFeatureVector;
 import hivemall.utils.hadoop.HiveUtils;
 
 import java.util.Arrays;
@@ -31,6 +32,7 @@ import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
 
@@ -43,6 +45,10 @@ import org.apache.hadoop.io.FloatWritable;
 public final class AngularDistanceUDF extends GenericUDF {
 
     private ListObjectInspector arg0ListOI, arg1ListOI;
+    private PrimitiveObjectInspector arg0IntOI, arg1IntOI;
+
+    private final SparseFeatureVector x = new SparseFeatureVector();
+    private final SparseFeatureVector y = new SparseFeatureVector();
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
@@ -51,15 +57,22 @@ public final class AngularDistanceUDF extends GenericUDF {
         }
         this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
         this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.arg0IntOI = SparseFeatureVector.asIntegerElementOI(arg0ListOI);
+        this.arg1IntOI = SparseFeatureVector.asIntegerElementOI(arg1ListOI);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
     }
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float d = 1.f - AngularSimilarityUDF.angularSimilarity(ftvec1, ftvec2);
+        try {
+            x.parseFeatures(arguments[0].get(), arg0ListOI, arg0IntOI);
+            y.parseFeatures(arguments[1].get(), arg1ListOI, arg1IntOI);
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage(), e);
+        }
+        float d = 1.f - AngularSimilarityUDF.angularSimilarity(SparseFeatureVector.cosineSimilarity(
+            x, y));
         return new FloatWritable(d);
     }
 
@@ -18,13 +18,11 @@
  */
 package hivemall.knn.distance;
 
-import hivemall.model.FeatureValue;
+import hivemall.knn.similarity.SparseFeatureVector;
 import hivemall.utils.hadoop.HiveUtils;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
@@ -33,6 +31,7 @@ import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
 
@@ -44,6 +43,10 @@ import org.apache.hadoop.io.FloatWritable;
 public final class EuclidDistanceUDF extends GenericUDF {
 
     private ListObjectInspector arg0ListOI, arg1ListOI;
+    private PrimitiveObjectInspector arg0IntOI, arg1IntOI;
+
+    private final SparseFeatureVector x = new SparseFeatureVector();
+    private final SparseFeatureVector y = new SparseFeatureVector();
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
@@ -52,52 +55,29 @@ public final class EuclidDistanceUDF extends GenericUDF {
         }
         this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
         this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.arg0IntOI = SparseFeatureVector.asIntegerElementOI(arg0ListOI);
+        this.arg1IntOI = SparseFeatureVector.asIntegerElementOI(arg1ListOI);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
     }
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float d = (float) euclidDistance(ftvec1, ftvec2);
+        try {
+            x.parseFeatures(arguments[0].get(), arg0ListOI, arg0IntOI);
+            y.parseFeatures(arguments[1].get(), arg1ListOI, arg1IntOI);
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage(), e);
+        }
+        float d = (float) Math.sqrt(SparseFeatureVector.squaredEuclidDistance(x, y));
         return new FloatWritable(d);
     }
 
     public static double euclidDistance(final List<String> ftvec1, final List<String> ftvec2) {
-        final FeatureValue probe = new FeatureValue();
-        final Map<String, Float> map = new HashMap<String, Float>(ftvec1.size() * 2 + 1);
-        for (String ft : ftvec1) {
-            if (ft == null) {
-                continue;
-            }
-            FeatureValue.parseFeatureAsString(ft, probe);
-            float v1 = probe.getValueAsFloat();
-            String f1 = probe.getFeature();
-            map.put(f1, v1);
-        }
-        double d = 0.d;
-        for (String ft : ftvec2) {
-            if (ft == null) {
-                continue;
-            }
-            FeatureValue.parseFeatureAsString(ft, probe);
-            String f2 = probe.getFeature();
-            float v2f = probe.getValueAsFloat();
-            Float v1 = map.remove(f2);
-            if (v1 == null) {
-                d += (v2f * v2f);
-            } else {
-                float v1f = v1.floatValue();
-                float diff = v1f - v2f;
-                d += (diff * diff);
-            }
-        }
-        for (Map.Entry<String, Float> e : map.entrySet()) {
-            float v1f = e.getValue();
-            d += (v1f * v1f);
-        }
-        return Math.sqrt(d);
+        final SparseFeatureVector[] pair = SparseFeatureVector.localPair();
+        pair[0].parseFeatures(ftvec1);
+        pair[1].parseFeatures(ftvec2);
+        return Math.sqrt(SparseFeatureVector.squaredEuclidDistance(pair[0], pair[1]));
     }
 
     @Override
@@ -22,14 +22,9 @@ import static hivemall.HivemallConstants.BIGINT_TYPE_NAME;
 import static hivemall.HivemallConstants.INT_TYPE_NAME;
 import static hivemall.HivemallConstants.STRING_TYPE_NAME;
 import hivemall.UDTFWithOptions;
-import hivemall.model.FeatureValue;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.hashing.HashFunction;
-import hivemall.utils.hashing.HashFunctionFactory;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
@@ -41,8 +36,11 @@ import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.Text;
 
 /**
  * A Minhash implementation that outputs n different k-depth Signatures.
@@ -56,12 +54,13 @@ public final class MinHashUDTF extends UDTFWithOptions {
 
     private ObjectInspector itemOI;
     private ListObjectInspector featureListOI;
+    private PrimitiveObjectInspector featureOI;
     private boolean parseFeature;
     private Object[] forwardObjs;
 
     private int num_hashes = 5;
     private int num_keygroups = 2;
-    private HashFunction[] hashFuncs;
+    private MinHasher hasher;
 
     @Override
     public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
@@ -79,6 +78,7 @@ public final class MinHashUDTF extends UDTFWithOptions {
             throw new UDFArgumentTypeException(0,
                 "1st argument must be Map of key type [Int|BitInt|Text]: " + keyTypeName);
         }
+        this.featureOI = (PrimitiveObjectInspector) featureRawOI;
         this.parseFeature = STRING_TYPE_NAME.equals(keyTypeName);
         this.forwardObjs = new Object[2];
 
@@ -122,7 +122,11 @@ public final class MinHashUDTF extends UDTFWithOptions {
             }
         }
 
-        this.hashFuncs = HashFunctionFactory.create(num_hashes);
+        try {
+            this.hasher = new MinHasher(num_hashes, num_keygroups);
+        } catch (IllegalArgumentException e) {
+            throw new UDFArgumentException(e.getMessage());
+        }
 
         return cl;
     }
@@ -131,66 +135,29 @@ public final class MinHashUDTF extends UDTFWithOptions {
     public void process(Object[] args) throws HiveException {
         final Object[] forwardObjs = this.forwardObjs;
         forwardObjs[1] = args[0];
-        List<?> features = (List<?>) featureListOI.getList(args[1]);
-        ObjectInspector featureInspector = featureListOI.getListElementObjectInspector();
-        List<FeatureValue> ftvec = parseFeatures(features, featureInspector, parseFeature);
 
-        computeAndForwardSignatures(ftvec, forwardObjs);
-    }
+        final MinHasher hasher = this.hasher;
+        hasher.reset();
+        final Object arg1 = args[1];
+        final PrimitiveObjectInspector featureOI = this.featureOI;
+        for (int i = 0, size = featureListOI.getListLength(arg1); i < size; i++) {
+            Object f = featureListOI.getListElement(arg1, i);
+            if (f == null) {
+                continue;
+            }
+            if (parseFeature) {
+                Text t = (Text) featureOI.getPrimitiveWritableObject(f);
+                hasher.addFeature(t, true);
+            } else {
+                hasher.addFeature(PrimitiveObjectInspectorUtils.getLong(f, featureOI));
+            }
+        }
 
-    private void computeAndForwardSignatures(List<FeatureValue> features, Object[] forwardObjs)
-            throws HiveException {
-        final PriorityQueue<Integer> minhashes = new PriorityQueue<Integer>();
         // Compute N sets K minhash values
         for (int i = 0; i < num_hashes; i++) {
-            float weightedMinHashValues = Float.MAX_VALUE;
-
-            for (FeatureValue fv : features) {
-                Object f = fv.getFeature();
-                int hashIndex = Math.abs(hashFuncs[i].hash(f));
-                float w = fv.getValueAsFloat();
-                float hashValue = calcWeightedHashValue(hashIndex, w);
-                if (hashValue < weightedMinHashValues) {
-                    weightedMinHashValues = hashValue;
-                    minhashes.offer(hashIndex);
-                }
-            }
-
-            forwardObjs[0] = getSignature(minhashes, num_keygroups);
+            forwardObjs[0] = Integer.valueOf(hasher.getSignature(i));
             forward(forwardObjs);
-
-            minhashes.clear();
-        }
-    }
-
-    /**
-     * For a larger w, hash value tends to be smaller and tends to be selected as minhash.
-     */
-    private static float calcWeightedHashValue(final int hashIndex, final float w)
-            throws HiveException {
-        if (w < 0.f) {
-            throw new HiveException("Non-negative value is not accepted for a feature weight");
-        }
-        if (w == 0.f) {
-            return Float.MAX_VALUE;
-        } else {
-            return hashIndex / w;
-        }
-    }
-
-    private static int getSignature(PriorityQueue<Integer> candidates, int keyGroups) {
-        final int numCandidates = candidates.size();
-        if (numCandidates == 0) {
-            return 0;
-        }
-
-        final int size = Math.min(numCandidates, keyGroups);
-        int result = 1;
-        for (int i = 0; i < size; i++) {
-            int nextmin = candidates.poll();
-            result = (31 * result) + nextmin;
         }
-        return result & 0x7FFFFFFF;
     }
 
     @Override
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.lsh;
+
+import hivemall.utils.hashing.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Computes weighted minhash values of a feature vector without allocating objects per feature.
+ *
+ * Each feature is hashed once by MurmurHash3 and then the i-th hash function is derived by a
+ * multiply-shift universal hash {@code (a_i * x + b_i) >>> 33}, which yields a non-negative 31-bit
+ * value. For each hash function, the running minimums are kept in primitive arrays and the
+ * smallest {@code keyGroups} candidates are maintained by insertion into a bounded sorted array.
+ */
+@NotThreadSafe
+final class MinHasher {
+
+    private static final int FEATURE_SEED = 0x9747b28c;
+
+    @Nonnegative
+    private final int numHashes;
+    @Nonnegative
+    private final int keyGroups;
+    @Nonnull
+    private final long[] multipliers;
+    @Nonnull
+    private final long[] increments;
+
+    @Nonnull
+    private final float[] minWeightedHashes;
+    @Nonnull
+    private final int[] minHashes;
+    /** the smallest candidates of each hash function in ascending order */
+    @Nonnull
+    private final int[] candidates;
+    @Nonnull
+    private final int[] numCandidates;
+
+    /** scratch for the decimal representation of integer features */
+    @Nonnull
+    private final StringBuilder digits;
+
+    MinHasher(@Nonnegative int numHashes, @Nonnegative int keyGroups) {
+        this(numHashes, keyGroups, 31L);
+    }
+
+    MinHasher(@Nonnegative int numHashes, @Nonnegative int keyGroups, long seed) {
+        if (numHashes <= 0) {
+            throw new IllegalArgumentException("The number of hash functions must be positive: "
+                    + numHashes);
+        }
+        if (keyGroups < 0) {
+            throw new IllegalArgumentException("The number of key groups must be non-negative: "
+                    + keyGroups);
+        }
+        this.numHashes = numHashes;
+        this.keyGroups = keyGroups;
+        this.multipliers = new long[numHashes];
+        this.increments = new long[numHashes];
+        final Random rand = new Random(seed);
+        for (int i = 0; i < numHashes; i++) {
+            multipliers[i] = rand.nextLong() | 1L;
+            increments[i] = rand.nextLong();
+        }
+        this.minWeightedHashes = new float[numHashes];
+        this.minHashes = new int[numHashes];
+        this.candidates = new int[numHashes * keyGroups];
+        this.numCandidates = new int[numHashes];
+        this.digits = new StringBuilder(20);
+        reset();
+    }
+
+    int getNumHashes() {
+        return numHashes;
+    }
+
+    int getKeyGroups() {
+        return keyGroups;
+    }
+
+    void reset() {
+        Arrays.fill(minWeightedHashes, Float.MAX_VALUE);
+        Arrays.fill(minHashes, 0);
+        Arrays.fill(numCandidates, 0);
+    }
+
+    /**
+     * Adds an integer feature, which is hashed in its decimal representation so that it matches
+     * the same string feature.
+     */
+    void addFeature(final long feature) throws HiveException {
+        final StringBuilder buf = digits;
+        buf.setLength(0);
+        buf.append(feature);
+        add(MurmurHash3.murmurhash3_x86_32(buf, 0, buf.length(), FEATURE_SEED), 1.f);
+    }
+
+    /**
+     * Adds a string feature of the form {@code feature[:weight]}, or a feature without a weight
+     * when {@code parseWeight} is false.
+     */
+    void addFeature(@Nonnull final String feature, final boolean parseWeight)
+            throws HiveException {
+        final int pos = parseWeight ? feature.indexOf(':') : -1;
+        if (pos == 0) {
+            throw new HiveException("Invalid feature value representation: " + feature);
+        }
+        if (pos < 0) {
+            add(MurmurHash3.murmurhash3_x86_32(feature, 0, feature.length(), FEATURE_SEED), 1.f);
+        } else {
+            int key = MurmurHash3.murmurhash3_x86_32(feature, 0, pos, FEATURE_SEED);
+            add(key, parseWeight(feature.substring(pos + 1), feature));
+        }
+    }
+
+    /**
+     * Adds a UTF-8 string feature of the form {@code feature[:weight]}, or a feature without a
+     * weight when {@code parseWeight} is false.
+     */
+    void addFeature(@Nonnull final Text feature, final boolean parseWeight) throws HiveException {
+        final byte[] bytes = feature.getBytes();
+        final int length = feature.getLength();
+        int pos = -1;
+        if (parseWeight) {
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] == ':') {
+                    pos = i;
+                    break;
+                }
+            }
+        }
+        if (pos == 0) {
+            throw new HiveException("Invalid feature value representation: " + feature);
+        }
+        if (pos < 0) {
+            add(MurmurHash3.murmurhash3_x86_32(bytes, 0, length, FEATURE_SEED), 1.f);
+        } else {
+            int key = MurmurHash3.murmurhash3_x86_32(bytes, 0, pos, FEATURE_SEED);
+            String w = new String(bytes, pos + 1, length - pos - 1, StandardCharsets.UTF_8);
+            add(key, parseWeight(w, feature));
+        }
+    }
+
+    private static float parseWeight(@Nonnull final String w, @Nonnull final Object feature)
+            throws HiveException {
+        try {
+            return (float) Double.parseDouble(w);
+        } catch (NumberFormatException e) {
+            throw new HiveException("Invalid feature value representation: " + feature, e);
+        }
+    }
+
+    /**
+     * For a larger w, hash value tends to be smaller and tends to be selected as minhash.
+     */
+    void add(final int key, final float w) throws HiveException {
+        if (w < 0.f) {
+            throw new HiveException("Non-negative value is not accepted for a feature weight");
+        }
+        if (w == 0.f) {
+            return;
+        }
+
+        final long x = key & 0xffffffffL;
+        final long[] a = multipliers, b = increments;
+        final float[] minWeighted = minWeightedHashes;
+        for (int i = 0; i < numHashes; i++) {
+            final int h = (int) ((a[i] * x + b[i]) >>> 33);
+            final float weighted = (w == 1.f) ? h : h / w;
+            if (weighted < minWeighted[i]) {
+                minWeighted[i] = weighted;
+                minHashes[i] = h;
+                if (keyGroups > 0) {
+                    offerCandidate(i, h);
+                }
+            }
+        }
+    }
+
+    private void offerCandidate(final int i, final int h) {
+        final int[] cands = candidates;
+        final int k = keyGroups;
+        final int base = i * k;
+        final int n = numCandidates[i];
+        if (n == k && h >= cands[base + k - 1]) {
+            return;
+        }
+        int j = Math.min(n, k - 1);
+        for (; j > 0 && cands[base + j - 1] > h; j--) {
+            cands[base + j] = cands[base + j - 1];
+        }
+        cands[base + j] = h;
+        if (n < k) {
+            numCandidates[i] = n + 1;
+        }
+    }
+
+    /**
+     * @return the raw hash value of the weighted minimum of the i-th hash function, or 0 if no
+     *         feature is added
+     */
+    int getMinHash(final int i) {
+        return minHashes[i];
+    }
+
+    /**
+     * @return a signature combining the smallest {@code keyGroups} candidates of the i-th hash
+     *         function, or 0 if no feature is added
+     */
+    int getSignature(final int i) {
+        final int n = numCandidates[i];
+        if (n == 0) {
+            return 0;
+        }
+        final int[] cands = candidates;
+        final int base = i * keyGroups;
+        int result = 1;
+        for (int j = 0; j < n; j++) {
+            result = (31 * result) + cands[base + j];
+        }
+        return result & 0x7FFFFFFF;
+    }
+
+}
@@ -19,13 +19,10 @@
 package hivemall.knn.lsh;
 
 import static hivemall.utils.hadoop.WritableUtils.val;
-import hivemall.model.FeatureValue;
-import hivemall.utils.hashing.MurmurHash3;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDF;
@@ -38,19 +35,22 @@ import org.apache.hadoop.io.Text;
 @UDFType(deterministic = true, stateful = false)
 public final class bBitMinHashUDF extends UDF {
 
-    private int[] _seeds = null;
+    private MinHasher _hasher = null;
+    private byte[] _bits = null;
 
-    private int[] prepareSeeds(final int numHashes) {
-        int[] seeds = this._seeds;
-        if (seeds == null || seeds.length != numHashes) {
-            seeds = new int[numHashes];
-            final Random rand = new Random(31L);
-            for (int i = 0; i < numHashes; i++) {
-                seeds[i] = rand.nextInt();
-            }
-            this._seeds = seeds;
+    private MinHasher prepareHasher(final int numHashes) throws HiveException {
+        if (numHashes <= 0 || numHashes > 512) {
+            throw new HiveException("The number of hash function must be in range (0,512]: "
+                    + numHashes);
+        }
+        MinHasher hasher = this._hasher;
+        if (hasher == null || hasher.getNumHashes() != numHashes) {
+            hasher = new MinHasher(numHashes, 0);
+            this._hasher = hasher;
+            this._bits = new byte[(numHashes + 7) / 8];
         }
-        return seeds;
+        hasher.reset();
+        return hasher;
     }
 
     public Text evaluate(List<Integer> features) throws HiveException {
@@ -58,9 +58,13 @@ public final class bBitMinHashUDF extends UDF {
     }
 
     public Text evaluate(List<Integer> features, int numHashes) throws HiveException {
-        int[] seeds = prepareSeeds(numHashes);
-        List<FeatureValue> featureList = parseFeatures(features);
-        return val(computeSignatures(featureList, numHashes, seeds));
+        final MinHasher hasher = prepareHasher(numHashes);
+        for (Integer f : features) {
+            if (f != null) {
+                hasher.addFeature(f.intValue());
+            }
+        }
+        return val(computeSignatures(hasher, _bits));
     }
 
     public Text evaluate(List<String> features, boolean noWeight) throws HiveException {
@@ -69,84 +73,28 @@ public final class bBitMinHashUDF extends UDF {
 
     public Text evaluate(List<String> features, int numHashes, boolean noWeight)
             throws HiveException {
-        int[] seeds = prepareSeeds(numHashes);
-        List<FeatureValue> featureList = parseFeatures(features, noWeight);
-        return val(computeSignatures(featureList, numHashes, seeds));
-    }
-
-    private static List<FeatureValue> parseFeatures(final List<Integer> features) {
-        final List<FeatureValue> ftvec = new ArrayList<FeatureValue>(features.size());
-        for (Integer f : features) {
-            if (f != null) {
-                FeatureValue fv = new FeatureValue(f, 1.f);
-                ftvec.add(fv);
-            }
-        }
-        return ftvec;
-    }
-
-    private static List<FeatureValue> parseFeatures(final List<String> features,
-            final boolean noWeight) {
-        final List<FeatureValue> ftvec = new ArrayList<FeatureValue>(features.size());
+        final MinHasher hasher = prepareHasher(numHashes);
         for (String f : features) {
-            if (f == null) {
-                continue;
-            }
-            final FeatureValue fv;
-            if (noWeight) {
-                fv = new FeatureValue(f, 1.f);
-            } else {
-                fv = FeatureValue.parse(f);
-            }
-            ftvec.add(fv);
-        }
-        return ftvec;
-    }
-
-    private static String computeSignatures(final List<FeatureValue> features, final int numHashes,
-            final int[] seeds) throws HiveException {
-        if (numHashes <= 0 || numHashes > 512) {
-            throw new HiveException("The number of hash function must be in range (0,512]: "
-                    + numHashes);
-        }
-        final int[] hashes = new int[numHashes];
-        // Compute N sets K minhash values
-        for (int i = 0; i < numHashes; i++) {
-            float weightedMinHashValues = Float.MAX_VALUE;
-            for (FeatureValue fv : features) {
-                Object f = fv.getFeature();
-                assert (f != null);
-                String fs = f.toString();
-                int hashIndex = Math.abs(MurmurHash3.murmurhash3_x86_32(fs, seeds[i]));
-                float w = fv.getValueAsFloat();
-                float hashValue = calcWeightedHashValue(hashIndex, w);
-                if (hashValue < weightedMinHashValues) {
-                    weightedMinHashValues = hashValue;
-                    hashes[i] = hashIndex;
-                }
-            }
-        }
-        BigInteger value = BigInteger.valueOf(0L);
-        for (int i = 0; i < numHashes; i++) {
-            if ((hashes[i] & 1) == 1) {
-                value = value.setBit(i);
+            if (f != null) {
+                hasher.addFeature(f, !noWeight);
             }
         }
-        return value.toString();
+        return val(computeSignatures(hasher, _bits));
     }
 
     /**
-     * For a larger w, hash value tends to be smaller and tends to be selected as minhash.
+     * Packs the lowest bit of each minhash value into a big-endian magnitude where the i-th hash
+     * is the i-th bit.
      */
-    private static float calcWeightedHashValue(final int hashIndex, final float w)
-            throws HiveException {
-        if (w < 0.f) {
-            throw new HiveException("Non-negative value is not accepted for a feature weight");
-        }
-        if (w == 0.f) {
-            return Float.MAX_VALUE;
-        } else {
-            return hashIndex / w;
+    private static String computeSignatures(final MinHasher hasher, final byte[] bits) {
+        final int numHashes = hasher.getNumHashes();
+        final int last = bits.length - 1;
+        Arrays.fill(bits, (byte) 0);
+        for (int i = 0; i < numHashes; i++) {
+            if ((hasher.getMinHash(i) & 1) == 1) {
+                bits[last - (i >>> 3)] |= (byte) (1 << (i & 7));
+            }
         }
+        return new BigInteger(1, bits).toString();
     }
 }
@@ -0,0 +1,604 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.similarity;
+
+import hivemall.UDTFWithOptions;
+import hivemall.utils.collections.lists.FloatArrayList;
+import hivemall.utils.collections.lists.IntArrayList;
+import hivemall.utils.collections.lists.LongArrayList;
+import hivemall.utils.collections.maps.Long2IntOpenHashTable;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.ArrayUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Exact threshold similarity join over all the vectors given to a task. Vectors are buffered and
+ * joined through an inverted index when the task closes.
+ *
+ * Cosine similarity follows All-Pairs [1] with the l2-norm bounds of L2AP [2]; only the suffix of
+ * a vector is indexed of which prefix cannot reach the threshold alone, and candidates are pruned
+ * by the minimum size and the bound of the unindexed prefix. Jaccard similarity uses prefix
+ * filtering [3] over features ordered by document frequency, and length filtering.
+ *
+ * Output rows of the same `i` are forwarded consecutively, so `each_top_k` can follow.
+ *
+ * [1] R. J. Bayardo, Y. Ma, and R. Srikant. Scaling Up All Pairs Similarity Search. WWW 2007.
+ * [2] D. C. Anastasiu and G. Karypis. L2AP: Fast Cosine Similarity Search With Prefix L-2 Norm
+ * Bounds. ICDE 2014.
+ * [3] S. Chaudhuri, V. Ganti, and R. Kaushik. A Primitive Operator for Similarity Joins in Data
+ * Cleaning. ICDE 2006.
+ */
+@Description(name = "all_pairs_similarity",
+        value = "_FUNC_(bigint id, array<string|int> features [, const string options])"
+                + " - Returns a relation consists of <bigint i, bigint j, float similarity>"
+                + " of which similarity is greater than or equal to the threshold")
+public final class AllPairsSimilarityUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(AllPairsSimilarityUDTF.class);
+
+    private static final double EPS = 1E-6d;
+
+    private PrimitiveObjectInspector idOI;
+    private ListObjectInspector featuresOI;
+    private PrimitiveObjectInspector intFeatureOI;
+
+    // Options
+    private boolean jaccard;
+    private float threshold;
+    private boolean symmetricOutput;
+
+    private SparseFeatureVector probe;
+
+    // buffered vectors
+    private LongArrayList ids;
+    private IntArrayList offsets;
+    private LongArrayList keys;
+    private FloatArrayList values;
+
+    public AllPairsSimilarityUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("measure", true, "Similarity measure [cosine, jaccard] (default: cosine)");
+        opts.addOption("th", "threshold", true,
+            "Pairs of which similarity is greater than or equal to this are returned [default: 0.5]");
+        opts.addOption("disable_symmetric", "disable_symmetric_output", false,
+            "Output only contains (i, j) pair where i < j; symmetric (j, i) pair is omitted");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        CommandLine cl = null;
+        String measure = "cosine";
+        float threshold = 0.5f;
+        boolean symmetricOutput = true;
+
+        if (argOIs.length >= 3) {
+            String rawArgs = HiveUtils.getConstString(argOIs[2]);
+            cl = parseOptions(rawArgs);
+            measure = cl.getOptionValue("measure", measure);
+            threshold = Primitives.parseFloat(cl.getOptionValue("threshold"), threshold);
+            symmetricOutput = !cl.hasOption("disable_symmetric_output");
+        }
+        if (threshold <= 0.f || threshold > 1.f) {
+            throw new UDFArgumentException("`threshold` MUST be in range (0,1]: " + threshold);
+        }
+        if ("cosine".equalsIgnoreCase(measure)) {
+            this.jaccard = false;
+        } else if ("jaccard".equalsIgnoreCase(measure)) {
+            this.jaccard = true;
+        } else {
+            throw new UDFArgumentException("Unsupported measure: " + measure);
+        }
+        this.threshold = threshold;
+        this.symmetricOutput = symmetricOutput;
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 2 && argOIs.length != 3) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 2 or 3 arguments: bigint id, array<string|int> features [, const string options]");
+        }
+        this.idOI = HiveUtils.asLongCompatibleOI(argOIs[0]);
+        this.featuresOI = HiveUtils.asListOI(argOIs[1]);
+        this.intFeatureOI = SparseFeatureVector.asIntegerElementOI(featuresOI);
+
+        processOptions(argOIs);
+
+        this.probe = new SparseFeatureVector();
+        this.ids = new LongArrayList(1024);
+        this.offsets = new IntArrayList(1024);
+        offsets.add(0);
+        this.keys = new LongArrayList(8192);
+        this.values = new FloatArrayList(8192);
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("i");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        fieldNames.add("j");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        fieldNames.add("similarity");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        final Object arg0 = args[0];
+        final Object arg1 = args[1];
+        if (arg0 == null || arg1 == null) {
+            return;
+        }
+        final SparseFeatureVector probe = this.probe;
+        try {
+            probe.parseFeatures(arg1, featuresOI, intFeatureOI);
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage(), e);
+        }
+        final long[] k = probe.keys();
+        final float[] v = probe.values();
+        int added = 0;
+        for (int i = 0, size = probe.size(); i < size; i++) {
+            if (!jaccard && v[i] == 0.f) {
+                continue;
+            }
+            keys.add(k[i]);
+            values.add(v[i]);
+            added++;
+        }
+        if (added == 0) {
+            return;
+        }
+        ids.add(PrimitiveObjectInspectorUtils.getLong(arg0, idOI));
+        offsets.add(keys.size());
+    }
+
+    @Override
+    public void close() throws HiveException {
+        final int numVectors = ids.size();
+        if (numVectors == 0) {
+            return;
+        }
+        final StopWatch elapsed = new StopWatch();
+
+        final long[] idArray = ids.toArray(true);
+        final int[] offsetArray = offsets.toArray(true);
+        final int[] dims = toRankedDimensions(keys.toArray(true), offsetArray);
+        final float[] valueArray = values.toArray(true);
+        this.ids = null;
+        this.offsets = null;
+        this.keys = null;
+        this.values = null;
+
+        // sort features of each vector by rank, rare first
+        sortByDimension(dims, valueArray, offsetArray);
+
+        final PairBuffer pairs = new PairBuffer();
+        if (jaccard) {
+            joinJaccard(dims, offsetArray, threshold, pairs);
+        } else {
+            joinCosine(dims, valueArray, offsetArray, threshold, pairs);
+        }
+        logger.info("Found " + pairs.size + " pairs of similarity >= " + threshold + " among "
+                + numVectors + " vectors in " + elapsed);
+
+        forwardPairs(idArray, pairs);
+    }
+
+    /**
+     * Replaces feature keys with dimensions ranked by increasing document frequency.
+     */
+    @Nonnull
+    private static int[] toRankedDimensions(@Nonnull final long[] keys,
+            @Nonnull final int[] offsets) {
+        final int nnz = keys.length;
+        final Long2IntOpenHashTable dimIndex = new Long2IntOpenHashTable(1024);
+        final IntArrayList df = new IntArrayList(1024);
+        final int[] dims = new int[nnz];
+        for (int i = 0; i < nnz; i++) {
+            int d = dimIndex.get(keys[i], -1);
+            if (d == -1) {
+                d = df.size();
+                dimIndex.put(keys[i], d);
+                df.add(0);
+            }
+            df.set(d, df.fastGet(d) + 1);
+            dims[i] = d;
+        }
+        final int numDims = df.size();
+        final long[] order = new long[numDims];
+        for (int d = 0; d < numDims; d++) {
+            order[d] = (((long) df.fastGet(d)) << 32) | d;
+        }
+        Arrays.sort(order);
+        final int[] rank = new int[numDims];
+        for (int r = 0; r < numDims; r++) {
+            rank[(int) order[r]] = r;
+        }
+        for (int i = 0; i < nnz; i++) {
+            dims[i] = rank[dims[i]];
+        }
+        return dims;
+    }
+
+    private static void sortByDimension(@Nonnull final int[] dims, @Nonnull final float[] values,
+            @Nonnull final int[] offsets) {
+        long[] keyBuf = new long[16];
+        float[] valueBuf = new float[16];
+        for (int v = 0, n = offsets.length - 1; v < n; v++) {
+            final int start = offsets[v];
+            final int len = offsets[v + 1] - start;
+            if (len > keyBuf.length) {
+                keyBuf = new long[len];
+                valueBuf = new float[len];
+            }
+            for (int i = 0; i < len; i++) {
+                keyBuf[i] = dims[start + i];
+                valueBuf[i] = values[start + i];
+            }
+            ArrayUtils.sort(keyBuf, valueBuf, len);
+            for (int i = 0; i < len; i++) {
+                dims[start + i] = (int) keyBuf[i];
+                values[start + i] = valueBuf[i];
+            }
+        }
+    }
+
+    static void joinCosine(@Nonnull final int[] dims, @Nonnull final float[] values,
+            @Nonnull final int[] offsets, final float threshold, @Nonnull final PairBuffer pairs) {
+        final int numVectors = offsets.length - 1;
+        int numDims = 0;
+        for (int d : dims) {
+            numDims = Math.max(numDims, d + 1);
+        }
+
+        // normalize vectors and compute the max weight of each vector and dimension
+        final float[] vecMaxWeight = new float[numVectors];
+        final float[] dimMaxWeight = new float[numDims];
+        for (int x = 0; x < numVectors; x++) {
+            final int start = offsets[x], end = offsets[x + 1];
+            double norm = 0.d;
+            for (int i = start; i < end; i++) {
+                norm += values[i] * values[i];
+            }
+            norm = Math.sqrt(norm);
+            float max = 0.f;
+            for (int i = start; i < end; i++) {
+                float w = (float) (values[i] / norm);
+                values[i] = w;
+                float abs = Math.abs(w);
+                max = Math.max(max, abs);
+                if (abs > dimMaxWeight[dims[i]]) {
+                    dimMaxWeight[dims[i]] = abs;
+                }
+            }
+            vecMaxWeight[x] = max;
+        }
+
+        // process vectors in decreasing order of the max weight
+        final long[] order = new long[numVectors];
+        for (int x = 0; x < numVectors; x++) {
+            int bits = Float.floatToIntBits(vecMaxWeight[x]);
+            order[x] = (((long) (Integer.MAX_VALUE - bits)) << 32) | x;
+        }
+        Arrays.sort(order);
+
+        final InvertedIndex index = new InvertedIndex(numDims);
+        // the first unindexed position and the bound of the unindexed suffix
+        final int[] split = new int[numVectors];
+        final float[] suffixBound = new float[numVectors];
+        final float[] accum = new float[numVectors];
+        final boolean[] touched = new boolean[numVectors];
+        final IntArrayList candidates = new IntArrayList(1024);
+
+        for (int o = 0; o < numVectors; o++) {
+            final int x = (int) order[o];
+            final int start = offsets[x], end = offsets[x + 1];
+
+            // dot(x, y) <= maxweight(x) * |y|_1 <= maxweight(x) * sqrt(|y|)
+            final double minSize = (threshold / vecMaxWeight[x]) * (threshold / vecMaxWeight[x])
+                    - EPS;
+            for (int i = start; i < end; i++) {
+                final int d = dims[i];
+                final float xv = values[i];
+                final int[] postings = index.vectors[d];
+                final float[] weights = index.weights[d];
+                for (int p = 0, size = index.sizes[d]; p < size; p++) {
+                    final int y = postings[p];
+                    if (offsets[y + 1] - offsets[y] < minSize) {
+                        continue;
+                    }
+                    if (!touched[y]) {
+                        touched[y] = true;
+                        candidates.add(y);
+                    }
+                    accum[y] += xv * weights[p];
+                }
+            }
+
+            for (int c = 0, numCandidates = candidates.size(); c < numCandidates; c++) {
+                final int y = candidates.fastGet(c);
+                float sim = accum[y];
+                accum[y] = 0.f;
+                touched[y] = false;
+                if (sim + suffixBound[y] < threshold) {
+                    continue;
+                }
+                sim += dot(dims, values, start, end, split[y], offsets[y + 1]);
+                if (sim >= threshold) {
+                    pairs.add(x, y, sim);
+                }
+            }
+            candidates.clear();
+
+            // index features from the rarest one except the suffix which cannot reach the threshold
+            double bound1 = 0.d, sqnorm = 0.d;
+            int s = start;
+            for (int i = end - 1; i >= start; i--) {
+                final float w = Math.abs(values[i]);
+                final double b1 = bound1 + w * dimMaxWeight[dims[i]];
+                final double sq = sqnorm + w * w;
+                if (Math.min(b1, Math.sqrt(sq)) >= threshold) {
+                    s = i + 1;
+                    break;
+                }
+                bound1 = b1;
+                sqnorm = sq;
+            }
+            if (s == start && Math.min(bound1, Math.sqrt(sqnorm)) < threshold) {
+                // no pair of x can reach the threshold; index all to be robust to rounding errors
+                s = end;
+                bound1 = 0.d;
+                sqnorm = 0.d;
+            }
+            split[x] = s;
+            suffixBound[x] = (float) Math.min(bound1, Math.sqrt(sqnorm));
+            for (int i = start; i < s; i++) {
+                index.add(dims[i], x, values[i]);
+            }
+        }
+    }
+
+    /**
+     * @return dot product of x[xStart, xEnd) and y[yStart, yEnd) both sorted by dimensions
+     */
+    private static float dot(@Nonnull final int[] dims, @Nonnull final float[] values, int i,
+            final int xEnd, int j, final int yEnd) {
+        float dotp = 0.f;
+        while (i < xEnd && j < yEnd) {
+            int a = dims[i], b = dims[j];
+            if (a == b) {
+                dotp += values[i++] * values[j++];
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return dotp;
+    }
+
+    static void joinJaccard(@Nonnull final int[] dims, @Nonnull final int[] offsets,
+            final float threshold, @Nonnull final PairBuffer pairs) {
+        final int numVectors = offsets.length - 1;
+        int numDims = 0;
+        for (int d : dims) {
+            numDims = Math.max(numDims, d + 1);
+        }
+
+        // process vectors in increasing order of the size
+        final long[] order = new long[numVectors];
+        for (int x = 0; x < numVectors; x++) {
+            order[x] = (((long) (offsets[x + 1] - offsets[x])) << 32) | x;
+        }
+        Arrays.sort(order);
+
+        final InvertedIndex index = new InvertedIndex(numDims);
+        final boolean[] touched = new boolean[numVectors];
+        final IntArrayList candidates = new IntArrayList(1024);
+
+        for (int o = 0; o < numVectors; o++) {
+            final int x = (int) order[o];
+            final int start = offsets[x], end = offsets[x + 1];
+            final int xSize = end - start;
+
+            // |y| >= t * |x| and the prefix of length |x| - ceil(t * |x|) + 1 is shared
+            final double minSize = threshold * xSize - EPS;
+            final int prefix = xSize - (int) Math.ceil(threshold * xSize - EPS) + 1;
+            final int prefixEnd = Math.min(end, start + prefix);
+
+            for (int i = start; i < prefixEnd; i++) {
+                final int d = dims[i];
+                final int[] postings = index.vectors[d];
+                for (int p = 0, size = index.sizes[d]; p < size; p++) {
+                    final int y = postings[p];
+                    if (!touched[y] && offsets[y + 1] - offsets[y] >= minSize) {
+                        touched[y] = true;
+                        candidates.add(y);
+                    }
+                }
+            }
+
+            for (int c = 0, numCandidates = candidates.size(); c < numCandidates; c++) {
+                final int y = candidates.fastGet(c);
+                touched[y] = false;
+                final int ySize = offsets[y + 1] - offsets[y];
+                final int overlap = overlap(dims, start, end, offsets[y], offsets[y + 1]);
+                final float sim = overlap / (float) (xSize + ySize - overlap);
+                if (sim >= threshold) {
+                    pairs.add(x, y, sim);
+                }
+            }
+            candidates.clear();
+
+            for (int i = start; i < prefixEnd; i++) {
+                index.add(dims[i], x, 1.f);
+            }
+        }
+    }
+
+    private static int overlap(@Nonnull final int[] dims, int i, final int xEnd, int j,
+            final int yEnd) {
+        int overlap = 0;
+        while (i < xEnd && j < yEnd) {
+            int a = dims[i], b = dims[j];
+            if (a == b) {
+                overlap++;
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return overlap;
+    }
+
+    /**
+     * Forwards pairs grouped by the first column in the input order of vectors.
+     */
+    private void forwardPairs(@Nonnull final long[] ids, @Nonnull final PairBuffer pairs)
+            throws HiveException {
+        final int numVectors = ids.length;
+        final int numPairs = pairs.size;
+        final int[] xs = pairs.xs, ys = pairs.ys;
+        final float[] sims = pairs.sims;
+
+        // CSR of pairs keyed by the first column
+        final int[] ptr = new int[numVectors + 1];
+        for (int p = 0; p < numPairs; p++) {
+            if (symmetricOutput) {
+                ptr[xs[p] + 1]++;
+                ptr[ys[p] + 1]++;
+            } else {
+                ptr[(ids[xs[p]] < ids[ys[p]] ? xs[p] : ys[p]) + 1]++;
+            }
+        }
+        for (int v = 0; v < numVectors; v++) {
+            ptr[v + 1] += ptr[v];
+        }
+        final int numRows = ptr[numVectors];
+        final int[] others = new int[numRows];
+        final float[] rowSims = new float[numRows];
+        final int[] fill = Arrays.copyOf(ptr, numVectors);
+        for (int p = 0; p < numPairs; p++) {
+            final int x = xs[p], y = ys[p];
+            if (symmetricOutput || ids[x] < ids[y]) {
+                others[fill[x]] = y;
+                rowSims[fill[x]++] = sims[p];
+            }
+            if (symmetricOutput || ids[y] <= ids[x]) {
+                others[fill[y]] = x;
+                rowSims[fill[y]++] = sims[p];
+            }
+        }
+
+        final LongWritable i = new LongWritable();
+        final LongWritable j = new LongWritable();
+        final FloatWritable similarity = new FloatWritable();
+        final Object[] forwardObjs = new Object[] {i, j, similarity};
+        for (int v = 0; v < numVectors; v++) {
+            i.set(ids[v]);
+            for (int r = ptr[v], end = ptr[v + 1]; r < end; r++) {
+                j.set(ids[others[r]]);
+                similarity.set(rowSims[r]);
+                forward(forwardObjs);
+            }
+        }
+    }
+
+    static final class PairBuffer {
+        int[] xs = new int[1024];
+        int[] ys = new int[1024];
+        float[] sims = new float[1024];
+        int size = 0;
+
+        void add(final int x, final int y, final float sim) {
+            if (size == xs.length) {
+                int cap = size * 2;
+                this.xs = Arrays.copyOf(xs, cap);
+                this.ys = Arrays.copyOf(ys, cap);
+                this.sims = Arrays.copyOf(sims, cap);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            sims[size] = sim;
+            size++;
+        }
+    }
+
+    private static final class InvertedIndex {
+        final int[][] vectors;
+        final float[][] weights;
+        final int[] sizes;
+
+        InvertedIndex(final int numDims) {
+            this.vectors = new int[numDims][];
+            this.weights = new float[numDims][];
+            this.sizes = new int[numDims];
+        }
+
+        void add(final int dim, final int vector, final float weight) {
+            int[] postings = vectors[dim];
+            final int size = sizes[dim];
+            if (postings == null) {
+                postings = new int[4];
+                vectors[dim] = postings;
+                weights[dim] = new float[4];
+            } else if (size == postings.length) {
+                postings = Arrays.copyOf(postings, size * 2);
+                vectors[dim] = postings;
+                weights[dim] = Arrays.copyOf(weights[dim], size * 2);
+            }
+            postings[size] = vector;
+            weights[dim][size] = weight;
+            sizes[dim] = size + 1;
+        }
+    }
+
+}
@@ -30,6 +30,7 @@ import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
 
@@ -42,6 +43,10 @@ import org.apache.hadoop.io.FloatWritable;
 public final class AngularSimilarityUDF extends GenericUDF {
 
     private ListObjectInspector arg0ListOI, arg1ListOI;
+    private PrimitiveObjectInspector arg0IntOI, arg1IntOI;
+
+    private final SparseFeatureVector x = new SparseFeatureVector();
+    private final SparseFeatureVector y = new SparseFeatureVector();
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
@@ -50,20 +55,30 @@ public final class AngularSimilarityUDF extends GenericUDF {
         }
         this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
         this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.arg0IntOI = SparseFeatureVector.asIntegerElementOI(arg0ListOI);
+        this.arg1IntOI = SparseFeatureVector.asIntegerElementOI(arg1ListOI);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
     }
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float similarity = angularSimilarity(ftvec1, ftvec2);
+        try {
+            x.parseFeatures(arguments[0].get(), arg0ListOI, arg0IntOI);
+            y.parseFeatures(arguments[1].get(), arg1ListOI, arg1IntOI);
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage(), e);
+        }
+        float similarity = angularSimilarity(SparseFeatureVector.cosineSimilarity(x, y));
         return new FloatWritable(similarity);
     }
 
     public static float angularSimilarity(final List<String> ftvec1, final List<String> ftvec2) {
         float cosineSim = CosineSimilarityUDF.cosineSimilarity(ftvec1, ftvec2);
+        return angularSimilarity(cosineSim);
+    }
+
+    public static float angularSimilarity(final float cosineSim) {
         return 1.0f - (float) (Math.acos(cosineSim) / Math.PI);
     }
 
@@ -18,13 +18,10 @@
  */
 package hivemall.knn.similarity;
 
-import hivemall.model.FeatureValue;
 import hivemall.utils.hadoop.HiveUtils;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
@@ -33,6 +30,7 @@ import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
 
@@ -42,6 +40,10 @@ import org.apache.hadoop.io.FloatWritable;
 public final class CosineSimilarityUDF extends GenericUDF {
 
     private ListObjectInspector arg0ListOI, arg1ListOI;
+    private PrimitiveObjectInspector arg0IntOI, arg1IntOI;
+
+    private final SparseFeatureVector x = new SparseFeatureVector();
+    private final SparseFeatureVector y = new SparseFeatureVector();
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
@@ -50,15 +52,21 @@ public final class CosineSimilarityUDF extends GenericUDF {
         }
         this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
         this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.arg0IntOI = SparseFeatureVector.asIntegerElementOI(arg0ListOI);
+        this.arg1IntOI = SparseFeatureVector.asIntegerElementOI(arg1ListOI);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
     }
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float similarity = cosineSimilarity(ftvec1, ftvec2);
+        try {
+            x.parseFeatures(arguments[0].get(), arg0ListOI, arg0IntOI);
+            y.parseFeatures(arguments[1].get(), arg1ListOI, arg1IntOI);
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage(), e);
+        }
+        float similarity = SparseFeatureVector.cosineSimilarity(x, y);
         return new FloatWritable(similarity);
     }
 
@@ -66,39 +74,10 @@ public final class CosineSimilarityUDF extends GenericUDF {
         if (ftvec1 == null || ftvec2 == null) {
             return 0.f;
         }
-
-        final FeatureValue probe = new FeatureValue();
-        final Map<String, Float> map1 = new HashMap<String, Float>(ftvec1.size() * 2 + 1);
-        double score1 = 0.d;
-        for (String ft : ftvec1) {
-            FeatureValue.parseFeatureAsString(ft, probe);
-            float v = probe.getValueAsFloat();
-            score1 += (v * v);
-            String f = probe.getFeature();
-            map1.put(f, v);
-        }
-        double l1norm1 = Math.sqrt(score1);
-
-        float dotp = 0.f;
-        double score2 = 0.d;
-        for (String ft : ftvec2) {
-            FeatureValue.parseFeatureAsString(ft, probe);
-            float v2 = probe.getValueAsFloat();
-            score2 += (v2 * v2);
-            String f2 = probe.getFeature();
-            Float v1 = map1.get(f2);
-            if (v1 != null) {
-                dotp += (v1.floatValue() * v2);
-            }
-        }
-        double l1norm2 = Math.sqrt(score2);
-
-        final double denom = l1norm1 * l1norm2;
-        if (denom <= 0.f) {
-            return 0.f;
-        } else {
-            return (float) (dotp / denom);
-        }
+        final SparseFeatureVector[] pair = SparseFeatureVector.localPair();
+        pair[0].parseFeatures(ftvec1);
+        pair[1].parseFeatures(ftvec2);
+        return SparseFeatureVector.cosineSimilarity(pair[0], pair[1]);
     }
 
     @Override
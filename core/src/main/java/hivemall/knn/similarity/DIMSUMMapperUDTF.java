@@ -20,10 +20,10 @@ package hivemall.knn.similarity;
 
 import hivemall.UDTFWithOptions;
 import hivemall.fm.Feature;
-import hivemall.fm.IntFeature;
-import hivemall.fm.StringFeature;
 import hivemall.math.random.PRNG;
 import hivemall.math.random.RandomNumberGeneratorFactory;
+import hivemall.utils.collections.maps.Int2IntOpenHashTable;
+import hivemall.utils.collections.maps.Long2DoubleOpenHashTable;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.lang.Primitives;
 
@@ -46,6 +46,11 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Columns in `colNorms` are numbered densely, and their scales and sampling probabilities are held
+ * in primitive arrays. Partial products b_jk are summed up per (j, k) pair in a bounded in-mapper
+ * combiner which is flushed when it gets full and on close.
+ */
 @Description(
         name = "dimsum_mapper",
         value = "_FUNC_(array<string> row, map<int col_id, double norm> colNorms [, const string options]) "
@@ -65,9 +70,25 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
     private double sqrtGamma;
     private boolean symmetricOutput;
     private boolean parseFeatureAsInt;
+    private int maxCombinedPairs;
+
+    // column index; colIndex for integer columns and colStrIndex for string ones
+    private Int2IntOpenHashTable colIndex;
+    private Map<String, Integer> colStrIndex;
+    private int[] colIds;
+    private String[] colNames;
+    private double[] colScales;
+    private double[] colProbs;
+
+    // per-row work buffers
+    private int[] rowCols;
+    private double[] rowVals;
+
+    // in-mapper combiner keyed by (j << 32 | k) of column indices
+    @Nullable
+    private Long2DoubleOpenHashTable combiner;
 
-    private Map<Object, Double> colNorms;
-    private Map<Object, Double> colProbs;
+    private Object[] forwardObjs;
 
     @Override
     protected Options getOptions() {
@@ -81,6 +102,9 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
             "Output only contains (col j, col k) pair; symmetric (col k, col j) pair is omitted");
         opts.addOption("int_feature", "feature_as_integer", false,
             "Parse a feature (i.e. column ID) as integer");
+        opts.addOption("max_combined_pairs", true,
+            "The maximum number of (j, k) pairs summed up in a mapper before flushing them;"
+                    + " 0 disables in-mapper combining [default: 1048576]");
         return opts;
     }
 
@@ -91,6 +115,7 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
         double gamma = Double.POSITIVE_INFINITY;
         boolean symmetricOutput = true;
         boolean parseFeatureAsInt = false;
+        int maxCombinedPairs = 1048576;
 
         CommandLine cl = null;
         if (argOIs.length >= 3) {
@@ -106,12 +131,19 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
             }
             symmetricOutput = !cl.hasOption("disable_symmetric_output");
             parseFeatureAsInt = cl.hasOption("feature_as_integer");
+            maxCombinedPairs = Primitives.parseInt(cl.getOptionValue("max_combined_pairs"),
+                maxCombinedPairs);
+            if (maxCombinedPairs < 0) {
+                throw new UDFArgumentException("`max_combined_pairs` MUST be non-negative: "
+                        + maxCombinedPairs);
+            }
         }
 
         this.threshold = threshold;
         this.sqrtGamma = Math.sqrt(gamma);
         this.symmetricOutput = symmetricOutput;
         this.parseFeatureAsInt = parseFeatureAsInt;
+        this.maxCombinedPairs = maxCombinedPairs;
 
         return cl;
     }
@@ -134,8 +166,16 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
         processOptions(argOIs);
 
         this.rnd = RandomNumberGeneratorFactory.createPRNG(1001);
-        this.colNorms = null;
+        this.colIndex = null;
+        this.colStrIndex = null;
+        this.colIds = null;
+        this.colNames = null;
+        this.colScales = null;
         this.colProbs = null;
+        this.rowCols = new int[16];
+        this.rowVals = new double[16];
+        this.combiner = (maxCombinedPairs > 0) ? new Long2DoubleOpenHashTable(Math.min(
+            maxCombinedPairs, 16384)) : null;
 
         ArrayList<String> fieldNames = new ArrayList<String>();
         fieldNames.add("j");
@@ -146,16 +186,18 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
         if (parseFeatureAsInt) {
             fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
             fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+            this.forwardObjs = new Object[] {new IntWritable(), new IntWritable(),
+                    new DoubleWritable()};
         } else {
             fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
             fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+            this.forwardObjs = new Object[] {new Text(), new Text(), new DoubleWritable()};
         }
         fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
 
         return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void process(Object[] args) throws HiveException {
         Feature[] row = parseFeatures(args[0]);
@@ -165,175 +207,180 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
         this.probes = row;
 
         // since the 2nd argument (column norms) is consistent,
-        // column-related values, `colNorms` and `colProbs`, should be cached
-        if (colNorms == null || colProbs == null) {
-            final int numCols = colNormsOI.getMapSize(args[1]);
+        // column-related values, scales and sampling probabilities, should be cached
+        if (colProbs == null) {
+            initColumns(args[1]);
+        }
 
-            if (sqrtGamma == Double.POSITIVE_INFINITY) { // set default value to `gamma` based on `threshold`
-                if (threshold > 0.d) { // if `threshold` = 0, `gamma` is INFINITY i.e. always accept <j, k> pairs
-                    this.sqrtGamma = Math.sqrt(10 * Math.log(numCols) / threshold);
-                }
+        // scale the row by columns; columns not in `colNorms` are never sampled
+        final int length = row.length;
+        if (length > rowCols.length) {
+            this.rowCols = new int[length];
+            this.rowVals = new double[length];
+        }
+        final int[] rowCols = this.rowCols;
+        final double[] rowVals = this.rowVals;
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            final int c = columnIndex(row[i]);
+            if (c == -1) {
+                continue;
             }
+            rowCols[n] = c;
+            rowVals[n] = row[i].getValue() * colScales[c];
+            n++;
+        }
 
-            this.colNorms = new HashMap<Object, Double>(numCols);
-            this.colProbs = new HashMap<Object, Double>(numCols);
-            final Map<Object, Object> m = (Map<Object, Object>) colNormsOI.getMap(args[1]);
-            for (Map.Entry<Object, Object> e : m.entrySet()) {
-                Object j = e.getKey();
-                if (parseFeatureAsInt) {
-                    j = HiveUtils.asJavaInt(j);
-                } else {
-                    j = j.toString();
-                }
-
-                double norm = HiveUtils.asJavaDouble(e.getValue());
-                if (norm == 0.d) { // avoid zero-division
-                    norm = 1.d;
+        final double[] colProbs = this.colProbs;
+        final PRNG rnd = this.rnd;
+        for (int ij = 0; ij < n; ij++) {
+            final int j = rowCols[ij];
+            final double jVal = rowVals[ij];
+            if (jVal != 0.d && rnd.nextDouble() < colProbs[j]) {
+                for (int ik = ij + 1; ik < n; ik++) {
+                    final int k = rowCols[ik];
+                    final double kVal = rowVals[ik];
+                    if (kVal != 0.d && rnd.nextDouble() < colProbs[k]) {
+                        // compute b_jk
+                        emit(j, k, jVal * kVal);
+                    }
                 }
+            }
+        }
+    }
 
-                colNorms.put(j, norm);
+    @SuppressWarnings("unchecked")
+    private void initColumns(@Nonnull final Object colNormsObj) {
+        final int numCols = colNormsOI.getMapSize(colNormsObj);
 
-                double p = Math.min(1.d, sqrtGamma / norm);
-                colProbs.put(j, p);
+        if (sqrtGamma == Double.POSITIVE_INFINITY) { // set default value to `gamma` based on `threshold`
+            if (threshold > 0.d) { // if `threshold` = 0, `gamma` is INFINITY i.e. always accept <j, k> pairs
+                this.sqrtGamma = Math.sqrt(10 * Math.log(numCols) / threshold);
             }
         }
 
         if (parseFeatureAsInt) {
-            forwardAsIntFeature(row);
+            this.colIndex = new Int2IntOpenHashTable(Math.max(numCols * 2, 16));
+            colIndex.defaultReturnValue(-1);
+            this.colIds = new int[numCols];
         } else {
-            forwardAsStringFeature(row);
+            this.colStrIndex = new HashMap<String, Integer>(numCols * 2);
+            this.colNames = new String[numCols];
         }
-    }
-
-    private void forwardAsIntFeature(@Nonnull Feature[] row) throws HiveException {
-        final int length = row.length;
-
-        Feature[] rowScaled = new Feature[length];
-        for (int i = 0; i < length; i++) {
-            int j = row[i].getFeatureIndex();
+        final double[] colScales = new double[numCols];
+        final double[] colProbs = new double[numCols];
+
+        int c = 0;
+        final Map<Object, Object> m = (Map<Object, Object>) colNormsOI.getMap(colNormsObj);
+        for (Map.Entry<Object, Object> e : m.entrySet()) {
+            Object key = e.getKey();
+            if (parseFeatureAsInt) {
+                int j = HiveUtils.asJavaInt(key);
+                if (colIndex.containsKey(j)) {
+                    continue;
+                }
+                colIndex.put(j, c);
+                colIds[c] = j;
+            } else {
+                String j = key.toString();
+                if (colStrIndex.containsKey(j)) {
+                    continue;
+                }
+                colStrIndex.put(j, c);
+                colNames[c] = j;
+            }
 
-            double norm = Primitives.doubleValue(colNorms.get(j), 0.d);
+            double norm = HiveUtils.asJavaDouble(e.getValue());
             if (norm == 0.d) { // avoid zero-division
                 norm = 1.d;
             }
-            double scaled = row[i].getValue() / Math.min(sqrtGamma, norm);
-
-            rowScaled[i] = new IntFeature(j, scaled);
+            colScales[c] = 1.d / Math.min(sqrtGamma, norm);
+            colProbs[c] = Math.min(1.d, sqrtGamma / norm);
+            c++;
         }
+        this.colScales = colScales;
+        this.colProbs = colProbs;
+    }
 
-        final IntWritable jWritable = new IntWritable();
-        final IntWritable kWritable = new IntWritable();
-        final DoubleWritable bWritable = new DoubleWritable();
-
-        final Object[] forwardObjs = new Object[3];
-        forwardObjs[0] = jWritable;
-        forwardObjs[1] = kWritable;
-        forwardObjs[2] = bWritable;
+    private int columnIndex(@Nonnull final Feature f) {
+        if (parseFeatureAsInt) {
+            return colIndex.get(f.getFeatureIndex());
+        } else {
+            Integer c = colStrIndex.get(f.getFeature());
+            return (c == null) ? -1 : c.intValue();
+        }
+    }
 
-        for (int ij = 0; ij < length; ij++) {
-            int j = rowScaled[ij].getFeatureIndex();
-            double jVal = rowScaled[ij].getValue();
-            double jProb = Primitives.doubleValue(colProbs.get(j), 0.d);
+    private void emit(final int j, final int k, final double b_jk) throws HiveException {
+        final Long2DoubleOpenHashTable combiner = this.combiner;
+        if (combiner == null) {
+            forward(j, k, b_jk);
+            return;
+        }
 
-            if (jVal != 0.d && rnd.nextDouble() < jProb) {
-                for (int ik = ij + 1; ik < length; ik++) {
-                    int k = rowScaled[ik].getFeatureIndex();
-                    double kVal = rowScaled[ik].getValue();
-                    double kProb = Primitives.doubleValue(colProbs.get(k), 0.d);
+        // (j, k) and (k, j) are combined since the similarity matrix is symmetric
+        final long key = (j <= k) ? (((long) j) << 32) | k : (((long) k) << 32) | j;
+        final int index = combiner._findKey(key);
+        if (index >= 0) {
+            combiner._set(index, combiner._get(index) + b_jk);
+            return;
+        }
+        if (combiner.size() >= maxCombinedPairs) {
+            flushCombiner();
+        }
+        combiner.put(key, b_jk);
+    }
 
-                    if (kVal != 0.d && rnd.nextDouble() < kProb) {
-                        // compute b_jk
-                        bWritable.set(jVal * kVal);
-
-                        if (symmetricOutput) {
-                            // (j, k); similarity matrix is symmetric
-                            jWritable.set(j);
-                            kWritable.set(k);
-                            forward(forwardObjs);
-
-                            // (k, j)
-                            jWritable.set(k);
-                            kWritable.set(j);
-                            forward(forwardObjs);
-                        } else {
-                            if (j < k) {
-                                jWritable.set(j);
-                                kWritable.set(k);
-                            } else {
-                                jWritable.set(k);
-                                kWritable.set(j);
-                            }
-                            forward(forwardObjs);
-                        }
-                    }
-                }
-            }
+    private void flushCombiner() throws HiveException {
+        final Long2DoubleOpenHashTable combiner = this.combiner;
+        if (combiner == null || combiner.size() == 0) {
+            return;
         }
+        final Long2DoubleOpenHashTable.IMapIterator itor = combiner.entries();
+        while (itor.next() != -1) {
+            long key = itor.getKey();
+            forward((int) (key >>> 32), (int) key, itor.getValue());
+        }
+        combiner.clear();
     }
 
-    private void forwardAsStringFeature(@Nonnull Feature[] row) throws HiveException {
-        final int length = row.length;
+    private void forward(final int j, final int k, final double b_jk) throws HiveException {
+        final Object[] forwardObjs = this.forwardObjs;
+        ((DoubleWritable) forwardObjs[2]).set(b_jk);
 
-        Feature[] rowScaled = new Feature[length];
-        for (int i = 0; i < length; i++) {
-            String j = row[i].getFeature();
+        if (symmetricOutput) {
+            // (j, k); similarity matrix is symmetric
+            setColumns(j, k);
+            forward(forwardObjs);
 
-            double norm = Primitives.doubleValue(colNorms.get(j), 0.d);
-            if (norm == 0.d) { // avoid zero-division
-                norm = 1.d;
+            // (k, j)
+            setColumns(k, j);
+            forward(forwardObjs);
+        } else {
+            if (compareColumns(j, k) < 0) {
+                setColumns(j, k);
+            } else {
+                setColumns(k, j);
             }
-            double scaled = row[i].getValue() / Math.min(sqrtGamma, norm);
-
-            rowScaled[i] = new StringFeature(j, scaled);
+            forward(forwardObjs);
         }
+    }
 
-        final Text jWritable = new Text();
-        final Text kWritable = new Text();
-        final DoubleWritable bWritable = new DoubleWritable();
-
-        final Object[] forwardObjs = new Object[3];
-        forwardObjs[0] = jWritable;
-        forwardObjs[1] = kWritable;
-        forwardObjs[2] = bWritable;
-
-        for (int ij = 0; ij < length; ij++) {
-            String j = rowScaled[ij].getFeature();
-            double jVal = rowScaled[ij].getValue();
-            double jProb = Primitives.doubleValue(colProbs.get(j), 0.d);
-
-            if (jVal != 0.d && rnd.nextDouble() < jProb) {
-                for (int ik = ij + 1; ik < length; ik++) {
-                    String k = rowScaled[ik].getFeature();
-                    double kVal = rowScaled[ik].getValue();
-                    double kProb = Primitives.doubleValue(colProbs.get(j), 0.d);
+    private int compareColumns(final int j, final int k) {
+        if (parseFeatureAsInt) {
+            return Primitives.compare(colIds[j], colIds[k]);
+        } else {
+            return colNames[j].compareTo(colNames[k]);
+        }
+    }
 
-                    if (kVal != 0.d && rnd.nextDouble() < kProb) {
-                        // compute b_jk
-                        bWritable.set(jVal * kVal);
-
-                        if (symmetricOutput) {
-                            // (j, k); similarity matrix is symmetric
-                            jWritable.set(j);
-                            kWritable.set(k);
-                            forward(forwardObjs);
-
-                            // (k, j)
-                            jWritable.set(k);
-                            kWritable.set(j);
-                            forward(forwardObjs);
-                        } else {
-                            if (j.compareTo(k) < 0) {
-                                jWritable.set(j);
-                                kWritable.set(k);
-                            } else {
-                                jWritable.set(k);
-                                kWritable.set(j);
-                            }
-                            forward(forwardObjs);
-                        }
-                    }
-                }
-            }
+    private void setColumns(final int j, final int k) {
+        if (parseFeatureAsInt) {
+            ((IntWritable) forwardObjs[0]).set(colIds[j]);
+            ((IntWritable) forwardObjs[1]).set(colIds[k]);
+        } else {
+            ((Text) forwardObjs[0]).set(colNames[j]);
+            ((Text) forwardObjs[1]).set(colNames[k]);
         }
     }
 
@@ -344,8 +391,14 @@ public final class DIMSUMMapperUDTF extends UDTFWithOptions {
 
     @Override
     public void close() throws HiveException {
+        flushCombiner();
         this.probes = null;
-        this.colNorms = null;
+        this.colIndex = null;
+        this.colStrIndex = null;
+        this.colIds = null;
+        this.colNames = null;
+        this.colScales = null;
         this.colProbs = null;
+        this.combiner = null;
     }
 }
@@ -22,9 +22,7 @@ import static hivemall.utils.hadoop.WritableUtils.val;
 import hivemall.knn.distance.HammingDistanceUDF;
 
 import java.math.BigInteger;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDF;
@@ -36,8 +34,8 @@ import org.apache.hadoop.io.FloatWritable;
 @UDFType(deterministic = true, stateful = false)
 public final class JaccardIndexUDF extends UDF {
 
-    private final Set<Object> union = new HashSet<Object>();
-    private final Set<Object> intersect = new HashSet<Object>();
+    private final SparseFeatureVector x = new SparseFeatureVector();
+    private final SparseFeatureVector y = new SparseFeatureVector();
 
     public FloatWritable evaluate(long a, long b) {
         return evaluate(a, b, 128);
@@ -67,25 +65,9 @@ public final class JaccardIndexUDF extends UDF {
         } else if (a == null || b == null) {
             return new FloatWritable(0.f);
         }
-        final int asize = a.size();
-        final int bsize = b.size();
-        if (asize == 0 && bsize == 0) {
-            return new FloatWritable(1.f);
-        } else if (asize == 0 || bsize == 0) {
-            return new FloatWritable(0.f);
-        }
-
-        union.addAll(a);
-        union.addAll(b);
-        float unionSize = union.size();
-        union.clear();
-
-        intersect.addAll(a);
-        intersect.retainAll(b);
-        float intersectSize = intersect.size();
-        intersect.clear();
-
-        return new FloatWritable(intersectSize / unionSize);
+        x.parseTokens(a);
+        y.parseTokens(b);
+        return new FloatWritable(SparseFeatureVector.jaccardIndex(x, y));
     }
 
 }
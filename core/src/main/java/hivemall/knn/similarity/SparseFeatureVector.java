@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.similarity;
+
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hashing.MurmurHash3;
+import hivemall.utils.lang.ArrayUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+
+/**
+ * Reusable sparse vector of (key, value) pairs sorted by key, on which the distance and similarity
+ * measures are computed by a merge join.
+ *
+ * A feature in the canonical decimal form of an int is keyed by its value, so that
+ * {@code array<int>} features need no parsing. Any other feature is keyed by a 64-bit
+ * MurmurHash3 value which never falls in the int range. Values of duplicate features are summed up.
+ */
+public final class SparseFeatureVector {
+
+    private static final int SEED1 = 0x9747b28c;
+    private static final int SEED2 = 0x5bd1e995;
+
+    private static final ThreadLocal<SparseFeatureVector[]> LOCAL_PAIR =
+            new ThreadLocal<SparseFeatureVector[]>() {
+                @Override
+                protected SparseFeatureVector[] initialValue() {
+                    return new SparseFeatureVector[] {new SparseFeatureVector(),
+                            new SparseFeatureVector()};
+                }
+            };
+
+    @Nonnull
+    private long[] keys;
+    @Nonnull
+    private float[] values;
+    private int size;
+
+    public SparseFeatureVector() {
+        this(16);
+    }
+
+    public SparseFeatureVector(int initCapacity) {
+        this.keys = new long[initCapacity];
+        this.values = new float[initCapacity];
+        this.size = 0;
+    }
+
+    /**
+     * @return a pair of vectors reused by the current thread
+     */
+    @Nonnull
+    public static SparseFeatureVector[] localPair() {
+        return LOCAL_PAIR.get();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Nonnull
+    long[] keys() {
+        return keys;
+    }
+
+    @Nonnull
+    float[] values() {
+        return values;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Parses features in the {@code feature[:value]} format. Null features are ignored.
+     */
+    public void parseFeatures(@Nonnull final List<String> features)
+            throws IllegalArgumentException {
+        clear();
+        ensureCapacity(features.size());
+        for (String s : features) {
+            if (s != null) {
+                addFeature(s);
+            }
+        }
+        normalize();
+    }
+
+    /**
+     * Parses an array of features in the {@code feature[:value]} format, or an array of integer
+     * features of which values are 1.0 when {@code intOI} is given.
+     *
+     * @param intOI ObjectInspector of elements returned by {@link #asIntegerElementOI}
+     */
+    public void parseFeatures(@Nullable final Object list,
+            @Nonnull final ListObjectInspector listOI, @Nullable final PrimitiveObjectInspector intOI)
+            throws IllegalArgumentException {
+        clear();
+        if (list == null) {
+            return;
+        }
+        final int length = listOI.getListLength(list);
+        ensureCapacity(length);
+        if (intOI != null) {
+            for (int i = 0; i < length; i++) {
+                Object o = listOI.getListElement(list, i);
+                if (o == null) {
+                    continue;
+                }
+                long v = PrimitiveObjectInspectorUtils.getLong(o, intOI);
+                if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                    add(v, 1.f);
+                } else {
+                    String s = Long.toString(v);
+                    add(hash(s, s.length()), 1.f);
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                Object o = listOI.getListElement(list, i);
+                if (o != null) {
+                    addFeature(o.toString());
+                }
+            }
+        }
+        normalize();
+    }
+
+    /**
+     * Parses tokens as a set, in which {@code a:1} and {@code a:2} are different tokens.
+     */
+    public void parseTokens(@Nonnull final List<String> tokens) {
+        clear();
+        ensureCapacity(tokens.size());
+        for (String s : tokens) {
+            if (s != null) {
+                add(key(s, s.length()), 1.f);
+            }
+        }
+        normalize();
+    }
+
+    /**
+     * @return the element ObjectInspector of the given list if it is of integers, otherwise null
+     */
+    @Nullable
+    public static PrimitiveObjectInspector asIntegerElementOI(@Nonnull final ListObjectInspector listOI) {
+        ObjectInspector elemOI = listOI.getListElementObjectInspector();
+        if (HiveUtils.isIntegerOI(elemOI)) {
+            return (PrimitiveObjectInspector) elemOI;
+        }
+        return null;
+    }
+
+    private void addFeature(@Nonnull final String s) throws IllegalArgumentException {
+        final int pos = s.indexOf(':');
+        if (pos == 0) {
+            throw new IllegalArgumentException("Invalid feature value representation: " + s);
+        }
+        if (pos > 0) {
+            float v = (float) Double.parseDouble(s.substring(pos + 1));
+            add(key(s, pos), v);
+        } else {
+            add(key(s, s.length()), 1.f);
+        }
+    }
+
+    private void add(final long key, final float value) {
+        if (size == keys.length) {
+            ensureCapacity(size + 1);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    private void ensureCapacity(final int required) {
+        if (required > keys.length) {
+            int cap = Math.max(required, keys.length * 2);
+            this.keys = Arrays.copyOf(keys, cap);
+            this.values = Arrays.copyOf(values, cap);
+        }
+    }
+
+    /**
+     * Sorts entries by keys and sums up values of duplicate keys.
+     */
+    private void normalize() {
+        final long[] keys = this.keys;
+        final float[] values = this.values;
+        final int n = size;
+        boolean sorted = true;
+        for (int i = 1; i < n; i++) {
+            if (keys[i] <= keys[i - 1]) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            return;
+        }
+        ArrayUtils.sort(keys, values, n);
+        int j = 0;
+        for (int i = 1; i < n; i++) {
+            if (keys[i] == keys[j]) {
+                values[j] += values[i];
+            } else {
+                j++;
+                keys[j] = keys[i];
+                values[j] = values[i];
+            }
+        }
+        this.size = j + 1;
+    }
+
+    static long key(@Nonnull final String s, final int end) {
+        // canonical decimal form of an int, i.e., no sign, no leading zero, and up to 10 digits
+        if (end > 0 && end <= 11) {
+            int i = 0;
+            boolean negative = false;
+            if (s.charAt(0) == '-') {
+                negative = true;
+                i = 1;
+            }
+            final int digits = end - i;
+            if (digits > 0 && (s.charAt(i) != '0' || (digits == 1 && !negative))) {
+                long v = 0L;
+                for (; i < end; i++) {
+                    char c = s.charAt(i);
+                    if (c < '0' || c > '9') {
+                        break;
+                    }
+                    v = v * 10L + (c - '0');
+                }
+                if (i == end && digits <= 10) {
+                    v = negative ? -v : v;
+                    if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                        return v;
+                    }
+                }
+            }
+        }
+        return hash(s, end);
+    }
+
+    private static long hash(@Nonnull final String s, final int end) {
+        int h1 = MurmurHash3.murmurhash3_x86_32(s, 0, end, SEED1);
+        int h2 = MurmurHash3.murmurhash3_x86_32(s, 0, end, SEED2);
+        // upper 32 bits of an int-ranged long are all 0 or all 1
+        if (h1 == 0 || h1 == -1) {
+            h1 = 1;
+        }
+        return (((long) h1) << 32) | (h2 & 0xFFFFFFFFL);
+    }
+
+    public double squaredNorm() {
+        final float[] values = this.values;
+        double sum = 0.d;
+        for (int i = 0; i < size; i++) {
+            float v = values[i];
+            sum += v * v;
+        }
+        return sum;
+    }
+
+    public static double dot(@Nonnull final SparseFeatureVector x,
+            @Nonnull final SparseFeatureVector y) {
+        final long[] xk = x.keys, yk = y.keys;
+        final float[] xv = x.values, yv = y.values;
+        final int xn = x.size, yn = y.size;
+        double dotp = 0.d;
+        int i = 0, j = 0;
+        while (i < xn && j < yn) {
+            long a = xk[i], b = yk[j];
+            if (a == b) {
+                dotp += xv[i] * yv[j];
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return dotp;
+    }
+
+    public static float cosineSimilarity(@Nonnull final SparseFeatureVector x,
+            @Nonnull final SparseFeatureVector y) {
+        final double denom = Math.sqrt(x.squaredNorm()) * Math.sqrt(y.squaredNorm());
+        if (denom <= 0.d) {
+            return 0.f;
+        }
+        return (float) (dot(x, y) / denom);
+    }
+
+    public static double squaredEuclidDistance(@Nonnull final SparseFeatureVector x,
+            @Nonnull final SparseFeatureVector y) {
+        final long[] xk = x.keys, yk = y.keys;
+        final float[] xv = x.values, yv = y.values;
+        final int xn = x.size, yn = y.size;
+        double d = 0.d;
+        int i = 0, j = 0;
+        while (i < xn && j < yn) {
+            long a = xk[i], b = yk[j];
+            final float diff;
+            if (a == b) {
+                diff = xv[i++] - yv[j++];
+            } else if (a < b) {
+                diff = xv[i++];
+            } else {
+                diff = yv[j++];
+            }
+            d += diff * diff;
+        }
+        for (; i < xn; i++) {
+            d += xv[i] * xv[i];
+        }
+        for (; j < yn; j++) {
+            d += yv[j] * yv[j];
+        }
+        return d;
+    }
+
+    public static double manhattanDistance(@Nonnull final SparseFeatureVector x,
+            @Nonnull final SparseFeatureVector y) {
+        final long[] xk = x.keys, yk = y.keys;
+        final float[] xv = x.values, yv = y.values;
+        final int xn = x.size, yn = y.size;
+        double d = 0.d;
+        int i = 0, j = 0;
+        while (i < xn && j < yn) {
+            long a = xk[i], b = yk[j];
+            if (a == b) {
+                d += Math.abs(xv[i++] - yv[j++]);
+            } else if (a < b) {
+                d += Math.abs(xv[i++]);
+            } else {
+                d += Math.abs(yv[j++]);
+            }
+        }
+        for (; i < xn; i++) {
+            d += Math.abs(xv[i]);
+        }
+        for (; j < yn; j++) {
+            d += Math.abs(yv[j]);
+        }
+        return d;
+    }
+
+    /**
+     * @return |x & y| / |x | y| over the keys
+     */
+    public static float jaccardIndex(@Nonnull final SparseFeatureVector x,
+            @Nonnull final SparseFeatureVector y) {
+        final long[] xk = x.keys, yk = y.keys;
+        final int xn = x.size, yn = y.size;
+        if (xn == 0 && yn == 0) {
+            return 1.f;
+        }
+        int intersect = 0;
+        int i = 0, j = 0;
+        while (i < xn && j < yn) {
+            long a = xk[i], b = yk[j];
+            if (a == b) {
+                intersect++;
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return intersect / (float) (xn + yn - intersect);
+    }
+
+}
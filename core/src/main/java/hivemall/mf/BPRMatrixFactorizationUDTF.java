@@ -23,8 +23,8 @@ import hivemall.common.ConversionState;
 import hivemall.optimizer.EtaEstimator;
 import hivemall.mf.FactorizedModel.RankInitScheme;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.io.FileUtils;
-import hivemall.utils.io.NioFixedSegment;
+import hivemall.utils.io.ReplayBuffer;
+import hivemall.utils.io.ReplayBuffer.SpillCodec;
 import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Primitives;
 import hivemall.utils.math.MathUtils;
@@ -77,6 +77,12 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
     protected boolean useBiasClause;
     /** The number of iterations */
     protected int iterations;
+    /** Codec to compress spilled training examples */
+    protected SpillCodec spillCodec = SpillCodec.none;
+    /** Whether to replay training examples in a random order */
+    protected boolean shuffle = false;
+    /** Seed value to shuffle training examples, or -1 for a random seed */
+    protected long seed = -1L;
 
     protected LossFunction lossFunction;
     /** Initialization strategy of rank matrix */
@@ -98,9 +104,7 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
     protected PrimitiveObjectInspector negItemOI;
 
     // Used for iterations
-    protected NioFixedSegment fileIO;
-    protected ByteBuffer inputBuf;
-    private long lastWritePos;
+    protected ReplayBuffer replayBuf;
 
     private float[] uProbe, iProbe, jProbe;
 
@@ -173,6 +177,12 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             "Whether to disable convergence check [default: enabled]");
         opts.addOption("cv_rate", "convergence_rate", true,
             "Threshold to determine convergence [default: 0.005]");
+        opts.addOption("spill_codec", true,
+            "Codec to compress spilled training examples [none, deflate, lz4] (default: none)");
+        opts.addOption("shuffle", false,
+            "Replay training examples in a random order for each iteration [default: OFF]");
+        opts.addOption("seed", true,
+            "Seed value to shuffle training examples [default: -1 (random)]");
         return opts;
     }
 
@@ -212,6 +222,13 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             conversionCheck = !cl.hasOption("disable_cvtest");
             convergenceRate = Primitives.parseDouble(cl.getOptionValue("cv_rate"), convergenceRate);
             this.useBiasClause = !cl.hasOption("no_bias");
+            try {
+                this.spillCodec = SpillCodec.resolve(cl.getOptionValue("spill_codec"));
+            } catch (IllegalArgumentException e) {
+                throw new UDFArgumentException(e.getMessage());
+            }
+            this.shuffle = cl.hasOption("shuffle");
+            this.seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
         }
 
         this.lossFunction = LossFunction.resolve(lossFuncName);
@@ -239,28 +256,16 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
 
         this.model = new FactorizedModel(this, factor, rankInit);
         this.count = 0L;
-        this.lastWritePos = 0L;
         this.uProbe = new float[factor];
         this.iProbe = new float[factor];
         this.jProbe = new float[factor];
 
         if (mapredContext != null && iterations > 1) {
             // invoke only at task node (initialize is also invoked in compilation)
-            final File file;
-            try {
-                file = File.createTempFile("hivemall_bprmf", ".sgmt");
-                file.deleteOnExit();
-                if (!file.canWrite()) {
-                    throw new UDFArgumentException("Cannot write a temporary file: "
-                            + file.getAbsolutePath());
-                }
-            } catch (IOException ioe) {
-                throw new UDFArgumentException(ioe);
-            } catch (Throwable e) {
-                throw new UDFArgumentException(e);
+            this.replayBuf = new ReplayBuffer("hivemall_bprmf", spillCodec.newCodec());
+            if (shuffle) {
+                replayBuf.setShuffle((seed == -1L) ? System.nanoTime() : seed);
             }
-            this.fileIO = new NioFixedSegment(file, RECORD_BYTES, false);
-            this.inputBuf = ByteBuffer.allocateDirect(65536); // 64 KiB
         }
 
         ArrayList<String> fieldNames = new ArrayList<String>();
@@ -294,13 +299,13 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
 
     protected void beforeTrain(final long rowNum, final int u, final int i, final int j)
             throws HiveException {
-        if (inputBuf != null) {
-            assert (fileIO != null);
-            final ByteBuffer buf = inputBuf;
-            int remain = buf.remaining();
-            if (remain < RECORD_BYTES) {
-                writeBuffer(buf, fileIO, lastWritePos);
-                this.lastWritePos = rowNum;
+        if (replayBuf != null) {
+            final ByteBuffer buf;
+            try {
+                buf = replayBuf.reserve(RECORD_BYTES);
+            } catch (IOException e) {
+                throw new HiveException("Exception causes while recording a training example: "
+                        + rowNum, e);
             }
             buf.putInt(u);
             buf.putInt(i);
@@ -462,10 +467,8 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
     }
 
     private final void runIterativeTraining(@Nonnegative final int iterations) throws HiveException {
-        final ByteBuffer inputBuf = this.inputBuf;
-        final NioFixedSegment fileIO = this.fileIO;
-        assert (inputBuf != null);
-        assert (fileIO != null);
+        final ReplayBuffer replayBuf = this.replayBuf;
+        assert (replayBuf != null);
         final long numTrainingExamples = count;
 
         final Reporter reporter = getReporter();
@@ -473,127 +476,60 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             "hivemall.mf.BPRMatrixFactorization$Counter", "iteration");
 
         try {
-            if (lastWritePos == 0) {// run iterations w/o temporary file
-                if (inputBuf.position() == 0) {
-                    return; // no training example
-                }
-                inputBuf.flip();
-
-                int iter = 2;
-                for (; iter <= iterations; iter++) {
-                    reportProgress(reporter);
-                    setCounterValue(iterCounter, iter);
-
-                    while (inputBuf.remaining() > 0) {
-                        int u = inputBuf.getInt();
-                        int i = inputBuf.getInt();
-                        int j = inputBuf.getInt();
-                        // invoke train
-                        count++;
-                        train(u, i, j);
-                    }
-                    cvState.multiplyLoss(0.5d);
-                    cvState.logState(iter, eta());
-                    if (cvState.isConverged(iter, numTrainingExamples)) {
-                        break;
-                    }
-                    if (cvState.isLossIncreased()) {
-                        etaEstimator.update(1.1f);
-                    } else {
-                        etaEstimator.update(0.5f);
-                    }
-                    inputBuf.rewind();
-                }
-                LOG.info("Performed " + Math.min(iter, iterations) + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on memory (thus " + NumberUtils.formatNumber(count)
-                        + " training updates in total) ");
-            } else {// read training examples in the temporary file and invoke train for each example
-
-                // write training examples in buffer to a temporary file
-                if (inputBuf.position() > 0) {
-                    writeBuffer(inputBuf, fileIO, lastWritePos);
-                } else if (lastWritePos == 0) {
-                    return; // no training example
-                }
-                try {
-                    fileIO.flush();
-                } catch (IOException e) {
-                    throw new HiveException("Failed to flush a file: "
-                            + fileIO.getFile().getAbsolutePath(), e);
-                }
-                if (LOG.isInfoEnabled()) {
-                    File tmpFile = fileIO.getFile();
+            if (replayBuf.getNumRecords() == 0L) {
+                return; // no training example
+            }
+
+            int iter = 2;
+            for (; iter <= iterations; iter++) {
+                setCounterValue(iterCounter, iter);
+
+                replayBuf.rewind(reporter);
+                if (iter == 2 && replayBuf.isSpilled() && LOG.isInfoEnabled()) {
+                    File tmpFile = replayBuf.getFile();
                     LOG.info("Wrote " + numTrainingExamples
                             + " records to a temporary file for iterative training: "
-                            + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
+                            + tmpFile.getAbsolutePath() + " (" + replayBuf.getSpillStatistics()
                             + ")");
                 }
 
-                // run iterations
-                int iter = 2;
-                for (; iter <= iterations; iter++) {
-                    setCounterValue(iterCounter, iter);
-
-                    inputBuf.clear();
-                    long seekPos = 0L;
-                    while (true) {
-                        reportProgress(reporter);
-                        // TODO prefetch
-                        // writes training examples to a buffer in the temporary file
-                        final int bytesRead;
-                        try {
-                            bytesRead = fileIO.read(seekPos, inputBuf);
-                        } catch (IOException e) {
-                            throw new HiveException("Failed to read a file: "
-                                    + fileIO.getFile().getAbsolutePath(), e);
-                        }
-                        if (bytesRead == 0) { // reached file EOF
-                            break;
-                        }
-                        assert (bytesRead > 0) : bytesRead;
-                        seekPos += bytesRead;
-
-                        // reads training examples from a buffer
-                        inputBuf.flip();
-                        int remain = inputBuf.remaining();
-                        assert (remain > 0) : remain;
-                        for (; remain >= RECORD_BYTES; remain -= RECORD_BYTES) {
-                            int u = inputBuf.getInt();
-                            int i = inputBuf.getInt();
-                            int j = inputBuf.getInt();
-                            // invoke train
-                            count++;
-                            train(u, i, j);
-                        }
-                        inputBuf.compact();
-                    }
-                    cvState.multiplyLoss(0.5d);
-                    cvState.logState(iter, eta());
-                    if (cvState.isConverged(iter, numTrainingExamples)) {
-                        break;
-                    }
-                    if (cvState.isLossIncreased()) {
-                        etaEstimator.update(1.1f);
-                    } else {
-                        etaEstimator.update(0.5f);
-                    }
+                ByteBuffer buf;
+                while ((buf = replayBuf.next()) != null) {
+                    int u = buf.getInt();
+                    int i = buf.getInt();
+                    int j = buf.getInt();
+                    // invoke train
+                    count++;
+                    train(u, i, j);
+                }
+                if (replayBuf.isCompressed() && LOG.isInfoEnabled()) {
+                    LOG.info("Iteration #" + iter + " " + replayBuf.getDecodeStatistics());
+                }
+                cvState.multiplyLoss(0.5d);
+                cvState.logState(iter, eta());
+                if (cvState.isConverged(iter, numTrainingExamples)) {
+                    break;
+                }
+                if (cvState.isLossIncreased()) {
+                    etaEstimator.update(1.1f);
+                } else {
+                    etaEstimator.update(0.5f);
                 }
-                LOG.info("Performed " + Math.min(iter, iterations) + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples using a secondary storage (thus "
-                        + NumberUtils.formatNumber(count) + " training updates in total)");
             }
+            LOG.info("Performed " + Math.min(iter, iterations) + " iterations of "
+                    + NumberUtils.formatNumber(numTrainingExamples) + " training examples "
+                    + (replayBuf.isSpilled() ? "using a secondary storage" : "on memory")
+                    + " (thus " + NumberUtils.formatNumber(count) + " training updates in total)");
+        } catch (IOException e) {
+            throw new HiveException("Failed to replay training examples", e);
         } finally {
             // delete the temporary file and release resources
             try {
-                fileIO.close(true);
+                replayBuf.close();
             } catch (IOException e) {
-                throw new HiveException("Failed to close a file: "
-                        + fileIO.getFile().getAbsolutePath(), e);
+                throw new HiveException("Failed to close a replay buffer", e);
             }
-            this.inputBuf = null;
-            this.fileIO = null;
+            this.replayBuf = null;
         }
     }
 
@@ -617,19 +553,6 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
         }
     }
 
-    private static void writeBuffer(@Nonnull final ByteBuffer srcBuf,
-            @Nonnull final NioFixedSegment dst, final long lastWritePos) throws HiveException {
-        // TODO asynchronous write in the background
-        srcBuf.flip();
-        try {
-            dst.writeRecords(lastWritePos, srcBuf);
-        } catch (IOException e) {
-            throw new HiveException("Exception causes while writing records to : " + lastWritePos,
-                e);
-        }
-        srcBuf.clear();
-    }
-
     @Nonnull
     private final void copyToProbe(@Nonnull final Rating[] rating, @Nonnull float[] probe) {
         for (int k = 0, size = factor; k < size; k++) {
@@ -22,8 +22,8 @@ import hivemall.UDTFWithOptions;
 import hivemall.common.ConversionState;
 import hivemall.mf.FactorizedModel.RankInitScheme;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.io.FileUtils;
-import hivemall.utils.io.NioFixedSegment;
+import hivemall.utils.io.ReplayBuffer;
+import hivemall.utils.io.ReplayBuffer.SpillCodec;
 import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Primitives;
 
@@ -70,6 +70,12 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
     protected int iterations;
     /** Whether to use bias clause */
     protected boolean useBiasClause;
+    /** Codec to compress spilled training examples */
+    protected SpillCodec spillCodec;
+    /** Whether to replay training examples in a random order */
+    protected boolean shuffle;
+    /** Seed value to shuffle training examples, or -1 for a random seed */
+    protected long seed;
 
     /** Initialization strategy of rank matrix */
     protected RankInitScheme rankInit;
@@ -88,9 +94,7 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
     protected PrimitiveObjectInspector ratingOI;
 
     // Used for iterations
-    protected NioFixedSegment fileIO;
-    protected ByteBuffer inputBuf;
-    private long lastWritePos;
+    protected ReplayBuffer replayBuf;
 
     private float[] userProbe, itemProbe;
 
@@ -101,6 +105,9 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         this.updateMeanRating = false;
         this.iterations = 1;
         this.useBiasClause = true;
+        this.spillCodec = SpillCodec.none;
+        this.shuffle = false;
+        this.seed = -1L;
     }
 
     @Override
@@ -123,6 +130,12 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         opts.addOption("cv_rate", "convergence_rate", true,
             "Threshold to determine convergence [default: 0.005]");
         opts.addOption("disable_bias", "no_bias", false, "Turn off bias clause");
+        opts.addOption("spill_codec", true,
+            "Codec to compress spilled training examples [none, deflate, lz4] (default: none)");
+        opts.addOption("shuffle", false,
+            "Replay training examples in a random order for each iteration [default: OFF]");
+        opts.addOption("seed", true,
+            "Seed value to shuffle training examples [default: -1 (random)]");
         return opts;
     }
 
@@ -157,6 +170,13 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
             if (noBias && updateMeanRating) {
                 throw new UDFArgumentException("Cannot set both `update_mean` and `no_bias` option");
             }
+            try {
+                this.spillCodec = SpillCodec.resolve(cl.getOptionValue("spill_codec"));
+            } catch (IllegalArgumentException e) {
+                throw new UDFArgumentException(e.getMessage());
+            }
+            this.shuffle = cl.hasOption("shuffle");
+            this.seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
         }
         this.rankInit = RankInitScheme.resolve(rankInitOpt);
         rankInit.setMaxInitValue(maxInitValue);
@@ -180,27 +200,15 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
 
         this.model = new FactorizedModel(this, factor, meanRating, rankInit);
         this.count = 0L;
-        this.lastWritePos = 0L;
         this.userProbe = new float[factor];
         this.itemProbe = new float[factor];
 
         if (mapredContext != null && iterations > 1) {
             // invoke only at task node (initialize is also invoked in compilation)
-            final File file;
-            try {
-                file = File.createTempFile("hivemall_mf", ".sgmt");
-                file.deleteOnExit();
-                if (!file.canWrite()) {
-                    throw new UDFArgumentException("Cannot write a temporary file: "
-                            + file.getAbsolutePath());
-                }
-            } catch (IOException ioe) {
-                throw new UDFArgumentException(ioe);
-            } catch (Throwable e) {
-                throw new UDFArgumentException(e);
+            this.replayBuf = new ReplayBuffer("hivemall_mf", spillCodec.newCodec());
+            if (shuffle) {
+                replayBuf.setShuffle((seed == -1L) ? System.nanoTime() : seed);
             }
-            this.fileIO = new NioFixedSegment(file, RECORD_BYTES, false);
-            this.inputBuf = ByteBuffer.allocateDirect(65536); // 64 KiB
         }
 
         ArrayList<String> fieldNames = new ArrayList<String>();
@@ -295,13 +303,13 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
 
     protected void beforeTrain(final long rowNum, final int user, final int item,
             final double rating) throws HiveException {
-        if (inputBuf != null) {
-            assert (fileIO != null);
-            final ByteBuffer buf = inputBuf;
-            int remain = buf.remaining();
-            if (remain < RECORD_BYTES) {
-                writeBuffer(buf, fileIO, lastWritePos);
-                this.lastWritePos = rowNum;
+        if (replayBuf != null) {
+            final ByteBuffer buf;
+            try {
+                buf = replayBuf.reserve(RECORD_BYTES);
+            } catch (IOException e) {
+                throw new HiveException("Exception causes while recording a training example: "
+                        + rowNum, e);
             }
             buf.putInt(user);
             buf.putInt(item);
@@ -445,25 +453,10 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         }
     }
 
-    protected static void writeBuffer(@Nonnull final ByteBuffer srcBuf,
-            @Nonnull final NioFixedSegment dst, final long lastWritePos) throws HiveException {
-        // TODO asynchronous write in the background
-        srcBuf.flip();
-        try {
-            dst.writeRecords(lastWritePos, srcBuf);
-        } catch (IOException e) {
-            throw new HiveException("Exception causes while writing records to : " + lastWritePos,
-                e);
-        }
-        srcBuf.clear();
-    }
-
     protected final void runIterativeTraining(@Nonnegative final int iterations)
             throws HiveException {
-        final ByteBuffer inputBuf = this.inputBuf;
-        final NioFixedSegment fileIO = this.fileIO;
-        assert (inputBuf != null);
-        assert (fileIO != null);
+        final ReplayBuffer replayBuf = this.replayBuf;
+        assert (replayBuf != null);
         final long numTrainingExamples = count;
 
         final Reporter reporter = getReporter();
@@ -471,115 +464,54 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
             "hivemall.mf.MatrixFactorization$Counter", "iteration");
 
         try {
-            if (lastWritePos == 0) {// run iterations w/o temporary file
-                if (inputBuf.position() == 0) {
-                    return; // no training example
-                }
-                inputBuf.flip();
-
-                int iter = 2;
-                for (; iter <= iterations; iter++) {
-                    reportProgress(reporter);
-                    setCounterValue(iterCounter, iter);
-
-                    while (inputBuf.remaining() > 0) {
-                        int user = inputBuf.getInt();
-                        int item = inputBuf.getInt();
-                        double rating = inputBuf.getDouble();
-                        // invoke train
-                        count++;
-                        train(user, item, rating);
-                    }
-                    cvState.multiplyLoss(0.5d);
-                    if (cvState.isConverged(iter, numTrainingExamples)) {
-                        break;
-                    }
-                    inputBuf.rewind();
-                }
-                logger.info("Performed " + Math.min(iter, iterations) + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on memory (thus " + NumberUtils.formatNumber(count)
-                        + " training updates in total) ");
-            } else {// read training examples in the temporary file and invoke train for each example
-
-                // write training examples in buffer to a temporary file
-                if (inputBuf.position() > 0) {
-                    writeBuffer(inputBuf, fileIO, lastWritePos);
-                } else if (lastWritePos == 0) {
-                    return; // no training example
-                }
-                try {
-                    fileIO.flush();
-                } catch (IOException e) {
-                    throw new HiveException("Failed to flush a file: "
-                            + fileIO.getFile().getAbsolutePath(), e);
-                }
-                if (logger.isInfoEnabled()) {
-                    File tmpFile = fileIO.getFile();
+            if (replayBuf.getNumRecords() == 0L) {
+                return; // no training example
+            }
+
+            int iter = 2;
+            for (; iter <= iterations; iter++) {
+                setCounterValue(iterCounter, iter);
+
+                replayBuf.rewind(reporter);
+                if (iter == 2 && replayBuf.isSpilled() && logger.isInfoEnabled()) {
+                    File tmpFile = replayBuf.getFile();
                     logger.info("Wrote " + numTrainingExamples
                             + " records to a temporary file for iterative training: "
-                            + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
+                            + tmpFile.getAbsolutePath() + " (" + replayBuf.getSpillStatistics()
                             + ")");
                 }
 
-                // run iterations
-                int iter = 2;
-                for (; iter <= iterations; iter++) {
-                    setCounterValue(iterCounter, iter);
-
-                    inputBuf.clear();
-                    long seekPos = 0L;
-                    while (true) {
-                        reportProgress(reporter);
-                        // TODO prefetch
-                        // writes training examples to a buffer in the temporary file
-                        final int bytesRead;
-                        try {
-                            bytesRead = fileIO.read(seekPos, inputBuf);
-                        } catch (IOException e) {
-                            throw new HiveException("Failed to read a file: "
-                                    + fileIO.getFile().getAbsolutePath(), e);
-                        }
-                        if (bytesRead == 0) { // reached file EOF
-                            break;
-                        }
-                        assert (bytesRead > 0) : bytesRead;
-                        seekPos += bytesRead;
-
-                        // reads training examples from a buffer
-                        inputBuf.flip();
-                        int remain = inputBuf.remaining();
-                        assert (remain > 0) : remain;
-                        for (; remain >= RECORD_BYTES; remain -= RECORD_BYTES) {
-                            int user = inputBuf.getInt();
-                            int item = inputBuf.getInt();
-                            double rating = inputBuf.getDouble();
-                            // invoke train
-                            count++;
-                            train(user, item, rating);
-                        }
-                        inputBuf.compact();
-                    }
-                    cvState.multiplyLoss(0.5d);
-                    if (cvState.isConverged(iter, numTrainingExamples)) {
-                        break;
-                    }
+                ByteBuffer buf;
+                while ((buf = replayBuf.next()) != null) {
+                    int user = buf.getInt();
+                    int item = buf.getInt();
+                    double rating = buf.getDouble();
+                    // invoke train
+                    count++;
+                    train(user, item, rating);
+                }
+                if (replayBuf.isCompressed() && logger.isInfoEnabled()) {
+                    logger.info("Iteration #" + iter + " " + replayBuf.getDecodeStatistics());
+                }
+                cvState.multiplyLoss(0.5d);
+                if (cvState.isConverged(iter, numTrainingExamples)) {
+                    break;
                 }
-                logger.info("Performed " + Math.min(iter, iterations) + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples using a secondary storage (thus "
-                        + NumberUtils.formatNumber(count) + " training updates in total)");
             }
+            logger.info("Performed " + Math.min(iter, iterations) + " iterations of "
+                    + NumberUtils.formatNumber(numTrainingExamples) + " training examples "
+                    + (replayBuf.isSpilled() ? "using a secondary storage" : "on memory")
+                    + " (thus " + NumberUtils.formatNumber(count) + " training updates in total)");
+        } catch (IOException e) {
+            throw new HiveException("Failed to replay training examples", e);
         } finally {
             // delete the temporary file and release resources
             try {
-                fileIO.close(true);
+                replayBuf.close();
             } catch (IOException e) {
-                throw new HiveException("Failed to close a file: "
-                        + fileIO.getFile().getAbsolutePath(), e);
+                throw new HiveException("Failed to close a replay buffer", e);
             }
-            this.inputBuf = null;
-            this.fileIO = null;
+            this.replayBuf = null;
         }
     }
 
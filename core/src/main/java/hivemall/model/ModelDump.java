@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import hivemall.model.WeightValue.WeightValueWithCovar;
+import hivemall.utils.hadoop.HadoopUtils;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.io.NIOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Binary dump of a model table of {@code <feature, weight [, covar]>} rows, which is
+ * memory-mapped to initialize a model without parsing text.
+ *
+ * <pre>
+ * int magic, byte keyType, byte hasCovar, int n,
+ * n records of (key, float weight [, float covar]) where a key is an int, a long, or (int length, byte[] utf8)
+ * </pre>
+ */
+public final class ModelDump {
+
+    private static final int MAGIC = 0x484D4431; // "HMD1"
+    private static final int HEADER_BYTES = 10;
+
+    private static final byte INT_KEY = 0;
+    private static final byte LONG_KEY = 1;
+    private static final byte STRING_KEY = 2;
+
+    @Nonnull
+    private final ByteBuffer buf;
+    private final byte keyType;
+    private final boolean hasCovar;
+    private final int size;
+
+    public ModelDump(@Nonnull ByteBuffer buf) throws IOException {
+        if (buf.limit() < HEADER_BYTES || buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a model dump");
+        }
+        this.buf = buf;
+        this.keyType = buf.get(4);
+        this.hasCovar = buf.get(5) != 0;
+        this.size = buf.getInt(6);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sets the weights of the dump to the model. A {@link NewDenseModel} of int features is
+     * initialized directly, and other models through {@link PredictionModel#set}.
+     */
+    public void loadTo(@Nonnull final PredictionModel model) {
+        final ByteBuffer buf = this.buf.duplicate();
+        buf.position(HEADER_BYTES);
+        final int n = size;
+
+        if (keyType == INT_KEY && model instanceof NewDenseModel) {
+            final NewDenseModel dense = (NewDenseModel) model;
+            for (int i = 0; i < n; i++) {
+                int k = buf.getInt();
+                float w = buf.getFloat();
+                float cov = hasCovar ? buf.getFloat() : WeightValueWithCovar.DEFAULT_COVAR;
+                dense.setWeight(k, w, cov);
+            }
+            return;
+        }
+
+        for (int i = 0; i < n; i++) {
+            final Object k;
+            switch (keyType) {
+                case INT_KEY:
+                    k = new IntWritable(buf.getInt());
+                    break;
+                case LONG_KEY:
+                    k = new LongWritable(buf.getLong());
+                    break;
+                default: {
+                    byte[] b = new byte[buf.getInt()];
+                    buf.get(b);
+                    k = new Text(b);
+                    break;
+                }
+            }
+            float w = buf.getFloat();
+            if (hasCovar) {
+                float cov = buf.getFloat();
+                model.set(k, new WeightValueWithCovar(w, cov, false));
+            } else {
+                model.set(k, new WeightValue(w, false));
+            }
+        }
+    }
+
+    public static boolean isSupported(@Nonnull final PrimitiveObjectInspector featureOI) {
+        switch (featureOI.getPrimitiveCategory()) {
+            case INT:
+            case LONG:
+            case STRING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Memory-maps the dump of a model file. The dump is created next to the file, or in
+     * java.io.tmpdir if the directory is not writable, by the first task on a node and is shared
+     * by the following tasks.
+     *
+     * @throws IllegalArgumentException if the type of features is not supported
+     */
+    @Nonnull
+    public static ModelDump map(@Nonnull final File file,
+            @Nonnull final PrimitiveObjectInspector featureOI, final boolean hasCovar)
+            throws IOException {
+        final byte keyType;
+        switch (featureOI.getPrimitiveCategory()) {
+            case INT:
+                keyType = INT_KEY;
+                break;
+            case LONG:
+                keyType = LONG_KEY;
+                break;
+            case STRING:
+                keyType = STRING_KEY;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported feature type: "
+                        + featureOI.getTypeName());
+        }
+
+        final String name = "." + file.getName() + '-' + file.length() + '-'
+                + file.lastModified() + (hasCovar ? ".covar" : "") + ".dump";
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null || !dir.canWrite()) {
+            dir = new File(System.getProperty("java.io.tmpdir"));
+        }
+        final File dumpFile = new File(dir, name);
+        if (!dumpFile.isFile()) {
+            final File tmpFile = File.createTempFile(name, ".tmp", dir);
+            try {
+                dump(file, tmpFile, keyType, hasCovar);
+            } catch (IOException e) {
+                tmpFile.delete();
+                throw e;
+            }
+            if (!tmpFile.renameTo(dumpFile)) {
+                // another task may have created it
+                tmpFile.delete();
+                if (!dumpFile.isFile()) {
+                    throw new IOException("Failed to create " + dumpFile);
+                }
+            }
+        }
+        return new ModelDump(NIOUtils.mapReadOnly(dumpFile));
+    }
+
+    private static void dump(@Nonnull final File src, @Nonnull final File dst,
+            final byte keyType, final boolean hasCovar) throws IOException {
+        int count = 0;
+        DataOutputStream out = null;
+        BufferedReader reader = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dst), 65536));
+            out.writeInt(MAGIC);
+            out.writeByte(keyType);
+            out.writeByte(hasCovar ? 1 : 0);
+            out.writeInt(0); // filled later
+
+            reader = HadoopUtils.getBufferedReader(src);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // fields are delimited by '\001' and null is '\N' as in LazySimpleSerDe
+                final int p1 = line.indexOf('\001');
+                if (p1 <= 0) {
+                    continue;
+                }
+                int p2 = line.indexOf('\001', p1 + 1);
+                if (p2 == -1) {
+                    p2 = line.length();
+                }
+                final String key = line.substring(0, p1);
+                final float w, cov;
+                try {
+                    w = Float.parseFloat(line.substring(p1 + 1, p2));
+                    if (hasCovar && p2 < line.length()) {
+                        int p3 = line.indexOf('\001', p2 + 1);
+                        String s = line.substring(p2 + 1, (p3 == -1) ? line.length() : p3);
+                        cov = "\\N".equals(s) ? WeightValueWithCovar.DEFAULT_COVAR
+                                : Float.parseFloat(s);
+                    } else {
+                        cov = WeightValueWithCovar.DEFAULT_COVAR;
+                    }
+                    switch (keyType) {
+                        case INT_KEY:
+                            int ik = Integer.parseInt(key);
+                            out.writeInt(ik);
+                            break;
+                        case LONG_KEY:
+                            long lk = Long.parseLong(key);
+                            out.writeLong(lk);
+                            break;
+                        default: {
+                            if ("\\N".equals(key)) {
+                                continue;
+                            }
+                            byte[] b = key.getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(b.length);
+                            out.write(b);
+                            break;
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    continue; // null or malformed
+                }
+                out.writeFloat(w);
+                if (hasCovar) {
+                    out.writeFloat(cov);
+                }
+                count++;
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(out);
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(dst, "rw");
+        try {
+            raf.seek(6L);
+            raf.writeInt(count);
+        } finally {
+            raf.close();
+        }
+    }
+
+}
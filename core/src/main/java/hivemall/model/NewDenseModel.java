@@ -184,6 +184,18 @@ public final class NewDenseModel extends AbstractPredictionModel {
         weights[i] = value;
     }
 
+    /**
+     * Sets a weight and a covariance without touching clocks, e.g., to bulk-load a model. The
+     * covariance is ignored if the model has no covariance.
+     */
+    public void setWeight(final int feature, final float weight, final float covar) {
+        ensureCapacity(feature);
+        weights[feature] = weight;
+        if (covars != null) {
+            covars[feature] = covar;
+        }
+    }
+
     @Override
     public float getCovariance(@Nonnull final Object feature) {
         int i = HiveUtils.parseInt(feature);
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools;
+
+import hivemall.tools.EachTopKUDTF.TupleWithKey;
+import hivemall.utils.collections.BoundedPriorityQueue;
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Map-side partial aggregation for `each_top_k`. Unlike `each_top_k`, the input need not be
+ * clustered by group. A bounded queue is kept for each group, and the partial top-K rows of all the
+ * groups are forwarded when the number of buffered rows reaches a cap or the task closes. Thus, at
+ * most K rows per group and flush are shuffled to `each_top_k` which merges them.
+ */
+@Description(
+        name = "each_top_k_partial",
+        value = "_FUNC_(const int K, Object group, double cmpKey, *) - Returns partial top-K values (or tail-K values when k is less than 0) as <group, key, *>")
+public final class EachTopKPartialUDTF extends GenericUDTF {
+    private static final Log logger = LogFactory.getLog(EachTopKPartialUDTF.class);
+
+    public static final String MAX_BUFFERED_ROWS_KEY = "hivemall.each_top_k_partial.max_buffered_rows";
+    public static final int DEFAULT_MAX_BUFFERED_ROWS = 1 << 20;
+
+    private ObjectInspector[] argOIs;
+    private ObjectInspector groupOI;
+    private ObjectInspector stdGroupOI;
+    private PrimitiveObjectInspector cmpKeyOI;
+
+    private int k;
+    @Nonnegative
+    private int maxBufferedRows = DEFAULT_MAX_BUFFERED_ROWS;
+
+    private Map<GroupKey, BoundedPriorityQueue<TupleWithKey>> _queues;
+    private GroupKey _probe;
+    private TupleWithKey _tuple;
+    private int _numBuffered;
+    private DoubleWritable _keyProbe;
+
+    @Override
+    public void configure(MapredContext mapredContext) {
+        JobConf jobconf = mapredContext.getJobConf();
+        if (jobconf != null) {
+            this.maxBufferedRows = jobconf.getInt(MAX_BUFFERED_ROWS_KEY,
+                DEFAULT_MAX_BUFFERED_ROWS);
+        }
+    }
+
+    void setMaxBufferedRows(@Nonnegative int maxBufferedRows) {
+        this.maxBufferedRows = maxBufferedRows;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        final int numArgs = argOIs.length;
+        if (numArgs < 4) {
+            throw new UDFArgumentException(
+                "each_top_k_partial(const int K, Object group, double cmpKey, *) takes at least 4 arguments: "
+                        + numArgs);
+        }
+        if (maxBufferedRows < 1) {
+            throw new UDFArgumentException(MAX_BUFFERED_ROWS_KEY + " must be positive: "
+                    + maxBufferedRows);
+        }
+
+        this.argOIs = argOIs;
+        if (!ObjectInspectorUtils.isConstantObjectInspector(argOIs[0])) {
+            throw new UDFArgumentException("K must be a constant value for each_top_k_partial");
+        }
+        this.k = HiveUtils.getAsConstInt(argOIs[0]);
+        if (k == 0) {
+            throw new UDFArgumentException("k should not be 0");
+        }
+        this.groupOI = argOIs[1];
+        this.stdGroupOI = ObjectInspectorUtils.getStandardObjectInspector(argOIs[1],
+            ObjectInspectorCopyOption.DEFAULT);
+        this.cmpKeyOI = HiveUtils.asDoubleCompatibleOI(argOIs[2]);
+
+        this._queues = new HashMap<GroupKey, BoundedPriorityQueue<TupleWithKey>>();
+        this._probe = new GroupKey();
+        this._tuple = null;
+        this._numBuffered = 0;
+        this._keyProbe = new DoubleWritable();
+
+        final ArrayList<String> fieldNames = new ArrayList<String>(numArgs - 1);
+        final ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(numArgs - 1);
+        fieldNames.add("group");
+        fieldOIs.add(stdGroupOI);
+        fieldNames.add("key");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        for (int i = 3; i < numArgs; i++) {
+            fieldNames.add("c" + (i - 2));
+            ObjectInspector rawOI = argOIs[i];
+            ObjectInspector retOI = ObjectInspectorUtils.getStandardObjectInspector(rawOI,
+                ObjectInspectorCopyOption.DEFAULT);
+            fieldOIs.add(retOI);
+        }
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        final Object arg1 = args[1];
+        final GroupKey probe = _probe;
+        probe.set(arg1, groupOI);
+        BoundedPriorityQueue<TupleWithKey> queue = _queues.get(probe);
+
+        final double key = PrimitiveObjectInspectorUtils.getDouble(args[2], cmpKeyOI);
+        if (queue == null) {
+            Object group = ObjectInspectorUtils.copyToStandardObject(arg1, groupOI,
+                ObjectInspectorCopyOption.DEFAULT); // arg1 and group may be null
+            queue = EachTopKUDTF.getQueue(k);
+            _queues.put(new GroupKey(group, stdGroupOI, probe.hashCode()), queue);
+        } else if (queue.size() >= Math.abs(k) && rejects(key, queue.peek().getKey())) {
+            return; // skip copying a row that cannot be in the partial top-K
+        }
+
+        final Object[] row;
+        TupleWithKey tuple = this._tuple;
+        if (_tuple == null) {
+            row = new Object[args.length - 1];
+            tuple = new TupleWithKey(key, row);
+            this._tuple = tuple;
+        } else {
+            row = tuple.getRow();
+            tuple.setKey(key);
+        }
+        for (int i = 3; i < args.length; i++) {
+            Object arg = args[i];
+            ObjectInspector argOI = argOIs[i];
+            row[i - 1] = ObjectInspectorUtils.copyToStandardObject(arg, argOI,
+                ObjectInspectorCopyOption.DEFAULT);
+        }
+
+        final int prevSize = queue.size();
+        if (queue.offer(tuple)) {
+            this._tuple = null;
+            if (queue.size() > prevSize) {
+                _numBuffered++;
+                if (_numBuffered >= maxBufferedRows) {
+                    flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if `key` ranks lower than the lowest key in a full queue
+     */
+    private boolean rejects(final double key, final double lowest) {
+        final int cmp = Double.compare(key, lowest);
+        return (k > 0) ? cmp < 0 : cmp > 0;
+    }
+
+    private void flush() throws HiveException {
+        final DoubleWritable keyProbe = _keyProbe;
+        for (Map.Entry<GroupKey, BoundedPriorityQueue<TupleWithKey>> e : _queues.entrySet()) {
+            final Object group = e.getKey().obj;
+            final BoundedPriorityQueue<TupleWithKey> queue = e.getValue();
+            TupleWithKey tuple;
+            while ((tuple = queue.poll()) != null) {
+                Object[] row = tuple.getRow();
+                row[0] = group;
+                keyProbe.set(tuple.getKey());
+                row[1] = keyProbe;
+                forward(row);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Flushed " + _numBuffered + " partial top-k rows of " + _queues.size()
+                    + " groups");
+        }
+        _queues.clear();
+        this._numBuffered = 0;
+    }
+
+    @Override
+    public void close() throws HiveException {
+        flush();
+
+        this._queues = null;
+        this._probe = null;
+        this._tuple = null;
+    }
+
+    /**
+     * Hash key of a group that compares objects of different ObjectInspectors, so that an argument
+     * is probed without being copied.
+     */
+    private static final class GroupKey {
+        @Nullable
+        Object obj;
+        ObjectInspector oi;
+        int hash;
+
+        GroupKey() {}
+
+        GroupKey(@Nullable Object obj, @Nonnull ObjectInspector oi, int hash) {
+            this.obj = obj;
+            this.oi = oi;
+            this.hash = hash;
+        }
+
+        void set(@Nullable final Object obj, @Nonnull final ObjectInspector oi) {
+            this.obj = obj;
+            this.oi = oi;
+            this.hash = (obj == null) ? 0 : ObjectInspectorUtils.hashCode(obj, oi);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            final GroupKey other = (GroupKey) o;
+            if (hash != other.hash) {
+                return false;
+            }
+            if (obj == null || other.obj == null) {
+                return obj == other.obj;
+            }
+            return ObjectInspectorUtils.compare(obj, oi, other.obj, other.oi) == 0;
+        }
+    }
+
+}
@@ -104,7 +104,7 @@ public final class EachTopKUDTF extends GenericUDTF {
     }
 
     @Nonnull
-    private static BoundedPriorityQueue<TupleWithKey> getQueue(final int k) {
+    static BoundedPriorityQueue<TupleWithKey> getQueue(final int k) {
         int sizeK = Math.abs(k);
         final Comparator<TupleWithKey> comparator;
         if (k < 0) {
@@ -218,7 +218,7 @@ public final class EachTopKUDTF extends GenericUDTF {
         this._tuple = null;
     }
 
-    private static final class TupleWithKey implements Comparable<TupleWithKey> {
+    static final class TupleWithKey implements Comparable<TupleWithKey> {
         double key;
         Object[] row;
 
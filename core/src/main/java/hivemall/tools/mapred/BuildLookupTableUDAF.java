@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools.mapred;
+
+import hivemall.utils.codec.Base91;
+import hivemall.utils.codec.DeflateCodec;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Builds a lookup table for `distcache_gets` that is memory-mapped instead of being parsed into a
+ * hash map. The table is emitted as a Base91-encoded compressed string prefixed by {@link #MAGIC}.
+ * Group rows by a hash of the key (e.g., `GROUP BY pmod(hash(key), 16)`) to build shards of a large
+ * table.
+ */
+@Description(name = "build_lookup_table",
+        value = "_FUNC_(primitive key, primitive value) - Returns a lookup table for distcache_gets"
+                + " as a string")
+public final class BuildLookupTableUDAF extends AbstractGenericUDAFResolver {
+
+    /** the prefix of a serialized lookup table, by which distcache_gets tells it from text */
+    static final String MAGIC = "#HIVEMALL_LKT1#";
+    private static final byte[] MAGIC_BYTES = MAGIC.getBytes(StandardCharsets.US_ASCII);
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] typeInfo) throws SemanticException {
+        if (typeInfo.length != 2) {
+            throw new UDFArgumentTypeException(typeInfo.length - 1,
+                "Exactly two arguments are expected");
+        }
+        for (int i = 0; i < 2; i++) {
+            if (!HiveUtils.isPrimitiveTypeInfo(typeInfo[i])) {
+                throw new UDFArgumentTypeException(i,
+                    "_FUNC_(primitive key, primitive value) is expected: " + typeInfo[i]);
+            }
+        }
+        return new Evaluator();
+    }
+
+    public static class Evaluator extends GenericUDAFEvaluator {
+        private PrimitiveObjectInspector keyOI;
+        private PrimitiveObjectInspector valueOI;
+        private BinaryObjectInspector mergeOI;
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] argOIs) throws HiveException {
+            super.init(mode, argOIs);
+
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                this.keyOI = HiveUtils.asPrimitiveObjectInspector(argOIs[0]);
+                this.valueOI = HiveUtils.asPrimitiveObjectInspector(argOIs[1]);
+            } else {// from partial aggregation
+                this.mergeOI = (BinaryObjectInspector) argOIs[0];
+            }
+
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            } else {// terminate
+                outputOI = PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+            }
+            return outputOI;
+        }
+
+        static class LookupTableBuffer extends AbstractAggregationBuffer {
+            LookupTable.Builder builder;
+
+            LookupTableBuffer() {
+                super();
+            }
+        }
+
+        @Override
+        public LookupTableBuffer getNewAggregationBuffer() throws HiveException {
+            LookupTableBuffer ret = new LookupTableBuffer();
+            reset(ret);
+            return ret;
+        }
+
+        @Override
+        public void reset(@SuppressWarnings("deprecation") AggregationBuffer aggr)
+                throws HiveException {
+            ((LookupTableBuffer) aggr).builder = new LookupTable.Builder();
+        }
+
+        @Override
+        public void iterate(@SuppressWarnings("deprecation") AggregationBuffer aggr,
+                Object[] parameters) throws HiveException {
+            assert (parameters.length == 2);
+            Object arg0 = parameters[0];
+            if (arg0 == null) {
+                return;
+            }
+            byte[] key = encodeKey(keyOI.getPrimitiveJavaObject(arg0));
+            Object arg1 = parameters[1];
+            byte[] value = null;
+            if (arg1 != null) {
+                value = PrimitiveObjectInspectorUtils.getString(arg1, valueOI).getBytes(
+                    StandardCharsets.UTF_8);
+            }
+            LookupTableBuffer agg = (LookupTableBuffer) aggr;
+            try {
+                agg.builder.add(key, value);
+            } catch (IllegalStateException e) {
+                throw new HiveException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public BytesWritable terminatePartial(
+                @SuppressWarnings("deprecation") AggregationBuffer aggr) throws HiveException {
+            LookupTableBuffer agg = (LookupTableBuffer) aggr;
+            if (agg.builder.size() == 0) {
+                return null;
+            }
+            try {
+                return new BytesWritable(agg.builder.build());
+            } catch (IllegalStateException e) {
+                throw new HiveException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void merge(@SuppressWarnings("deprecation") AggregationBuffer aggr, Object other)
+                throws HiveException {
+            if (other == null) {
+                return;
+            }
+            BytesWritable b = mergeOI.getPrimitiveWritableObject(other);
+            LookupTableBuffer agg = (LookupTableBuffer) aggr;
+            try {
+                LookupTable table = new LookupTable(ByteBuffer.wrap(b.getBytes(), 0,
+                    b.getLength()).slice());
+                agg.builder.addAll(table);
+            } catch (IllegalArgumentException e) {
+                throw new HiveException(e.getMessage(), e);
+            } catch (IllegalStateException e) {
+                throw new HiveException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Text terminate(@SuppressWarnings("deprecation") AggregationBuffer aggr)
+                throws HiveException {
+            LookupTableBuffer agg = (LookupTableBuffer) aggr;
+            if (agg.builder.size() == 0) {
+                return null;
+            }
+            final byte[] table;
+            try {
+                table = agg.builder.build();
+            } catch (IllegalStateException e) {
+                throw new HiveException(e.getMessage(), e);
+            }
+            try {
+                return new Text(serialize(table));
+            } catch (IOException e) {
+                throw new HiveException("Failed to serialize a lookup table", e);
+            }
+        }
+    }
+
+    @Nonnull
+    static byte[] encodeKey(@Nonnull final Object key) {
+        return key.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Nonnull
+    static byte[] serialize(@Nonnull final byte[] table) throws IOException {
+        final DeflateCodec codec = new DeflateCodec(true, false);
+        final byte[] compressed;
+        try {
+            compressed = codec.compress(table);
+        } finally {
+            IOUtils.closeQuietly(codec);
+        }
+        final byte[] encoded = Base91.encode(compressed);
+        final byte[] b = new byte[MAGIC_BYTES.length + encoded.length];
+        System.arraycopy(MAGIC_BYTES, 0, b, 0, MAGIC_BYTES.length);
+        System.arraycopy(encoded, 0, b, MAGIC_BYTES.length, encoded.length);
+        return b;
+    }
+
+    @Nonnull
+    static byte[] deserialize(@Nonnull final byte[] b, final int len) throws IOException {
+        final int magicLen = MAGIC_BYTES.length;
+        if (len < magicLen) {
+            throw new IOException("Not a lookup table built by build_lookup_table");
+        }
+        for (int i = 0; i < magicLen; i++) {
+            if (b[i] != MAGIC_BYTES[i]) {
+                throw new IOException("Not a lookup table built by build_lookup_table");
+            }
+        }
+        final byte[] decoded = Base91.decode(b, magicLen, len - magicLen);
+        final DeflateCodec codec = new DeflateCodec(false, true);
+        try {
+            return codec.decompress(decoded);
+        } finally {
+            IOUtils.closeQuietly(codec);
+        }
+    }
+
+}
@@ -23,13 +23,28 @@ import hivemall.utils.collections.maps.OpenHashMap;
 import hivemall.utils.hadoop.HadoopUtils;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.io.IOUtils;
+import hivemall.utils.io.NIOUtils;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
@@ -41,12 +56,15 @@ import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters.Converter;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
 import org.apache.hadoop.io.Text;
 
@@ -55,6 +73,13 @@ import org.apache.hadoop.io.Text;
         value = "_FUNC_(filepath, key, default_value [, parseKey]) - Returns map<key_type, value_type>|value_type")
 @UDFType(deterministic = false, stateful = false)
 public final class DistributedCacheLookupUDF extends GenericUDF {
+    private static final Log logger = LogFactory.getLog(DistributedCacheLookupUDF.class);
+
+    /**
+     * Lookup tables built by `build_lookup_table` are memory-mapped once and shared by the UDF
+     * instances in a JVM
+     */
+    private static final ConcurrentMap<String, LookupTable[]> sharedTables = new ConcurrentHashMap<String, LookupTable[]>();
 
     private boolean multipleKeyLookup;
     private boolean multipleDefaultValues;
@@ -68,6 +93,13 @@ public final class DistributedCacheLookupUDF extends GenericUDF {
 
     private OpenHashMap<Object, Object> cache;
 
+    // lookup tables built by `build_lookup_table`; used instead of `cache` if not null
+    private LookupTable[] tables;
+    private PrimitiveObjectInspector valueOutputOI;
+    private Converter valueConverter;
+    private Text valueText;
+    private byte[] valueBuf;
+
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
         if (argOIs.length != 3 && argOIs.length != 4) {
@@ -125,9 +157,24 @@ public final class DistributedCacheLookupUDF extends GenericUDF {
                 "parseKey=true is only available for string typed key(s)");
         }
 
+        final File file = new File(filepath);
+        try {
+            this.tables = loadLookupTables(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (tables != null) {
+            this.valueOutputOI = (PrimitiveObjectInspector) valueOutputOI;
+            this.valueConverter = ObjectInspectorConverters.getConverter(
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector, valueOutputOI);
+            this.valueText = new Text();
+            this.valueBuf = new byte[64];
+            return outputOI;
+        }
+
         final OpenHashMap<Object, Object> map = new OpenHashMap<Object, Object>(8192);
         try {
-            loadValues(map, new File(filepath), keyInputOI, valueInputOI);
+            loadValues(map, file, keyInputOI, valueInputOI);
             this.cache = map;
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -178,6 +225,191 @@ public final class DistributedCacheLookupUDF extends GenericUDF {
         }
     }
 
+    /**
+     * @return memory-mapped lookup tables if the file or the files in the directory are built by
+     *         `build_lookup_table`, otherwise null
+     * @throws IOException if lookup tables and other files are mixed
+     */
+    @Nullable
+    static LookupTable[] loadLookupTables(@Nonnull final File file) throws IOException {
+        final List<File> allFiles = new ArrayList<File>();
+        listDataFiles(file, allFiles);
+        final List<File> files = new ArrayList<File>(allFiles.size());
+        File textFile = null;
+        for (File f : allFiles) {
+            final String head = readHead(f, BuildLookupTableUDAF.MAGIC.length());
+            if (head.isEmpty()) {
+                continue; // an empty output of a task
+            }
+            if (head.equals(BuildLookupTableUDAF.MAGIC)) {
+                files.add(f);
+            } else if (textFile == null) {
+                textFile = f;
+            }
+        }
+        if (files.isEmpty()) {
+            return null;
+        }
+        if (textFile != null) {
+            throw new IOException("Lookup tables built by build_lookup_table and other files"
+                    + " are mixed in " + file + ": " + files.get(0) + " and " + textFile);
+        }
+
+        final StringBuilder buf = new StringBuilder();
+        for (File f : files) {
+            buf.append(f.getAbsolutePath()).append(':').append(f.length()).append(':').append(
+                f.lastModified()).append(';');
+        }
+        final String id = buf.toString();
+        LookupTable[] tables = sharedTables.get(id);
+        if (tables != null) {
+            return tables;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final List<LookupTable> list = new ArrayList<LookupTable>();
+        long numEntries = 0L;
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        for (File f : files) {
+            // each shard is mapped by itself so that only a shard is limited to 2GB
+            final RandomAccessFile raf = new RandomAccessFile(getMappedFile(f), "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                header.clear();
+                NIOUtils.readFully(channel, header, 0L);
+                final int numShards = header.getInt(0);
+                long pos = 4L;
+                for (int i = 0; i < numShards; i++) {
+                    header.clear();
+                    NIOUtils.readFully(channel, header, pos);
+                    final int len = header.getInt(0);
+                    pos += 4L;
+                    ByteBuffer shard = channel.map(MapMode.READ_ONLY, pos, len);
+                    try {
+                        LookupTable table = new LookupTable(shard);
+                        numEntries += table.size();
+                        list.add(table);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Malformed lookup table in " + f, e);
+                    }
+                    pos += len;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        tables = list.toArray(new LookupTable[list.size()]);
+        LookupTable[] prev = sharedTables.putIfAbsent(id, tables);
+        if (prev != null) {
+            return prev;
+        }
+        logger.info("Mapped " + tables.length + " lookup table(s) of " + numEntries
+                + " entries in " + file + " in " + (System.currentTimeMillis() - startTime)
+                + " ms");
+        return tables;
+    }
+
+    private static void listDataFiles(@Nonnull final File file, @Nonnull final List<File> files) {
+        if (!file.exists()) {
+            return;
+        }
+        final String name = file.getName();
+        if (name.endsWith(".crc") || name.startsWith(".") || name.startsWith("_")) {
+            return;
+        }
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                listDataFiles(f, files);
+            }
+        } else {
+            files.add(file);
+        }
+    }
+
+    /**
+     * @return at most the first <code>len</code> characters of a file, or an empty string for an
+     *         empty file
+     */
+    @Nonnull
+    private static String readHead(@Nonnull final File file, final int len) throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = HadoopUtils.getBufferedReader(file);
+            final char[] cbuf = new char[len];
+            int n = 0;
+            while (n < len) {
+                int r = reader.read(cbuf, n, len - n);
+                if (r == -1) {
+                    break;
+                }
+                n += r;
+            }
+            return new String(cbuf, 0, n);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Decodes the lookup tables in a file to a binary file next to it, which is shared by the
+     * tasks on the same node. The binary file consists of the number of tables followed by the
+     * length and the bytes of each table. Every line of the file must be a lookup table.
+     */
+    @Nonnull
+    private static File getMappedFile(@Nonnull final File file) throws IOException {
+        final String name = "." + file.getName() + '-' + file.length() + '-'
+                + file.lastModified() + ".lkt";
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null || !dir.canWrite()) {
+            dir = new File(System.getProperty("java.io.tmpdir"));
+        }
+        final File mapped = new File(dir, name);
+        if (mapped.isFile()) {
+            return mapped;
+        }
+
+        final File tmpFile = File.createTempFile(name, ".tmp", dir);
+        RandomAccessFile out = null;
+        BufferedReader reader = null;
+        try {
+            out = new RandomAccessFile(tmpFile, "rw");
+            out.writeInt(0);
+            int numShards = 0;
+            reader = HadoopUtils.getBufferedReader(file);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                byte[] b = line.getBytes(StandardCharsets.US_ASCII);
+                final byte[] table;
+                try {
+                    table = BuildLookupTableUDAF.deserialize(b, b.length);
+                } catch (IOException e) {
+                    IOUtils.closeQuietly(out);
+                    tmpFile.delete();
+                    throw new IOException("Malformed lookup table in " + file, e);
+                }
+                out.writeInt(table.length);
+                out.write(table);
+                numShards++;
+            }
+            out.seek(0L);
+            out.writeInt(numShards);
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(out);
+        }
+        if (!tmpFile.renameTo(mapped)) {
+            // another task may have created it
+            tmpFile.delete();
+            if (!mapped.isFile()) {
+                throw new IOException("Failed to create " + mapped);
+            }
+        }
+        return mapped;
+    }
+
     @Override
     public Object evaluate(DeferredObject[] args) throws HiveException {
         final Object arg1 = args[1].get();
@@ -195,10 +427,50 @@ public final class DistributedCacheLookupUDF extends GenericUDF {
 
     private Object get(Object arg) {
         Object key = keyInputOI.getPrimitiveJavaObject(arg);
-        Object value = cache.get(lookupKey(key));
+        Object value = lookup(lookupKey(key));
         return (value == null) ? defaultValue : value;
     }
 
+    /**
+     * @return the value of the key or null. A value from lookup tables is reused by the next call.
+     */
+    @Nullable
+    private Object lookup(@Nullable final Object key) {
+        if (tables == null) {
+            return cache.get(key);
+        }
+        if (key == null) {
+            return null;
+        }
+        final byte[] k = BuildLookupTableUDAF.encodeKey(key);
+        for (LookupTable table : tables) {
+            final int i = table.find(k, k.length);
+            if (i == -1) {
+                continue;
+            }
+            final int len = table.valueLength(i);
+            if (len == -1) {
+                return null;
+            }
+            if (len > valueBuf.length) {
+                this.valueBuf = new byte[Math.max(len, valueBuf.length * 2)];
+            }
+            table.copyValue(i, valueBuf);
+            valueText.set(valueBuf, 0, len);
+            return valueConverter.convert(valueText);
+        }
+        return null;
+    }
+
+    @Nullable
+    private Object lookupCopy(@Nullable final Object key) {
+        Object v = lookup(key);
+        if (v != null && tables != null) {
+            v = valueOutputOI.copyObject(v);
+        }
+        return v;
+    }
+
     private Map<Object, Object> gets(Object arg) {
         List<?> keys = keysInputOI.getList(arg);
 
@@ -208,7 +480,7 @@ public final class DistributedCacheLookupUDF extends GenericUDF {
                 continue;
             }
             Object kj = keyInputOI.getPrimitiveJavaObject(k);
-            final Object v = cache.get(lookupKey(kj));
+            final Object v = lookupCopy(lookupKey(kj));
             if (v == null) {
                 map.put(k, defaultValue);
             } else {
@@ -234,7 +506,7 @@ public final class DistributedCacheLookupUDF extends GenericUDF {
                 continue;
             }
             Object kj = keyInputOI.getPrimitiveJavaObject(k);
-            Object v = cache.get(lookupKey(kj));
+            Object v = lookupCopy(lookupKey(kj));
             if (v == null) {
                 v = defaultValues.get(i);
                 if (v != null) {
@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools.mapred;
+
+import hivemall.utils.hashing.MurmurHash3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Read-only lookup table of which entries are sorted by the hash values of keys. Lookups are
+ * binary searches over a {@link ByteBuffer}, so a table in a memory-mapped file needs no loading.
+ * A table is thread-safe as it only uses absolute reads.
+ *
+ * <pre>
+ * int magic, int n, int[n] sorted hashes, int[n+1] offsets of entries,
+ * entries of (int keyLength, int valueLength (-1 for null), byte[] key, byte[] value)
+ * </pre>
+ */
+public final class LookupTable {
+
+    private static final int MAGIC = 0x484C5431; // "HLT1"
+    private static final int SEED = 0x9747b28c;
+
+    @Nonnull
+    private final ByteBuffer buf;
+    @Nonnegative
+    private final int size;
+    private final int hashesPos;
+    private final int offsetsPos;
+    private final int dataPos;
+
+    public LookupTable(@Nonnull ByteBuffer buf) throws IllegalArgumentException {
+        if (buf.limit() < 8 || buf.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a lookup table");
+        }
+        final int n = buf.getInt(4);
+        if (n < 0 || 8L + 8L * n + 4L > buf.limit()) {
+            throw new IllegalArgumentException("Malformed lookup table of " + n + " entries");
+        }
+        this.buf = buf;
+        this.size = n;
+        this.hashesPos = 8;
+        this.offsetsPos = hashesPos + 4 * n;
+        this.dataPos = offsetsPos + 4 * (n + 1);
+        if ((long) dataPos + buf.getInt(offsetsPos + 4 * n) != buf.limit()) {
+            throw new IllegalArgumentException("Malformed lookup table of " + n + " entries");
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    static int hash(@Nonnull final byte[] key, final int len) {
+        return MurmurHash3.murmurhash3_x86_32(key, 0, len, SEED);
+    }
+
+    /**
+     * @return the index of the entry or -1 if not found
+     */
+    public int find(@Nonnull final byte[] key, final int len) {
+        final int h = hash(key, len);
+        final ByteBuffer buf = this.buf;
+        // lower bound of h
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buf.getInt(hashesPos + 4 * mid) < h) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < size && buf.getInt(hashesPos + 4 * i) == h; i++) {
+            if (keyEquals(i, key, len)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(final int i, @Nonnull final byte[] key, final int len) {
+        final ByteBuffer buf = this.buf;
+        final int pos = entryPos(i);
+        if (buf.getInt(pos) != len) {
+            return false;
+        }
+        final int keyPos = pos + 8;
+        for (int j = 0; j < len; j++) {
+            if (buf.get(keyPos + j) != key[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int entryPos(final int i) {
+        return dataPos + buf.getInt(offsetsPos + 4 * i);
+    }
+
+    public int keyLength(final int i) {
+        return buf.getInt(entryPos(i));
+    }
+
+    /**
+     * @return the length of the value or -1 for null
+     */
+    public int valueLength(final int i) {
+        return buf.getInt(entryPos(i) + 4);
+    }
+
+    /**
+     * Copies the key of the i-th entry to {@code dst} of which length is at least
+     * {@link #keyLength(int)}.
+     */
+    public void copyKey(final int i, @Nonnull final byte[] dst) {
+        final int pos = entryPos(i);
+        copy(pos + 8, buf.getInt(pos), dst);
+    }
+
+    /**
+     * Copies the non-null value of the i-th entry to {@code dst} of which length is at least
+     * {@link #valueLength(int)}.
+     */
+    public void copyValue(final int i, @Nonnull final byte[] dst) {
+        final int pos = entryPos(i);
+        final int keyLen = buf.getInt(pos);
+        copy(pos + 8 + keyLen, buf.getInt(pos + 4), dst);
+    }
+
+    private void copy(final int pos, final int len, @Nonnull final byte[] dst) {
+        final ByteBuffer buf = this.buf;
+        for (int j = 0; j < len; j++) {
+            dst[j] = buf.get(pos + j);
+        }
+    }
+
+    /**
+     * Collects entries and builds a lookup table. A value of a duplicate key overwrites the former
+     * one.
+     */
+    public static final class Builder {
+
+        @Nonnull
+        private int[] hashes;
+        @Nonnull
+        private int[] offsets;
+        @Nonnull
+        private byte[] data;
+        private int size;
+        private int dataLength;
+
+        public Builder() {
+            this.hashes = new int[1024];
+            this.offsets = new int[1024];
+            this.data = new byte[8192];
+            this.size = 0;
+            this.dataLength = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void add(@Nonnull final byte[] key, @Nullable final byte[] value) {
+            add(key, key.length, value, (value == null) ? -1 : value.length);
+        }
+
+        private void add(@Nonnull final byte[] key, final int keyLen, @Nullable final byte[] value,
+                final int valueLen) {
+            final long required = (long) dataLength + 8L + keyLen + Math.max(valueLen, 0);
+            if (required > Integer.MAX_VALUE - 16L - 8L * (size + 1L)) {
+                throw new IllegalStateException("Lookup table exceeds 2GB. Split it into shards");
+            }
+            if (size == hashes.length) {
+                int cap = size * 2;
+                this.hashes = Arrays.copyOf(hashes, cap);
+                this.offsets = Arrays.copyOf(offsets, cap);
+            }
+            if (required > data.length) {
+                int cap = (int) Math.min(Integer.MAX_VALUE - 8L,
+                    Math.max(required, data.length * 2L));
+                this.data = Arrays.copyOf(data, cap);
+            }
+            hashes[size] = hash(key, keyLen);
+            offsets[size] = dataLength;
+            size++;
+
+            int pos = dataLength;
+            putInt(data, pos, keyLen);
+            putInt(data, pos + 4, valueLen);
+            pos += 8;
+            System.arraycopy(key, 0, data, pos, keyLen);
+            pos += keyLen;
+            if (valueLen > 0) {
+                System.arraycopy(value, 0, data, pos, valueLen);
+                pos += valueLen;
+            }
+            this.dataLength = pos;
+        }
+
+        public void addAll(@Nonnull final LookupTable table) {
+            byte[] key = new byte[64];
+            for (int i = 0, n = table.size(); i < n; i++) {
+                final int keyLen = table.keyLength(i);
+                if (keyLen > key.length) {
+                    key = new byte[Math.max(keyLen, key.length * 2)];
+                }
+                table.copyKey(i, key);
+                final int valueLen = table.valueLength(i);
+                byte[] value = null;
+                if (valueLen >= 0) {
+                    value = new byte[valueLen];
+                    table.copyValue(i, value);
+                }
+                add(key, keyLen, value, valueLen);
+            }
+        }
+
+        @Nonnull
+        public byte[] build() {
+            final int n = size;
+            // sort by hash values, and then by the insertion order
+            final long[] order = new long[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = (((long) hashes[i]) << 32) | i;
+            }
+            Arrays.sort(order);
+
+            final int[] entries = new int[n];
+            int numEntries = 0;
+            for (int i = 0; i < n; i++) {
+                final int e = (int) order[i];
+                final int h = hashes[e];
+                boolean overwritten = false;
+                for (int j = i + 1; j < n && hashes[(int) order[j]] == h; j++) {
+                    if (keyEquals(e, (int) order[j])) {
+                        overwritten = true;
+                        break;
+                    }
+                }
+                if (!overwritten) {
+                    entries[numEntries++] = e;
+                }
+            }
+
+            long totalBytes = 8L + 8L * numEntries + 4L;
+            for (int i = 0; i < numEntries; i++) {
+                totalBytes += entryLength(entries[i]);
+            }
+            if (totalBytes > Integer.MAX_VALUE - 8L) {
+                throw new IllegalStateException("Lookup table exceeds 2GB. Split it into shards");
+            }
+            final byte[] out = new byte[(int) totalBytes];
+            putInt(out, 0, MAGIC);
+            putInt(out, 4, numEntries);
+            final int hashesPos = 8;
+            final int offsetsPos = hashesPos + 4 * numEntries;
+            final int dataPos = offsetsPos + 4 * (numEntries + 1);
+            int offset = 0;
+            for (int i = 0; i < numEntries; i++) {
+                final int e = entries[i];
+                putInt(out, hashesPos + 4 * i, hashes[e]);
+                putInt(out, offsetsPos + 4 * i, offset);
+                final int len = entryLength(e);
+                System.arraycopy(data, offsets[e], out, dataPos + offset, len);
+                offset += len;
+            }
+            putInt(out, offsetsPos + 4 * numEntries, offset);
+            return out;
+        }
+
+        private int entryLength(final int e) {
+            final int pos = offsets[e];
+            return 8 + getInt(data, pos) + Math.max(getInt(data, pos + 4), 0);
+        }
+
+        private boolean keyEquals(final int e1, final int e2) {
+            final int pos1 = offsets[e1], pos2 = offsets[e2];
+            final int len = getInt(data, pos1);
+            if (len != getInt(data, pos2)) {
+                return false;
+            }
+            for (int j = 8, end = 8 + len; j < end; j++) {
+                if (data[pos1 + j] != data[pos2 + j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void putInt(@Nonnull final byte[] b, final int pos, final int v) {
+            b[pos] = (byte) (v >>> 24);
+            b[pos + 1] = (byte) (v >>> 16);
+            b[pos + 2] = (byte) (v >>> 8);
+            b[pos + 3] = (byte) v;
+        }
+
+        private static int getInt(@Nonnull final byte[] b, final int pos) {
+            return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16)
+                    | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+        }
+
+    }
+
+}
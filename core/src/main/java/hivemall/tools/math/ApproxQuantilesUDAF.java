@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools.math;
+
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hadoop.WritableUtils;
+import hivemall.utils.lang.CommandLineUtils;
+import hivemall.utils.lang.Primitives;
+import hivemall.utils.math.KLLSketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * Computes approximate quantiles by a {@link KLLSketch}. With the default k = 200, the rank error
+ * of each quantile is below about 1.33% with 99% confidence, and a larger k gives a smaller error
+ * (about 2.3 / k^0.97) with about 3k retained values per group. Results are reproducible for the
+ * same input splits, and <code>-seed</code> gives another random stream.
+ */
+@Description(name = "approx_quantiles",
+        value = "_FUNC_(number value, const double|array<double> quantiles [, const int k = 200]"
+                + " [, const string options]) - Returns approximate quantiles in double or"
+                + " array<double>",
+        extended = "options: -seed <long> to choose items of the sketch to be kept")
+public final class ApproxQuantilesUDAF extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(GenericUDAFParameterInfo info)
+            throws SemanticException {
+        final ObjectInspector[] OIs = info.getParameterObjectInspectors();
+
+        if (OIs.length < 2 || OIs.length > 4) {
+            throw new UDFArgumentLengthException("Specify two, three, or four arguments.");
+        }
+        if (!HiveUtils.isNumberOI(OIs[0])) {
+            throw new UDFArgumentTypeException(0, "Only number type argument is acceptable but "
+                    + OIs[0].getTypeName() + " was passed as `value`");
+        }
+        final boolean scalar;
+        if (HiveUtils.isNumberOI(OIs[1])) {
+            scalar = true;
+        } else if (HiveUtils.isNumberListOI(OIs[1])) {
+            scalar = false;
+        } else {
+            throw new UDFArgumentTypeException(1,
+                "Only double or array<double> type argument is acceptable but "
+                        + OIs[1].getTypeName() + " was passed as `quantiles`");
+        }
+        if (!ObjectInspectorUtils.isConstantObjectInspector(OIs[1])) {
+            throw new UDFArgumentTypeException(1, "`quantiles` must be a constant");
+        }
+        int numArgs = OIs.length;
+        long seed = KLLSketch.DEFAULT_SEED;
+        if (numArgs >= 3 && HiveUtils.isConstString(OIs[numArgs - 1])) {
+            // known here since evaluators of PARTIAL2 and FINAL only see partial results
+            seed = getSeed(HiveUtils.getConstString(OIs[numArgs - 1]));
+            numArgs--;
+        }
+        if (numArgs == 4) {
+            throw new UDFArgumentTypeException(3, "Only const string type argument is acceptable"
+                    + " but " + OIs[3].getTypeName() + " was passed as `options`");
+        }
+        if (numArgs == 3 && !HiveUtils.isIntegerOI(OIs[2])) {
+            throw new UDFArgumentTypeException(2, "Only int type argument is acceptable but "
+                    + OIs[2].getTypeName() + " was passed as `k`");
+        }
+
+        return new Evaluator(scalar, seed);
+    }
+
+    private static long getSeed(@Nonnull final String optionValue) throws UDFArgumentException {
+        Options opts = new Options();
+        opts.addOption("seed", true,
+            "Seed value of a random number generator to choose items of the sketch to be kept");
+        CommandLine cl = CommandLineUtils.parseOptions(optionValue.split("\\s+"), opts);
+        return Primitives.parseLong(cl.getOptionValue("seed"), KLLSketch.DEFAULT_SEED);
+    }
+
+    public static final class Evaluator extends GenericUDAFEvaluator {
+        private boolean scalar;
+        private long seed = KLLSketch.DEFAULT_SEED;
+        /** the number of sketches created by this evaluator, by which each sketch is seeded */
+        private long numSketches = 0L;
+
+        // PARTIAL1 and COMPLETE
+        private PrimitiveObjectInspector valueOI;
+        private double[] quantiles;
+        private int k = KLLSketch.DEFAULT_K;
+
+        // PARTIAL2 and FINAL
+        private StructObjectInspector structOI;
+        private StructField quantilesField, sketchField;
+        private StandardListObjectInspector quantilesOI;
+        private DoubleObjectInspector quantileOI;
+        private BinaryObjectInspector sketchOI;
+
+        public Evaluator() {} // for serialization
+
+        Evaluator(boolean scalar, long seed) {
+            super();
+            this.scalar = scalar;
+            this.seed = seed;
+        }
+
+        @AggregationType(estimable = true)
+        static final class SketchBuffer extends AbstractAggregationBuffer {
+            KLLSketch sketch;
+            double[] quantiles;
+
+            SketchBuffer() {}
+
+            @Override
+            public int estimate() {
+                return (sketch != null ? 8 * sketch.getNumRetained() : 0)
+                        + 8 * (quantiles != null ? quantiles.length : 0) + 40;
+            }
+        }
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] OIs) throws HiveException {
+            super.init(mode, OIs);
+
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {
+                this.valueOI = HiveUtils.asDoubleCompatibleOI(OIs[0]);
+                if (scalar) {
+                    this.quantiles = new double[] {HiveUtils.getAsConstDouble(OIs[1])};
+                } else {
+                    this.quantiles = HiveUtils.getConstDoubleArray(OIs[1]);
+                    if (quantiles == null) {
+                        throw new UDFArgumentException("`quantiles` must not be null");
+                    }
+                }
+                for (double q : quantiles) {
+                    if (q < 0.d || q > 1.d) {
+                        throw new UDFArgumentException("`quantiles` must be in [0, 1]: "
+                                + Arrays.toString(quantiles));
+                    }
+                }
+                if (OIs.length >= 3 && HiveUtils.isIntegerOI(OIs[2])) {
+                    this.k = HiveUtils.getConstInt(OIs[2]);
+                    if (k < 8) {
+                        throw new UDFArgumentException(
+                            "`k` must be greater than or equal to 8: " + k);
+                    }
+                }
+            } else {
+                this.structOI = (StructObjectInspector) OIs[0];
+                this.quantilesField = structOI.getStructFieldRef("quantiles");
+                this.sketchField = structOI.getStructFieldRef("sketch");
+                this.quantilesOI = (StandardListObjectInspector) quantilesField.getFieldObjectInspector();
+                this.quantileOI = (DoubleObjectInspector) quantilesOI.getListElementObjectInspector();
+                this.sketchOI = (BinaryObjectInspector) sketchField.getFieldObjectInspector();
+            }
+
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {
+                final ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+                fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+                return ObjectInspectorFactory.getStandardStructObjectInspector(
+                    Arrays.asList("quantiles", "sketch"), fieldOIs);
+            } else if (scalar) {
+                return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+            } else {
+                return ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+            }
+        }
+
+        @Override
+        public SketchBuffer getNewAggregationBuffer() throws HiveException {
+            SketchBuffer buf = new SketchBuffer();
+            reset(buf);
+            return buf;
+        }
+
+        @Override
+        public void reset(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            SketchBuffer buf = (SketchBuffer) agg;
+            buf.sketch = new KLLSketch(k, seed + numSketches++);
+            buf.quantiles = quantiles;
+        }
+
+        @Override
+        public void iterate(@SuppressWarnings("deprecation") AggregationBuffer agg,
+                Object[] parameters) throws HiveException {
+            if (parameters[0] == null) {
+                return;
+            }
+            SketchBuffer buf = (SketchBuffer) agg;
+            buf.sketch.update(PrimitiveObjectInspectorUtils.getDouble(parameters[0], valueOI));
+        }
+
+        @Override
+        public Object terminatePartial(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            SketchBuffer buf = (SketchBuffer) agg;
+            return new Object[] {WritableUtils.toWritableList(buf.quantiles),
+                    new BytesWritable(buf.sketch.serialize())};
+        }
+
+        @Override
+        public void merge(@SuppressWarnings("deprecation") AggregationBuffer agg, Object partial)
+                throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            SketchBuffer buf = (SketchBuffer) agg;
+            if (buf.quantiles == null) {
+                buf.quantiles = HiveUtils.asDoubleArray(
+                    structOI.getStructFieldData(partial, quantilesField), quantilesOI, quantileOI);
+            }
+            BytesWritable b = sketchOI.getPrimitiveWritableObject(structOI.getStructFieldData(
+                partial, sketchField));
+            KLLSketch other = KLLSketch.deserialize(b.getBytes(), 0, b.getLength(),
+                seed + numSketches++);
+            if (buf.sketch.isEmpty()) {
+                buf.sketch = other; // keep k of the partial aggregation
+            } else {
+                buf.sketch.merge(other);
+            }
+        }
+
+        @Override
+        public Object terminate(@SuppressWarnings("deprecation") AggregationBuffer agg)
+                throws HiveException {
+            SketchBuffer buf = (SketchBuffer) agg;
+            if (buf.sketch.isEmpty() || buf.quantiles == null) {
+                return null;
+            }
+            final double[] result = buf.sketch.quantiles(buf.quantiles);
+            if (scalar) {
+                return new DoubleWritable(result[0]);
+            } else {
+                return WritableUtils.toWritableList(result);
+            }
+        }
+    }
+
+}
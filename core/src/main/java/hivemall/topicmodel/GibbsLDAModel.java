@@ -0,0 +1,502 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.topicmodel;
+
+import hivemall.math.random.PRNG;
+import hivemall.math.random.RandomNumberGeneratorFactory;
+import hivemall.model.FeatureValue;
+import hivemall.utils.collections.lists.IntArrayList;
+import hivemall.utils.collections.maps.Int2IntOpenHashTable;
+import hivemall.utils.lang.Identifier;
+import hivemall.utils.sampling.AliasTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Collapsed Gibbs sampler for LDA in which each token is sampled in amortized O(K_d) time by
+ * Metropolis-Hastings over a proposal built from stale Walker's alias tables, where K_d is the
+ * number of topics in the document.
+ * 
+ * The full conditional p(z=k) ∝ (n_dk + alpha)(n_wk + eta)/(n_k + V*eta) is decomposed into three
+ * buckets; a document-sparse bucket n_dk(n_wk + eta)/(n_k + V*eta) computed exactly, a
+ * word-sparse bucket alpha*n_wk/(n_k + V*eta) drawn from a per-word alias table, and a dense
+ * smoothing bucket alpha*eta/(n_k + V*eta) drawn from an alias table shared by all words. Alias
+ * tables are rebuilt after they served as many draws as their size.
+ * 
+ * @link http://dl.acm.org/citation.cfm?id=2623756 (AliasLDA)
+ * @link http://dl.acm.org/citation.cfm?id=2741115 (LightLDA)
+ */
+public final class GibbsLDAModel {
+
+    // ---------------------------------
+    // HyperParameters
+
+    // number of topics
+    private final int _K;
+
+    // prior on per-document topic distributions
+    private final float _alpha;
+
+    // prior on per-topic word distributions
+    private final float _eta;
+
+    // the number of Metropolis-Hastings steps per token
+    private final int _mhSteps;
+
+    // ---------------------------------
+
+    @Nonnull
+    private final PRNG _rnd;
+
+    @Nonnull
+    private final FeatureValue _probe;
+
+    // vocabulary
+    @Nonnull
+    private final Identifier<String> _vocabulary;
+    @Nonnull
+    private final List<String> _words;
+
+    // corpus; tokens of the d-th document are in [_docOffsets[d], _docOffsets[d+1])
+    @Nonnull
+    private final IntArrayList _docOffsets;
+    @Nonnull
+    private final IntArrayList _tokenWords;
+    @Nonnull
+    private final IntArrayList _tokenTopics;
+
+    // sufficient statistics; n(w,k) is sparse and keeps zero-count entries once allocated
+    @Nonnull
+    private final List<Int2IntOpenHashTable> _nwk;
+    @Nonnull
+    private final int[] _nk;
+
+    // stale proposals
+    @Nonnull
+    private final List<WordProposal> _wordProposals;
+    @Nonnull
+    private final AliasTable _smoothingTable;
+    @Nonnull
+    private final double[] _smoothingWeights;
+    private int _smoothingDraws;
+
+    // n(d,k) of the document being sampled, maintained as a sparse set of active topics
+    @Nonnull
+    private final int[] _ndk;
+    @Nonnull
+    private final int[] _docTopics;
+    @Nonnull
+    private final int[] _docTopicPos;
+    private int _numDocTopics;
+    @Nonnull
+    private final double[] _docCumProbs;
+
+    // work buffer to build per-word alias tables
+    @Nonnull
+    private double[] _wordWeights;
+
+    public GibbsLDAModel(int K, float alpha, float eta, int mhSteps, long seed) {
+        if (K < 1) {
+            throw new IllegalArgumentException("K MUST be positive: " + K);
+        }
+        if (alpha <= 0.f) {
+            throw new IllegalArgumentException("alpha MUST be positive: " + alpha);
+        }
+        if (eta <= 0.f) {
+            throw new IllegalArgumentException("eta MUST be positive: " + eta);
+        }
+        if (mhSteps < 1) {
+            throw new IllegalArgumentException("mhSteps MUST be positive: " + mhSteps);
+        }
+
+        this._K = K;
+        this._alpha = alpha;
+        this._eta = eta;
+        this._mhSteps = mhSteps;
+
+        this._rnd = RandomNumberGeneratorFactory.createPRNG(seed);
+        this._probe = new FeatureValue();
+
+        this._vocabulary = new Identifier<String>();
+        this._words = new ArrayList<String>();
+
+        this._docOffsets = new IntArrayList(1024);
+        _docOffsets.add(0);
+        this._tokenWords = new IntArrayList(8192);
+        this._tokenTopics = new IntArrayList(8192);
+
+        this._nwk = new ArrayList<Int2IntOpenHashTable>();
+        this._nk = new int[K];
+
+        this._wordProposals = new ArrayList<WordProposal>();
+        this._smoothingTable = new AliasTable(K);
+        this._smoothingWeights = new double[K];
+        this._smoothingDraws = K; // force build on first use
+
+        this._ndk = new int[K];
+        this._docTopics = new int[K];
+        this._docTopicPos = new int[K];
+        Arrays.fill(_docTopicPos, -1);
+        this._numDocTopics = 0;
+        this._docCumProbs = new double[K];
+
+        this._wordWeights = new double[Math.min(K, 16)];
+    }
+
+    public int getNumDocs() {
+        return _docOffsets.size() - 1;
+    }
+
+    public int getNumTokens() {
+        return _tokenWords.size();
+    }
+
+    public int getVocabularySize() {
+        return _words.size();
+    }
+
+    /**
+     * Add a document of `word:count` features to the corpus and assign a random topic to each of
+     * its tokens. Counts are rounded to integers.
+     * 
+     * @return false if the document has no token
+     */
+    public boolean addDocument(@Nonnull final String[] wordCounts) {
+        final FeatureValue probe = _probe;
+        final PRNG rnd = _rnd;
+        final int[] nk = _nk;
+
+        int numTokens = 0;
+        for (String wc : wordCounts) {
+            if (wc == null) {
+                continue;
+            }
+            FeatureValue.parseFeatureAsString(wc, probe);
+            final int count = Math.round(probe.getValueAsFloat());
+            if (count < 1) {
+                continue;
+            }
+            final int w = getWordId(probe.getFeatureAsString());
+            final Int2IntOpenHashTable nw = _nwk.get(w);
+            for (int i = 0; i < count; i++) {
+                final int k = rnd.nextInt(_K);
+                _tokenWords.add(w);
+                _tokenTopics.add(k);
+                nw.put(k, nw.get(k) + 1);
+                nk[k]++;
+            }
+            numTokens += count;
+        }
+        if (numTokens == 0) {
+            return false;
+        }
+
+        _docOffsets.add(_tokenWords.size());
+        return true;
+    }
+
+    private int getWordId(@Nonnull final String word) {
+        final int w = _vocabulary.valueOf(word);
+        if (w == _words.size()) {// newly observed word
+            _words.add(word);
+            Int2IntOpenHashTable nw = new Int2IntOpenHashTable(7);
+            nw.defaultReturnValue(0);
+            _nwk.add(nw);
+            _wordProposals.add(new WordProposal());
+        }
+        return w;
+    }
+
+    /**
+     * Run a Gibbs sweep over all the tokens in the corpus.
+     */
+    public void sample() {
+        final int[] docOffsets = _docOffsets.array();
+        final int[] tokenWords = _tokenWords.array();
+        final int[] tokenTopics = _tokenTopics.array();
+        final int[] nk = _nk;
+        final int[] ndk = _ndk;
+        final double vEta = _eta * _words.size();
+
+        final int numDocs = getNumDocs();
+        for (int d = 0; d < numDocs; d++) {
+            final int begin = docOffsets[d];
+            final int end = docOffsets[d + 1];
+
+            for (int i = begin; i < end; i++) {
+                incrDocTopic(tokenTopics[i]);
+            }
+
+            for (int i = begin; i < end; i++) {
+                final int w = tokenWords[i];
+                final int s = tokenTopics[i];
+                final Int2IntOpenHashTable nw = _nwk.get(w);
+
+                // exclude the current token from the statistics
+                decrDocTopic(s);
+                nw.put(s, nw.get(s) - 1);
+                nk[s]--;
+
+                final int t = sampleTopic(w, nw, s, vEta);
+
+                incrDocTopic(t);
+                nw.put(t, nw.get(t) + 1);
+                nk[t]++;
+                tokenTopics[i] = t;
+            }
+
+            for (int j = 0; j < _numDocTopics; j++) {
+                final int k = _docTopics[j];
+                ndk[k] = 0;
+                _docTopicPos[k] = -1;
+            }
+            this._numDocTopics = 0;
+        }
+    }
+
+    private int sampleTopic(final int w, @Nonnull final Int2IntOpenHashTable nw,
+            final int current, final double vEta) {
+        final int[] nk = _nk;
+        final int[] ndk = _ndk;
+        final int[] docTopics = _docTopics;
+        final double[] docCumProbs = _docCumProbs;
+        final int numDocTopics = _numDocTopics;
+
+        // document-sparse bucket
+        double docSum = 0.d;
+        for (int j = 0; j < numDocTopics; j++) {
+            final int k = docTopics[j];
+            docSum += ndk[k] * (nw.get(k) + _eta) / (nk[k] + vEta);
+            docCumProbs[j] = docSum;
+        }
+
+        // word-sparse and smoothing buckets
+        final WordProposal wp = getWordProposal(w, nw, vEta);
+        final AliasTable smoothing = getSmoothingTable(vEta);
+        final double wordSum = _alpha * wp.table.sum();
+        final double smoothingSum = _alpha * _eta * smoothing.sum();
+        final double total = docSum + wordSum + smoothingSum;
+
+        int s = current;
+        double pS = probability(s, nw, vEta);
+        double qS = proposal(s, nw, wp, vEta);
+        for (int step = 0; step < _mhSteps; step++) {
+            final int t;
+            final double u = _rnd.nextDouble() * total;
+            if (u < docSum) {
+                int j = Arrays.binarySearch(docCumProbs, 0, numDocTopics, u);
+                if (j < 0) {
+                    j = -j - 1;
+                }
+                t = docTopics[Math.min(j, numDocTopics - 1)];
+            } else if (u < docSum + wordSum) {
+                t = wp.topics[wp.table.sample(_rnd)];
+                wp.draws++;
+            } else {
+                t = smoothing.sample(_rnd);
+                _smoothingDraws++;
+            }
+            if (t == s) {
+                continue;
+            }
+
+            final double pT = probability(t, nw, vEta);
+            final double qT = proposal(t, nw, wp, vEta);
+            final double acceptance = (pT * qS) / (pS * qT);
+            if (acceptance >= 1.d || _rnd.nextDouble() < acceptance) {
+                s = t;
+                pS = pT;
+                qS = qT;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @return unnormalized full conditional of topic k
+     */
+    private double probability(final int k, @Nonnull final Int2IntOpenHashTable nw,
+            final double vEta) {
+        return (_ndk[k] + _alpha) * (nw.get(k) + _eta) / (_nk[k] + vEta);
+    }
+
+    /**
+     * @return unnormalized proposal probability of topic k
+     */
+    private double proposal(final int k, @Nonnull final Int2IntOpenHashTable nw,
+            @Nonnull final WordProposal wp, final double vEta) {
+        double q = _ndk[k] * (nw.get(k) + _eta) / (_nk[k] + vEta);
+        final int i = Arrays.binarySearch(wp.topics, 0, wp.table.size(), k);
+        if (i >= 0) {
+            q += _alpha * wp.table.weight(i);
+        }
+        q += _alpha * _eta * _smoothingTable.weight(k);
+        return q;
+    }
+
+    @Nonnull
+    private WordProposal getWordProposal(final int w, @Nonnull final Int2IntOpenHashTable nw,
+            final double vEta) {
+        final WordProposal wp = _wordProposals.get(w);
+        if (wp.draws < wp.table.size()) {
+            return wp;
+        }
+
+        // collect topics of non-zero n(w,k) in ascending order
+        int[] topics = wp.topics;
+        if (topics.length < nw.size()) {
+            topics = new int[nw.size()];
+        }
+        int size = 0;
+        final Int2IntOpenHashTable.IMapIterator itor = nw.entries();
+        while (itor.next() != -1) {
+            if (itor.getValue() > 0) {
+                topics[size++] = itor.getKey();
+            }
+        }
+        Arrays.sort(topics, 0, size);
+
+        double[] weights = _wordWeights;
+        if (weights.length < size) {
+            this._wordWeights = weights = new double[Math.max(size, weights.length * 2)];
+        }
+        final int[] nk = _nk;
+        for (int i = 0; i < size; i++) {
+            final int k = topics[i];
+            weights[i] = nw.get(k) / (nk[k] + vEta);
+        }
+
+        wp.topics = topics;
+        wp.table.build(weights, size);
+        wp.draws = 0;
+        return wp;
+    }
+
+    @Nonnull
+    private AliasTable getSmoothingTable(final double vEta) {
+        if (_smoothingDraws < _K) {
+            return _smoothingTable;
+        }
+        final int[] nk = _nk;
+        final double[] weights = _smoothingWeights;
+        for (int k = 0; k < _K; k++) {
+            weights[k] = 1.d / (nk[k] + vEta);
+        }
+        _smoothingTable.build(weights, _K);
+        this._smoothingDraws = 0;
+        return _smoothingTable;
+    }
+
+    private void incrDocTopic(final int k) {
+        if (_ndk[k]++ == 0) {
+            _docTopicPos[k] = _numDocTopics;
+            _docTopics[_numDocTopics++] = k;
+        }
+    }
+
+    private void decrDocTopic(final int k) {
+        if (--_ndk[k] == 0) {
+            // swap with the last active topic
+            final int pos = _docTopicPos[k];
+            final int last = _docTopics[--_numDocTopics];
+            _docTopics[pos] = last;
+            _docTopicPos[last] = pos;
+            _docTopicPos[k] = -1;
+        }
+    }
+
+    /**
+     * @return P(w|z=k)
+     */
+    public float getWordProbability(@Nonnull final String word, @Nonnegative final int k) {
+        final Integer w = _vocabulary.getMap().get(word);
+        if (w == null) {
+            throw new IllegalArgumentException("Word `" + word + "` is not in the corpus.");
+        }
+        return getWordProbability(w.intValue(), k, _eta * _words.size());
+    }
+
+    private float getWordProbability(final int w, final int k, final double vEta) {
+        return (float) ((_nwk.get(w).get(k) + _eta) / (_nk[k] + vEta));
+    }
+
+    @Nonnull
+    public SortedMap<Float, List<String>> getTopicWords(@Nonnegative final int k) {
+        return getTopicWords(k, _words.size());
+    }
+
+    @Nonnull
+    public SortedMap<Float, List<String>> getTopicWords(@Nonnegative final int k,
+            @Nonnegative int topN) {
+        final double vEta = _eta * _words.size();
+        final SortedMap<Float, List<String>> sorted = new TreeMap<Float, List<String>>(
+            Collections.reverseOrder());
+        for (int w = 0, size = _words.size(); w < size; w++) {
+            final Float phi = Float.valueOf(getWordProbability(w, k, vEta));
+            List<String> labels = sorted.get(phi);
+            if (labels == null) {
+                labels = new ArrayList<String>();
+                sorted.put(phi, labels);
+            }
+            labels.add(_words.get(w));
+        }
+
+        if (topN >= sorted.size()) {
+            return sorted;
+        }
+        final SortedMap<Float, List<String>> ret = new TreeMap<Float, List<String>>(
+            Collections.reverseOrder());
+        for (Map.Entry<Float, List<String>> e : sorted.entrySet()) {
+            ret.put(e.getKey(), e.getValue());
+            if (ret.size() == topN) {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Stale proposal of the word-sparse bucket.
+     */
+    private static final class WordProposal {
+        // topics of the alias table in ascending order
+        @Nonnull
+        int[] topics;
+        @Nonnull
+        final AliasTable table;
+        // number of draws since the last build
+        int draws;
+
+        WordProposal() {
+            this.topics = new int[0];
+            this.table = new AliasTable();
+            this.draws = 0; // built on first use since the table is empty
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.topicmodel;
+
+import hivemall.UDTFWithOptions;
+import hivemall.annotations.VisibleForTesting;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.annotation.Nonnegative;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * LDA trainer by collapsed Gibbs sampling. Unlike {@link LDAUDTF}, all the tokens of the given
+ * documents are kept on memory in primitive arrays and sampled in amortized O(K_d) per token, where
+ * K_d is the number of topics in the document, by an alias-table Metropolis-Hastings proposal of
+ * {@link GibbsLDAModel}. The output can be used by `lda_predict` as well as that of `train_lda`.
+ */
+@Description(name = "train_lda_gibbs",
+        value = "_FUNC_(array<string> words[, const string options])"
+                + " - Returns a relation consists of <int topic, string word, float score>")
+public class GibbsLDAUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(GibbsLDAUDTF.class);
+
+    public static final int DEFAULT_TOPICS = 10;
+    public static final int DEFAULT_ITERATIONS = 50;
+    public static final int DEFAULT_MH_STEPS = 2;
+
+    // Options
+    protected int topics;
+    protected float alpha;
+    protected float eta;
+    protected int iterations;
+    protected int mhSteps;
+    protected long seed;
+
+    protected transient GibbsLDAModel model;
+
+    protected ListObjectInspector wordCountsOI;
+
+    public GibbsLDAUDTF() {
+        this.topics = DEFAULT_TOPICS;
+        this.alpha = 1.f / topics;
+        this.eta = 1.f / topics;
+        this.iterations = DEFAULT_ITERATIONS;
+        this.mhSteps = DEFAULT_MH_STEPS;
+        this.seed = 1001L;
+    }
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("k", "topics", true, "The number of topics [default: 10]");
+        opts.addOption("alpha", true, "The hyperparameter for theta [default: 1/k]");
+        opts.addOption("eta", true, "The hyperparameter for beta [default: 1/k]");
+        opts.addOption("iter", "iterations", true,
+            "The number of Gibbs sweeps over the documents [default: 50]");
+        opts.addOption("mh", "mh_steps", true,
+            "The number of Metropolis-Hastings steps per token [default: 2]");
+        opts.addOption("seed", true, "Seed value for the random number generator [default: 1001]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        CommandLine cl = null;
+
+        if (argOIs.length >= 2) {
+            String rawArgs = HiveUtils.getConstString(argOIs[1]);
+            cl = parseOptions(rawArgs);
+            this.topics = Primitives.parseInt(cl.getOptionValue("topics"), DEFAULT_TOPICS);
+            if (topics < 1) {
+                throw new UDFArgumentException("'-topics' must be positive: " + topics);
+            }
+            this.alpha = Primitives.parseFloat(cl.getOptionValue("alpha"), 1.f / topics);
+            if (alpha <= 0.f) {
+                throw new UDFArgumentException("'-alpha' must be positive: " + alpha);
+            }
+            this.eta = Primitives.parseFloat(cl.getOptionValue("eta"), 1.f / topics);
+            if (eta <= 0.f) {
+                throw new UDFArgumentException("'-eta' must be positive: " + eta);
+            }
+            this.iterations = Primitives.parseInt(cl.getOptionValue("iterations"),
+                DEFAULT_ITERATIONS);
+            if (iterations < 1) {
+                throw new UDFArgumentException(
+                    "'-iterations' must be greater than or equals to 1: " + iterations);
+            }
+            this.mhSteps = Primitives.parseInt(cl.getOptionValue("mh_steps"), DEFAULT_MH_STEPS);
+            if (mhSteps < 1) {
+                throw new UDFArgumentException("'-mh_steps' must be positive: " + mhSteps);
+            }
+            this.seed = Primitives.parseLong(cl.getOptionValue("seed"), 1001L);
+        }
+
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length < 1) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 1 arguments: array<string> words [, const string options]");
+        }
+
+        this.wordCountsOI = HiveUtils.asListOI(argOIs[0]);
+        HiveUtils.validateFeatureOI(wordCountsOI.getListElementObjectInspector());
+
+        processOptions(argOIs);
+
+        this.model = null;
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("topic");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("word");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+        fieldNames.add("score");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (model == null) {
+            this.model = new GibbsLDAModel(topics, alpha, eta, mhSteps, seed);
+        }
+
+        final int length = wordCountsOI.getListLength(args[0]);
+        final String[] wordCounts = new String[length];
+        for (int i = 0; i < length; i++) {
+            Object o = wordCountsOI.getListElement(args[0], i);
+            if (o == null) {
+                throw new HiveException("Given feature vector contains invalid elements");
+            }
+            wordCounts[i] = o.toString();
+        }
+
+        model.addDocument(wordCounts);
+    }
+
+    @Override
+    public void close() throws HiveException {
+        if (model == null) {
+            return;
+        }
+        runGibbsSampling(iterations);
+        forwardModel();
+        this.model = null;
+    }
+
+    protected final void runGibbsSampling(@Nonnegative final int iterations) {
+        final Reporter reporter = getReporter();
+        final Counters.Counter iterCounter = (reporter == null) ? null : reporter.getCounter(
+            "hivemall.lda.GibbsLDA$Counter", "iteration");
+
+        for (int iter = 1; iter <= iterations; iter++) {
+            reportProgress(reporter);
+            setCounterValue(iterCounter, iter);
+
+            model.sample();
+        }
+
+        logger.info("Performed " + iterations + " Gibbs sweeps over "
+                + NumberUtils.formatNumber(model.getNumTokens()) + " tokens of "
+                + NumberUtils.formatNumber(model.getNumDocs()) + " documents ("
+                + NumberUtils.formatNumber(model.getVocabularySize()) + " distinct words)");
+    }
+
+    protected void forwardModel() throws HiveException {
+        final IntWritable topicIdx = new IntWritable();
+        final Text word = new Text();
+        final FloatWritable score = new FloatWritable();
+
+        final Object[] forwardObjs = new Object[3];
+        forwardObjs[0] = topicIdx;
+        forwardObjs[1] = word;
+        forwardObjs[2] = score;
+
+        for (int k = 0; k < topics; k++) {
+            topicIdx.set(k);
+
+            final SortedMap<Float, List<String>> topicWords = model.getTopicWords(k);
+            for (Map.Entry<Float, List<String>> e : topicWords.entrySet()) {
+                score.set(e.getKey());
+                List<String> words = e.getValue();
+                for (int i = 0; i < words.size(); i++) {
+                    word.set(words.get(i));
+                    forward(forwardObjs);
+                }
+            }
+        }
+
+        logger.info("Forwarded topic words each of " + topics + " topics");
+    }
+
+    /*
+     * For testing:
+     */
+
+    @VisibleForTesting
+    void closeWithoutModelReset() throws HiveException {
+        if (model == null) {
+            return;
+        }
+        runGibbsSampling(iterations);
+    }
+
+    @VisibleForTesting
+    float getWordProbability(String word, int k) {
+        return model.getWordProbability(word, k);
+    }
+
+    @VisibleForTesting
+    SortedMap<Float, List<String>> getTopicWords(int k) {
+        return model.getTopicWords(k);
+    }
+
+}
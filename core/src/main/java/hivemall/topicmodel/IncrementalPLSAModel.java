@@ -84,6 +84,21 @@ public final class IncrementalPLSAModel {
     public void train(@Nonnull final String[][] miniBatch) {
         initMiniBatch(miniBatch, _miniBatchDocs);
 
+        train();
+    }
+
+    /**
+     * Train the model with a mini-batch of already parsed documents, i.e., the j-th word of the
+     * i-th document is `miniBatchWords[i][j]` and its count is `miniBatchCounts[i][j]`.
+     */
+    public void train(@Nonnull final String[][] miniBatchWords,
+            @Nonnull final float[][] miniBatchCounts) {
+        initMiniBatch(miniBatchWords, miniBatchCounts, _miniBatchDocs);
+
+        train();
+    }
+
+    private void train() {
         this._miniBatchSize = _miniBatchDocs.size();
 
         initParams();
@@ -135,6 +150,26 @@ public final class IncrementalPLSAModel {
         }
     }
 
+    private static void initMiniBatch(@Nonnull final String[][] miniBatchWords,
+            @Nonnull final float[][] miniBatchCounts, @Nonnull final List<Map<String, Float>> docs) {
+        docs.clear();
+
+        for (int i = 0; i < miniBatchWords.length; i++) {
+            final String[] words = miniBatchWords[i];
+            if (words == null || words.length == 0) {
+                continue;
+            }
+            final float[] counts = miniBatchCounts[i];
+
+            final Map<String, Float> doc = new HashMap<String, Float>(words.length * 2);
+            for (int j = 0; j < words.length; j++) {
+                doc.put(words[j], Float.valueOf(counts[j]));
+            }
+
+            docs.add(doc);
+        }
+    }
+
     private void initParams() {
         final List<float[]> p_dz = new ArrayList<float[]>();
         final List<Map<String, float[]>> p_dwz = new ArrayList<Map<String, float[]>>();
@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.topicmodel;
+
+import hivemall.UDTFWithOptions;
+import hivemall.annotations.VisibleForTesting;
+import hivemall.model.FeatureValue;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.HadoopUtils;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.Identifier;
+import hivemall.utils.lang.Primitives;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.math3.special.Gamma;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Map-side counterpart of {@link LDAPredictUDAF}. A model table of <int label, string word, float
+ * lambda> put in the distributed cache is loaded once per task into a dense `float[]` slab indexed
+ * by word ids, and the topic distribution of each document is inferred without joining the model.
+ * 
+ * Inference is the same as {@link OnlineLDAModel#getTopicDistribution(String[])} as used by
+ * `lda_predict`, i.e., Elogbeta is normalized over the words in a document.
+ */
+@Description(name = "lda_predict_distcache",
+        value = "_FUNC_(array<string> words, const string filepath [, const string options])"
+                + " - Returns a relation consists of <int label, float probability>")
+public final class LDAPredictUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(LDAPredictUDTF.class);
+
+    // Options
+    private int topics;
+    private float alpha;
+    private double delta;
+
+    private ListObjectInspector wordCountsOI;
+    private String modelPath;
+
+    // model
+    private Identifier<String> vocabulary;
+    // digamma(lambda) of the j-th word and k-th topic is at [j * topics + k]
+    private float[] digammaLambda;
+    private float[] lambda;
+
+    // work buffers
+    private FeatureValue probe;
+    private int[] docPos;
+    private int[] docWords;
+    private float[] docCounts;
+    private float[] eLogBeta;
+    private float[] phi;
+
+    public LDAPredictUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("k", "topics", true, "The number of topics [default: 10]");
+        opts.addOption("alpha", true, "The hyperparameter for theta [default: 1/k]");
+        opts.addOption("delta", true, "Check convergence in the expectation step [default: 1E-3]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        CommandLine cl = null;
+
+        if (argOIs.length >= 3) {
+            String rawArgs = HiveUtils.getConstString(argOIs[2]);
+            cl = parseOptions(rawArgs);
+            this.topics = Primitives.parseInt(cl.getOptionValue("topics"), LDAUDTF.DEFAULT_TOPICS);
+            if (topics < 1) {
+                throw new UDFArgumentException(
+                    "A positive integer MUST be set to an option `-topics`: " + topics);
+            }
+            this.alpha = Primitives.parseFloat(cl.getOptionValue("alpha"), 1.f / topics);
+            this.delta = Primitives.parseDouble(cl.getOptionValue("delta"), LDAUDTF.DEFAULT_DELTA);
+        } else {
+            this.topics = LDAUDTF.DEFAULT_TOPICS;
+            this.alpha = 1.f / topics;
+            this.delta = LDAUDTF.DEFAULT_DELTA;
+        }
+
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 2 && argOIs.length != 3) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 2 or 3 arguments: array<string> words, const string filepath [, const string options]");
+        }
+
+        this.wordCountsOI = HiveUtils.asListOI(argOIs[0]);
+        HiveUtils.validateFeatureOI(wordCountsOI.getListElementObjectInspector());
+        this.modelPath = HiveUtils.getConstString(argOIs[1]);
+
+        processOptions(argOIs);
+
+        this.vocabulary = null;
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("label");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("probability");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (vocabulary == null) {
+            loadModel(new File(modelPath));
+        }
+
+        final Object arg0 = args[0];
+        if (arg0 == null) {
+            return;
+        }
+        final int length = wordCountsOI.getListLength(arg0);
+        final String[] wordCounts = new String[length];
+        for (int i = 0; i < length; i++) {
+            Object o = wordCountsOI.getListElement(arg0, i);
+            if (o == null) {
+                throw new HiveException("Given feature vector contains invalid elements");
+            }
+            wordCounts[i] = o.toString();
+        }
+
+        final float[] topicDistr = getTopicDistribution(wordCounts);
+        if (topicDistr == null) {
+            return;
+        }
+        forwardTopicDistribution(topicDistr);
+    }
+
+    private void forwardTopicDistribution(@Nonnull final float[] topicDistr) throws HiveException {
+        final Integer[] labels = new Integer[topics];
+        for (int k = 0; k < topics; k++) {
+            labels[k] = Integer.valueOf(k);
+        }
+        Arrays.sort(labels, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Float.compare(topicDistr[o2.intValue()], topicDistr[o1.intValue()]);
+            }
+        });
+
+        final IntWritable label = new IntWritable();
+        final FloatWritable probability = new FloatWritable();
+        final Object[] forwardObjs = new Object[] {label, probability};
+        for (Integer k : labels) {
+            label.set(k.intValue());
+            probability.set(topicDistr[k.intValue()]);
+            forward(forwardObjs);
+        }
+    }
+
+    private void loadModel(@Nonnull final File file) throws HiveException {
+        final StopWatch elapsed = new StopWatch();
+
+        this.vocabulary = new Identifier<String>();
+        this.lambda = new float[topics * 8192];
+        final long lines;
+        try {
+            lines = loadLambda(file);
+        } catch (IOException e) {
+            throw new HiveException("Failed to load a model: " + file, e);
+        } catch (SerDeException e) {
+            throw new HiveException("Failed to load a model: " + file, e);
+        }
+
+        final int numWords = vocabulary.size();
+        final float[] lambda = this.lambda;
+        final float[] digammaLambda = new float[numWords * topics];
+        for (int i = 0; i < digammaLambda.length; i++) {
+            digammaLambda[i] = (float) Gamma.digamma(lambda[i]);
+        }
+        this.digammaLambda = digammaLambda;
+
+        this.probe = new FeatureValue();
+        this.docPos = new int[numWords];
+        Arrays.fill(docPos, -1);
+        this.docWords = new int[16];
+        this.docCounts = new float[16];
+        this.eLogBeta = new float[16 * topics];
+        this.phi = new float[16 * topics];
+
+        logger.info("Loaded " + numWords + " words of " + topics
+                + " topics from distributed cache '" + file + "' (" + lines + " lines) in "
+                + elapsed);
+    }
+
+    private long loadLambda(@Nonnull final File file) throws IOException, SerDeException {
+        long count = 0L;
+        if (!file.exists()) {
+            return count;
+        }
+        if (file.getName().endsWith(".crc")) {
+            return count;
+        }
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                count += loadLambda(f);
+            }
+            return count;
+        }
+
+        LazySimpleSerDe serde = HiveUtils.getLineSerde(
+            PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+            PrimitiveObjectInspectorFactory.javaFloatObjectInspector);
+        StructObjectInspector lineOI = (StructObjectInspector) serde.getObjectInspector();
+        StructField c1ref = lineOI.getStructFieldRef("c1");
+        StructField c2ref = lineOI.getStructFieldRef("c2");
+        StructField c3ref = lineOI.getStructFieldRef("c3");
+        PrimitiveObjectInspector c1oi = (PrimitiveObjectInspector) c1ref.getFieldObjectInspector();
+        PrimitiveObjectInspector c2oi = (PrimitiveObjectInspector) c2ref.getFieldObjectInspector();
+        PrimitiveObjectInspector c3oi = (PrimitiveObjectInspector) c3ref.getFieldObjectInspector();
+
+        final Text lineText = new Text();
+        BufferedReader reader = null;
+        try {
+            reader = HadoopUtils.getBufferedReader(file);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                count++;
+                lineText.set(line);
+                Object lineObj = serde.deserialize(lineText);
+                List<Object> fields = lineOI.getStructFieldsDataAsList(lineObj);
+                Object f0 = fields.get(0);
+                Object f1 = fields.get(1);
+                Object f2 = fields.get(2);
+                if (f0 == null || f1 == null || f2 == null) {
+                    continue; // avoid unexpected case
+                }
+                int label = PrimitiveObjectInspectorUtils.getInt(f0, c1oi);
+                if (label < 0 || label >= topics) {
+                    throw new IOException("Label " + label + " is out of range [0, " + topics
+                            + "). Check `-topics` option.");
+                }
+                String word = PrimitiveObjectInspectorUtils.getString(f1, c2oi);
+                float lambda_k = PrimitiveObjectInspectorUtils.getFloat(f2, c3oi);
+                setLambda(word, label, lambda_k);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return count;
+    }
+
+    private void setLambda(@Nonnull final String word, @Nonnegative final int k,
+            final float lambda_k) {
+        final int numWords = vocabulary.size();
+        final int j = vocabulary.valueOf(word);
+        if (j == numWords) {// newly observed word
+            final int required = (j + 1) * topics;
+            if (required > lambda.length) {
+                this.lambda = Arrays.copyOf(lambda, Math.max(required, lambda.length * 2));
+            }
+            // lambdas of topics not in the model are regarded as (almost) zero
+            Arrays.fill(lambda, j * topics, required, Float.MIN_NORMAL);
+        }
+        lambda[j * topics + k] = lambda_k;
+    }
+
+    /**
+     * @return topic distribution of a document, or null if no word of the document is in the model
+     */
+    @VisibleForTesting
+    float[] getTopicDistribution(@Nonnull final String[] wordCounts) {
+        final int K = topics;
+
+        // parse a document into word ids and counts w/o unknown words
+        int size = 0;
+        for (String wc : wordCounts) {
+            FeatureValue.parseFeatureAsString(wc, probe);
+            final Integer id = vocabulary.getMap().get(probe.getFeatureAsString());
+            if (id == null) {
+                continue;
+            }
+            final int w = id.intValue();
+            final float count = probe.getValueAsFloat();
+            final int pos = docPos[w];
+            if (pos >= 0) {// same word appears twice; the last one is used
+                docCounts[pos] = count;
+                continue;
+            }
+            if (size == docWords.length) {
+                this.docWords = Arrays.copyOf(docWords, size * 2);
+                this.docCounts = Arrays.copyOf(docCounts, size * 2);
+            }
+            docPos[w] = size;
+            docWords[size] = w;
+            docCounts[size] = count;
+            size++;
+        }
+        for (int i = 0; i < size; i++) {
+            docPos[docWords[i]] = -1;
+        }
+        if (size == 0) {
+            return null;
+        }
+        if (eLogBeta.length < size * K) {
+            this.eLogBeta = new float[docWords.length * K];
+            this.phi = new float[docWords.length * K];
+        }
+
+        final int[] docWords = this.docWords;
+        final float[] docCounts = this.docCounts;
+        final float[] lambda = this.lambda;
+        final float[] digammaLambda = this.digammaLambda;
+        final float[] eLogBeta = this.eLogBeta;
+        final float[] phi = this.phi;
+
+        // Dirichlet expectation for lambda
+        final double[] lambdaSum = new double[K];
+        for (int i = 0; i < size; i++) {
+            final int offset = docWords[i] * K;
+            for (int k = 0; k < K; k++) {
+                lambdaSum[k] += lambda[offset + k];
+            }
+        }
+        for (int k = 0; k < K; k++) {
+            lambdaSum[k] = Gamma.digamma(lambdaSum[k]);
+        }
+        for (int i = 0; i < size; i++) {
+            final int src = docWords[i] * K, dst = i * K;
+            for (int k = 0; k < K; k++) {
+                eLogBeta[dst + k] = (float) (digammaLambda[src + k] - lambdaSum[k]);
+            }
+        }
+
+        // update gamma until convergence
+        final float[] gamma = new float[K];
+        Arrays.fill(gamma, 1.f);
+        final float[] gammaPrev = new float[K];
+        final double[] eLogTheta = new double[K];
+        double diff;
+        do {
+            System.arraycopy(gamma, 0, gammaPrev, 0, K);
+
+            // update phi
+            double gammaSum = 0.d;
+            for (int k = 0; k < K; k++) {
+                gammaSum += gamma[k];
+            }
+            final double digamma_gammaSum = Gamma.digamma(gammaSum);
+            for (int k = 0; k < K; k++) {
+                eLogTheta[k] = Gamma.digamma(gamma[k]) - digamma_gammaSum;
+            }
+            for (int i = 0; i < size; i++) {
+                final int offset = i * K;
+                double normalizer = 0.d;
+                for (int k = 0; k < K; k++) {
+                    float phiVal = (float) Math.exp(eLogBeta[offset + k] + eLogTheta[k]) + 1E-20f;
+                    phi[offset + k] = phiVal;
+                    normalizer += phiVal;
+                }
+                for (int k = 0; k < K; k++) {
+                    phi[offset + k] /= normalizer;
+                }
+            }
+
+            // update gamma
+            Arrays.fill(gamma, alpha);
+            for (int i = 0; i < size; i++) {
+                final int offset = i * K;
+                final float count = docCounts[i];
+                for (int k = 0; k < K; k++) {
+                    gamma[k] += phi[offset + k] * count;
+                }
+            }
+
+            diff = 0.d;
+            for (int k = 0; k < K; k++) {
+                diff += Math.abs(gammaPrev[k] - gamma[k]);
+            }
+        } while ((diff / K) >= delta);
+
+        // normalize topic distribution
+        double gammaSum = 0.d;
+        for (int k = 0; k < K; k++) {
+            gammaSum += gamma[k];
+        }
+        for (int k = 0; k < K; k++) {
+            gamma[k] = (float) (gamma[k] / gammaSum);
+        }
+        return gamma;
+    }
+
+    @Override
+    public void close() throws HiveException {
+        this.vocabulary = null;
+        this.lambda = null;
+        this.digammaLambda = null;
+        this.docPos = null;
+        this.eLogBeta = null;
+        this.phi = null;
+    }
+
+}
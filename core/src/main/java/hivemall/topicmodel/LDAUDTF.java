@@ -20,10 +20,12 @@ package hivemall.topicmodel;
 
 import hivemall.UDTFWithOptions;
 import hivemall.annotations.VisibleForTesting;
+import hivemall.model.FeatureValue;
+import hivemall.utils.codec.VariableByteCodec;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.io.FileUtils;
-import hivemall.utils.io.NIOUtils;
-import hivemall.utils.io.NioStatefullSegment;
+import hivemall.utils.io.ReplayBuffer;
+import hivemall.utils.io.ReplayBuffer.SpillCodec;
+import hivemall.utils.lang.Identifier;
 import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Primitives;
 import hivemall.utils.lang.SizeOf;
@@ -77,6 +79,7 @@ public class LDAUDTF extends UDTFWithOptions {
     protected double delta;
     protected double eps;
     protected int miniBatchSize;
+    protected SpillCodec spillCodec = SpillCodec.none;
 
     // if `num_docs` option is not given, this flag will be true
     // in that case, UDTF automatically sets `count` value to the _D parameter in an online LDA model
@@ -93,8 +96,11 @@ public class LDAUDTF extends UDTFWithOptions {
     protected ListObjectInspector wordCountsOI;
 
     // for iterations
-    protected NioStatefullSegment fileIO;
-    protected ByteBuffer inputBuf;
+    protected ReplayBuffer replayBuf;
+    // word <-> word id mapping of the training samples recorded in `replayBuf`
+    protected Identifier<String> vocabulary;
+    protected List<String> vocabularyWords;
+    protected FeatureValue probe;
 
     public LDAUDTF() {
         this.topics = DEFAULT_TOPICS;
@@ -125,6 +131,8 @@ public class LDAUDTF extends UDTFWithOptions {
             "Check convergence based on the difference of perplexity [default: 1E-1]");
         opts.addOption("s", "mini_batch_size", true,
             "Repeat model updating per mini-batch [default: 128]");
+        opts.addOption("spill_codec", true,
+            "Codec to compress spilled training examples [none, deflate, lz4] (default: none)");
         return opts;
     }
 
@@ -155,6 +163,11 @@ public class LDAUDTF extends UDTFWithOptions {
             this.delta = Primitives.parseDouble(cl.getOptionValue("delta"), DEFAULT_DELTA);
             this.eps = Primitives.parseDouble(cl.getOptionValue("epsilon"), 1E-1d);
             this.miniBatchSize = Primitives.parseInt(cl.getOptionValue("mini_batch_size"), 128);
+            try {
+                this.spillCodec = SpillCodec.resolve(cl.getOptionValue("spill_codec"));
+            } catch (IllegalArgumentException e) {
+                throw new UDFArgumentException(e.getMessage());
+            }
         }
 
         return cl;
@@ -239,60 +252,45 @@ public class LDAUDTF extends UDTFWithOptions {
             return;
         }
 
-        ByteBuffer buf = inputBuf;
-        NioStatefullSegment dst = fileIO;
-
-        if (buf == null) {
-            final File file;
-            try {
-                file = File.createTempFile("hivemall_lda", ".sgmt");
-                file.deleteOnExit();
-                if (!file.canWrite()) {
-                    throw new UDFArgumentException("Cannot write a temporary file: "
-                            + file.getAbsolutePath());
-                }
-                logger.info("Record training samples to a file: " + file.getAbsolutePath());
-            } catch (IOException ioe) {
-                throw new UDFArgumentException(ioe);
-            } catch (Throwable e) {
-                throw new UDFArgumentException(e);
-            }
-            this.inputBuf = buf = ByteBuffer.allocateDirect(1024 * 1024); // 1 MB
-            this.fileIO = dst = new NioStatefullSegment(file, false);
+        if (replayBuf == null) {
+            this.replayBuf = new ReplayBuffer("hivemall_lda", spillCodec.newCodec());
+            this.vocabulary = new Identifier<String>();
+            this.vocabularyWords = new ArrayList<String>();
+            this.probe = new FeatureValue();
         }
 
-        // requiredRecordBytes, wordCounts length, wc1 length, wc1 string, wc2 length, wc2 string, ...
-        int wcLengthTotal = 0;
-        for (String wc : wordCounts) {
-            if (wc == null) {
-                continue;
-            }
-            wcLengthTotal += wc.length();
+        // wordCounts length (varint), w1 id (varint), c1 (float), w2 id, c2, ...
+        final int numWords = wordCounts.length;
+        final int[] wordIds = new int[numWords];
+        final float[] counts = new float[numWords];
+        int recordBytes = VariableByteCodec.requiredBytes(numWords);
+        for (int i = 0; i < numWords; i++) {
+            FeatureValue.parseFeatureAsString(wordCounts[i], probe);
+            final int wordId = getWordId(probe.getFeatureAsString());
+            wordIds[i] = wordId;
+            counts[i] = probe.getValueAsFloat();
+            recordBytes += VariableByteCodec.requiredBytes(wordId) + SizeOf.FLOAT;
         }
-        int requiredRecordBytes = SizeOf.INT * 2 + SizeOf.INT * wordCounts.length + wcLengthTotal
-                * SizeOf.CHAR;
 
-        int remain = buf.remaining();
-        if (remain < requiredRecordBytes) {
-            writeBuffer(buf, dst);
+        final ByteBuffer buf;
+        try {
+            buf = replayBuf.reserve(recordBytes);
+        } catch (IOException e) {
+            throw new HiveException("Exception causes while recording a training sample", e);
         }
-
-        buf.putInt(requiredRecordBytes);
-        buf.putInt(wordCounts.length);
-        for (String wc : wordCounts) {
-            NIOUtils.putString(wc, buf);
+        VariableByteCodec.encodeUnsignedInt(numWords, buf);
+        for (int i = 0; i < numWords; i++) {
+            VariableByteCodec.encodeUnsignedInt(wordIds[i], buf);
+            buf.putFloat(counts[i]);
         }
     }
 
-    private static void writeBuffer(@Nonnull ByteBuffer srcBuf, @Nonnull NioStatefullSegment dst)
-            throws HiveException {
-        srcBuf.flip();
-        try {
-            dst.write(srcBuf);
-        } catch (IOException e) {
-            throw new HiveException("Exception causes while writing a buffer to file", e);
+    private int getWordId(@Nonnull final String word) {
+        final int wordId = vocabulary.valueOf(word);
+        if (wordId == vocabularyWords.size()) {// newly observed word
+            vocabularyWords.add(word);
         }
-        srcBuf.clear();
+        return wordId;
     }
 
     @Override
@@ -311,206 +309,123 @@ public class LDAUDTF extends UDTFWithOptions {
         this.model = null;
     }
 
+    /**
+     * Decodes a training sample recorded by {@link #recordTrainSampleToTempFile(String[])} and
+     * appends it to the given mini-batch.
+     */
+    private void readTrainSample(@Nonnull final ByteBuffer buf,
+            @Nonnull final String[][] miniBatchWords, @Nonnull final float[][] miniBatchCounts) {
+        final List<String> vocabularyWords = this.vocabularyWords;
+
+        final int numWords = VariableByteCodec.decodeUnsignedInt(buf);
+        final String[] words = new String[numWords];
+        final float[] counts = new float[numWords];
+        for (int j = 0; j < numWords; j++) {
+            words[j] = vocabularyWords.get(VariableByteCodec.decodeUnsignedInt(buf));
+            counts[j] = buf.getFloat();
+        }
+
+        miniBatchWords[miniBatchCount] = words;
+        miniBatchCounts[miniBatchCount] = counts;
+        miniBatchCount++;
+    }
+
     protected final void runIterativeTraining(@Nonnegative final int iterations)
             throws HiveException {
-        final ByteBuffer buf = this.inputBuf;
-        final NioStatefullSegment dst = this.fileIO;
-        assert (buf != null);
-        assert (dst != null);
+        final ReplayBuffer replayBuf = this.replayBuf;
+        assert (replayBuf != null);
         final long numTrainingExamples = count;
 
+        final String[][] miniBatchWords = new String[miniBatchSize][];
+        final float[][] miniBatchCounts = new float[miniBatchSize][];
+
         final Reporter reporter = getReporter();
         final Counters.Counter iterCounter = (reporter == null) ? null : reporter.getCounter(
             "hivemall.lda.OnlineLDA$Counter", "iteration");
 
         try {
-            if (dst.getPosition() == 0L) {// run iterations w/o temporary file
-                if (buf.position() == 0) {
-                    return; // no training example
-                }
-                buf.flip();
-
-                int iter = 2;
-                float perplexityPrev = Float.MAX_VALUE;
-                float perplexity;
-                int numTrain;
-                for (; iter <= iterations; iter++) {
-                    perplexity = 0.f;
-                    numTrain = 0;
-
-                    reportProgress(reporter);
-                    setCounterValue(iterCounter, iter);
-
-                    Arrays.fill(miniBatch, null); // clear
-                    miniBatchCount = 0;
-
-                    while (buf.remaining() > 0) {
-                        int recordBytes = buf.getInt();
-                        assert (recordBytes > 0) : recordBytes;
-                        int wcLength = buf.getInt();
-                        final String[] wordCounts = new String[wcLength];
-                        for (int j = 0; j < wcLength; j++) {
-                            wordCounts[j] = NIOUtils.getString(buf);
-                        }
-
-                        miniBatch[miniBatchCount] = wordCounts;
-                        miniBatchCount++;
-
-                        if (miniBatchCount == miniBatchSize) {
-                            model.train(miniBatch);
-                            perplexity += model.computePerplexity();
-                            numTrain++;
-
-                            Arrays.fill(miniBatch, null); // clear
-                            miniBatchCount = 0;
-                        }
-                    }
-                    buf.rewind();
+            if (replayBuf.getNumRecords() == 0L) {
+                return; // no training example
+            }
 
-                    // update for remaining samples
-                    if (miniBatchCount > 0) { // update for remaining samples
-                        model.train(Arrays.copyOfRange(miniBatch, 0, miniBatchCount));
-                        perplexity += model.computePerplexity();
-                        numTrain++;
-                    }
+            int iter = 2;
+            float perplexityPrev = Float.MAX_VALUE;
+            float perplexity;
+            int numTrain;
+            for (; iter <= iterations; iter++) {
+                perplexity = 0.f;
+                numTrain = 0;
 
-                    logger.info("Perplexity: " + perplexity + ", Num train: " + numTrain);
-                    perplexity /= numTrain; // mean perplexity over `numTrain` mini-batches
-                    if (Math.abs(perplexityPrev - perplexity) < eps) {
-                        break;
-                    }
-                    perplexityPrev = perplexity;
-                }
-                logger.info("Performed "
-                        + Math.min(iter, iterations)
-                        + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on memory (thus "
-                        + NumberUtils.formatNumber(numTrainingExamples * Math.min(iter, iterations))
-                        + " training updates in total) ");
-            } else {// read training examples in the temporary file and invoke train for each example
-                // write training examples in buffer to a temporary file
-                if (buf.remaining() > 0) {
-                    writeBuffer(buf, dst);
-                }
-                try {
-                    dst.flush();
-                } catch (IOException e) {
-                    throw new HiveException("Failed to flush a file: "
-                            + dst.getFile().getAbsolutePath(), e);
-                }
-                if (logger.isInfoEnabled()) {
-                    File tmpFile = dst.getFile();
+                setCounterValue(iterCounter, iter);
+
+                Arrays.fill(miniBatchWords, null); // clear
+                Arrays.fill(miniBatchCounts, null);
+                miniBatchCount = 0;
+
+                replayBuf.rewind(reporter);
+                if (iter == 2 && replayBuf.isSpilled() && logger.isInfoEnabled()) {
+                    File tmpFile = replayBuf.getFile();
                     logger.info("Wrote " + numTrainingExamples
                             + " records to a temporary file for iterative training: "
-                            + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
+                            + tmpFile.getAbsolutePath() + " (" + replayBuf.getSpillStatistics()
                             + ")");
                 }
 
-                // run iterations
-                int iter = 2;
-                float perplexityPrev = Float.MAX_VALUE;
-                float perplexity;
-                int numTrain;
-                for (; iter <= iterations; iter++) {
-                    perplexity = 0.f;
-                    numTrain = 0;
-
-                    Arrays.fill(miniBatch, null); // clear
-                    miniBatchCount = 0;
-
-                    setCounterValue(iterCounter, iter);
-
-                    buf.clear();
-                    dst.resetPosition();
-                    while (true) {
-                        reportProgress(reporter);
-                        // TODO prefetch
-                        // writes training examples to a buffer in the temporary file
-                        final int bytesRead;
-                        try {
-                            bytesRead = dst.read(buf);
-                        } catch (IOException e) {
-                            throw new HiveException("Failed to read a file: "
-                                    + dst.getFile().getAbsolutePath(), e);
-                        }
-                        if (bytesRead == 0) { // reached file EOF
-                            break;
-                        }
-                        assert (bytesRead > 0) : bytesRead;
-
-                        // reads training examples from a buffer
-                        buf.flip();
-                        int remain = buf.remaining();
-                        if (remain < SizeOf.INT) {
-                            throw new HiveException("Illegal file format was detected");
-                        }
-                        while (remain >= SizeOf.INT) {
-                            int pos = buf.position();
-                            int recordBytes = buf.getInt() - SizeOf.INT;
-                            remain -= SizeOf.INT;
-                            if (remain < recordBytes) {
-                                buf.position(pos);
-                                break;
-                            }
-
-                            int wcLength = buf.getInt();
-                            final String[] wordCounts = new String[wcLength];
-                            for (int j = 0; j < wcLength; j++) {
-                                wordCounts[j] = NIOUtils.getString(buf);
-                            }
-
-                            miniBatch[miniBatchCount] = wordCounts;
-                            miniBatchCount++;
-
-                            if (miniBatchCount == miniBatchSize) {
-                                model.train(miniBatch);
-                                perplexity += model.computePerplexity();
-                                numTrain++;
-
-                                Arrays.fill(miniBatch, null); // clear
-                                miniBatchCount = 0;
-                            }
-
-                            remain -= recordBytes;
-                        }
-                        buf.compact();
-                    }
+                ByteBuffer buf;
+                while ((buf = replayBuf.next()) != null) {
+                    readTrainSample(buf, miniBatchWords, miniBatchCounts);
 
-                    // update for remaining samples
-                    if (miniBatchCount > 0) { // update for remaining samples
-                        model.train(Arrays.copyOfRange(miniBatch, 0, miniBatchCount));
+                    if (miniBatchCount == miniBatchSize) {
+                        model.train(miniBatchWords, miniBatchCounts);
                         perplexity += model.computePerplexity();
                         numTrain++;
-                    }
 
-                    logger.info("Perplexity: " + perplexity + ", Num train: " + numTrain);
-                    perplexity /= numTrain; // mean perplexity over `numTrain` mini-batches
-                    if (Math.abs(perplexityPrev - perplexity) < eps) {
-                        break;
+                        Arrays.fill(miniBatchWords, null); // clear
+                        Arrays.fill(miniBatchCounts, null);
+                        miniBatchCount = 0;
                     }
-                    perplexityPrev = perplexity;
                 }
-                logger.info("Performed "
-                        + Math.min(iter, iterations)
-                        + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on a secondary storage (thus "
-                        + NumberUtils.formatNumber(numTrainingExamples * Math.min(iter, iterations))
-                        + " training updates in total)");
+                if (replayBuf.isCompressed() && logger.isInfoEnabled()) {
+                    logger.info("Iteration #" + iter + " " + replayBuf.getDecodeStatistics());
+                }
+
+                // update for remaining samples
+                if (miniBatchCount > 0) { // update for remaining samples
+                    model.train(Arrays.copyOfRange(miniBatchWords, 0, miniBatchCount),
+                        Arrays.copyOfRange(miniBatchCounts, 0, miniBatchCount));
+                    perplexity += model.computePerplexity();
+                    numTrain++;
+                }
+
+                logger.info("Perplexity: " + perplexity + ", Num train: " + numTrain);
+                perplexity /= numTrain; // mean perplexity over `numTrain` mini-batches
+                if (Math.abs(perplexityPrev - perplexity) < eps) {
+                    break;
+                }
+                perplexityPrev = perplexity;
             }
+            logger.info("Performed "
+                    + Math.min(iter, iterations)
+                    + " iterations of "
+                    + NumberUtils.formatNumber(numTrainingExamples)
+                    + " training examples "
+                    + (replayBuf.isSpilled() ? "on a secondary storage" : "on memory")
+                    + " (thus "
+                    + NumberUtils.formatNumber(numTrainingExamples * Math.min(iter, iterations))
+                    + " training updates in total)");
         } catch (Throwable e) {
             throw new HiveException("Exception caused in the iterative training", e);
         } finally {
             // delete the temporary file and release resources
             try {
-                dst.close(true);
+                replayBuf.close();
             } catch (IOException e) {
-                throw new HiveException("Failed to close a file: "
-                        + dst.getFile().getAbsolutePath(), e);
+                throw new HiveException("Failed to close a replay buffer", e);
             }
-            this.inputBuf = null;
-            this.fileIO = null;
+            this.replayBuf = null;
+            this.vocabulary = null;
+            this.vocabularyWords = null;
+            this.probe = null;
         }
     }
 
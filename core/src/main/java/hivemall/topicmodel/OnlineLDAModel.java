@@ -143,7 +143,29 @@ public final class OnlineLDAModel {
                 "Total number of documents MUST be set via `setNumTotalDocs()`");
         }
 
-        preprocessMiniBatch(miniBatch);
+        initMiniBatch(miniBatch, _miniBatchDocs);
+
+        train();
+    }
+
+    /**
+     * Train the model with a mini-batch of already parsed documents, i.e., the j-th word of the
+     * i-th document is `miniBatchWords[i][j]` and its count is `miniBatchCounts[i][j]`.
+     */
+    public void train(@Nonnull final String[][] miniBatchWords,
+            @Nonnull final float[][] miniBatchCounts) {
+        if (_D <= 0L) {
+            throw new IllegalStateException(
+                "Total number of documents MUST be set via `setNumTotalDocs()`");
+        }
+
+        initMiniBatch(miniBatchWords, miniBatchCounts, _miniBatchDocs);
+
+        train();
+    }
+
+    private void train() {
+        preprocessMiniBatch();
 
         initParams(true);
 
@@ -158,9 +180,7 @@ public final class OnlineLDAModel {
         _updateCount++;
     }
 
-    private void preprocessMiniBatch(@Nonnull final String[][] miniBatch) {
-        initMiniBatch(miniBatch, _miniBatchDocs);
-
+    private void preprocessMiniBatch() {
         this._miniBatchSize = _miniBatchDocs.size();
 
         // accumulate the number of words for each documents
@@ -204,6 +224,26 @@ public final class OnlineLDAModel {
         }
     }
 
+    private static void initMiniBatch(@Nonnull final String[][] miniBatchWords,
+            @Nonnull final float[][] miniBatchCounts, @Nonnull final List<Map<String, Float>> docs) {
+        docs.clear();
+
+        for (int i = 0; i < miniBatchWords.length; i++) {
+            final String[] words = miniBatchWords[i];
+            if (words == null || words.length == 0) {
+                continue;
+            }
+            final float[] counts = miniBatchCounts[i];
+
+            final Map<String, Float> doc = new HashMap<String, Float>(words.length * 2);
+            for (int j = 0; j < words.length; j++) {
+                doc.put(words[j], Float.valueOf(counts[j]));
+            }
+
+            docs.add(doc);
+        }
+    }
+
     private void initParams(final boolean gammaWithRandom) {
         final List<Map<String, float[]>> phi = new ArrayList<Map<String, float[]>>();
         final float[][] gamma = new float[_miniBatchSize][];
@@ -540,7 +580,8 @@ public final class OnlineLDAModel {
 
     @Nonnull
     public float[] getTopicDistribution(@Nonnull final String[] doc) {
-        preprocessMiniBatch(new String[][] {doc});
+        initMiniBatch(new String[][] {doc}, _miniBatchDocs);
+        preprocessMiniBatch();
 
         initParams(false);
 
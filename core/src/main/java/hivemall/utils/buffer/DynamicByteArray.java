@@ -343,6 +343,27 @@ public final class DynamicByteArray {
         }
     }
 
+    /**
+     * Copy a range of this dynamic array into a byte array.
+     * 
+     * @param offset the first offset to copy
+     * @param dst the array to copy to
+     * @param dstOffset the first location to copy to
+     * @param length the number of bytes to copy
+     */
+    public void get(final int offset, @Nonnull final byte[] dst, int dstOffset, int length) {
+        int currentChunk = offset / chunkSize;
+        int currentOffset = offset % chunkSize;
+        while (length > 0) {
+            int currentLength = Math.min(length, chunkSize - currentOffset);
+            System.arraycopy(data[currentChunk], currentOffset, dst, dstOffset, currentLength);
+            length -= currentLength;
+            dstOffset += currentLength;
+            currentChunk += 1;
+            currentOffset = 0;
+        }
+    }
+
     /**
      * Write out a range of this dynamic array to an output stream.
      * 
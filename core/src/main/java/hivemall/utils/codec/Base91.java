@@ -113,7 +113,7 @@ public final class Base91 {
             @Nonnull final OutputStream output) throws IOException {
         int ebq = 0;
         int en = 0;
-        for (int i = offset; i < len; ++i) {
+        for (int i = offset, end = offset + len; i < end; ++i) {
             ebq |= (input[i] & 255) << en;
             en += 8;
             if (en > 13) {
@@ -143,7 +143,7 @@ public final class Base91 {
         int ebq = buf.queue;
         int en = buf.bits;
         int n = 0;
-        for (int i = offset; i < len; ++i) {
+        for (int i = offset, end = offset + len; i < end; ++i) {
             ebq |= (input[i] & 255) << en;
             en += 8;
             if (en > 13) { /* enough bits in queue */
@@ -237,7 +237,7 @@ public final class Base91 {
         int dbq = 0;
         int dn = 0;
         int dv = -1;
-        for (int i = offset; i < len; ++i) {
+        for (int i = offset, end = offset + len; i < end; ++i) {
             if (DECODING_TABLE[input[i]] == -1) {
                 continue;
             }
@@ -266,7 +266,7 @@ public final class Base91 {
         int dn = buf.bits;
         int dv = buf.value;
         int n = 0;
-        for (int i = offset; i < len; ++i) {
+        for (int i = offset, end = offset + len; i < end; ++i) {
             if (DECODING_TABLE[input[i]] == -1) {
                 continue; /* ignore non-alphabet chars */
             }
@@ -67,13 +67,16 @@ public final class DeflateCodec extends CompressionCodec {
             throw new IOException(ex);
         }
         final int header;
+        int srcOff = 0;
         if (compressedSize == 0) {
             compressedData = in;
             compressedSize = len;
+            srcOff = off;
             header = 0;
         } else if (compressedSize >= (len - 4)) {
             compressedData = in;
             compressedSize = len;
+            srcOff = off;
             header = 0;
         } else {
             header = len;
@@ -83,7 +86,7 @@ public final class DeflateCodec extends CompressionCodec {
         output[1] = (byte) (header >> 16);
         output[2] = (byte) (header >> 8);
         output[3] = (byte) header;
-        System.arraycopy(compressedData, 0, output, 4, compressedSize);
+        System.arraycopy(compressedData, srcOff, output, 4, compressedSize);
         return output;
     }
 
@@ -94,7 +97,7 @@ public final class DeflateCodec extends CompressionCodec {
                 + ((in[off + 2] & 0xff) << 8) + (in[off + 3] & 0xff));
         if (originalSize == 0) {
             byte[] dest = new byte[len - 4];
-            System.arraycopy(in, 4, dest, 0, len - 4);
+            System.arraycopy(in, off + 4, dest, 0, len - 4);
             return dest;
         }
         // Create an expandable byte array to hold the decompressed data
@@ -102,7 +105,7 @@ public final class DeflateCodec extends CompressionCodec {
         try {
             // Decompress the data
             decompressor.reset();
-            decompressor.setInput(in, 4, len - 4);
+            decompressor.setInput(in, off + 4, len - 4);
             decompressor.inflate(result);
         } catch (DataFormatException dfe) {
             throw new IOException(dfe);
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A pure-Java implementation of the LZ4 block format, which trades compression ratio for speed.
+ *
+ * As {@link DeflateCodec}, the output is prefixed by a 4-byte big-endian original size where 0
+ * means that the input is stored without compression.
+ *
+ * @link https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md
+ */
+@NotThreadSafe
+public final class LZ4Codec extends CompressionCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int RUN_MASK = 15;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final int HASH_LOG = 16;
+
+    /** positions of 4-byte sequences lastly seen */
+    @Nonnull
+    private final int[] hashTable;
+
+    public LZ4Codec() {
+        super();
+        this.hashTable = new int[1 << HASH_LOG];
+    }
+
+    @Override
+    public byte[] compress(@Nonnull final byte[] in, final int off, final int len)
+            throws IOException {
+        final byte[] dst = new byte[4 + len + len / 255 + 16];
+        int dp = 4;
+        if (len > MF_LIMIT) {
+            dp = compressBlock(in, off, len, dst, dp);
+        } else {
+            dp = writeLastLiterals(in, off, len, dst, dp);
+        }
+
+        final int compressedSize = dp - 4;
+        if (compressedSize >= (len - 4)) {
+            final byte[] output = new byte[len + 4];
+            System.arraycopy(in, off, output, 4, len);
+            return output; // header = 0
+        }
+        dst[0] = (byte) (len >> 24);
+        dst[1] = (byte) (len >> 16);
+        dst[2] = (byte) (len >> 8);
+        dst[3] = (byte) len;
+        return Arrays.copyOf(dst, dp);
+    }
+
+    private int compressBlock(@Nonnull final byte[] src, final int off, final int len,
+            @Nonnull final byte[] dst, int dp) {
+        final int[] table = hashTable;
+        Arrays.fill(table, -1);
+
+        final int srcEnd = off + len;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+        final int mfLimit = srcEnd - MF_LIMIT;
+
+        int anchor = off;
+        int sp = off;
+        while (sp < mfLimit) {
+            final int seq = readInt(src, sp);
+            final int h = hash(seq);
+            int ref = table[h];
+            table[h] = sp;
+            if (ref < off || sp - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                // skip faster over incompressible data
+                sp += 1 + ((sp - anchor) >>> SKIP_TRIGGER);
+                continue;
+            }
+
+            // extend the match backward
+            while (sp > anchor && ref > off && src[sp - 1] == src[ref - 1]) {
+                sp--;
+                ref--;
+            }
+            // extend the match forward
+            int matchLen = MIN_MATCH;
+            while (sp + matchLen < matchLimit && src[sp + matchLen] == src[ref + matchLen]) {
+                matchLen++;
+            }
+
+            dp = writeSequence(src, anchor, sp - anchor, sp - ref, matchLen, dst, dp);
+            sp += matchLen;
+            anchor = sp;
+        }
+
+        return writeLastLiterals(src, anchor, srcEnd - anchor, dst, dp);
+    }
+
+    private static int writeSequence(@Nonnull final byte[] src, final int literalOffset,
+            final int literalLen, final int matchDistance, final int matchLen,
+            @Nonnull final byte[] dst, int dp) {
+        final int tokenPos = dp++;
+        final int matchCode = matchLen - MIN_MATCH;
+        int token = Math.min(literalLen, RUN_MASK) << 4;
+        token |= Math.min(matchCode, RUN_MASK);
+        dst[tokenPos] = (byte) token;
+
+        if (literalLen >= RUN_MASK) {
+            dp = writeLength(literalLen - RUN_MASK, dst, dp);
+        }
+        System.arraycopy(src, literalOffset, dst, dp, literalLen);
+        dp += literalLen;
+
+        dst[dp++] = (byte) matchDistance;
+        dst[dp++] = (byte) (matchDistance >>> 8);
+
+        if (matchCode >= RUN_MASK) {
+            dp = writeLength(matchCode - RUN_MASK, dst, dp);
+        }
+        return dp;
+    }
+
+    private static int writeLastLiterals(@Nonnull final byte[] src, final int literalOffset,
+            final int literalLen, @Nonnull final byte[] dst, int dp) {
+        dst[dp++] = (byte) (Math.min(literalLen, RUN_MASK) << 4);
+        if (literalLen >= RUN_MASK) {
+            dp = writeLength(literalLen - RUN_MASK, dst, dp);
+        }
+        System.arraycopy(src, literalOffset, dst, dp, literalLen);
+        return dp + literalLen;
+    }
+
+    private static int writeLength(int remaining, @Nonnull final byte[] dst, int dp) {
+        while (remaining >= 255) {
+            dst[dp++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[dp++] = (byte) remaining;
+        return dp;
+    }
+
+    @Override
+    public byte[] decompress(@Nonnull final byte[] in, final int off, final int len)
+            throws IOException {
+        final int originalSize = (((in[off] & 0xff) << 24) + ((in[off + 1] & 0xff) << 16)
+                + ((in[off + 2] & 0xff) << 8) + (in[off + 3] & 0xff));
+        if (originalSize == 0) {
+            byte[] dest = new byte[len - 4];
+            System.arraycopy(in, off + 4, dest, 0, len - 4);
+            return dest;
+        }
+
+        final byte[] result = new byte[originalSize];
+        try {
+            decompressBlock(in, off + 4, off + len, result);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed LZ4 block", e);
+        }
+        return result;
+    }
+
+    private static void decompressBlock(@Nonnull final byte[] src, int sp, final int srcEnd,
+            @Nonnull final byte[] dst) throws IOException {
+        int dp = 0;
+        while (true) {
+            final int token = src[sp++] & 0xff;
+
+            // copy literals
+            int literalLen = token >>> 4;
+            if (literalLen == RUN_MASK) {
+                int b;
+                do {
+                    b = src[sp++] & 0xff;
+                    literalLen += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, sp, dst, dp, literalLen);
+            sp += literalLen;
+            dp += literalLen;
+            if (sp >= srcEnd) {
+                break; // the last sequence has no match
+            }
+
+            // copy a match
+            final int distance = (src[sp] & 0xff) | ((src[sp + 1] & 0xff) << 8);
+            sp += 2;
+            int matchLen = token & RUN_MASK;
+            if (matchLen == RUN_MASK) {
+                int b;
+                do {
+                    b = src[sp++] & 0xff;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+
+            int ref = dp - distance;
+            if (distance == 0 || ref < 0) {
+                throw new IOException("Illegal match distance " + distance + " at " + dp);
+            }
+            if (distance >= matchLen) {
+                System.arraycopy(dst, ref, dst, dp, matchLen);
+                dp += matchLen;
+            } else {// overlapping copy
+                for (int end = dp + matchLen; dp < end;) {
+                    dst[dp++] = dst[ref++];
+                }
+            }
+        }
+        if (dp != dst.length) {
+            throw new IOException("Expected " + dst.length + " bytes but decoded " + dp
+                    + " bytes");
+        }
+    }
+
+    private static int readInt(@Nonnull final byte[] b, final int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16)
+                | ((b[i + 3] & 0xff) << 24);
+    }
+
+    private static int hash(final int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public void close() throws IOException {}
+
+}
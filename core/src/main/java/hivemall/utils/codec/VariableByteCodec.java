@@ -25,6 +25,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * First 1 bit of each byte is flag to judge whether more lookahead is required or not.
@@ -272,4 +273,31 @@ public final class VariableByteCodec {
         return x;
     }
 
+    public static void encodeUnsignedInt(int val, final ByteBuffer dst) {
+        if (val < 0) {
+            throw new IllegalArgumentException("Illegal value: " + val);
+        }
+        while (val > 0x7F) {
+            dst.put((byte) ((val & 0x7F) | 0x80));
+            val >>= 7;
+        }
+        dst.put((byte) val);
+    }
+
+    public static int decodeUnsignedInt(final ByteBuffer src) {
+        int x = 0;
+        int b = 0;
+        int shift = 0;
+
+        while (true) {
+            b = src.get();
+            x |= (b & 0x7F) << shift;
+            if ((b & 0x80) != 0x80) {
+                break;
+            }
+            shift += 7;
+        }
+        return x;
+    }
+
 }
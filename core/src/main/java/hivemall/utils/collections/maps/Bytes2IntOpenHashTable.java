@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections.maps;
+
+import hivemall.utils.buffer.DynamicByteArray;
+import hivemall.utils.hashing.MurmurHash3;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An insert-only open-addressing hash table from byte sequences to int values. Keys are copied
+ * into a {@link DynamicByteArray} arena and entries are kept in insertion order, so that the
+ * i-th entry can be accessed by {@link #getKey(int, byte[], int)} and {@link #getValue(int)}.
+ * Hash values of keys are kept to grow the table and can be passed to
+ * {@link #addTo(int, byte[], int, int, int)} to avoid re-hashing keys, e.g., when merging tables.
+ */
+public final class Bytes2IntOpenHashTable {
+
+    private static final int DEFAULT_SIZE = 1024;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    @Nonnull
+    private final DynamicByteArray _arena;
+
+    /** entry index + 1 or 0 for a free slot; the length is a power of two */
+    @Nonnull
+    private int[] _slots;
+    private int _threshold;
+
+    // entries
+    private int _size;
+    @Nonnull
+    private int[] _hashes;
+    @Nonnull
+    private int[] _offsets;
+    @Nonnull
+    private int[] _lengths;
+    @Nonnull
+    private int[] _values;
+
+    public Bytes2IntOpenHashTable() {
+        this(DEFAULT_SIZE);
+    }
+
+    public Bytes2IntOpenHashTable(final int expectedSize) {
+        if (expectedSize < 1) {
+            throw new IllegalArgumentException("Invalid expected size: " + expectedSize);
+        }
+        this._arena = new DynamicByteArray();
+        int capacity = 2;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        this._slots = new int[capacity];
+        this._threshold = (int) (capacity * LOAD_FACTOR);
+        this._size = 0;
+        this._hashes = new int[expectedSize];
+        this._offsets = new int[expectedSize];
+        this._lengths = new int[expectedSize];
+        this._values = new int[expectedSize];
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return the number of bytes of keys
+     */
+    public int keyBytes() {
+        return _arena.size();
+    }
+
+    public static int hash(@Nonnull final byte[] key, final int offset, final int length) {
+        return MurmurHash3.murmurhash3_x86_32(key, offset, length, 0x9747b28c);
+    }
+
+    /**
+     * @return the entry index of the key or -1 if not found
+     */
+    public int find(@Nonnull final byte[] key, final int offset, final int length) {
+        final int hash = hash(key, offset, length);
+        final int[] slots = _slots;
+        final int mask = slots.length - 1;
+        for (int i = mix(hash) & mask;; i = (i + 1) & mask) {
+            final int e = slots[i] - 1;
+            if (e == -1) {
+                return -1;
+            }
+            if (matches(e, hash, key, offset, length)) {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * @return the value of the key or 0 if not found
+     */
+    public int get(@Nonnull final byte[] key, final int offset, final int length) {
+        final int e = find(key, offset, length);
+        return (e == -1) ? 0 : _values[e];
+    }
+
+    /**
+     * Adds a delta to the value of a key, which is 0 for a new key.
+     *
+     * @return the updated value
+     */
+    public int addTo(@Nonnull final byte[] key, final int offset, final int length,
+            final int delta) {
+        return addTo(hash(key, offset, length), key, offset, length, delta);
+    }
+
+    /**
+     * Same as {@link #addTo(byte[], int, int, int)} for a hash value given by
+     * {@link #hash(byte[], int, int)}.
+     */
+    public int addTo(final int hash, @Nonnull final byte[] key, final int offset,
+            final int length, final int delta) {
+        final int[] slots = _slots;
+        final int mask = slots.length - 1;
+        int i = mix(hash) & mask;
+        for (;; i = (i + 1) & mask) {
+            final int e = slots[i] - 1;
+            if (e == -1) {
+                break;
+            }
+            if (matches(e, hash, key, offset, length)) {
+                return _values[e] += delta;
+            }
+        }
+
+        final int e = _size;
+        if (e == _hashes.length) {
+            int newLength = Math.max(16, e + (e >> 1));
+            this._hashes = Arrays.copyOf(_hashes, newLength);
+            this._offsets = Arrays.copyOf(_offsets, newLength);
+            this._lengths = Arrays.copyOf(_lengths, newLength);
+            this._values = Arrays.copyOf(_values, newLength);
+        }
+        _hashes[e] = hash;
+        _offsets[e] = _arena.add(key, offset, length);
+        _lengths[e] = length;
+        _values[e] = delta;
+        slots[i] = e + 1;
+        this._size = e + 1;
+        if (_size > _threshold) {
+            rehash(slots.length << 1);
+        }
+        return delta;
+    }
+
+    public int getHash(final int entry) {
+        return _hashes[entry];
+    }
+
+    public int getKeyLength(final int entry) {
+        return _lengths[entry];
+    }
+
+    /**
+     * Copies the key of an entry to <code>dst</code>.
+     */
+    public void getKey(final int entry, @Nonnull final byte[] dst, final int dstOffset) {
+        _arena.get(_offsets[entry], dst, dstOffset, _lengths[entry]);
+    }
+
+    public int getValue(final int entry) {
+        return _values[entry];
+    }
+
+    public void clear() {
+        _arena.clear();
+        Arrays.fill(_slots, 0);
+        this._size = 0;
+    }
+
+    private boolean matches(final int e, final int hash, @Nonnull final byte[] key,
+            final int offset, final int length) {
+        return _hashes[e] == hash && _lengths[e] == length
+                && _arena.compare(key, offset, length, _offsets[e], length) == 0;
+    }
+
+    private void rehash(final int capacity) {
+        final int[] slots = new int[capacity];
+        final int mask = capacity - 1;
+        final int[] hashes = _hashes;
+        for (int e = 0, size = _size; e < size; e++) {
+            int i = mix(hashes[e]) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = e + 1;
+        }
+        this._slots = slots;
+        this._threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /** spreads the higher bits to the lower bits that are used as a slot index */
+    private static int mix(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -469,6 +469,37 @@ public final class HiveUtils {
         return ary;
     }
 
+    @Nullable
+    public static int[] getConstIntArray(@Nonnull final ObjectInspector oi)
+            throws UDFArgumentException {
+        if (!ObjectInspectorUtils.isConstantObjectInspector(oi)) {
+            throw new UDFArgumentException("argument must be a constant value: "
+                    + TypeInfoUtils.getTypeInfoFromObjectInspector(oi));
+        }
+        ConstantObjectInspector constOI = (ConstantObjectInspector) oi;
+        if (constOI.getCategory() != Category.LIST) {
+            throw new UDFArgumentException("argument must be an array: "
+                    + TypeInfoUtils.getTypeInfoFromObjectInspector(oi));
+        }
+        StandardConstantListObjectInspector listOI = (StandardConstantListObjectInspector) constOI;
+        PrimitiveObjectInspector elemOI = HiveUtils.asIntegerOI(listOI.getListElementObjectInspector());
+
+        final List<?> lst = listOI.getWritableConstantValue();
+        if (lst == null) {
+            return null;
+        }
+        final int size = lst.size();
+        final int[] ary = new int[size];
+        for (int i = 0; i < size; i++) {
+            Object o = lst.get(i);
+            if (o == null) {
+                throw new UDFArgumentException("array must not contain null: " + lst);
+            }
+            ary[i] = PrimitiveObjectInspectorUtils.getInt(o, elemOI);
+        }
+        return ary;
+    }
+
     public static String getConstString(@Nonnull final ObjectInspector oi)
             throws UDFArgumentException {
         if (!isStringOI(oi)) {
@@ -19,9 +19,13 @@
 package hivemall.utils.io;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -114,4 +118,23 @@ public final class NIOUtils {
         return count;
     }
 
+    /**
+     * Maps a whole file read-only. The mapping stays valid after the channel is closed, and the
+     * pages are shared with the other processes mapping the same file.
+     */
+    @Nonnull
+    public static MappedByteBuffer mapReadOnly(@Nonnull final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Cannot map a file larger than 2GB: " + file);
+            }
+            return channel.map(MapMode.READ_ONLY, 0L, size);
+        } finally {
+            raf.close();
+        }
+    }
+
 }
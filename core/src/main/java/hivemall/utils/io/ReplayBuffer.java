@@ -0,0 +1,848 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.io;
+
+import hivemall.utils.codec.CompressionCodec;
+import hivemall.utils.codec.DeflateCodec;
+import hivemall.utils.codec.LZ4Codec;
+import hivemall.utils.collections.lists.LongArrayList;
+import hivemall.utils.concurrent.NamedThreadFactory;
+import hivemall.utils.lang.ArrayUtils;
+import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.lang.SizeOf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * A buffer of variable-length records that are written once and replayed many times, e.g., for
+ * iterative training.
+ *
+ * Records are packed into blocks. Blocks are kept on the heap while their total size is within the
+ * memory limit. Otherwise, blocks are spilled to a temporary file by a background thread
+ * (write-behind) and read back ahead of consumption (read-ahead) using two or more direct buffers,
+ * so that the caller does not wait for each disk I/O. A spilled file can optionally be replayed
+ * through a memory-mapped buffer.
+ *
+ * <pre>
+ * block  := int blockBytes (including this header), record*
+ * record := int recordBytes (excluding this header), byte[recordBytes]
+ * </pre>
+ *
+ * When a {@link CompressionCodec} is given, each spilled block is compressed on the background
+ * thread and stored as {@code int storedBytes (including this header), compressed block}. mmap is
+ * not used for compressed files.
+ *
+ * The encoding of each record is left to the caller: {@link #reserve(int)} returns a buffer to put
+ * a record into, and {@link #next()} returns a buffer positioned at the head of a record.
+ *
+ * When shuffling is enabled by {@link #setShuffle(long)}, records on memory are replayed in a
+ * random order drawn for each pass using an offset index. For spilled records, the order of blocks
+ * and the order of records in each block are shuffled for each pass.
+ */
+@NotThreadSafe
+public final class ReplayBuffer implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024; // 1 MiB
+    public static final int DEFAULT_NUM_BUFFERS = 2;
+    public static final long DEFAULT_MEMORY_LIMIT = 32L * 1024L * 1024L; // 32 MiB
+
+    private static final int BLOCK_HEADER_BYTES = SizeOf.INT;
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    public enum SpillCodec {
+        none, deflate, lz4;
+
+        @Nullable
+        public CompressionCodec newCodec() {
+            switch (this) {
+                case deflate:
+                    return new DeflateCodec();
+                case lz4:
+                    return new LZ4Codec();
+                default:
+                    return null;
+            }
+        }
+
+        @Nonnull
+        public static SpillCodec resolve(@Nullable final String name) {
+            if (name == null) {
+                return none;
+            }
+            try {
+                return valueOf(name.toLowerCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported spill codec: " + name);
+            }
+        }
+    }
+
+    @Nonnull
+    private final String filePrefix;
+    private final int blockSize;
+    private final int numBuffers;
+    private final long memoryLimit;
+    private final long mmapLimit;
+    @Nullable
+    private final CompressionCodec codec;
+
+    /** direct buffers for write-behind and read-ahead */
+    @Nonnull
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private int numAllocated;
+
+    // write state
+    @Nullable
+    private ByteBuffer writeBuf;
+    private int writeRecordEnd;
+    private long numRecords;
+    private long numBlocks;
+    /** blocks kept on memory (not spilled) */
+    @Nonnull
+    private final List<ByteBuffer> memBlocks;
+
+    // spill state
+    @Nullable
+    private NioSegment segment;
+    private long rawSpilledBytes;
+    /** updated by the I/O thread */
+    private volatile long fileSize;
+    @Nullable
+    private ExecutorService ioExecutor;
+    @Nullable
+    private volatile Throwable ioError;
+    // used only by the I/O thread
+    @Nonnull
+    private final ByteBuffer ioHeader;
+    @Nullable
+    private byte[] ioBytes;
+    @Nonnull
+    private final LongArrayList ioBlockPositions;
+
+    // replay state
+    private boolean replaying;
+    @Nullable
+    private ByteBuffer readBuf;
+    private int nextRecordPos;
+    private boolean eof;
+    @Nullable
+    private ByteBuffer[] memBlockArray;
+    private int memCursor;
+    @Nullable
+    private long[] blockPositions;
+    @Nullable
+    private int[] blockOrder;
+    @Nullable
+    private BlockingQueue<ByteBuffer> filledBuffers;
+    @Nullable
+    private MappedByteBuffer mapped;
+    private int mappedCursor;
+    @Nullable
+    private Progressable progress;
+    /** decoding statistics of the current pass updated by the I/O thread */
+    private volatile long decodedBytes, decodeNanos;
+
+    // shuffle state
+    @Nullable
+    private Random shuffleRnd;
+    /** (block index << 32 | record position) of every record on memory */
+    @Nullable
+    private long[] recordIndex;
+    /** record positions in the current block */
+    @Nullable
+    private int[] recordPositions;
+    private int numBlockRecords;
+    private int recordCursor;
+
+    public ReplayBuffer(@Nonnull String filePrefix) {
+        this(filePrefix, null);
+    }
+
+    public ReplayBuffer(@Nonnull String filePrefix, @Nullable CompressionCodec codec) {
+        this(filePrefix, DEFAULT_BLOCK_SIZE, DEFAULT_NUM_BUFFERS, DEFAULT_MEMORY_LIMIT, 0L, codec);
+    }
+
+    public ReplayBuffer(@Nonnull String filePrefix, @Nonnegative int blockSize,
+            @Nonnegative int numBuffers, @Nonnegative long mmapLimit) {
+        this(filePrefix, blockSize, numBuffers, mmapLimit, null);
+    }
+
+    public ReplayBuffer(@Nonnull String filePrefix, @Nonnegative int blockSize,
+            @Nonnegative int numBuffers, @Nonnegative long mmapLimit,
+            @Nullable CompressionCodec codec) {
+        this(filePrefix, blockSize, numBuffers, blockSize, mmapLimit, codec);
+    }
+
+    /**
+     * @param filePrefix prefix of the temporary file name
+     * @param blockSize bytes of a block, which also limits the size of a record
+     * @param numBuffers the number of direct buffers used for write-behind and read-ahead
+     * @param memoryLimit records are kept on memory while their blocks fit in this bytes
+     * @param mmapLimit a spilled file is replayed through mmap when its size is less than or equal
+     *        to this value. 0 to disable mmap.
+     * @param codec codec to compress spilled blocks, or null to spill blocks as they are
+     */
+    public ReplayBuffer(@Nonnull String filePrefix, @Nonnegative int blockSize,
+            @Nonnegative int numBuffers, @Nonnegative long memoryLimit,
+            @Nonnegative long mmapLimit, @Nullable CompressionCodec codec) {
+        if (blockSize <= BLOCK_HEADER_BYTES + SizeOf.INT) {
+            throw new IllegalArgumentException("Illegal block size: " + blockSize);
+        }
+        if (numBuffers < 2) {
+            throw new IllegalArgumentException("numBuffers must be greater than 1: "
+                    + numBuffers);
+        }
+        this.filePrefix = filePrefix;
+        this.blockSize = blockSize;
+        this.numBuffers = numBuffers;
+        this.memoryLimit = Math.max(memoryLimit, blockSize);
+        this.mmapLimit = (codec == null) ? Math.min(mmapLimit, Integer.MAX_VALUE) : 0L;
+        this.codec = codec;
+        this.freeBuffers = new ArrayBlockingQueue<ByteBuffer>(numBuffers);
+        this.numAllocated = 0;
+        this.memBlocks = new ArrayList<ByteBuffer>();
+        this.ioHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        this.ioBlockPositions = new LongArrayList();
+    }
+
+    /**
+     * Replays records in a random order drawn for each pass.
+     */
+    public void setShuffle(final long seed) {
+        this.shuffleRnd = new Random(seed);
+    }
+
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    public long getNumBlocks() {
+        return numBlocks;
+    }
+
+    /**
+     * @return true if records are written to a temporary file
+     */
+    public boolean isSpilled() {
+        return segment != null;
+    }
+
+    /**
+     * @return the temporary file if records are spilled. Otherwise null.
+     */
+    @Nullable
+    public File getFile() {
+        return (segment == null) ? null : segment.getFile();
+    }
+
+    /**
+     * @return bytes written to the temporary file
+     */
+    public long getSpilledBytes() {
+        return fileSize;
+    }
+
+    /**
+     * @return bytes of the spilled blocks before compression
+     */
+    public long getRawSpilledBytes() {
+        return rawSpilledBytes;
+    }
+
+    /**
+     * @return bytes decompressed in the current pass
+     */
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /**
+     * @return nanoseconds spent for decompression in the current pass
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * @return a summary of the temporary file for logging
+     */
+    @Nonnull
+    public String getSpillStatistics() {
+        final long raw = rawSpilledBytes;
+        final long stored = fileSize;
+        if (codec == null) {
+            return NumberUtils.prettySize(stored);
+        }
+        double ratio = (raw == 0L) ? 1.d : (double) stored / raw;
+        return String.format("%s compressed from %s, ratio %.3f", NumberUtils.prettySize(stored),
+            NumberUtils.prettySize(raw), ratio);
+    }
+
+    /**
+     * @return a summary of decompression in the current pass for logging
+     */
+    @Nonnull
+    public String getDecodeStatistics() {
+        final long bytes = decodedBytes;
+        final long nanos = decodeNanos;
+        double mibPerSec = (nanos == 0L) ? 0.d : (bytes / (1024.d * 1024.d))
+                / (nanos / 1000000000.d);
+        return String.format("decoded %s in %.1f ms (%.1f MiB/s)", NumberUtils.prettySize(bytes),
+            nanos / 1000000.d, mibPerSec);
+    }
+
+    /**
+     * @return true if spilled blocks are compressed
+     */
+    public boolean isCompressed() {
+        return codec != null && segment != null;
+    }
+
+    /**
+     * Reserves a space for a record of the given bytes. The caller MUST put exactly
+     * {@code recordBytes} bytes to the returned buffer before the next call.
+     */
+    @Nonnull
+    public ByteBuffer reserve(@Nonnegative final int recordBytes) throws IOException {
+        if (replaying) {
+            throw new IllegalStateException("Cannot write records after replay started");
+        }
+        final int requiredBytes = SizeOf.INT + recordBytes;
+        if (requiredBytes > blockSize - BLOCK_HEADER_BYTES) {
+            throw new IOException("Record of " + recordBytes
+                    + " bytes does not fit in a block of " + blockSize + " bytes");
+        }
+
+        ByteBuffer buf = writeBuf;
+        if (buf == null) {
+            buf = newBlock();
+        } else {
+            if (buf.position() != writeRecordEnd) {
+                throw new IllegalStateException("Expected to write " + writeRecordEnd
+                        + " bytes in a block but was " + buf.position());
+            }
+            if (buf.remaining() < requiredBytes) {
+                sealBlock(buf);
+                if (segment == null && (memBlocks.size() + 2L) * blockSize <= memoryLimit) {
+                    memBlocks.add(buf);
+                } else {
+                    if (segment == null) {
+                        startSpill();
+                    }
+                    spill(buf);
+                }
+                buf = newBlock();
+            }
+        }
+        this.writeBuf = buf;
+
+        buf.putInt(recordBytes);
+        this.writeRecordEnd = buf.position() + recordBytes;
+        numRecords++;
+        return buf;
+    }
+
+    @Nonnull
+    private ByteBuffer newBlock() throws IOException {
+        if (segment == null) {
+            ByteBuffer buf = ByteBuffer.allocate(blockSize);
+            buf.position(BLOCK_HEADER_BYTES);
+            return buf;
+        }
+        return takeFreeBuffer();
+    }
+
+    @Nonnull
+    private ByteBuffer takeFreeBuffer() throws IOException {
+        ByteBuffer buf = freeBuffers.poll();
+        if (buf == null) {
+            if (numAllocated < numBuffers) {
+                buf = ByteBuffer.allocateDirect(blockSize);
+                numAllocated++;
+            } else {
+                try {
+                    buf = freeBuffers.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            }
+        }
+        checkIOError();
+        buf.clear();
+        buf.position(BLOCK_HEADER_BYTES);
+        return buf;
+    }
+
+    private void sealBlock(@Nonnull final ByteBuffer buf) {
+        final int blockBytes = buf.position();
+        buf.putInt(0, blockBytes);
+        buf.flip();
+        numBlocks++;
+    }
+
+    /**
+     * Creates a temporary file and spills the blocks on memory.
+     */
+    private void startSpill() throws IOException {
+        File file = File.createTempFile(filePrefix, ".sgmt");
+        file.deleteOnExit();
+        if (!file.canWrite()) {
+            throw new IOException("Cannot write a temporary file: " + file.getAbsolutePath());
+        }
+        this.segment = new NioSegment(file, false);
+        this.ioExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+            "ReplayBuffer", true));
+
+        for (ByteBuffer buf : memBlocks) {
+            spill(buf);
+        }
+        memBlocks.clear();
+    }
+
+    private void spill(@Nonnull final ByteBuffer buf) throws IOException {
+        final NioSegment dst = segment;
+        this.rawSpilledBytes += buf.remaining();
+
+        ioExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (ioError == null) {
+                        writeBlock(dst, buf);
+                    }
+                } catch (Throwable e) {
+                    ioError = e;
+                } finally {
+                    if (buf.isDirect()) {// heap blocks on memory are not recycled
+                        freeBuffers.offer(buf);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends a block to the file. Invoked only by the I/O thread.
+     */
+    private void writeBlock(@Nonnull final NioSegment dst, @Nonnull final ByteBuffer buf)
+            throws IOException {
+        final long filePos = fileSize;
+        ioBlockPositions.add(filePos);
+        final CompressionCodec codec = this.codec;
+        if (codec == null) {
+            this.fileSize = filePos + dst.write(filePos, buf);
+            return;
+        }
+
+        final int blockBytes = buf.remaining();
+        final byte[] raw = ioBytes(blockBytes);
+        buf.get(raw, 0, blockBytes);
+        final byte[] compressed = codec.compress(raw, 0, blockBytes);
+        final int storedBytes = BLOCK_HEADER_BYTES + compressed.length;
+
+        final ByteBuffer header = ioHeader;
+        header.clear();
+        header.putInt(storedBytes);
+        header.flip();
+        dst.write(filePos, header);
+        dst.write(filePos + BLOCK_HEADER_BYTES, ByteBuffer.wrap(compressed));
+        this.fileSize = filePos + storedBytes;
+    }
+
+    /**
+     * Reads a block at the given file position into the buffer. Invoked only by the I/O thread.
+     */
+    private void readBlockAt(@Nonnull final NioSegment src, final long filePos,
+            @Nonnull final ByteBuffer buf) throws IOException {
+        buf.clear();
+        buf.limit(BLOCK_HEADER_BYTES);
+        NIOUtils.readFully(src.channel, buf, filePos);
+        final int storedBytes = buf.getInt(0);
+
+        final CompressionCodec codec = this.codec;
+        if (codec == null) {
+            buf.limit(storedBytes);
+            NIOUtils.readFully(src.channel, buf, filePos);
+            buf.position(BLOCK_HEADER_BYTES);
+            return;
+        }
+
+        final int compressedBytes = storedBytes - BLOCK_HEADER_BYTES;
+        final byte[] compressed = ioBytes(compressedBytes);
+        NIOUtils.readFully(src.channel, ByteBuffer.wrap(compressed, 0, compressedBytes), filePos
+                + BLOCK_HEADER_BYTES);
+        final long startTime = System.nanoTime();
+        final byte[] raw = codec.decompress(compressed, 0, compressedBytes);
+        this.decodeNanos += System.nanoTime() - startTime;
+        this.decodedBytes += raw.length;
+        if (raw.length > buf.capacity()) {
+            throw new IOException("Decompressed block of " + raw.length
+                    + " bytes exceeds the block size: " + buf.capacity());
+        }
+        buf.clear();
+        buf.put(raw);
+        buf.flip();
+        buf.position(BLOCK_HEADER_BYTES);
+    }
+
+    @Nonnull
+    private byte[] ioBytes(final int size) {
+        byte[] b = ioBytes;
+        if (b == null || b.length < size) {
+            b = new byte[Math.max(size, blockSize)];
+            this.ioBytes = b;
+        }
+        return b;
+    }
+
+    private void checkIOError() throws IOException {
+        final Throwable e = ioError;
+        if (e != null) {
+            final File file = getFile();
+            throw new IOException("I/O failed on a temporary file: "
+                    + (file == null ? "" : file.getAbsolutePath()), e);
+        }
+    }
+
+    /**
+     * Finishes writing if not yet and moves to the first record.
+     */
+    public void rewind() throws IOException {
+        rewind(null);
+    }
+
+    /**
+     * Finishes writing if not yet and moves to the first record.
+     *
+     * @param progress notified for each block read
+     */
+    public void rewind(@Nullable final Progressable progress) throws IOException {
+        if (!replaying) {
+            finishWrite();
+            this.replaying = true;
+        } else if (filledBuffers != null) {
+            // drain the rest of the current pass
+            while (readBlock() != null) {
+                continue;
+            }
+        }
+        this.progress = progress;
+        this.readBuf = null;
+        this.eof = false;
+        this.numBlockRecords = 0;
+        this.recordCursor = 0;
+        this.decodedBytes = 0L;
+        this.decodeNanos = 0L;
+
+        final Random rnd = shuffleRnd;
+        if (segment == null) {// on memory
+            this.memCursor = 0;
+            if (rnd != null) {
+                if (recordIndex == null) {
+                    this.recordIndex = buildRecordIndex(memBlockArray, numRecords);
+                }
+                ArrayUtils.shuffle(recordIndex, recordIndex.length, rnd);
+            }
+            return;
+        }
+
+        final int[] order = blockOrder;
+        if (rnd != null) {
+            ArrayUtils.shuffle(order, rnd);
+        }
+        if (mapped != null) {
+            this.mappedCursor = 0;
+        } else {
+            final NioSegment src = segment;
+            final long[] positions = blockPositions;
+            final BlockingQueue<ByteBuffer> filled = filledBuffers;
+            ioExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < order.length && ioError == null; i++) {
+                            ByteBuffer buf = freeBuffers.take();
+                            readBlockAt(src, positions[order[i]], buf);
+                            filled.put(buf);
+                        }
+                    } catch (Throwable e) {
+                        ioError = e;
+                    } finally {
+                        filled.offer(EOF);
+                    }
+                }
+            });
+        }
+    }
+
+    private void finishWrite() throws IOException {
+        final ByteBuffer buf = writeBuf;
+        if (buf != null) {
+            if (buf.position() != writeRecordEnd) {
+                throw new IllegalStateException("Expected to write " + writeRecordEnd
+                        + " bytes in a block but was " + buf.position());
+            }
+            sealBlock(buf);
+            if (segment == null) {
+                memBlocks.add(buf);
+            } else {
+                spill(buf);
+            }
+            this.writeBuf = null;
+        }
+
+        if (segment == null) {
+            this.memBlockArray = memBlocks.toArray(new ByteBuffer[memBlocks.size()]);
+            memBlocks.clear();
+            return;
+        }
+
+        // wait for the completion of write-behind
+        Future<?> f = ioExecutor.submit(new Runnable() {
+            public void run() {}
+        });
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw new IOException(e);
+        }
+        checkIOError();
+
+        this.blockPositions = ioBlockPositions.toArray(true);
+        final int[] order = new int[blockPositions.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        this.blockOrder = order;
+
+        if (fileSize <= mmapLimit) {
+            this.mapped = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0L, fileSize);
+        } else {
+            while (numAllocated < numBuffers) {
+                freeBuffers.offer(ByteBuffer.allocateDirect(blockSize));
+                numAllocated++;
+            }
+            this.filledBuffers = new ArrayBlockingQueue<ByteBuffer>(numBuffers + 1);
+        }
+    }
+
+    @Nonnull
+    private static long[] buildRecordIndex(@Nonnull final ByteBuffer[] blocks,
+            final long numRecords) {
+        if (numRecords > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many records to index: " + numRecords);
+        }
+        final long[] index = new long[(int) numRecords];
+        int i = 0;
+        for (int b = 0; b < blocks.length; b++) {
+            final ByteBuffer buf = blocks[b];
+            for (int pos = BLOCK_HEADER_BYTES, limit = buf.limit(); pos < limit;) {
+                index[i++] = ((long) b << 32) | pos;
+                pos += SizeOf.INT + buf.getInt(pos);
+            }
+        }
+        assert (i == index.length) : i;
+        return index;
+    }
+
+    /**
+     * Returns a buffer positioned at the head of the next record, of which the limit is NOT the
+     * end of the record. The caller can read the record until the next call.
+     *
+     * @return null if all the records are replayed
+     */
+    @Nullable
+    public ByteBuffer next() throws IOException {
+        if (!replaying) {
+            throw new IllegalStateException("rewind() is not called");
+        }
+        if (shuffleRnd != null) {
+            return (segment == null) ? nextIndexedRecord() : nextShuffledRecord();
+        }
+
+        ByteBuffer buf = readBuf;
+        if (buf != null) {
+            buf.position(nextRecordPos);
+        }
+        while (buf == null || !buf.hasRemaining()) {
+            buf = readBlock();
+            if (buf == null) {
+                return null;
+            }
+        }
+        int recordBytes = buf.getInt();
+        this.nextRecordPos = buf.position() + recordBytes;
+        return buf;
+    }
+
+    @Nullable
+    private ByteBuffer nextIndexedRecord() {
+        final long[] index = recordIndex;
+        if (recordCursor >= index.length) {
+            return null;
+        }
+        if ((recordCursor & 0xffff) == 0 && progress != null) {
+            progress.progress();
+        }
+        final long e = index[recordCursor++];
+        final ByteBuffer buf = memBlockArray[(int) (e >>> 32)];
+        buf.position((int) e + SizeOf.INT);
+        return buf;
+    }
+
+    @Nullable
+    private ByteBuffer nextShuffledRecord() throws IOException {
+        while (recordCursor >= numBlockRecords) {
+            final ByteBuffer buf = readBlock();
+            if (buf == null) {
+                return null;
+            }
+            indexBlockRecords(buf);
+            ArrayUtils.shuffle(recordPositions, numBlockRecords, shuffleRnd);
+            this.recordCursor = 0;
+        }
+        final ByteBuffer buf = readBuf;
+        buf.position(recordPositions[recordCursor++] + SizeOf.INT);
+        return buf;
+    }
+
+    private void indexBlockRecords(@Nonnull final ByteBuffer buf) {
+        int[] positions = recordPositions;
+        if (positions == null) {
+            positions = new int[1024];
+        }
+        int n = 0;
+        for (int pos = buf.position(), limit = buf.limit(); pos < limit; n++) {
+            if (n == positions.length) {
+                positions = Arrays.copyOf(positions, n * 2);
+            }
+            positions[n] = pos;
+            pos += SizeOf.INT + buf.getInt(pos);
+        }
+        this.recordPositions = positions;
+        this.numBlockRecords = n;
+    }
+
+    @Nullable
+    private ByteBuffer readBlock() throws IOException {
+        if (eof) {
+            return null;
+        }
+        if (progress != null) {
+            progress.progress();
+        }
+
+        final ByteBuffer buf;
+        if (segment == null) {
+            final ByteBuffer[] blocks = memBlockArray;
+            if (memCursor < blocks.length) {
+                buf = blocks[memCursor++];
+                buf.position(BLOCK_HEADER_BYTES);
+            } else {
+                buf = null;
+            }
+        } else if (mapped != null) {
+            if (mappedCursor < blockOrder.length) {
+                int pos = (int) blockPositions[blockOrder[mappedCursor++]];
+                int blockBytes = mapped.getInt(pos);
+                buf = mapped.duplicate();
+                buf.limit(pos + blockBytes);
+                buf.position(pos + BLOCK_HEADER_BYTES);
+            } else {
+                buf = null;
+            }
+        } else {
+            if (readBuf != null) {
+                freeBuffers.offer(readBuf);
+            }
+            try {
+                ByteBuffer b = filledBuffers.take();
+                buf = (b == EOF) ? null : b;
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            }
+            checkIOError();
+        }
+
+        this.readBuf = buf;
+        if (buf == null) {
+            this.eof = true;
+        }
+        return buf;
+    }
+
+    /**
+     * Releases buffers and deletes the temporary file if exists.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ioExecutor != null) {
+            ioExecutor.shutdownNow();
+            try {
+                ioExecutor.awaitTermination(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.ioExecutor = null;
+        }
+        this.writeBuf = null;
+        this.readBuf = null;
+        memBlocks.clear();
+        this.memBlockArray = null;
+        this.recordIndex = null;
+        this.recordPositions = null;
+        this.mapped = null;
+        this.filledBuffers = null;
+        this.ioBytes = null;
+        freeBuffers.clear();
+        if (codec != null) {
+            codec.close();
+        }
+        if (segment != null) {
+            segment.close(true);
+            this.segment = null;
+        }
+    }
+
+}
@@ -157,7 +157,20 @@ public final class ArrayUtils {
     }
 
     public static void shuffle(@Nonnull final int[] array, @Nonnull final Random rnd) {
-        for (int i = array.length; i > 1; i--) {
+        shuffle(array, array.length, rnd);
+    }
+
+    public static void shuffle(@Nonnull final int[] array, final int size,
+            @Nonnull final Random rnd) {
+        for (int i = size; i > 1; i--) {
+            int randomPosition = rnd.nextInt(i);
+            swap(array, i - 1, randomPosition);
+        }
+    }
+
+    public static void shuffle(@Nonnull final long[] array, final int size,
+            @Nonnull final Random rnd) {
+        for (int i = size; i > 1; i--) {
             int randomPosition = rnd.nextInt(i);
             swap(array, i - 1, randomPosition);
         }
@@ -492,6 +505,97 @@ public final class ArrayUtils {
         }
     }
 
+    public static void sort(@Nonnull final long[] arr, @Nonnull final float[] brr, final int n) {
+        Preconditions.checkArgument(arr.length >= n);
+        Preconditions.checkArgument(brr.length >= n);
+
+        final int NSTACK = 64;
+        final int M = 7;
+        final int[] istack = new int[NSTACK];
+
+        int jstack = -1;
+        int l = 0;
+        int ir = n - 1;
+
+        int i, j, k;
+        long a;
+        float b;
+        for (;;) {
+            if (ir - l < M) {
+                for (j = l + 1; j <= ir; j++) {
+                    a = arr[j];
+                    b = brr[j];
+                    for (i = j - 1; i >= l; i--) {
+                        if (arr[i] <= a) {
+                            break;
+                        }
+                        arr[i + 1] = arr[i];
+                        brr[i + 1] = brr[i];
+                    }
+                    arr[i + 1] = a;
+                    brr[i + 1] = b;
+                }
+                if (jstack < 0) {
+                    break;
+                }
+                ir = istack[jstack--];
+                l = istack[jstack--];
+            } else {
+                k = (l + ir) >> 1;
+                swap(arr, k, l + 1);
+                swap(brr, k, l + 1);
+                if (arr[l] > arr[ir]) {
+                    swap(arr, l, ir);
+                    swap(brr, l, ir);
+                }
+                if (arr[l + 1] > arr[ir]) {
+                    swap(arr, l + 1, ir);
+                    swap(brr, l + 1, ir);
+                }
+                if (arr[l] > arr[l + 1]) {
+                    swap(arr, l, l + 1);
+                    swap(brr, l, l + 1);
+                }
+                i = l + 1;
+                j = ir;
+                a = arr[l + 1];
+                b = brr[l + 1];
+                for (;;) {
+                    do {
+                        i++;
+                    } while (arr[i] < a);
+                    do {
+                        j--;
+                    } while (arr[j] > a);
+                    if (j < i) {
+                        break;
+                    }
+                    swap(arr, i, j);
+                    swap(brr, i, j);
+                }
+                arr[l + 1] = arr[j];
+                arr[j] = a;
+                brr[l + 1] = brr[j];
+                brr[j] = b;
+                jstack += 2;
+
+                if (jstack >= NSTACK) {
+                    throw new IllegalStateException("NSTACK too small in sort.");
+                }
+
+                if (ir - i + 1 >= j - l) {
+                    istack[jstack] = ir;
+                    istack[jstack - 1] = i;
+                    ir = j - 1;
+                } else {
+                    istack[jstack] = j - 1;
+                    istack[jstack - 1] = l;
+                    l = i;
+                }
+            }
+        }
+    }
+
     public static void sort(@Nonnull final int[] arr, @Nonnull final int[] brr,
             @Nonnull final double[] crr) {
         sort(arr, brr, crr, arr.length);
@@ -0,0 +1,512 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.math;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A mergeable quantile sketch of Karnin, Lang, and Liberty (KLL) on primitive arrays.
+ *
+ * Items are kept in levels of compactors where an item at level h has a weight of 2^h. A full
+ * level is sorted and every other item is promoted to the next level. Level capacities decrease
+ * geometrically by 2/3 from the top level, so the sketch keeps about 3k items regardless of the
+ * number of inputs. With k = 200, the rank error of a quantile is below about 1.33% with 99%
+ * confidence; the error scales as about 2.3 / k^0.97.
+ *
+ * Each sketch, including a deserialized one, chooses items to promote by its own random seed, so
+ * that errors of merged sketches are independent and cancel out. Unless a seed is given, the n-th
+ * sketch in a JVM is seeded by {@link #DEFAULT_SEED} and n, which is reproducible for the same
+ * sequence of sketches.
+ *
+ * @link https://arxiv.org/abs/1603.05346
+ */
+public final class KLLSketch {
+
+    public static final int DEFAULT_K = 200;
+    public static final long DEFAULT_SEED = 0x2545F4914F6CDD1DL;
+    private static final int MIN_K = 8;
+    /** minimum capacity of a level */
+    private static final int MIN_CAPACITY = 8;
+    private static final double CAPACITY_DECAY = 2.d / 3.d;
+
+    private static final AtomicLong sketchCounter = new AtomicLong(0L);
+
+    private final int k;
+
+    private int numLevels;
+    /** items of each level, which are sorted except for the level 0 */
+    @Nonnull
+    private double[][] levels;
+    @Nonnull
+    private int[] sizes;
+    /** the sum of level capacities */
+    private int capacity;
+    private int totalSize;
+
+    private long n;
+    private double min, max;
+
+    /** state of a xorshift generator to choose items to promote */
+    private long random;
+
+    public KLLSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KLLSketch(final int k) {
+        this(k, DEFAULT_SEED + sketchCounter.getAndIncrement());
+    }
+
+    /**
+     * @param seed the random seed to choose items to promote, which is given for reproducibility
+     */
+    public KLLSketch(final int k, final long seed) {
+        if (k < MIN_K) {
+            throw new IllegalArgumentException("k must be greater than or equal to " + MIN_K
+                    + ": " + k);
+        }
+        this.k = k;
+        this.numLevels = 1;
+        this.levels = new double[][] {new double[k]};
+        this.sizes = new int[1];
+        this.capacity = capacity(0, 1);
+        this.totalSize = 0;
+        this.n = 0L;
+        this.min = Double.NaN;
+        this.max = Double.NaN;
+        this.random = mix(seed);
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the number of items given to the sketch
+     */
+    public long getN() {
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return n == 0L;
+    }
+
+    /**
+     * @return the number of items retained in the sketch
+     */
+    public int getNumRetained() {
+        return totalSize;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public void reset() {
+        this.numLevels = 1;
+        this.levels = new double[][] {new double[k]};
+        this.sizes = new int[1];
+        this.capacity = capacity(0, 1);
+        this.totalSize = 0;
+        this.n = 0L;
+        this.min = Double.NaN;
+        this.max = Double.NaN;
+    }
+
+    /**
+     * Adds an item. NaN is ignored.
+     */
+    public void update(final double x) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        if (n == 0L) {
+            this.min = x;
+            this.max = x;
+        } else {
+            if (x < min) {
+                this.min = x;
+            }
+            if (x > max) {
+                this.max = x;
+            }
+        }
+        n++;
+        append(0, x);
+        if (totalSize > capacity) {
+            compress();
+        }
+    }
+
+    public void merge(@Nonnull final KLLSketch other) {
+        if (other.n == 0L) {
+            return;
+        }
+        if (n == 0L) {
+            this.min = other.min;
+            this.max = other.max;
+        } else {
+            this.min = Math.min(min, other.min);
+            this.max = Math.max(max, other.max);
+        }
+        this.n += other.n;
+
+        while (numLevels < other.numLevels) {
+            addLevel();
+        }
+        for (int h = 0; h < other.numLevels; h++) {
+            final int size = other.sizes[h];
+            if (size == 0) {
+                continue;
+            }
+            if (h == 0) {
+                ensureLevelCapacity(0, sizes[0] + size);
+                System.arraycopy(other.levels[0], 0, levels[0], sizes[0], size);
+                sizes[0] += size;
+                this.totalSize += size;
+            } else {
+                mergeSorted(h, other.levels[h], 0, size);
+            }
+        }
+        compress();
+    }
+
+    /**
+     * Returns the approximate phi-quantile where phi is in [0, 1]. The minimum and the maximum are
+     * returned for 0 and 1.
+     *
+     * @return NaN if the sketch is empty
+     */
+    public double quantile(final double phi) {
+        return quantiles(new double[] {phi})[0];
+    }
+
+    /**
+     * Returns the approximate quantiles of the given fractions.
+     *
+     * @return NaN for each fraction if the sketch is empty
+     */
+    @Nonnull
+    public double[] quantiles(@Nonnull final double[] phis) {
+        final double[] result = new double[phis.length];
+        for (double phi : phis) {
+            if (phi < 0.d || phi > 1.d) {
+                throw new IllegalArgumentException("Fraction must be in [0, 1]: " + phi);
+            }
+        }
+        if (n == 0L) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+
+        // sorted view of retained items and their cumulative weights
+        final int size = totalSize;
+        final double[] items = new double[size];
+        final long[] weights = new long[size];
+        int pos = 0;
+        for (int h = 0; h < numLevels; h++) {
+            final int levelSize = sizes[h];
+            System.arraycopy(levels[h], 0, items, pos, levelSize);
+            Arrays.fill(weights, pos, pos + levelSize, 1L << h);
+            pos += levelSize;
+        }
+        sortByItems(items, weights, 0, size);
+        for (int i = 1; i < size; i++) {
+            weights[i] += weights[i - 1];
+        }
+
+        for (int i = 0; i < phis.length; i++) {
+            final double phi = phis[i];
+            if (phi == 0.d) {
+                result[i] = min;
+            } else if (phi == 1.d) {
+                result[i] = max;
+            } else {
+                long rank = (long) Math.ceil(phi * n);
+                int j = Arrays.binarySearch(weights, rank);
+                if (j < 0) {
+                    j = Math.min(-j - 1, size - 1);
+                }
+                result[i] = items[j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the approximate fraction of items less than or equal to x.
+     */
+    public double rank(final double x) {
+        if (n == 0L) {
+            return Double.NaN;
+        }
+        long weight = 0L;
+        for (int h = 0; h < numLevels; h++) {
+            final double[] items = levels[h];
+            for (int i = 0, size = sizes[h]; i < size; i++) {
+                if (items[i] <= x) {
+                    weight += 1L << h;
+                }
+            }
+        }
+        return (double) weight / n;
+    }
+
+    /**
+     * Serializes the sketch into
+     * <code>int k, long n, double min, double max, int numLevels, (int size, double[] items)*</code>
+     * .
+     */
+    @Nonnull
+    public byte[] serialize() {
+        final ByteBuffer buf = ByteBuffer.allocate(32 + 4 * numLevels + 8 * totalSize);
+        buf.putInt(k);
+        buf.putLong(n);
+        buf.putDouble(min);
+        buf.putDouble(max);
+        buf.putInt(numLevels);
+        for (int h = 0; h < numLevels; h++) {
+            final int size = sizes[h];
+            buf.putInt(size);
+            final double[] items = levels[h];
+            for (int i = 0; i < size; i++) {
+                buf.putDouble(items[i]);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Deserializes a sketch given by {@link #serialize()}. The state of the random generator is not
+     * serialized, and the deserialized sketch is seeded independently.
+     */
+    @Nonnull
+    public static KLLSketch deserialize(@Nonnull final byte[] b, final int offset,
+            final int length) {
+        final ByteBuffer buf = ByteBuffer.wrap(b, offset, length);
+        return deserialize(buf, new KLLSketch(buf.getInt()));
+    }
+
+    /**
+     * Same as {@link #deserialize(byte[], int, int)} but seeds the deserialized sketch by the given
+     * seed.
+     */
+    @Nonnull
+    public static KLLSketch deserialize(@Nonnull final byte[] b, final int offset,
+            final int length, final long seed) {
+        final ByteBuffer buf = ByteBuffer.wrap(b, offset, length);
+        return deserialize(buf, new KLLSketch(buf.getInt(), seed));
+    }
+
+    @Nonnull
+    private static KLLSketch deserialize(@Nonnull final ByteBuffer buf,
+            @Nonnull final KLLSketch sketch) {
+        sketch.n = buf.getLong();
+        sketch.min = buf.getDouble();
+        sketch.max = buf.getDouble();
+        final int numLevels = buf.getInt();
+        while (sketch.numLevels < numLevels) {
+            sketch.addLevel();
+        }
+        for (int h = 0; h < numLevels; h++) {
+            final int size = buf.getInt();
+            sketch.ensureLevelCapacity(h, size);
+            final double[] items = sketch.levels[h];
+            for (int i = 0; i < size; i++) {
+                items[i] = buf.getDouble();
+            }
+            sketch.sizes[h] = size;
+            sketch.totalSize += size;
+        }
+        return sketch;
+    }
+
+    private void append(final int h, final double x) {
+        final int size = sizes[h];
+        ensureLevelCapacity(h, size + 1);
+        levels[h][size] = x;
+        sizes[h] = size + 1;
+        this.totalSize++;
+    }
+
+    private void ensureLevelCapacity(final int h, final int required) {
+        final double[] items = levels[h];
+        if (items.length < required) {
+            levels[h] = Arrays.copyOf(items, Math.max(required, items.length * 2));
+        }
+    }
+
+    private void addLevel() {
+        final int h = numLevels;
+        if (h == levels.length) {
+            this.levels = Arrays.copyOf(levels, h * 2);
+            this.sizes = Arrays.copyOf(sizes, h * 2);
+        }
+        levels[h] = new double[MIN_CAPACITY];
+        sizes[h] = 0;
+        this.numLevels = h + 1;
+        int total = 0;
+        for (int i = 0; i < numLevels; i++) {
+            total += capacity(i, numLevels);
+        }
+        this.capacity = total;
+    }
+
+    /**
+     * Compacts the lowest full level until the retained items fit in the capacity.
+     */
+    private void compress() {
+        while (totalSize > capacity) {
+            int h = 0;
+            while (sizes[h] < capacity(h, numLevels)) {
+                h++;
+            }
+            if (h + 1 == numLevels) {
+                addLevel();
+            }
+            compact(h);
+        }
+    }
+
+    /**
+     * Promotes every other item of a level to the next level. An odd item is kept in the level.
+     */
+    private void compact(final int h) {
+        final double[] items = levels[h];
+        int size = sizes[h];
+        if (h == 0) {
+            Arrays.sort(items, 0, size);
+        }
+        int start = 0;
+        if ((size & 1) == 1) {
+            start = 1; // keep the smallest item
+        }
+        final int numPairs = (size - start) >> 1;
+        final int offset = nextBit();
+        final double[] promoted = new double[numPairs];
+        for (int i = 0; i < numPairs; i++) {
+            promoted[i] = items[start + 2 * i + offset];
+        }
+        sizes[h] = start;
+        this.totalSize -= size - start;
+        mergeSorted(h + 1, promoted, 0, numPairs);
+    }
+
+    /**
+     * Merges sorted items into a sorted level.
+     */
+    private void mergeSorted(final int h, @Nonnull final double[] src, final int from,
+            final int length) {
+        final double[] items = levels[h];
+        final int size = sizes[h];
+        final double[] merged = new double[Math.max(items.length, size + length)];
+        int i = 0, j = from, p = 0;
+        final int end = from + length;
+        while (i < size && j < end) {
+            merged[p++] = (items[i] <= src[j]) ? items[i++] : src[j++];
+        }
+        while (i < size) {
+            merged[p++] = items[i++];
+        }
+        while (j < end) {
+            merged[p++] = src[j++];
+        }
+        levels[h] = merged;
+        sizes[h] = p;
+        this.totalSize += length;
+    }
+
+    private int capacity(final int h, final int numLevels) {
+        final int depth = numLevels - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    /**
+     * Spreads the bits of a seed by the finalizer of SplitMix64 since a xorshift generator needs a
+     * non-zero state.
+     */
+    private static long mix(final long seed) {
+        long z = seed;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z == 0L) ? 0x2545F4914F6CDD1DL : z;
+    }
+
+    private int nextBit() {
+        long x = random;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        this.random = x;
+        return (int) (x >>> 63);
+    }
+
+    private static void sortByItems(@Nonnull final double[] items, @Nonnull final long[] weights,
+            final int from, final int to) {
+        // insertion sort for small ranges and quick sort otherwise
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                double x = items[i];
+                long w = weights[i];
+                int j = i - 1;
+                while (j >= from && items[j] > x) {
+                    items[j + 1] = items[j];
+                    weights[j + 1] = weights[j];
+                    j--;
+                }
+                items[j + 1] = x;
+                weights[j + 1] = w;
+            }
+            return;
+        }
+        final double pivot = items[(from + to) >>> 1];
+        int i = from, j = to - 1;
+        while (i <= j) {
+            while (items[i] < pivot) {
+                i++;
+            }
+            while (items[j] > pivot) {
+                j--;
+            }
+            if (i <= j) {
+                double t = items[i];
+                items[i] = items[j];
+                items[j] = t;
+                long w = weights[i];
+                weights[i] = weights[j];
+                weights[j] = w;
+                i++;
+                j--;
+            }
+        }
+        sortByItems(items, weights, from, j + 1);
+        sortByItems(items, weights, i, to);
+    }
+
+}
@@ -599,6 +599,72 @@ public final class MatrixUtils {
         }
     }
 
+    /**
+     * Lanczos tridiagonalization for a symmetric matrix C given as a 2D array, which is the same
+     * as {@link #lanczosTridiagonalization(RealMatrix, double[], RealMatrix)} without allocating
+     * vectors for each iteration. C is assumed to be symmetric.
+     *
+     * @param C target symmetric matrix
+     * @param a initial vector
+     * @param T result is stored here
+     */
+    public static void lanczosTridiagonalization(@Nonnull final double[][] C,
+            @Nonnull final double[] a, @Nonnull final RealMatrix T) {
+        final int n = a.length;
+        Preconditions.checkArgument(C.length == n,
+            "Column size of A and length of a should be same");
+        Preconditions.checkArgument(T.getRowDimension() == T.getColumnDimension(),
+            "T must be a square matrix");
+
+        final int s = T.getRowDimension();
+
+        // initialize T with zeros
+        T.setSubMatrix(new double[s][s], 0, 0);
+
+        double[] a0 = new double[n];
+        double[] a1 = new double[n];
+        final double[] r = Arrays.copyOf(a, n);
+
+        double beta0 = 1.d;
+
+        for (int i = 0; i < s; i++) {
+            for (int j = 0; j < n; j++) {
+                a1[j] = r[j] / beta0;
+            }
+
+            // r = C a1 - alpha1 a1 - beta0 a0
+            double alpha1 = 0.d;
+            for (int j = 0; j < n; j++) {
+                final double[] Cj = C[j];
+                double Ca1j = 0.d;
+                for (int l = 0; l < n; l++) {
+                    Ca1j += Cj[l] * a1[l];
+                }
+                r[j] = Ca1j;
+                alpha1 += a1[j] * Ca1j;
+            }
+            double norm = 0.d;
+            for (int j = 0; j < n; j++) {
+                r[j] -= alpha1 * a1[j] + beta0 * a0[j];
+                norm += r[j] * r[j];
+            }
+            final double beta1 = Math.sqrt(norm);
+
+            T.setEntry(i, i, alpha1);
+            if (i - 1 >= 0) {
+                T.setEntry(i, i - 1, beta0);
+            }
+            if (i + 1 < s) {
+                T.setEntry(i, i + 1, beta1);
+            }
+
+            final double[] tmp = a0;
+            a0 = a1;
+            a1 = tmp;
+            beta0 = beta1;
+        }
+    }
+
     /**
      * QR decomposition for a tridiagonal matrix T.
      *
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.sampling;
+
+import hivemall.math.random.PRNG;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Walker's alias method that draws a sample from a discrete distribution in O(1) after O(n)
+ * construction. The table is built by Vose's algorithm and can be rebuilt in-place.
+ * 
+ * @link https://en.wikipedia.org/wiki/Alias_method
+ * @link http://www.keithschwarz.com/darts-dice-coins/
+ */
+@NotThreadSafe
+public final class AliasTable {
+
+    private int _size;
+    private double _sum;
+
+    @Nonnull
+    private double[] _weights;
+    @Nonnull
+    private double[] _prob;
+    @Nonnull
+    private int[] _alias;
+
+    // work arrays used for construction
+    @Nonnull
+    private int[] _small;
+    @Nonnull
+    private int[] _large;
+
+    public AliasTable() {
+        this(0);
+    }
+
+    public AliasTable(@Nonnegative int capacity) {
+        this._size = 0;
+        this._sum = 0.d;
+        this._weights = new double[capacity];
+        this._prob = new double[capacity];
+        this._alias = new int[capacity];
+        this._small = new int[capacity];
+        this._large = new int[capacity];
+    }
+
+    /**
+     * Rebuild the table so that i is drawn with probability `weights[i] / sum(weights[0:size])`.
+     * 
+     * @param weights non-negative weights. The array is copied.
+     */
+    public void build(@Nonnull final double[] weights, @Nonnegative final int size) {
+        ensureCapacity(size);
+
+        double sum = 0.d;
+        for (int i = 0; i < size; i++) {
+            sum += weights[i];
+        }
+        System.arraycopy(weights, 0, _weights, 0, size);
+        this._size = size;
+        this._sum = sum;
+        if (size == 0 || sum <= 0.d) {
+            return;
+        }
+
+        final double[] prob = _prob;
+        final int[] alias = _alias;
+        final int[] small = _small;
+        final int[] large = _large;
+
+        int numSmall = 0, numLarge = 0;
+        for (int i = 0; i < size; i++) {
+            final double p = weights[i] * size / sum;
+            prob[i] = p;
+            if (p < 1.d) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            final int l = small[--numSmall];
+            final int g = large[--numLarge];
+            alias[l] = g;
+            prob[g] = (prob[g] + prob[l]) - 1.d;
+            if (prob[g] < 1.d) {
+                small[numSmall++] = g;
+            } else {
+                large[numLarge++] = g;
+            }
+        }
+        // remaining ones are 1 except for numerical instability
+        while (numLarge > 0) {
+            prob[large[--numLarge]] = 1.d;
+        }
+        while (numSmall > 0) {
+            prob[small[--numSmall]] = 1.d;
+        }
+    }
+
+    private void ensureCapacity(@Nonnegative final int size) {
+        if (size <= _weights.length) {
+            return;
+        }
+        this._weights = new double[size];
+        this._prob = new double[size];
+        this._alias = new int[size];
+        this._small = new int[size];
+        this._large = new int[size];
+    }
+
+    /**
+     * @return an index in [0, size)
+     */
+    public int sample(@Nonnull final PRNG rnd) {
+        if (_size == 0) {
+            throw new IllegalStateException("Alias table is empty");
+        }
+        final int i = rnd.nextInt(_size);
+        return (rnd.nextDouble() < _prob[i]) ? i : _alias[i];
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return sum of the weights used for the last {@link #build(double[], int)}
+     */
+    public double sum() {
+        return _sum;
+    }
+
+    /**
+     * @return the weight of i used for the last {@link #build(double[], int)}
+     */
+    public double weight(@Nonnegative final int i) {
+        return _weights[i];
+    }
+
+}
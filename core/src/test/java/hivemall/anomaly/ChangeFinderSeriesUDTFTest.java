@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.anomaly;
+
+import hivemall.anomaly.ChangeFinderUDF.Parameters;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChangeFinderSeriesUDTFTest {
+
+    @Test
+    public void testSeries() throws IOException, HiveException {
+        final List<Double> series = readSeries("cf1d.csv.gz");
+
+        ChangeFinderSeriesUDTF udtf = new ChangeFinderSeriesUDTF();
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                rows.add(new Object[] {((IntWritable) row[0]).get(),
+                        ((DoubleWritable) row[1]).get(), ((DoubleWritable) row[2]).get(),
+                        ((BooleanWritable) row[3]).get(), ((BooleanWritable) row[4]).get()});
+            }
+        });
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-outlier_threshold 10 -changepoint_threshold 10")});
+
+        // the same as the row-at-a-time ChangeFinder
+        Parameters params = new Parameters();
+        ChangeFinder1D cf = new ChangeFinder1D(params,
+            PrimitiveObjectInspectorFactory.javaDoubleObjectInspector);
+        double[] scores = new double[2];
+
+        udtf.process(new Object[] {series});
+        Assert.assertEquals(series.size(), rows.size());
+        int numOutliers = 0;
+        for (int i = 0; i < series.size(); i++) {
+            cf.update(series.get(i), scores);
+            Object[] row = rows.get(i);
+            Assert.assertEquals(i, row[0]);
+            Assert.assertEquals(scores[0], ((Double) row[1]).doubleValue(), 0.d);
+            Assert.assertEquals(scores[1], ((Double) row[2]).doubleValue(), 0.d);
+            Assert.assertEquals(scores[0] >= 10.d, row[3]);
+            Assert.assertEquals(scores[1] >= 10.d, row[4]);
+            if (scores[0] >= 10.d) {
+                numOutliers++;
+            }
+        }
+        Assert.assertTrue("#outliers SHOULD be greater than 0: " + numOutliers, numOutliers > 0);
+
+        // each series is scored from scratch
+        final List<Object[]> first = new ArrayList<Object[]>(rows);
+        rows.clear();
+        udtf.process(new Object[] {series});
+        Assert.assertEquals(first.size(), rows.size());
+        for (int i = 0; i < first.size(); i++) {
+            Assert.assertArrayEquals(first.get(i), rows.get(i));
+        }
+        udtf.close();
+    }
+
+    @Test
+    public void testMultiDimensionalSeries() throws HiveException {
+        ChangeFinderSeriesUDTF udtf = new ChangeFinderSeriesUDTF();
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                rows.add(new Object[] {((IntWritable) row[0]).get(), row.length});
+            }
+        });
+        udtf.initialize(new ObjectInspector[] {ObjectInspectorFactory.getStandardListObjectInspector(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector))});
+
+        final List<List<Double>> series = new ArrayList<List<Double>>();
+        for (int i = 0; i < 50; i++) {
+            List<Double> x = new ArrayList<Double>();
+            x.add(Math.sin(i * 0.1d));
+            x.add((i < 25) ? 0.d : 10.d);
+            series.add(x);
+        }
+        series.set(10, null);
+        udtf.process(new Object[] {series});
+
+        // null points are skipped
+        Assert.assertEquals(49, rows.size());
+        Assert.assertEquals(3, rows.get(0)[1]);
+        Assert.assertEquals(11, rows.get(10)[0]);
+        udtf.close();
+    }
+
+    @Nonnull
+    private static List<Double> readSeries(@Nonnull String fileName) throws IOException {
+        InputStream is = new GZIPInputStream(
+            ChangeFinderSeriesUDTFTest.class.getResourceAsStream(fileName));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        final List<Double> series = new ArrayList<Double>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            series.add(Double.parseDouble(line));
+        }
+        reader.close();
+        return series;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.anomaly;
+
+import hivemall.anomaly.SingularSpectrumTransformUDF.Parameters;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingularSpectrumTransformSeriesUDTFTest {
+
+    @Test
+    public void testSVD() throws IOException, HiveException {
+        final List<Double> series = readSeries("cf1d.csv.gz");
+        final List<Object[]> rows = process(series, "-scorefunc svd -threshold 0.95");
+        Assert.assertEquals(series.size(), rows.size());
+
+        // the same as the row-at-a-time SST
+        Parameters params = new Parameters();
+        SingularSpectrumTransform sst = new SingularSpectrumTransform(params,
+            PrimitiveObjectInspectorFactory.javaDoubleObjectInspector);
+        double[] scores = new double[1];
+        int numChangepoints = 0;
+        for (int i = 0; i < series.size(); i++) {
+            sst.update(series.get(i), scores);
+            Object[] row = rows.get(i);
+            Assert.assertEquals(i, row[0]);
+            Assert.assertEquals(scores[0], ((Double) row[1]).doubleValue(), 1E-10d);
+            Assert.assertEquals(scores[0] >= 0.95d, row[2]);
+            if (scores[0] >= 0.95d) {
+                numChangepoints++;
+            }
+        }
+        Assert.assertTrue("#changepoints SHOULD be greater than 0: " + numChangepoints,
+            numChangepoints > 0);
+        Assert.assertTrue("#changepoints SHOULD be less than 5: " + numChangepoints,
+            numChangepoints < 5);
+    }
+
+    @Test
+    public void testIKA() throws IOException, HiveException {
+        final List<Double> series = readSeries("cf1d.csv.gz");
+        final List<Object[]> rows = process(series, "-scorefunc ika -threshold 0.65");
+        Assert.assertEquals(series.size(), rows.size());
+
+        int numChangepoints = 0;
+        for (Object[] row : rows) {
+            if (((Boolean) row[2]).booleanValue()) {
+                numChangepoints++;
+            }
+        }
+        Assert.assertTrue("#changepoints SHOULD be greater than 0: " + numChangepoints,
+            numChangepoints > 0);
+        Assert.assertTrue("#changepoints SHOULD be less than 5: " + numChangepoints,
+            numChangepoints < 5);
+    }
+
+    @Nonnull
+    private static List<Object[]> process(@Nonnull List<Double> series, @Nonnull String options)
+            throws HiveException {
+        SingularSpectrumTransformSeriesUDTF udtf = new SingularSpectrumTransformSeriesUDTF();
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                rows.add(new Object[] {((IntWritable) row[0]).get(),
+                        ((DoubleWritable) row[1]).get(), ((BooleanWritable) row[2]).get()});
+            }
+        });
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, options)});
+        udtf.process(new Object[] {series});
+        udtf.close();
+        return rows;
+    }
+
+    @Nonnull
+    private static List<Double> readSeries(@Nonnull String fileName) throws IOException {
+        InputStream is = new GZIPInputStream(
+            SingularSpectrumTransformSeriesUDTFTest.class.getResourceAsStream(fileName));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        final List<Double> series = new ArrayList<Double>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            series.add(Double.parseDouble(line));
+        }
+        reader.close();
+        return series;
+    }
+
+}
@@ -25,6 +25,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Random;
 import java.util.zip.GZIPInputStream;
 
 import javax.annotation.Nonnull;
@@ -74,6 +75,71 @@ public class SingularSpectrumTransformTest {
             numChangepoints < 5);
     }
 
+    @Test
+    public void testRankOneUpdate() {
+        final int w = 5, n = 5;
+        final Random rand = new Random(43L);
+        final double[] xs = new double[100];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = rand.nextGaussian();
+        }
+
+        double[][] C = SingularSpectrumTransform.computeHHt(xs, w, n, null);
+        final double[] window = new double[w + n - 1];
+        for (int t = 1; t + w + n - 1 <= xs.length; t++) {
+            System.arraycopy(xs, t - 1, window, 0, window.length);
+            SingularSpectrumTransform.rankOneUpdate(C, window, 0, w, -1.d);
+            System.arraycopy(xs, t, window, 0, window.length);
+            SingularSpectrumTransform.rankOneUpdate(C, window, n - 1, w, 1.d);
+
+            double[][] expected = SingularSpectrumTransform.computeHHt(window, w, n, null);
+            for (int i = 0; i < w; i++) {
+                Assert.assertArrayEquals(expected[i], C[i], 1E-10d);
+            }
+        }
+    }
+
+    @Test
+    public void testIKARefreshDrift() throws HiveException {
+        Parameters params = new Parameters();
+        params.set(ScoreFunction.ika);
+        params.w = params.n = params.m = 10;
+        params.g = -10;
+        final int refreshInterval = params.w * params.n;
+        PrimitiveObjectInspector oi = PrimitiveObjectInspectorFactory.javaDoubleObjectInspector;
+        // C is updated by rank-one updates, and recomputed every `refreshInterval` points
+        SingularSpectrumTransform sst = new SingularSpectrumTransform(params, oi,
+            refreshInterval, new Random(43L));
+        // C is recomputed for every point
+        SingularSpectrumTransform exact = new SingularSpectrumTransform(params, oi, 1,
+            new Random(43L));
+
+        final Random rand = new Random(31L);
+        final int firstScored = 2 * params.w + params.n + params.g + params.m - 1;
+        final double[] actual = new double[1];
+        final double[] expected = new double[1];
+        double maxDrift = 0.d;
+        for (int t = 0; t < firstScored + 5 * refreshInterval; t++) {
+            // the frequency changes every 150 points
+            double x = Math.sin(t / (t / 150 % 2 == 0 ? 5.d : 2.d)) + 0.1d * rand.nextGaussian();
+            sst.update(x, actual);
+            exact.update(x, expected);
+            if (t < firstScored) {
+                continue;
+            }
+            double drift = Math.abs(actual[0] - expected[0]);
+            maxDrift = Math.max(maxDrift, drift);
+            if ((t - firstScored) % refreshInterval == 0) {
+                // just after the refresh, the scores are the same
+                Assert.assertEquals("t=" + t, expected[0], actual[0], 0.d);
+            } else if ((t - firstScored) % refreshInterval == refreshInterval - 1) {
+                // just before the refresh, the rounding errors are at most accumulated
+                Assert.assertEquals("t=" + t, expected[0], actual[0], 1E-10d);
+            }
+        }
+        Assert.assertTrue("maxDrift: " + maxDrift, maxDrift < 1E-10d);
+    }
+
     private static int detectSST(@Nonnull final ScoreFunction scoreFunc,
             @Nonnull final double threshold) throws IOException, HiveException {
         Parameters params = new Parameters();
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import hivemall.common.RandomizedBinaryAmplifier.DropoutListener;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RandomizedBinaryAmplifierTest {
+
+    @Test
+    public void test() throws HiveException {
+        final int size = 10000, xtimes = 3;
+        RandomizedBinaryAmplifier amplifier = new RandomizedBinaryAmplifier(1000, xtimes, 43L);
+        DropoutCollector collector = new DropoutCollector(size);
+        amplifier.setDropoutListener(collector);
+        for (int i = 0; i < size; i++) {
+            amplifier.add(row(i), 0, rowLength(i));
+        }
+        amplifier.sweepAll();
+
+        Assert.assertEquals(size * xtimes, collector.count);
+        int[] expected = new int[size];
+        Arrays.fill(expected, xtimes);
+        Assert.assertArrayEquals(expected, collector.counts);
+        // dropped rows are compacted out of the arena
+        Assert.assertTrue("Unexpected arena size: " + amplifier.arenaSize(),
+            amplifier.arenaSize() <= 256 * 1024);
+    }
+
+    @Test
+    public void testCompactInPlace() throws HiveException {
+        // live rows never exceed half of the initial arena, which is thus reused
+        final int size = 100000, xtimes = 2;
+        RandomizedBinaryAmplifier amplifier = new RandomizedBinaryAmplifier(100, xtimes, 43L);
+        final int initialSize = amplifier.arenaSize();
+        DropoutCollector collector = new DropoutCollector(size);
+        amplifier.setDropoutListener(collector);
+        for (int i = 0; i < size; i++) {
+            amplifier.add(row(i), 0, rowLength(i));
+        }
+        amplifier.sweepAll();
+
+        Assert.assertEquals(initialSize, amplifier.arenaSize());
+        int[] expected = new int[size];
+        Arrays.fill(expected, xtimes);
+        Assert.assertArrayEquals(expected, collector.counts);
+    }
+
+    @Test
+    public void testUnfilledBuffer() throws HiveException {
+        final int size = 10, xtimes = 2;
+        RandomizedBinaryAmplifier amplifier = new RandomizedBinaryAmplifier(1000, xtimes);
+        DropoutCollector collector = new DropoutCollector(size);
+        amplifier.setDropoutListener(collector);
+        for (int i = 0; i < size; i++) {
+            amplifier.add(row(i), 0, rowLength(i));
+        }
+        Assert.assertEquals(0, collector.count);
+        amplifier.sweepAll();
+
+        Assert.assertEquals(size * xtimes, collector.count);
+        int[] expected = new int[size];
+        Arrays.fill(expected, xtimes);
+        Assert.assertArrayEquals(expected, collector.counts);
+    }
+
+    private static byte[] row(int i) {
+        // variable-length rows of an int id followed by padding
+        return ByteBuffer.allocate(rowLength(i)).putInt(i).array();
+    }
+
+    private static int rowLength(int i) {
+        return 4 + (i % 50);
+    }
+
+    private static final class DropoutCollector implements DropoutListener {
+
+        private int count = 0;
+        private final int[] counts;
+
+        DropoutCollector(int size) {
+            this.counts = new int[size];
+        }
+
+        @Override
+        public void onDrop(byte[] b, int off, int len) {
+            int i = ByteBuffer.wrap(b, off, len).getInt();
+            Assert.assertEquals(rowLength(i), len);
+            counts[i]++;
+            count++;
+        }
+
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistogramAUCUDAFTest {
+
+    ObjectInspector[] inputOIs;
+    GenericUDAFEvaluator evaluator;
+    HistogramAUCUDAF.HistogramAUCAggregationBuffer agg;
+
+    @Before
+    public void setUp() throws Exception {
+        inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector};
+        evaluator = new HistogramAUCUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        agg = (HistogramAUCUDAF.HistogramAUCAggregationBuffer) evaluator.getNewAggregationBuffer();
+    }
+
+    @Test
+    public void test() throws Exception {
+        // same as AUCUDAFTest#test but in an arbitrary order
+        final double[] scores = new double[] {0.5, 0.2, 0.8, 0.3, 0.5, 0.7};
+        final int[] labels = new int[] {0, 0, 1, 1, 1, 1};
+
+        for (int i = 0; i < scores.length; i++) {
+            evaluator.iterate(agg, new Object[] {scores[i], labels[i]});
+        }
+
+        Assert.assertEquals(0.8125, agg.get(), 1e-5);
+    }
+
+    @Test(expected = HiveException.class)
+    public void testAllTruePositive() throws Exception {
+        final double[] scores = new double[] {0.8, 0.7, 0.5, 0.3, 0.2};
+        for (int i = 0; i < scores.length; i++) {
+            evaluator.iterate(agg, new Object[] {scores[i], 1});
+        }
+        agg.get();
+    }
+
+    @Test
+    public void testMaxMinAUC() throws Exception {
+        final double[] scores = new double[] {0.8, 0.7, 0.5, 0.3, 0.2};
+
+        final int[] labels1 = new int[] {1, 1, 1, 1, 0};
+        for (int i = 0; i < scores.length; i++) {
+            evaluator.iterate(agg, new Object[] {scores[i], labels1[i]});
+        }
+        Assert.assertEquals(1.d, agg.get(), 1e-5);
+
+        evaluator.reset(agg);
+        final int[] labels2 = new int[] {0, 0, 0, 1, 1};
+        for (int i = 0; i < scores.length; i++) {
+            evaluator.iterate(agg, new Object[] {scores[i], labels2[i]});
+        }
+        Assert.assertEquals(0.d, agg.get(), 1e-5);
+    }
+
+    @Test
+    public void testMergeWithinErrorBound() throws Exception {
+        final int numBins = 100;
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector, numBins)};
+
+        GenericUDAFEvaluator partial = new HistogramAUCUDAF().getEvaluator(
+            new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator merger = new HistogramAUCUDAF().getEvaluator(
+            new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        merger.init(GenericUDAFEvaluator.Mode.FINAL,
+            new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+
+        final Random rnd = new Random(43L);
+        final int n = 20000;
+        final double[] scores = new double[n];
+        final int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = rnd.nextInt(2);
+            double s = (labels[i] == 1 ? 0.6 : 0.4) + 0.2 * rnd.nextGaussian();
+            scores[i] = Math.max(0.d, Math.min(1.d, s));
+        }
+
+        HistogramAUCUDAF.HistogramAUCAggregationBuffer merged =
+                (HistogramAUCUDAF.HistogramAUCAggregationBuffer) merger.getNewAggregationBuffer();
+        final int numSplits = 4;
+        for (int split = 0; split < numSplits; split++) {
+            GenericUDAFEvaluator.AggregationBuffer buf = partial.getNewAggregationBuffer();
+            for (int i = split; i < n; i += numSplits) {
+                partial.iterate(buf, new Object[] {scores[i], labels[i]});
+            }
+            BytesWritable b = (BytesWritable) partial.terminatePartial(buf);
+            merger.merge(merged, b);
+        }
+
+        double expected = exactAUC(scores, labels);
+        double actual = merged.get();
+        double bound = merged.errorBound();
+        Assert.assertTrue(bound > 0.d && bound < 0.01d);
+        Assert.assertEquals(expected, actual, bound);
+        Assert.assertEquals(expected, actual, 1E-3);
+    }
+
+    @Test
+    public void testWithErrorBound() throws Exception {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector, 10),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaBooleanObjectInspector, true)};
+
+        GenericUDAFEvaluator evaluator = new HistogramAUCUDAF().getEvaluator(
+            new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        ObjectInspector outputOI = evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        Assert.assertTrue(outputOI instanceof StructObjectInspector);
+        StructObjectInspector structOI = (StructObjectInspector) outputOI;
+        Assert.assertEquals(2, structOI.getAllStructFieldRefs().size());
+
+        // 0.5 and 0.55 fall into the same bin of width 0.1
+        final double[] scores = new double[] {0.5, 0.2, 0.8, 0.3, 0.55, 0.7};
+        final int[] labels = new int[] {0, 0, 1, 1, 1, 1};
+        GenericUDAFEvaluator.AggregationBuffer buf = evaluator.getNewAggregationBuffer();
+        for (int i = 0; i < scores.length; i++) {
+            evaluator.iterate(buf, new Object[] {scores[i], labels[i]});
+        }
+
+        Object result = evaluator.terminate(buf);
+        DoubleWritable auc = (DoubleWritable) structOI.getStructFieldData(result,
+            structOI.getStructFieldRef("auc"));
+        DoubleWritable bound = (DoubleWritable) structOI.getStructFieldData(result,
+            structOI.getStructFieldRef("error_bound"));
+        Assert.assertEquals(0.8125, auc.get(), 1e-5);
+        Assert.assertEquals(1.d / 16.d, bound.get(), 1e-5);
+    }
+
+    private static double exactAUC(double[] scores, int[] labels) {
+        double pairs = 0.d, correct = 0.d;
+        for (int i = 0; i < scores.length; i++) {
+            if (labels[i] != 1) {
+                continue;
+            }
+            for (int j = 0; j < scores.length; j++) {
+                if (labels[j] == 1) {
+                    continue;
+                }
+                pairs++;
+                if (scores[i] > scores[j]) {
+                    correct += 1.d;
+                } else if (scores[i] == scores[j]) {
+                    correct += 0.5d;
+                }
+            }
+        }
+        return correct / pairs;
+    }
+
+}
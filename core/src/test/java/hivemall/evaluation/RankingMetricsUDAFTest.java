@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RankingMetricsUDAFTest {
+
+    private static final int[] KS = new int[] {1, 3, 5, 10};
+
+    @Test
+    public void testIntItems() throws Exception {
+        ObjectInspector itemOI = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+        runTest(itemOI, false);
+    }
+
+    @Test
+    public void testStringItems() throws Exception {
+        ObjectInspector itemOI = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+        runTest(itemOI, true);
+    }
+
+    @Test
+    public void testSingleCutoff() throws Exception {
+        ObjectInspector listOI = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+        ObjectInspector[] inputOIs = new ObjectInspector[] {listOI, listOI,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector, 2)};
+        GenericUDAFEvaluator evaluator = new RankingMetricsUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+
+        List<Integer> rank = Arrays.asList(1, 3, 2, 6);
+        List<Integer> truth = Arrays.asList(1, 2, 4);
+        evaluator.iterate(agg, new Object[] {rank, truth, 2});
+
+        Object[] result = (Object[]) evaluator.terminate(agg);
+        Assert.assertEquals(BinaryResponsesMeasures.nDCG(rank, truth, 2),
+            getScore(result, 0, 2), 1E-10);
+        Assert.assertEquals(0.5d, getScore(result, 1, 2), 1E-10);
+        Assert.assertEquals(1.d / 3.d, getScore(result, 2, 2), 1E-10);
+    }
+
+    private static void runTest(ObjectInspector itemOI, boolean stringItems) throws Exception {
+        ObjectInspector listOI = ObjectInspectorFactory.getStandardListObjectInspector(itemOI);
+        List<Integer> ksList = new ArrayList<Integer>();
+        for (int k : KS) {
+            ksList.add(k);
+        }
+        ObjectInspector ksOI = ObjectInspectorUtils.getConstantObjectInspector(
+            ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector),
+            ksList);
+        ObjectInspector[] inputOIs = new ObjectInspector[] {listOI, listOI, ksOI};
+
+        GenericUDAFEvaluator partial = new RankingMetricsUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator merger = new RankingMetricsUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        merger.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+
+        final Random rnd = new Random(31L);
+        final int numRows = 200;
+        final double[][] expected = new double[6][KS.length];
+        GenericUDAFEvaluator.AggregationBuffer merged = merger.getNewAggregationBuffer();
+        GenericUDAFEvaluator.AggregationBuffer buf = partial.getNewAggregationBuffer();
+        for (int row = 0; row < numRows; row++) {
+            List<Object> rank = new ArrayList<Object>();
+            for (int i = 0, n = rnd.nextInt(12); i < n; i++) {
+                int item = rnd.nextInt(20);
+                rank.add(stringItems ? ("item" + item) : item);
+            }
+            List<Object> truth = new ArrayList<Object>();
+            for (int i = 0, n = 1 + rnd.nextInt(5); i < n; i++) {
+                int item = rnd.nextInt(20);
+                Object o = stringItems ? ("item" + item) : item;
+                if (!truth.contains(o)) {
+                    truth.add(o);
+                }
+            }
+
+            for (int j = 0; j < KS.length; j++) {
+                int k = Math.min(KS[j], rank.size());
+                double ndcg = BinaryResponsesMeasures.nDCG(rank, truth, k);
+                expected[0][j] += Double.isNaN(ndcg) ? 0.d : ndcg;
+                expected[1][j] += (k == 0) ? 0.d
+                        : BinaryResponsesMeasures.Precision(rank, truth, k);
+                expected[2][j] += BinaryResponsesMeasures.Recall(rank, truth, k);
+                expected[3][j] += BinaryResponsesMeasures.MRR(rank, truth, k);
+                expected[4][j] += BinaryResponsesMeasures.MAP(rank, truth, k);
+                expected[5][j] += BinaryResponsesMeasures.AUC(rank, truth, k);
+            }
+
+            partial.iterate(buf, new Object[] {rank, truth, ksList});
+            if (row % 50 == 49) {
+                merger.merge(merged, partial.terminatePartial(buf));
+                partial.reset(buf);
+            }
+        }
+
+        Object[] result = (Object[]) merger.terminate(merged);
+        Assert.assertEquals(RankingMetricsUDAF.METRICS.length, result.length);
+        for (int m = 0; m < RankingMetricsUDAF.METRICS.length; m++) {
+            for (int j = 0; j < KS.length; j++) {
+                Assert.assertEquals(RankingMetricsUDAF.METRICS[m] + "@" + KS[j],
+                    expected[m][j] / numRows, getScore(result, m, KS[j]), 1E-10);
+            }
+        }
+    }
+
+    private static double getScore(Object[] result, int metric, int k) {
+        @SuppressWarnings("unchecked")
+        Map<IntWritable, DoubleWritable> map = (Map<IntWritable, DoubleWritable>) result[metric];
+        return map.get(new IntWritable(k)).get();
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.amplify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RandomAmplifierUDTFTest {
+
+    @Test
+    public void testAmplify() throws HiveException {
+        RandomAmplifierUDTF udtf = new RandomAmplifierUDTF();
+        final StructObjectInspector outputOI = udtf.initialize(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(3)),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-buf 100 -seed 43"),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector});
+        final List<? extends StructField> fields = outputOI.getAllStructFieldRefs();
+        Assert.assertEquals(3, fields.size());
+
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                rows.add(Arrays.asList(ObjectInspectorUtils.copyToStandardJavaObject(
+                    outputOI.getStructFieldData(input, fields.get(0)),
+                    fields.get(0).getFieldObjectInspector()),
+                    ObjectInspectorUtils.copyToStandardJavaObject(
+                        outputOI.getStructFieldData(input, fields.get(1)),
+                        fields.get(1).getFieldObjectInspector()),
+                    ObjectInspectorUtils.copyToStandardObject(
+                        outputOI.getStructFieldData(input, fields.get(2)),
+                        fields.get(2).getFieldObjectInspector(),
+                        ObjectInspectorCopyOption.JAVA)));
+            }
+        });
+
+        final int size = 1000;
+        for (int i = 0; i < size; i++) {
+            List<String> features = (i % 10 == 0) ? null : Arrays.asList("f" + i, "g" + (i * 7));
+            udtf.process(new Object[] {null, null, Integer.valueOf(i), features,
+                    Double.valueOf(i * 0.5d)});
+        }
+        udtf.close();
+
+        Assert.assertEquals(size * 3, rows.size());
+        final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        boolean shuffled = false;
+        for (int j = 0; j < rows.size(); j++) {
+            List<Object> row = rows.get(j);
+            int i = ((Integer) row.get(0)).intValue();
+            if (i % 10 == 0) {
+                Assert.assertNull(row.get(1));
+            } else {
+                Assert.assertEquals(Arrays.asList("f" + i, "g" + (i * 7)), row.get(1));
+            }
+            Assert.assertEquals(i * 0.5d, ((Double) row.get(2)).doubleValue(), 0.d);
+            Integer c = counts.get(i);
+            counts.put(i, (c == null) ? 1 : c.intValue() + 1);
+            if (j > 0 && i < ((Integer) rows.get(j - 1).get(0)).intValue()) {
+                shuffled = true;
+            }
+        }
+        Assert.assertEquals(size, counts.size());
+        for (Integer c : counts.values()) {
+            Assert.assertEquals(3, c.intValue());
+        }
+        Assert.assertTrue(shuffled);
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.binning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BuildBinsUDAFTest {
+
+    @Test
+    public void testSkewedFeature() throws HiveException {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(4)),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.booleanTypeInfo, new BooleanWritable(false))};
+        BuildBinsUDAF resolver = new BuildBinsUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+
+        // x^4 for x in [0, 10000)
+        for (int p = 0; p < 2; p++) {
+            @SuppressWarnings("deprecation")
+            AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = p; i < 10000; i += 2) {
+                double x = i / 10000.d;
+                partial.iterate(agg, new Object[] {x * x * x * x, 4});
+            }
+            finalEval.merge(merged, partial.terminatePartial(agg));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<DoubleWritable> bins = (List<DoubleWritable>) finalEval.terminate(merged);
+        Assert.assertEquals(5, bins.size());
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, bins.get(0).get(), 0.d);
+        Assert.assertEquals(Math.pow(0.25d, 4), bins.get(1).get(), 0.001d);
+        Assert.assertEquals(Math.pow(0.5d, 4), bins.get(2).get(), 0.005d);
+        Assert.assertEquals(Math.pow(0.75d, 4), bins.get(3).get(), 0.01d);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, bins.get(4).get(), 0.d);
+    }
+
+    @Test
+    public void testSeed() throws HiveException {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(100))};
+        // bin boundaries are the same among runs of the same query
+        List<Double> expected = buildBins(inputOIs);
+        Assert.assertEquals(expected, buildBins(inputOIs));
+
+        inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(100)),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-seed 43"))};
+        List<Double> seeded = buildBins(inputOIs);
+        Assert.assertEquals(seeded, buildBins(inputOIs));
+        Assert.assertNotEquals(expected, seeded);
+        Assert.assertEquals(expected.size(), seeded.size());
+    }
+
+    @Nonnull
+    private static List<Double> buildBins(@Nonnull final ObjectInspector[] inputOIs)
+            throws HiveException {
+        BuildBinsUDAF resolver = new BuildBinsUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+
+        for (int p = 0; p < 4; p++) {
+            @SuppressWarnings("deprecation")
+            AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = p; i < 100000; i += 4) {
+                partial.iterate(agg, new Object[] {Double.valueOf(i), 100});
+            }
+            finalEval.merge(merged, partial.terminatePartial(agg));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<DoubleWritable> bins = (List<DoubleWritable>) finalEval.terminate(merged);
+        List<Double> values = new ArrayList<Double>(bins.size());
+        for (DoubleWritable v : bins) {
+            values.add(v.get());
+        }
+        return values;
+    }
+
+}
@@ -20,6 +20,22 @@ package hivemall.ftvec.hashing;
 
 import hivemall.utils.hashing.MurmurHash3;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -41,4 +57,131 @@ public class FeatureHashingUDFTest {
             FeatureHashingUDF.mhash("0", MurmurHash3.DEFAULT_NUM_FEATURES) + ":1.1", actual);
     }
 
+    @Test
+    public void testByteLevelHashing() {
+        final int numFeatures = MurmurHash3.DEFAULT_NUM_FEATURES;
+        final byte[] digits = new byte[11];
+        final Text out = new Text();
+        for (String fv : new String[] {"0", "0:1.0", "0:1.1", "aaa", "aaa:2.0", "userid#4505:3.3",
+                "field:movieid#2331:4.999", "\u65e5\u672c\u8a9e:1", "caf\u00e9",
+                "\ud83d\ude00:0.5", "a", "ab", "abc", "abcd", "abcde"}) {
+            FeatureHashingUDF.featureHashing(new Text(fv), numFeatures, out, digits);
+            Assert.assertEquals(fv, FeatureHashingUDF.featureHashing(fv, numFeatures),
+                out.toString());
+        }
+        FeatureHashingUDF.featureHashing(new Text("aaa"), 1, out, digits);
+        Assert.assertEquals("1", out.toString());
+    }
+
+    @Test
+    public void testEvaluateText() throws IOException, HiveException {
+        FeatureHashingUDF udf = new FeatureHashingUDF();
+        udf.initialize(new ObjectInspector[] {ObjectInspectorFactory.getStandardListObjectInspector(
+            PrimitiveObjectInspectorFactory.writableStringObjectInspector)});
+
+        @SuppressWarnings("unchecked")
+        List<Text> actual = (List<Text>) udf.evaluate(new DeferredObject[] {new DeferredJavaObject(
+            Arrays.asList(new Text("aaa:1.0"), null, new Text("aaa"), new Text("bbb:2.0")))});
+        Assert.assertEquals(Arrays.asList(new Text("4063537:1.0"), new Text("4063537"), new Text(
+            "8459207:2.0")), actual);
+
+        // output objects are reused
+        Text first = actual.get(0);
+        @SuppressWarnings("unchecked")
+        List<Text> actual2 = (List<Text>) udf.evaluate(new DeferredObject[] {new DeferredJavaObject(
+            Arrays.asList(new Text("bbb")))});
+        Assert.assertEquals(Arrays.asList(new Text("8459207")), actual2);
+        Assert.assertSame(first, actual2.get(0));
+        udf.close();
+    }
+
+    @Test
+    public void testIndices() throws IOException, HiveException {
+        FeatureHashingUDF udf = new FeatureHashingUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-indices"))});
+
+        @SuppressWarnings("unchecked")
+        List<IntWritable> actual = (List<IntWritable>) udf.evaluate(new DeferredObject[] {new DeferredJavaObject(
+            Arrays.asList(new Text("aaa:1.0"), new Text("bbb"), new Text("0")))});
+        Assert.assertEquals(
+            Arrays.asList(new IntWritable(4063537), new IntWritable(8459207), new IntWritable(0)),
+            actual);
+        udf.close();
+    }
+
+    @Test
+    public void testMap() throws IOException, HiveException {
+        FeatureHashingUDF udf = new FeatureHashingUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-map -features 10"))});
+
+        @SuppressWarnings("unchecked")
+        Map<IntWritable, FloatWritable> actual = (Map<IntWritable, FloatWritable>) udf.evaluate(new DeferredObject[] {new DeferredJavaObject(
+            Arrays.asList("aaa:1.5", "bbb", "aaa:2.0"))});
+        Assert.assertEquals(2, actual.size());
+        Assert.assertEquals(3.5f, actual.get(new IntWritable(7)).get(), 0.f);
+        Assert.assertEquals(1.f, actual.get(new IntWritable(1)).get(), 0.f);
+
+        @SuppressWarnings("unchecked")
+        Map<IntWritable, FloatWritable> actual2 = (Map<IntWritable, FloatWritable>) udf.evaluate(new DeferredObject[] {new DeferredJavaObject(
+            Arrays.asList("bbb:0.5"))});
+        Assert.assertEquals(1, actual2.size());
+        Assert.assertEquals(0.5f, actual2.get(new IntWritable(1)).get(), 0.f);
+        udf.close();
+    }
+
+    @Test
+    public void testBiasIndex() throws HiveException {
+        final int numFeatures = MurmurHash3.DEFAULT_NUM_FEATURES;
+        // indices agree with the bias rule of featureHashing
+        for (String fv : new String[] {"0", "0:1", "0:1.0", "0:0.5", "00:1", "aaa:1"}) {
+            String hashed = FeatureHashingUDF.featureHashing(fv, numFeatures);
+            int expected = Integer.parseInt(hashed.split(":")[0]);
+            Assert.assertEquals(fv, expected, FeatureHashingUDF.featureIndex(fv, numFeatures));
+            byte[] b = fv.getBytes(StandardCharsets.UTF_8);
+            Assert.assertEquals(fv, expected,
+                FeatureHashingUDF.featureIndex(b, 0, b.length, numFeatures));
+        }
+        Assert.assertEquals(FeatureHashingUDF.mhash("0", numFeatures),
+            FeatureHashingUDF.featureIndex("0:0.5", numFeatures));
+    }
+
+    @Test
+    public void testMapBias() throws IOException, HiveException {
+        FeatureHashingUDF udf = new FeatureHashingUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-map"))});
+
+        @SuppressWarnings("unchecked")
+        Map<IntWritable, FloatWritable> actual = (Map<IntWritable, FloatWritable>) udf.evaluate(new DeferredObject[] {new DeferredJavaObject(
+            Arrays.asList(new Text("0:1"), new Text("0:0.5")))});
+        Assert.assertEquals(2, actual.size());
+        Assert.assertEquals(1.f, actual.get(new IntWritable(0)).get(), 0.f);
+        int h = FeatureHashingUDF.mhash("0", MurmurHash3.DEFAULT_NUM_FEATURES);
+        Assert.assertEquals(0.5f, actual.get(new IntWritable(h)).get(), 0.f);
+        udf.close();
+    }
+
+    @Test(expected = HiveException.class)
+    public void testMapFieldAwareFeature() throws IOException, HiveException {
+        FeatureHashingUDF udf = new FeatureHashingUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-map"))});
+        try {
+            udf.evaluate(new DeferredObject[] {new DeferredJavaObject(
+                Arrays.asList(new Text("f:aaa:1.0")))});
+        } finally {
+            udf.close();
+        }
+    }
+
 }
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.scaling;
+
+import hivemall.common.OnlineVariance;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeatureStatsUDAFTest {
+
+    @Test
+    public void testDenseColumns() throws HiveException {
+        TypeInfo[] types = new TypeInfo[] {TypeInfoFactory.getListTypeInfo(TypeInfoFactory.doubleTypeInfo)};
+        ObjectInspector[] inputOIs = new ObjectInspector[] {ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector)};
+        FeatureStatsUDAF resolver = new FeatureStatsUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(types);
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(types);
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+
+        OnlineVariance[] expected = new OnlineVariance[] {new OnlineVariance(),
+                new OnlineVariance()};
+        double min1 = Double.MAX_VALUE, max1 = -Double.MAX_VALUE;
+        Random rnd = new Random(43L);
+        for (int p = 0; p < 3; p++) {
+            @SuppressWarnings("deprecation")
+            AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = 0; i < 1000 * (p + 1); i++) {
+                double x0 = rnd.nextGaussian() * 10.d + 100.d;
+                double x1 = rnd.nextDouble();
+                expected[0].handle(x0);
+                if (i % 2 == 0) { // null values are skipped
+                    partial.iterate(agg, new Object[] {Arrays.asList(x0, null)});
+                } else {
+                    expected[1].handle(x1);
+                    min1 = Math.min(min1, x1);
+                    max1 = Math.max(max1, x1);
+                    partial.iterate(agg, new Object[] {Arrays.asList(x0, x1)});
+                }
+            }
+            finalEval.merge(merged, partial.terminatePartial(agg));
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<Text, List<DoubleWritable>> stats = (Map<Text, List<DoubleWritable>>) finalEval.terminate(merged);
+        Assert.assertEquals(2, stats.size());
+        for (int col = 0; col < 2; col++) {
+            List<DoubleWritable> st = stats.get(new Text(Integer.toString(col)));
+            OnlineVariance ov = expected[col];
+            long n = ov.numSamples();
+            Assert.assertEquals(n, st.get(FeatureStatsUDAF.COUNT).get(), 0.d);
+            Assert.assertEquals(ov.mean(), st.get(FeatureStatsUDAF.MEAN).get(), 1e-9d);
+            Assert.assertEquals(ov.variance() * (n - 1) / n,
+                st.get(FeatureStatsUDAF.VARIANCE).get(), 1e-9d);
+        }
+        List<DoubleWritable> st1 = stats.get(new Text("1"));
+        Assert.assertEquals(min1, st1.get(FeatureStatsUDAF.MIN).get(), 0.d);
+        Assert.assertEquals(max1, st1.get(FeatureStatsUDAF.MAX).get(), 0.d);
+    }
+
+    @Test
+    public void testNamedFeatures() throws HiveException {
+        TypeInfo[] types = new TypeInfo[] {TypeInfoFactory.getListTypeInfo(TypeInfoFactory.stringTypeInfo)};
+        ObjectInspector[] inputOIs = new ObjectInspector[] {ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector)};
+        FeatureStatsUDAF resolver = new FeatureStatsUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(types);
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(types);
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg1 = partial.getNewAggregationBuffer();
+        partial.iterate(agg1, new Object[] {Arrays.asList("weight:69.0", "height:170")});
+        partial.iterate(agg1, new Object[] {Arrays.asList("weight:71.0", "male")});
+        finalEval.merge(merged, partial.terminatePartial(agg1));
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg2 = partial.getNewAggregationBuffer();
+        partial.iterate(agg2, new Object[] {Arrays.asList("height:180", "weight:73.0")});
+        finalEval.merge(merged, partial.terminatePartial(agg2));
+
+        @SuppressWarnings("unchecked")
+        Map<Text, List<DoubleWritable>> stats = (Map<Text, List<DoubleWritable>>) finalEval.terminate(merged);
+        Assert.assertEquals(3, stats.size());
+        assertStats(stats.get(new Text("weight")), 3, 69.d, 73.d, 71.d, 8.d / 3.d);
+        assertStats(stats.get(new Text("height")), 2, 170.d, 180.d, 175.d, 25.d);
+        assertStats(stats.get(new Text("male")), 1, 1.d, 1.d, 1.d, 0.d);
+    }
+
+    private static void assertStats(List<DoubleWritable> actual, double... expected) {
+        Assert.assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual.get(i).get(), 1e-9d);
+        }
+    }
+
+}
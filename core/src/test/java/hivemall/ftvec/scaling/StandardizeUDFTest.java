@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.scaling;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StandardizeUDFTest {
+
+    private static final ObjectInspector STATS_OI = ObjectInspectorFactory.getStandardMapObjectInspector(
+        PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+        ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector));
+
+    @Test
+    public void testZScore() throws IOException, HiveException {
+        StandardizeUDF udf = new StandardizeUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                STATS_OI});
+
+        Map<String, List<Double>> stats = new HashMap<String, List<Double>>();
+        stats.put("weight", Arrays.asList(3.d, 69.d, 73.d, 71.d, 4.d));
+        stats.put("male", Arrays.asList(1.d, 1.d, 1.d, 1.d, 0.d));
+
+        List<?> actual = udf.evaluate(new DeferredObject[] {
+                new DeferredJavaObject(Arrays.asList("weight:75", "male:1", "height:170")),
+                new DeferredJavaObject(stats)});
+        Assert.assertEquals(
+            Arrays.asList(new Text("weight:2.0"), new Text("male:0.0"), new Text("height:170")),
+            actual);
+        udf.close();
+    }
+
+    @Test
+    public void testBareFeatureName() throws IOException, HiveException {
+        StandardizeUDF udf = new StandardizeUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                STATS_OI,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-minmax"))});
+
+        Map<String, List<Double>> stats = new HashMap<String, List<Double>>();
+        stats.put("male", Arrays.asList(4.d, 0.d, 2.d, 1.d, 1.d));
+
+        // bare names are regarded as value 1.0 as in feature_stats
+        List<?> actual = udf.evaluate(new DeferredObject[] {
+                new DeferredJavaObject(Arrays.asList("male", "tall")),
+                new DeferredJavaObject(stats)});
+        Assert.assertEquals(Arrays.asList(new Text("male:0.5"), new Text("tall")), actual);
+
+        // stats are parsed again for another stats object
+        Map<String, List<Double>> stats2 = new HashMap<String, List<Double>>();
+        stats2.put("male", Arrays.asList(4.d, 0.d, 4.d, 1.d, 1.d));
+        actual = udf.evaluate(new DeferredObject[] {
+                new DeferredJavaObject(Arrays.asList("male")), new DeferredJavaObject(stats2)});
+        Assert.assertEquals(Arrays.asList(new Text("male:0.25")), actual);
+        udf.close();
+    }
+
+    @Test
+    public void testReusedStatsObject() throws IOException, HiveException {
+        StandardizeUDF udf = new StandardizeUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                STATS_OI});
+
+        // the same map object with different contents, as a reused row of a JOIN by group
+        Map<String, List<Double>> stats = new HashMap<String, List<Double>>();
+        stats.put("weight", Arrays.asList(3.d, 69.d, 73.d, 71.d, 4.d));
+        List<?> actual = udf.evaluate(new DeferredObject[] {
+                new DeferredJavaObject(Arrays.asList("weight:75")), new DeferredJavaObject(stats)});
+        Assert.assertEquals(Arrays.asList(new Text("weight:2.0")), actual);
+
+        stats.put("weight", Arrays.asList(3.d, 50.d, 60.d, 55.d, 25.d));
+        actual = udf.evaluate(new DeferredObject[] {
+                new DeferredJavaObject(Arrays.asList("weight:75")), new DeferredJavaObject(stats)});
+        Assert.assertEquals(Arrays.asList(new Text("weight:4.0")), actual);
+        udf.close();
+    }
+
+    @Test
+    public void testMinMaxDense() throws IOException, HiveException {
+        StandardizeUDF udf = new StandardizeUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                STATS_OI,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-minmax"))});
+
+        Map<String, List<Double>> stats = new HashMap<String, List<Double>>();
+        stats.put("0", Arrays.asList(3.d, 0.d, 10.d, 5.d, 1.d));
+        stats.put("1", Arrays.asList(3.d, -1.d, 1.d, 0.d, 1.d));
+
+        List<?> actual = udf.evaluate(new DeferredObject[] {
+                new DeferredJavaObject(Arrays.asList(2.5d, null, 7.d)),
+                new DeferredJavaObject(stats)});
+        Assert.assertEquals(3, actual.size());
+        Assert.assertEquals(0.25f, ((FloatWritable) actual.get(0)).get(), 0.f);
+        Assert.assertNull(actual.get(1));
+        Assert.assertEquals(7.f, ((FloatWritable) actual.get(2)).get(), 0.f); // no stats
+        udf.close();
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.selection;
+
+import hivemall.utils.math.StatsUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseChiSquareUDAFTest {
+
+    @Test
+    public void testAgainstDenseChi2() throws Exception {
+        final double[][] features = new double[][] { {5.1, 3.5, 0.d, 0.2}, {4.9, 0.d, 1.4, 0.2},
+                {7.d, 3.2, 4.7, 0.d}, {6.4, 3.2, 4.5, 1.5}, {0.d, 3.3, 6.d, 2.5},
+                {5.8, 2.7, 5.1, 1.9}, {0.d, 0.d, 0.d, 0.d}};
+        final int[] labels = new int[] {0, 0, 1, 1, 2, 2, 0};
+        final int nClasses = 3, nFeatures = 4;
+
+        // observed = dot(Y.T, X), expected = dot(class_prob.T, feature_count)
+        final double[][] observed = new double[nFeatures][nClasses];
+        final double[][] expected = new double[nFeatures][nClasses];
+        final double[] classCounts = new double[nClasses];
+        final double[] featureCounts = new double[nFeatures];
+        for (int i = 0; i < features.length; i++) {
+            classCounts[labels[i]]++;
+            for (int j = 0; j < nFeatures; j++) {
+                observed[j][labels[i]] += features[i][j];
+                featureCounts[j] += features[i][j];
+            }
+        }
+        for (int j = 0; j < nFeatures; j++) {
+            for (int c = 0; c < nClasses; c++) {
+                expected[j][c] = classCounts[c] / features.length * featureCounts[j];
+            }
+        }
+        final double[] answer0 = StatsUtils.chiSquare(observed, expected).getKey();
+        final double[] answer1 = StatsUtils.chiSquare(observed, expected).getValue();
+
+        final ObjectInspector[] OIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector),
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(10))};
+        final SparseChiSquareUDAF chi2 = new SparseChiSquareUDAF();
+        final GenericUDAFEvaluator partial = chi2.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            OIs, false, false));
+        final ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, OIs);
+        final GenericUDAFEvaluator finalEval = chi2.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            OIs, false, false));
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+
+        @SuppressWarnings("deprecation")
+        final AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+        for (int p = 0; p < 3; p++) {
+            @SuppressWarnings("deprecation")
+            final AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = p; i < features.length; i += 3) {
+                List<Text> row = new ArrayList<Text>();
+                for (String s : SparseSignalNoiseRatioUDAFTest.toSparse(features[i])) {
+                    row.add(new Text(s));
+                }
+                partial.iterate(agg, new Object[] {row, new IntWritable(labels[i])});
+            }
+            finalEval.merge(merged, partial.terminatePartial(agg));
+        }
+
+        final Object[] result = (Object[]) finalEval.terminate(merged);
+        final List<?> names = (List<?>) result[0];
+        final List<?> chi2s = (List<?>) result[1];
+        final List<?> pvalues = (List<?>) result[2];
+        Assert.assertEquals(nFeatures, names.size());
+        for (int i = 0; i < nFeatures; i++) {
+            int f = Integer.parseInt(names.get(i).toString().substring(1));
+            Assert.assertEquals(answer0[f], ((DoubleWritable) chi2s.get(i)).get(), 1e-8);
+            Assert.assertEquals(answer1[f], ((DoubleWritable) pvalues.get(i)).get(), 1e-8);
+            if (i > 0) {
+                Assert.assertTrue(((DoubleWritable) chi2s.get(i - 1)).get() >= ((DoubleWritable) chi2s.get(i)).get());
+            }
+        }
+    }
+
+    @Test(expected = UDFArgumentException.class)
+    public void testNegativeValue() throws Exception {
+        final ObjectInspector[] OIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector};
+        final GenericUDAFEvaluator eval = new SparseChiSquareUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            OIs, false, false));
+        eval.init(GenericUDAFEvaluator.Mode.COMPLETE, OIs);
+        @SuppressWarnings("deprecation")
+        final AggregationBuffer agg = eval.getNewAggregationBuffer();
+        eval.iterate(agg, new Object[] {Arrays.asList("f0:-1.0"), 0});
+    }
+
+}
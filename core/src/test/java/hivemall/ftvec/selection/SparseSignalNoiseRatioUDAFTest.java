@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.selection;
+
+import hivemall.utils.hadoop.WritableUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseSignalNoiseRatioUDAFTest {
+
+    @Test
+    public void testTopKWithMerge() throws Exception {
+        final ObjectInspector[] OIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(2))};
+        final SparseSignalNoiseRatioUDAF snr = new SparseSignalNoiseRatioUDAF();
+        final GenericUDAFEvaluator partial = snr.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            OIs, false, false));
+        final ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, OIs);
+        final GenericUDAFEvaluator finalEval = snr.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            OIs, false, false));
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+
+        // same as SignalNoiseRatioUDAFTest#snrMultipleClass
+        final double[][] features = new double[][] { {5.1, 3.5, 1.4, 0.2}, {4.9, 3.d, 1.4, 0.2},
+                {7.d, 3.2, 4.7, 1.4}, {6.4, 3.2, 4.5, 1.5}, {6.3, 3.3, 6.d, 2.5},
+                {5.8, 2.7, 5.1, 1.9}};
+        final int[] labels = new int[] {0, 0, 1, 1, 2, 2};
+
+        @SuppressWarnings("deprecation")
+        final AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+        for (int p = 0; p < 2; p++) {
+            @SuppressWarnings("deprecation")
+            final AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = p; i < features.length; i += 2) {
+                partial.iterate(agg, new Object[] {toSparse(features[i]), labels[i]});
+            }
+            finalEval.merge(merged, partial.terminatePartial(agg));
+        }
+
+        final Object[] result = (Object[]) finalEval.terminate(merged);
+        Assert.assertEquals(2, ((List<?>) result[0]).size());
+        Assert.assertEquals(new Text("f2"), ((List<?>) result[0]).get(0));
+        Assert.assertEquals(new Text("f3"), ((List<?>) result[0]).get(1));
+        Assert.assertEquals(42.94949495, ((DoubleWritable) ((List<?>) result[1]).get(0)).get(),
+            1e-5);
+        Assert.assertEquals(33.80952381, ((DoubleWritable) ((List<?>) result[1]).get(1)).get(),
+            1e-5);
+    }
+
+    @Test
+    public void testImplicitZeros() throws Exception {
+        final double[][] features = new double[][] { {0.d, 1.d, 3.d}, {2.d, 0.d, 3.d},
+                {0.d, 0.d, 1.d}, {3.d, 0.d, 0.d}, {1.d, 4.d, 0.d}, {0.d, 5.d, 2.d}};
+        final int[][] labels = new int[][] { {1, 0}, {1, 0}, {1, 0}, {0, 1}, {0, 1}, {0, 1}};
+
+        // dense SNR as the answer
+        final ObjectInspector[] denseOIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector),
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector)};
+        final GenericUDAFEvaluator dense = new SignalNoiseRatioUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            denseOIs, false, false));
+        dense.init(GenericUDAFEvaluator.Mode.COMPLETE, denseOIs);
+        @SuppressWarnings("deprecation")
+        final AggregationBuffer denseAgg = dense.getNewAggregationBuffer();
+
+        final ObjectInspector[] OIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector)};
+        final GenericUDAFEvaluator sparse = new SparseSignalNoiseRatioUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            OIs, false, false));
+        sparse.init(GenericUDAFEvaluator.Mode.COMPLETE, OIs);
+        @SuppressWarnings("deprecation")
+        final AggregationBuffer agg = sparse.getNewAggregationBuffer();
+
+        for (int i = 0; i < features.length; i++) {
+            List<Integer> label = new ArrayList<Integer>();
+            for (int l : labels[i]) {
+                label.add(l);
+            }
+            dense.iterate(denseAgg, new Object[] {WritableUtils.toWritableList(features[i]),
+                    label});
+            sparse.iterate(agg, new Object[] {toSparse(features[i]), label});
+        }
+
+        @SuppressWarnings("unchecked")
+        final List<DoubleWritable> answer = (List<DoubleWritable>) dense.terminate(denseAgg);
+        final Object[] result = (Object[]) sparse.terminate(agg);
+        final List<?> names = (List<?>) result[0];
+        final List<?> scores = (List<?>) result[1];
+        Assert.assertEquals(3, names.size());
+        for (int i = 0; i < names.size(); i++) {
+            int f = Integer.parseInt(names.get(i).toString().substring(1));
+            Assert.assertEquals(answer.get(f).get(), ((DoubleWritable) scores.get(i)).get(),
+                1e-8);
+            if (i > 0) {
+                Assert.assertTrue(((DoubleWritable) scores.get(i - 1)).get() >= ((DoubleWritable) scores.get(i)).get());
+            }
+        }
+    }
+
+    @Test(expected = UDFArgumentException.class)
+    public void testInvalidOneHot() throws Exception {
+        final ObjectInspector[] OIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector)};
+        final GenericUDAFEvaluator sparse = new SparseSignalNoiseRatioUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            OIs, false, false));
+        sparse.init(GenericUDAFEvaluator.Mode.COMPLETE, OIs);
+        @SuppressWarnings("deprecation")
+        final AggregationBuffer agg = sparse.getNewAggregationBuffer();
+        List<Integer> label = new ArrayList<Integer>();
+        label.add(1);
+        label.add(1);
+        sparse.iterate(agg, new Object[] {toSparse(new double[] {1.d}), label});
+    }
+
+    @Test
+    public void testTopK() {
+        double[] scores = new double[] {0.5, Double.NaN, 3.d, 0.5, Double.POSITIVE_INFINITY, 1.d};
+        Assert.assertArrayEquals(new int[] {4, 2, 5}, SparseClassMoments.topK(scores, 6, 3));
+        Assert.assertArrayEquals(new int[] {4, 2, 5, 0, 3},
+            SparseClassMoments.topK(scores, 6, 10));
+        Assert.assertArrayEquals(new int[] {2, 0}, SparseClassMoments.topK(scores, 4, 2));
+    }
+
+    static List<String> toSparse(double[] features) {
+        final List<String> list = new ArrayList<String>();
+        for (int i = 0; i < features.length; i++) {
+            if (features[i] != 0.d) {
+                list.add("f" + i + ":" + features[i]);
+            }
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.text;
+
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TermFrequencyUDAFTest {
+
+    @Test
+    public void testComplete() throws HiveException {
+        GenericUDAFEvaluator eval = new TermFrequencyUDAF().getEvaluator(new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+        eval.init(GenericUDAFEvaluator.Mode.COMPLETE,
+            new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg = eval.getNewAggregationBuffer();
+        Assert.assertNull(eval.terminate(agg));
+
+        Text term = new Text();
+        for (String s : new String[] {"aaa", "bbb", "aaa", null, "日本", "aaa"}) {
+            if (s == null) {
+                eval.iterate(agg, new Object[] {null});
+            } else {
+                term.set(s); // the input object is reused
+                eval.iterate(agg, new Object[] {term});
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<Text, FloatWritable> tf = (Map<Text, FloatWritable>) eval.terminate(agg);
+        Assert.assertEquals(3, tf.size());
+        Assert.assertEquals(3.f / 5.f, tf.get(new Text("aaa")).get(), 0.f);
+        Assert.assertEquals(1.f / 5.f, tf.get(new Text("bbb")).get(), 0.f);
+        Assert.assertEquals(1.f / 5.f, tf.get(new Text("日本")).get(), 0.f);
+    }
+
+    @Test
+    public void testMerge() throws HiveException {
+        TermFrequencyUDAF resolver = new TermFrequencyUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+            new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg1 = partial.getNewAggregationBuffer();
+        for (int i = 0; i < 1000; i++) {
+            partial.iterate(agg1, new Object[] {"t" + (i % 100)});
+        }
+        BytesWritable p1 = (BytesWritable) partial.terminatePartial(agg1);
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg2 = partial.getNewAggregationBuffer();
+        for (int i = 0; i < 1000; i++) {
+            partial.iterate(agg2, new Object[] {"t" + (i % 200)});
+        }
+        BytesWritable p2 = (BytesWritable) partial.terminatePartial(agg2);
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer empty = partial.getNewAggregationBuffer();
+        Assert.assertNull(partial.terminatePartial(empty));
+
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg = finalEval.getNewAggregationBuffer();
+        finalEval.merge(agg, p1);
+        finalEval.merge(agg, null);
+        finalEval.merge(agg, p2);
+
+        @SuppressWarnings("unchecked")
+        Map<Text, FloatWritable> tf = (Map<Text, FloatWritable>) finalEval.terminate(agg);
+        Assert.assertEquals(200, tf.size());
+        Assert.assertEquals(15.f / 2000.f, tf.get(new Text("t0")).get(), 0.f);
+        Assert.assertEquals(5.f / 2000.f, tf.get(new Text("t150")).get(), 0.f);
+    }
+
+}
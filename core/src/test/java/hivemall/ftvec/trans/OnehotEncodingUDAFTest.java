@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.trans;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OnehotEncodingUDAFTest {
+
+    @Test
+    public void testMergePartials() throws Exception {
+        OnehotEncodingUDAF udaf = new OnehotEncodingUDAF();
+        TypeInfo[] types = new TypeInfo[] {TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.intTypeInfo, TypeInfoFactory.doubleTypeInfo};
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector};
+
+        GenericUDAFEvaluator partial = udaf.getEvaluator(types);
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator finalEval = udaf.getEvaluator(types);
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg1 = partial.getNewAggregationBuffer();
+        partial.iterate(agg1, new Object[] {"a", new IntWritable(1), 0.5d});
+        partial.iterate(agg1, new Object[] {"b", new IntWritable(1), null});
+        partial.iterate(agg1, new Object[] {"a", null, 0.5d});
+        Object p1 = partial.terminatePartial(agg1);
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg2 = partial.getNewAggregationBuffer();
+        partial.iterate(agg2, new Object[] {"c", new IntWritable(2), 1.5d});
+        partial.iterate(agg2, new Object[] {"b", new IntWritable(3), 0.5d});
+        Object p2 = partial.terminatePartial(agg2);
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg = finalEval.getNewAggregationBuffer();
+        finalEval.merge(agg, p1);
+        finalEval.merge(agg, null);
+        finalEval.merge(agg, p2);
+        Object[] result = (Object[]) finalEval.terminate(agg);
+        Assert.assertEquals(3, result.length);
+
+        Map<?, ?> f1 = (Map<?, ?>) result[0];
+        Assert.assertEquals(3, f1.size());
+        Assert.assertEquals(1, f1.get(new Text("a")));
+        Assert.assertEquals(2, f1.get(new Text("b")));
+        Assert.assertEquals(3, f1.get(new Text("c")));
+        Map<?, ?> f2 = (Map<?, ?>) result[1];
+        Assert.assertEquals(3, f2.size());
+        Assert.assertEquals(4, f2.get(new IntWritable(1)));
+        Assert.assertEquals(5, f2.get(new IntWritable(2)));
+        Assert.assertEquals(6, f2.get(new IntWritable(3)));
+        Map<?, ?> f3 = (Map<?, ?>) result[2];
+        Assert.assertEquals(2, f3.size());
+        Assert.assertEquals(7, f3.get(new DoubleWritable(0.5d)));
+        Assert.assertEquals(8, f3.get(new DoubleWritable(1.5d)));
+    }
+
+    @Test
+    public void testMaxCardinality() throws Exception {
+        OnehotEncodingUDAF udaf = new OnehotEncodingUDAF();
+        TypeInfo[] types = new TypeInfo[] {TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo};
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-max_cardinality 10 -tail_buckets 5"))};
+
+        GenericUDAFEvaluator partial = udaf.getEvaluator(types);
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator finalEval = udaf.getEvaluator(types);
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg = finalEval.getNewAggregationBuffer();
+        for (int p = 0; p < 3; p++) {
+            @SuppressWarnings("deprecation")
+            AggregationBuffer partialAgg = partial.getNewAggregationBuffer();
+            for (int i = 0; i < 8; i++) {
+                int v = p * 8 + i;
+                partial.iterate(partialAgg, new Object[] {v, "v" + (v % 4), null});
+            }
+            finalEval.merge(agg, partial.terminatePartial(partialAgg));
+        }
+        Object[] result = (Object[]) finalEval.terminate(agg);
+        Assert.assertEquals(5, result.length);
+
+        Map<?, ?> f1 = (Map<?, ?>) result[0];
+        Assert.assertEquals(10, f1.size());
+        for (int v = 0; v < 10; v++) {
+            Assert.assertEquals(v + 1, f1.get(new IntWritable(v)));
+        }
+        Map<?, ?> f2 = (Map<?, ?>) result[1];
+        Assert.assertEquals(4, f2.size());
+        Assert.assertEquals(11, f2.get(new Text("v0")));
+        Assert.assertEquals(14, f2.get(new Text("v3")));
+
+        // the rest falls into hashed indices following the indexed ones
+        Assert.assertEquals(14, result[2]); // tail_offset
+        Assert.assertEquals(5, result[3]); // tail_buckets
+        Assert.assertEquals(Arrays.asList(true, false), result[4]); // truncated
+    }
+
+    @Test
+    public void testConstantFeatureLookingLikeOptions() throws Exception {
+        OnehotEncodingUDAF udaf = new OnehotEncodingUDAF();
+        TypeInfo[] types = new TypeInfo[] {TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.stringTypeInfo};
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-1"))};
+
+        GenericUDAFEvaluator evaluator = udaf.getEvaluator(types);
+        evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+        evaluator.iterate(agg, new Object[] {"a", new Text("-1")});
+        evaluator.iterate(agg, new Object[] {"b", new Text("-1")});
+        Object[] result = (Object[]) evaluator.terminate(agg);
+        Assert.assertEquals(2, result.length);
+
+        Map<?, ?> f1 = (Map<?, ?>) result[0];
+        Assert.assertEquals(2, f1.size());
+        Map<?, ?> f2 = (Map<?, ?>) result[1];
+        Assert.assertEquals(1, f2.size());
+        Assert.assertEquals(3, f2.get(new Text("-1")));
+    }
+
+}
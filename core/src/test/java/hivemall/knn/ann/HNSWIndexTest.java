@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.knn.ann.HNSWIndex.Metric;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HNSWIndexTest {
+    private static final boolean DEBUG = false;
+
+    @Test
+    public void testDenseEuclidRecall() {
+        final int n = 3000, dims = 16, k = 10;
+        Random rnd = new Random(43L);
+        float[][] data = randomDense(rnd, n, dims);
+        HNSWIndex index = new HNSWIndex(Metric.euclid, dims, 16, 100, 31L);
+        for (int i = 0; i < n; i++) {
+            index.add(i, data[i]);
+        }
+
+        float[][] queries = randomDense(rnd, 100, dims);
+        double prevRecall = 0.d;
+        for (int ef : new int[] {10, 50, 200}) {
+            int hits = 0;
+            long annNanos = 0L, bruteNanos = 0L;
+            int[] nodes = new int[k];
+            float[] dists = new float[k];
+            for (float[] q : queries) {
+                long t0 = System.nanoTime();
+                int found = index.search(q, k, ef, nodes, dists);
+                long t1 = System.nanoTime();
+                Set<Integer> truth = bruteForceEuclid(data, q, k);
+                long t2 = System.nanoTime();
+                annNanos += t1 - t0;
+                bruteNanos += t2 - t1;
+
+                Assert.assertEquals(k, found);
+                for (int i = 0; i < found; i++) {
+                    if (truth.contains((int) index.getId(nodes[i]))) {
+                        hits++;
+                    }
+                    Assert.assertEquals(euclid(data[nodes[i]], q), dists[i], 1E-4f);
+                    if (i > 0) {
+                        Assert.assertTrue(dists[i - 1] <= dists[i]);
+                    }
+                }
+            }
+            double recall = (double) hits / (queries.length * k);
+            println(String.format("ef=%d recall@%d=%.3f ann=%.1fus/query brute=%.1fus/query", ef,
+                k, recall, annNanos / 1000.d / queries.length, bruteNanos / 1000.d
+                        / queries.length));
+            Assert.assertTrue(recall >= prevRecall - 0.01d);
+            prevRecall = recall;
+        }
+        Assert.assertTrue("recall: " + prevRecall, prevRecall > 0.95d);
+    }
+
+    @Test
+    public void testSparseCosineRecall() {
+        final int n = 2000, k = 5;
+        Random rnd = new Random(47L);
+        HNSWIndex index = new HNSWIndex(Metric.cosine, 0, 12, 100, 31L);
+        int[][] idx = new int[n][];
+        float[][] val = new float[n][];
+        for (int i = 0; i < n; i++) {
+            randomSparse(rnd, idx, val, i);
+            index.add(i, idx[i], val[i], idx[i].length);
+        }
+
+        int hits = 0;
+        int[] nodes = new int[k];
+        float[] dists = new float[k];
+        for (int qi = 0; qi < 50; qi++) {
+            int[][] qIdx = new int[1][];
+            float[][] qVal = new float[1][];
+            randomSparse(rnd, qIdx, qVal, 0);
+            int found = index.search(qIdx[0], qVal[0], qIdx[0].length, k, 100, nodes, dists);
+            Assert.assertEquals(k, found);
+
+            final float[] truth = new float[n];
+            for (int i = 0; i < n; i++) {
+                truth[i] = cosineDistance(qIdx[0], qVal[0], idx[i], val[i]);
+            }
+            float[] sorted = truth.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < found; i++) {
+                Assert.assertEquals(truth[nodes[i]], dists[i], 1E-5f);
+                if (dists[i] <= sorted[k - 1]) {
+                    hits++;
+                }
+            }
+        }
+        double recall = (double) hits / (50 * k);
+        Assert.assertTrue("recall: " + recall, recall > 0.9d);
+    }
+
+    @Test
+    public void testSerialization() {
+        final int n = 500, dims = 8;
+        Random rnd = new Random(53L);
+        float[][] data = randomDense(rnd, n, dims);
+        HNSWIndex index = new HNSWIndex(Metric.cosine, dims, 8, 50, 31L);
+        for (int i = 0; i < n; i++) {
+            index.add(1000L + i, data[i]);
+        }
+        byte[] b = index.serialize();
+        HNSWIndex copy = HNSWIndex.deserialize(b, 0, b.length);
+        Assert.assertEquals(n, copy.size());
+        Assert.assertEquals(Metric.cosine, copy.getMetric());
+        Assert.assertArrayEquals(b, copy.serialize());
+
+        int[] nodes1 = new int[5], nodes2 = new int[5];
+        float[] dists1 = new float[5], dists2 = new float[5];
+        for (int i = 0; i < 20; i++) {
+            float[] q = randomDense(rnd, 1, dims)[0];
+            Assert.assertEquals(index.search(q, 5, 20, nodes1, dists1),
+                copy.search(q, 5, 20, nodes2, dists2));
+            Assert.assertArrayEquals(nodes1, nodes2);
+            Assert.assertArrayEquals(dists1, dists2, 0.f);
+            Assert.assertEquals(index.getId(nodes1[0]), copy.getId(nodes2[0]));
+        }
+    }
+
+    @Test
+    public void testSparseSerialization() {
+        Random rnd = new Random(59L);
+        HNSWIndex index = new HNSWIndex(Metric.euclid, 0, 4, 20, 31L);
+        int[][] idx = new int[100][];
+        float[][] val = new float[100][];
+        for (int i = 0; i < 100; i++) {
+            randomSparse(rnd, idx, val, i);
+            index.add(i, idx[i], val[i], idx[i].length);
+        }
+        byte[] b = index.serialize();
+        HNSWIndex copy = HNSWIndex.deserialize(b, 0, b.length);
+        Assert.assertArrayEquals(b, copy.serialize());
+
+        int[] nodes = new int[1];
+        float[] dists = new float[1];
+        Assert.assertEquals(1, copy.search(idx[42], val[42], idx[42].length, 1, 50, nodes, dists));
+        Assert.assertEquals(42L, copy.getId(nodes[0]));
+        Assert.assertEquals(0.f, dists[0], 1E-3f);
+    }
+
+    @Test
+    public void testEmpty() {
+        HNSWIndex index = new HNSWIndex(Metric.euclid, 2, 4, 10, 31L);
+        Assert.assertEquals(0, index.search(new float[2], 3, 10, new int[3], new float[3]));
+        byte[] b = index.serialize();
+        Assert.assertEquals(0, HNSWIndex.deserialize(b, 0, b.length).size());
+    }
+
+    private static float[][] randomDense(Random rnd, int n, int dims) {
+        float[][] data = new float[n][dims];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < dims; j++) {
+                data[i][j] = (float) rnd.nextGaussian();
+            }
+        }
+        return data;
+    }
+
+    private static void randomSparse(Random rnd, int[][] idx, float[][] val, int i) {
+        int nnz = 5 + rnd.nextInt(10);
+        int[] ix = new int[nnz];
+        float[] vx = new float[nnz];
+        int prev = -1;
+        for (int j = 0; j < nnz; j++) {
+            prev += 1 + rnd.nextInt(10);
+            ix[j] = prev;
+            vx[j] = rnd.nextFloat();
+        }
+        idx[i] = ix;
+        val[i] = vx;
+    }
+
+    private static Set<Integer> bruteForceEuclid(float[][] data, float[] q, int k) {
+        final float[] d = new float[data.length];
+        for (int i = 0; i < data.length; i++) {
+            d[i] = euclid(data[i], q);
+        }
+        float[] sorted = d.clone();
+        Arrays.sort(sorted);
+        Set<Integer> set = new HashSet<Integer>();
+        for (int i = 0; i < data.length; i++) {
+            if (d[i] <= sorted[k - 1]) {
+                set.add(i);
+            }
+        }
+        return set;
+    }
+
+    private static float euclid(float[] a, float[] b) {
+        float sum = 0.f;
+        for (int i = 0; i < a.length; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    private static float cosineDistance(int[] ai, float[] av, int[] bi, float[] bv) {
+        float dot = 0.f, an = 0.f, bn = 0.f;
+        for (float v : av) {
+            an += v * v;
+        }
+        for (float v : bv) {
+            bn += v * v;
+        }
+        for (int i = 0, j = 0; i < ai.length && j < bi.length;) {
+            if (ai[i] == bi[j]) {
+                dot += av[i++] * bv[j++];
+            } else if (ai[i] < bi[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return 1.f - dot / (float) (Math.sqrt(an) * Math.sqrt(bn));
+    }
+
+    private static void println(String msg) {
+        if (DEBUG) {
+            System.out.println(msg);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.MapredContextAccessor;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HNSWSearchUDTFTest {
+
+    @Test
+    public void testSparseShards() throws HiveException, IOException {
+        // two shards built by separate tasks
+        final File modelFile = File.createTempFile("hivemall_hnsw_model", ".txt");
+        modelFile.deleteOnExit();
+        final PrintWriter pw = new PrintWriter(modelFile, "UTF-8");
+        for (int shard = 0; shard < 2; shard++) {
+            HNSWBuildUDTF build = new HNSWBuildUDTF();
+            build.setCollector(new Collector() {
+                public void collect(Object input) throws HiveException {
+                    pw.println(((Object[]) input)[0].toString());
+                }
+            });
+            build.initialize(new ObjectInspector[] {
+                    PrimitiveObjectInspectorFactory.javaLongObjectInspector,
+                    ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                    ObjectInspectorUtils.getConstantObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                        "-metric cosine -M 4 -ef_construction 20")});
+            for (int i = shard; i < 40; i += 2) {
+                build.process(new Object[] {Long.valueOf(i), doc(i)});
+            }
+            build.close();
+        }
+        pw.close();
+
+        HNSWSearchUDTF udtf = new HNSWSearchUDTF();
+        MapredContext mapredContext = MapredContextAccessor.create(true, null);
+        udtf.configure(mapredContext);
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                rows.add(new Object[] {((IntWritable) row[0]).get(),
+                        ((LongWritable) row[1]).get(), ((FloatWritable) row[2]).get()});
+            }
+        });
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    modelFile.getAbsolutePath()),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-k 3")});
+
+        for (int i : new int[] {0, 7, 30}) {
+            rows.clear();
+            udtf.process(new Object[] {doc(i)});
+            Assert.assertEquals(3, rows.size());
+            Assert.assertEquals(1, rows.get(0)[0]);
+            Assert.assertEquals(Long.valueOf(i), rows.get(0)[1]);
+            Assert.assertEquals(0.f, ((Float) rows.get(0)[2]).floatValue(), 1E-5f);
+            float prev = -1.f;
+            for (Object[] row : rows) {
+                float d = ((Float) row[2]).floatValue();
+                Assert.assertTrue(d >= prev);
+                prev = d;
+            }
+        }
+        udtf.close();
+    }
+
+    @Test
+    public void testDense() throws HiveException, IOException {
+        final File modelFile = File.createTempFile("hivemall_hnsw_model", ".txt");
+        modelFile.deleteOnExit();
+        final PrintWriter pw = new PrintWriter(modelFile, "UTF-8");
+        HNSWBuildUDTF build = new HNSWBuildUDTF();
+        build.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                pw.println(((Object[]) input)[0].toString());
+            }
+        });
+        build.initialize(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-metric euclid")});
+        for (int i = 0; i < 100; i++) {
+            build.process(new Object[] {Integer.valueOf(i), Arrays.asList((double) i, 0.d)});
+        }
+        build.close();
+        pw.close();
+
+        HNSWSearchUDTF udtf = new HNSWSearchUDTF();
+        udtf.configure(MapredContextAccessor.create(true, null));
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                rows.add(new Object[] {((LongWritable) row[1]).get(),
+                        ((FloatWritable) row[2]).get()});
+            }
+        });
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaFloatObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    modelFile.getAbsolutePath()),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-k 2")});
+        udtf.process(new Object[] {Arrays.asList(41.8f, 0.f)});
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals(42L, rows.get(0)[0]);
+        Assert.assertEquals(0.2f, ((Float) rows.get(0)[1]).floatValue(), 1E-4f);
+        Assert.assertEquals(41L, rows.get(1)[0]);
+        Assert.assertEquals(0.8f, ((Float) rows.get(1)[1]).floatValue(), 1E-4f);
+        udtf.close();
+    }
+
+    private static List<String> doc(int i) {
+        List<String> features = new ArrayList<String>();
+        features.add("f" + (i % 5) + ":1.0");
+        features.add(String.valueOf(100 + i) + ":2.0");
+        features.add(String.valueOf(200 + (i / 4)) + ":0.5");
+        return features;
+    }
+
+}
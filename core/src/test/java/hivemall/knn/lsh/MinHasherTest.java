@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.lsh;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MinHasherTest {
+
+    @Test
+    public void testFeatureRepresentations() throws HiveException {
+        MinHasher h1 = new MinHasher(16, 3);
+        MinHasher h2 = new MinHasher(16, 3);
+        MinHasher h3 = new MinHasher(16, 3);
+        for (int i = 0; i < 30; i++) {
+            h1.addFeature(i * 7L);
+            h2.addFeature(String.valueOf(i * 7) + ":1.0", true);
+            h3.addFeature(new Text(String.valueOf(i * 7)), false);
+        }
+        for (int i = 0; i < 16; i++) {
+            Assert.assertEquals(h1.getSignature(i), h2.getSignature(i));
+            Assert.assertEquals(h1.getSignature(i), h3.getSignature(i));
+            Assert.assertEquals(h1.getMinHash(i), h3.getMinHash(i));
+        }
+
+        h1.reset();
+        h1.addFeature(new Text("あい:2.5"), true);
+        h2.reset();
+        h2.addFeature("あい:2.5", true);
+        Assert.assertEquals(h1.getSignature(0), h2.getSignature(0));
+    }
+
+    @Test
+    public void testCandidatesMatchPriorityQueue() throws HiveException {
+        final int numHashes = 8, keyGroups = 3;
+        MinHasher hasher = new MinHasher(numHashes, keyGroups);
+        Random rnd = new Random(41L);
+        int[] keys = new int[200];
+        float[] weights = new float[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rnd.nextInt();
+            weights[i] = rnd.nextFloat() * 3.f;
+            hasher.add(keys[i], weights[i]);
+        }
+
+        // reference: keep every running minimum and take the smallest ones
+        MinHasher single = new MinHasher(numHashes, 0);
+        for (int i = 0; i < numHashes; i++) {
+            PriorityQueue<Integer> pq = new PriorityQueue<Integer>();
+            float min = Float.MAX_VALUE;
+            for (int j = 0; j < keys.length; j++) {
+                single.reset();
+                single.add(keys[j], 1.f);
+                int h = single.getMinHash(i);
+                float v = h / weights[j];
+                if (v < min) {
+                    min = v;
+                    pq.offer(h);
+                }
+            }
+            int expected = 1;
+            for (int k = 0; k < keyGroups && !pq.isEmpty(); k++) {
+                expected = 31 * expected + pq.poll();
+            }
+            Assert.assertEquals(expected & 0x7FFFFFFF, hasher.getSignature(i));
+        }
+    }
+
+    @Test
+    public void testJaccardEstimate() throws HiveException {
+        final int numHashes = 512;
+        MinHasher a = new MinHasher(numHashes, 1);
+        MinHasher b = new MinHasher(numHashes, 1);
+        for (int i = 0; i < 300; i++) {
+            a.addFeature("f" + i, false);
+        }
+        for (int i = 100; i < 400; i++) {
+            b.addFeature("f" + i, false);
+        }
+        int matches = 0;
+        for (int i = 0; i < numHashes; i++) {
+            if (a.getMinHash(i) == b.getMinHash(i)) {
+                matches++;
+            }
+        }
+        // |A & B| / |A | B| = 200 / 400
+        Assert.assertEquals(0.5d, (double) matches / numHashes, 0.08d);
+    }
+
+    @Test
+    public void testEmpty() {
+        MinHasher hasher = new MinHasher(4, 2);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(0, hasher.getSignature(i));
+            Assert.assertEquals(0, hasher.getMinHash(i));
+        }
+    }
+
+    @Test(expected = HiveException.class)
+    public void testNegativeWeight() throws HiveException {
+        new MinHasher(4, 2).addFeature("a:-1.0", true);
+    }
+
+}
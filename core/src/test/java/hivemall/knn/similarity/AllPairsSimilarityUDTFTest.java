@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.similarity;
+
+import hivemall.mf.BPRMatrixFactorizationUDTFTest;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AllPairsSimilarityUDTFTest {
+    private static final boolean DEBUG = false;
+
+    @Test
+    public void testML100kCosine() throws HiveException, IOException {
+        final float threshold = 0.4f;
+
+        // columns of a user-item matrix
+        final Map<Long, List<String>> items = new HashMap<Long, List<String>>();
+        // rows of a user-item matrix; used by DIMSUM
+        final Map<String, List<String>> users = new HashMap<String, List<String>>();
+        final Map<String, Double> norms = new HashMap<String, Double>();
+        BufferedReader buf = readFile("ml1k.train.gz");
+        String line;
+        while ((line = buf.readLine()) != null) {
+            String[] cols = StringUtils.split(line, ' ');
+            Long itemID = Long.valueOf(cols[1]);
+            List<String> itemRatings = items.get(itemID);
+            if (itemRatings == null) {
+                itemRatings = new ArrayList<String>();
+                items.put(itemID, itemRatings);
+            }
+            itemRatings.add(cols[0] + ":" + cols[2]);
+
+            List<String> userRatings = users.get(cols[0]);
+            if (userRatings == null) {
+                userRatings = new ArrayList<String>();
+                users.put(cols[0], userRatings);
+            }
+            userRatings.add(cols[1] + ":" + cols[2]);
+            double rate = Double.parseDouble(cols[2]);
+            Double norm = norms.get(cols[1]);
+            norms.put(cols[1], (norm == null ? 0.d : norm.doubleValue()) + rate * rate);
+        }
+        buf.close();
+        for (Map.Entry<String, Double> e : norms.entrySet()) {
+            e.setValue(Math.sqrt(e.getValue().doubleValue()));
+        }
+
+        // brute-force
+        long started = System.nanoTime();
+        final Set<String> expected = new HashSet<String>();
+        final List<Long> itemIDs = new ArrayList<Long>(items.keySet());
+        final SparseFeatureVector[] vectors = new SparseFeatureVector[itemIDs.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = new SparseFeatureVector();
+            vectors[i].parseFeatures(items.get(itemIDs.get(i)));
+        }
+        int borderline = 0;
+        for (int i = 0; i < vectors.length; i++) {
+            for (int j = 0; j < vectors.length; j++) {
+                if (i == j) {
+                    continue;
+                }
+                float sim = SparseFeatureVector.cosineSimilarity(vectors[i], vectors[j]);
+                if (Math.abs(sim - threshold) < 1E-5f) {
+                    borderline++;
+                } else if (sim >= threshold) {
+                    expected.add(itemIDs.get(i) + "," + itemIDs.get(j));
+                }
+            }
+        }
+        println("Brute-force found " + expected.size() + " pairs in "
+                + (System.nanoTime() - started) / 1000000L + " ms");
+
+        // all-pairs
+        started = System.nanoTime();
+        final Map<String, Float> actual = allPairs(items, "-threshold " + threshold);
+        println("all_pairs_similarity found " + actual.size() + " pairs in "
+                + (System.nanoTime() - started) / 1000000L + " ms");
+        Assert.assertTrue(expected.size() > 0);
+        for (String pair : expected) {
+            Assert.assertTrue(pair, actual.containsKey(pair));
+        }
+        Assert.assertTrue(actual.size() <= expected.size() + borderline);
+        for (Map.Entry<String, Float> e : actual.entrySet()) {
+            Assert.assertTrue(e.getKey(), e.getValue().floatValue() >= threshold);
+        }
+
+        if (!DEBUG) {
+            return;
+        }
+        // DIMSUM estimates similarities above the threshold by sampling
+        started = System.nanoTime();
+        final Map<String, Double> dimsum = new HashMap<String, Double>();
+        DIMSUMMapperUDTF mapper = new DIMSUMMapperUDTF();
+        mapper.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                String key = row[0].toString() + "," + row[1].toString();
+                Double sum = dimsum.get(key);
+                dimsum.put(key, (sum == null ? 0.d : sum.doubleValue())
+                        + HiveUtils.asJavaDouble(row[2]));
+            }
+        });
+        mapper.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorFactory.getStandardMapObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-threshold "
+                            + threshold)});
+        for (List<String> user : users.values()) {
+            mapper.process(new Object[] {user, norms});
+        }
+        mapper.close();
+        int hits = 0;
+        for (String pair : expected) {
+            Double sim = dimsum.get(pair);
+            if (sim != null && sim.doubleValue() >= threshold) {
+                hits++;
+            }
+        }
+        println("DIMSUM recalled " + hits + " of " + expected.size() + " pairs in "
+                + (System.nanoTime() - started) / 1000000L + " ms");
+    }
+
+    @Test
+    public void testJaccard() throws HiveException {
+        final Random rnd = new Random(43L);
+        final Map<Long, List<String>> sets = new HashMap<Long, List<String>>();
+        for (long id = 0; id < 300; id++) {
+            List<String> set = new ArrayList<String>();
+            int size = 1 + rnd.nextInt(12);
+            for (int i = 0; i < size; i++) {
+                // skewed document frequency
+                set.add("t" + (int) Math.abs(rnd.nextGaussian() * 8));
+            }
+            sets.put(id, set);
+        }
+
+        for (float threshold : new float[] {0.3f, 0.5f, 0.8f, 1.f}) {
+            final Set<String> expected = new HashSet<String>();
+            final SparseFeatureVector x = new SparseFeatureVector();
+            final SparseFeatureVector y = new SparseFeatureVector();
+            for (Map.Entry<Long, List<String>> e1 : sets.entrySet()) {
+                x.parseTokens(e1.getValue());
+                for (Map.Entry<Long, List<String>> e2 : sets.entrySet()) {
+                    if (e1.getKey().equals(e2.getKey())) {
+                        continue;
+                    }
+                    y.parseTokens(e2.getValue());
+                    if (SparseFeatureVector.jaccardIndex(x, y) >= threshold) {
+                        expected.add(e1.getKey() + "," + e2.getKey());
+                    }
+                }
+            }
+            Map<String, Float> actual = allPairs(sets, "-measure jaccard -threshold " + threshold);
+            Assert.assertEquals("threshold=" + threshold, expected, actual.keySet());
+        }
+    }
+
+    @Test
+    public void testOutputOrder() throws HiveException {
+        final Map<Long, List<String>> vectors = new HashMap<Long, List<String>>();
+        vectors.put(3L, Arrays.asList("a:1", "b:1"));
+        vectors.put(1L, Arrays.asList("a:1", "b:1", "c:0.1"));
+        vectors.put(2L, Arrays.asList("a:1", "b:0.9"));
+        vectors.put(4L, Arrays.asList("x:1"));
+
+        final List<long[]> rows = new ArrayList<long[]>();
+        AllPairsSimilarityUDTF udtf = new AllPairsSimilarityUDTF();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                rows.add(new long[] {((LongWritable) row[0]).get(), ((LongWritable) row[1]).get()});
+            }
+        });
+        udtf.initialize(argOIs("-threshold 0.9"));
+        for (long id : new long[] {3L, 1L, 2L, 4L}) {
+            udtf.process(new Object[] {id, vectors.get(id)});
+        }
+        udtf.close();
+        // grouped by the first column in the input order
+        Assert.assertEquals(6, rows.size());
+        for (int r = 0; r < rows.size(); r++) {
+            long expectedFirst = (r < 2) ? 3L : (r < 4) ? 1L : 2L;
+            Assert.assertEquals(expectedFirst, rows.get(r)[0]);
+        }
+
+        rows.clear();
+        udtf.initialize(argOIs("-threshold 0.9 -disable_symmetric_output"));
+        for (long id : new long[] {3L, 1L, 2L, 4L}) {
+            udtf.process(new Object[] {id, vectors.get(id)});
+        }
+        udtf.close();
+        Assert.assertEquals(3, rows.size());
+        for (long[] row : rows) {
+            Assert.assertTrue(row[0] < row[1]);
+        }
+    }
+
+    @Nonnull
+    private static Map<String, Float> allPairs(@Nonnull final Map<Long, List<String>> vectors,
+            @Nonnull final String options) throws HiveException {
+        final Map<String, Float> pairs = new HashMap<String, Float>();
+        AllPairsSimilarityUDTF udtf = new AllPairsSimilarityUDTF();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                String key = row[0].toString() + "," + row[1].toString();
+                Assert.assertNull(key, pairs.put(key, ((FloatWritable) row[2]).get()));
+            }
+        });
+        udtf.initialize(argOIs(options));
+        for (Map.Entry<Long, List<String>> e : vectors.entrySet()) {
+            udtf.process(new Object[] {e.getKey(), e.getValue()});
+        }
+        udtf.close();
+        return pairs;
+    }
+
+    @Nonnull
+    private static ObjectInspector[] argOIs(@Nonnull final String options) {
+        return new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaLongObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, options)};
+    }
+
+    @Nonnull
+    private static BufferedReader readFile(@Nonnull String fileName) throws IOException {
+        // use MF's resource file
+        InputStream is = BPRMatrixFactorizationUDTFTest.class.getResourceAsStream(fileName);
+        if (fileName.endsWith(".gz")) {
+            is = new GZIPInputStream(is);
+        }
+        return new BufferedReader(new InputStreamReader(is));
+    }
+
+    private static void println(String msg) {
+        if (DEBUG) {
+            System.out.println(msg);
+        }
+    }
+
+}
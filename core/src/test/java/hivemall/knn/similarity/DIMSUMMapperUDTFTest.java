@@ -356,6 +356,82 @@ public class DIMSUMMapperUDTFTest {
             emitCounter.getValue() < numMaxEmits);
     }
 
+    @Test
+    public void testInMapperCombining() throws HiveException, IOException {
+        final List<List<String>> users = new ArrayList<List<String>>();
+        final Map<Integer, Double> norms = new HashMap<Integer, Double>();
+        final Map<String, List<String>> userMap = new HashMap<String, List<String>>();
+        BufferedReader buf = readFile("ml1k.train.gz");
+        String line;
+        while ((line = buf.readLine()) != null) {
+            String[] cols = StringUtils.split(line, ' ');
+            List<String> userRatings = userMap.get(cols[0]);
+            if (userRatings == null) {
+                userRatings = new ArrayList<String>();
+                userMap.put(cols[0], userRatings);
+                users.add(userRatings);
+            }
+            userRatings.add(cols[1] + ":" + cols[2]);
+            double rate = Double.parseDouble(cols[2]);
+            Integer itemID = Integer.valueOf(cols[1]);
+            Double norm = norms.get(itemID);
+            norms.put(itemID, (norm == null ? 0.d : norm.doubleValue()) + rate * rate);
+        }
+        buf.close();
+        for (Map.Entry<Integer, Double> e : norms.entrySet()) {
+            e.setValue(Math.sqrt(e.getValue().doubleValue()));
+        }
+
+        final MutableInt emitCounter = new MutableInt(0);
+        final Map<String, Double> sims = new HashMap<String, Double>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                emitCounter.addValue(1);
+                Object[] row = (Object[]) input;
+                String key = row[0].toString() + "," + row[1].toString();
+                Double sum = sims.get(key);
+                sims.put(key, (sum == null ? 0.d : sum.doubleValue())
+                        + HiveUtils.asJavaDouble(row[2]));
+            }
+        });
+
+        final String[] options = new String[] {"-max_combined_pairs 0",
+                "-max_combined_pairs 1000", ""};
+        final List<Map<String, Double>> results = new ArrayList<Map<String, Double>>();
+        final int[] emits = new int[options.length];
+        for (int i = 0; i < options.length; i++) {
+            udtf.initialize(new ObjectInspector[] {
+                    ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                    ObjectInspectorFactory.getStandardMapObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                        PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                    ObjectInspectorUtils.getConstantObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                        "-threshold 0.5 -int_feature -disable_symmetric_output " + options[i])});
+            for (List<String> user : users.subList(0, 100)) {
+                udtf.process(new Object[] {user, norms});
+            }
+            udtf.close();
+            println(options[i] + ": " + emitCounter.getValue() + " rows");
+            emits[i] = emitCounter.getValue();
+            results.add(new HashMap<String, Double>(sims));
+            emitCounter.setValue(0);
+            sims.clear();
+        }
+
+        // combining changes only the number of output rows
+        Assert.assertTrue(emits[1] < emits[0]);
+        Assert.assertTrue(emits[2] < emits[1]);
+        Assert.assertEquals(results.get(2).size(), emits[2]);
+        for (int i = 1; i < options.length; i++) {
+            Assert.assertEquals(results.get(0).keySet(), results.get(i).keySet());
+            for (Map.Entry<String, Double> e : results.get(0).entrySet()) {
+                Assert.assertEquals(e.getValue().doubleValue(),
+                    results.get(i).get(e.getKey()).doubleValue(), 1e-6);
+            }
+        }
+    }
+
     @Nonnull
     private static BufferedReader readFile(@Nonnull String fileName) throws IOException {
         // use MF's resource file
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseFeatureVectorTest {
+
+    @Test
+    public void testMeasuresMatchHashMap() {
+        final Random rnd = new Random(43L);
+        final SparseFeatureVector x = new SparseFeatureVector(2);
+        final SparseFeatureVector y = new SparseFeatureVector(2);
+        for (int trial = 0; trial < 200; trial++) {
+            Map<String, Float> m1 = randomVector(rnd);
+            Map<String, Float> m2 = randomVector(rnd);
+            x.parseFeatures(toList(m1));
+            y.parseFeatures(toList(m2));
+
+            double dot = 0.d, norm1 = 0.d, norm2 = 0.d, euclid = 0.d, manhattan = 0.d;
+            Set<String> keys = new HashSet<String>(m1.keySet());
+            keys.addAll(m2.keySet());
+            for (String k : keys) {
+                float v1 = m1.containsKey(k) ? m1.get(k) : 0.f;
+                float v2 = m2.containsKey(k) ? m2.get(k) : 0.f;
+                dot += v1 * v2;
+                norm1 += v1 * v1;
+                norm2 += v2 * v2;
+                euclid += (v1 - v2) * (v1 - v2);
+                manhattan += Math.abs(v1 - v2);
+            }
+            float cosine = (norm1 == 0.d || norm2 == 0.d) ? 0.f
+                    : (float) (dot / (Math.sqrt(norm1) * Math.sqrt(norm2)));
+            Assert.assertEquals(cosine, SparseFeatureVector.cosineSimilarity(x, y), 1E-5f);
+            Assert.assertEquals(euclid, SparseFeatureVector.squaredEuclidDistance(x, y), 1E-3d);
+            Assert.assertEquals(manhattan, SparseFeatureVector.manhattanDistance(x, y), 1E-3d);
+
+            Set<String> intersect = new HashSet<String>(m1.keySet());
+            intersect.retainAll(m2.keySet());
+            float jaccard = keys.isEmpty() ? 1.f : intersect.size() / (float) keys.size();
+            x.parseTokens(new ArrayList<String>(m1.keySet()));
+            y.parseTokens(new ArrayList<String>(m2.keySet()));
+            Assert.assertEquals(jaccard, SparseFeatureVector.jaccardIndex(x, y), 1E-6f);
+        }
+    }
+
+    @Test
+    public void testKeys() {
+        Assert.assertEquals(7L, SparseFeatureVector.key("7", 1));
+        Assert.assertEquals(0L, SparseFeatureVector.key("0", 1));
+        Assert.assertEquals(-12L, SparseFeatureVector.key("-12", 3));
+        Assert.assertEquals(7L, SparseFeatureVector.key("7:2.0", 1));
+        Assert.assertEquals(Integer.MAX_VALUE, SparseFeatureVector.key("2147483647", 10));
+        Assert.assertEquals(Integer.MIN_VALUE, SparseFeatureVector.key("-2147483648", 11));
+
+        // not canonical forms of ints are hashed out of the int range
+        for (String s : new String[] {"007", "-0", "+7", "2147483648", "-2147483649",
+                "12345678901", "apple", "", "-"}) {
+            long k = SparseFeatureVector.key(s, s.length());
+            Assert.assertTrue(s, k < Integer.MIN_VALUE || k > Integer.MAX_VALUE);
+        }
+        Assert.assertNotEquals(SparseFeatureVector.key("007", 3), SparseFeatureVector.key("07", 2));
+    }
+
+    @Test
+    public void testDuplicateFeatures() {
+        SparseFeatureVector x = new SparseFeatureVector();
+        SparseFeatureVector y = new SparseFeatureVector();
+        x.parseFeatures(Arrays.asList("b:1.0", "a:2.0", "b:2.0", null));
+        y.parseFeatures(Arrays.asList("a:2.0", "b:3.0"));
+        Assert.assertEquals(2, x.size());
+        Assert.assertEquals(0.d, SparseFeatureVector.squaredEuclidDistance(x, y), 0.d);
+    }
+
+    @Test
+    public void testIntFeatures() throws HiveException {
+        CosineSimilarityUDF cosine = new CosineSimilarityUDF();
+        cosine.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector),
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector)});
+        float sim = cosine.evaluate(
+            new DeferredObject[] {new DeferredJavaObject(Arrays.asList(3, 1, 2, -5)),
+                    new DeferredJavaObject(Arrays.asList("1", "2", "-5", "007"))}).get();
+        Assert.assertEquals(CosineSimilarityUDF.cosineSimilarity(Arrays.asList("3", "1", "2", "-5"),
+            Arrays.asList("1", "2", "-5", "007")), sim, 1E-6f);
+        Assert.assertEquals(3.f / 4.f, sim, 1E-6f);
+
+        float nullSim = cosine.evaluate(
+            new DeferredObject[] {new DeferredJavaObject(null),
+                    new DeferredJavaObject(Arrays.asList("1"))}).get();
+        Assert.assertEquals(0.f, nullSim, 0.f);
+    }
+
+    @Test
+    public void testJaccardIndexUDF() {
+        JaccardIndexUDF udf = new JaccardIndexUDF();
+        Assert.assertEquals(0.5f,
+            udf.evaluate(Arrays.asList("a", "b", "c"), Arrays.asList("b", "c", "d", "c")).get(),
+            1E-6f);
+        Assert.assertEquals(0.f, udf.evaluate(Arrays.asList("a:1"), Arrays.asList("a:2")).get(),
+            0.f);
+        Assert.assertEquals(1.f,
+            udf.evaluate(new ArrayList<String>(), new ArrayList<String>()).get(), 0.f);
+        Assert.assertEquals(0.f, udf.evaluate(Arrays.asList("a"), new ArrayList<String>()).get(),
+            0.f);
+    }
+
+    private static Map<String, Float> randomVector(final Random rnd) {
+        final Map<String, Float> map = new HashMap<String, Float>();
+        final int size = rnd.nextInt(30);
+        for (int i = 0; i < size; i++) {
+            String feature = rnd.nextBoolean() ? String.valueOf(rnd.nextInt(50))
+                    : "f" + rnd.nextInt(50);
+            map.put(feature, rnd.nextFloat() * 4.f - 2.f);
+        }
+        return map;
+    }
+
+    private static List<String> toList(final Map<String, Float> map) {
+        final List<String> list = new ArrayList<String>(map.size());
+        for (Map.Entry<String, Float> e : map.entrySet()) {
+            list.add(e.getKey() + ':' + e.getValue());
+        }
+        return list;
+    }
+
+}
@@ -19,6 +19,7 @@
 package hivemall.mf;
 
 import hivemall.mf.FactorizedModel.RankInitScheme;
+import hivemall.utils.io.ReplayBuffer;
 import hivemall.utils.lang.mutable.MutableInt;
 
 import java.io.File;
@@ -263,6 +264,7 @@ public class MatrixFactorizationSGDUDTFTest {
         MapredContext mrContext = MapredContextAccessor.create(true, null);
         mf.configure(mrContext);
         mf.initialize(argOIs);
+        mf.replayBuf = new ReplayBuffer("hivemall_mf", 65536, 2, 0L); // 64 KiB blocks to spill
         final MutableInt numCollected = new MutableInt(0);
         mf.setCollector(new Collector() {
             @Override
@@ -289,7 +291,8 @@ public class MatrixFactorizationSGDUDTFTest {
             }
         }
 
-        File tmpFile = mf.fileIO.getFile();
+        Assert.assertTrue(mf.replayBuf.isSpilled());
+        File tmpFile = mf.replayBuf.getFile();
         mf.close();
         Assert.assertTrue(mf.count < trainingExamples * iters);
         Assert.assertEquals(5, numCollected.intValue());
@@ -311,6 +314,7 @@ public class MatrixFactorizationSGDUDTFTest {
         MapredContext mrContext = MapredContextAccessor.create(true, null);
         mf.configure(mrContext);
         mf.initialize(argOIs);
+        mf.replayBuf = new ReplayBuffer("hivemall_mf", 65536, 2, 0L); // 64 KiB blocks to spill
         final MutableInt numCollected = new MutableInt(0);
         mf.setCollector(new Collector() {
             @Override
@@ -337,7 +341,8 @@ public class MatrixFactorizationSGDUDTFTest {
             }
         }
 
-        File tmpFile = mf.fileIO.getFile();
+        Assert.assertTrue(mf.replayBuf.isSpilled());
+        File tmpFile = mf.replayBuf.getFile();
         mf.close();
         Assert.assertEquals(trainingExamples * iters, mf.count);
         Assert.assertEquals(5, numCollected.intValue());
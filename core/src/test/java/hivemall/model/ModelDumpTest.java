@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.apache.hadoop.hive.ql.exec.MapredContextAccessor;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ModelDumpTest {
+
+    @Test
+    public void testDenseModelWithCovar() throws IOException {
+        File dir = createTempDir();
+        try {
+            File file = new File(dir, "000000_0");
+            PrintWriter pw = new PrintWriter(file);
+            for (int i = 1; i <= 1000; i++) {
+                if (i % 100 == 0) {
+                    pw.println(i + "\001\\N\0010.5"); // null weight
+                } else if (i % 10 == 0) {
+                    pw.println(i + "\001" + (i * 0.1f) + "\001\\N"); // null covariance
+                } else {
+                    pw.println(i + "\001" + (i * 0.1f) + "\001" + (1.f / i));
+                }
+            }
+            pw.close();
+            MapredContextAccessor.create(true, null);
+
+            ModelDump dump = ModelDump.map(file,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector, true);
+            Assert.assertEquals(990, dump.size());
+            NewDenseModel model = new NewDenseModel(100, true);
+            dump.loadTo(model);
+            assertModel(model, true);
+
+            // the dump is reused
+            Assert.assertEquals(2, dir.listFiles().length);
+            dump = ModelDump.map(file, PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                true);
+            NewSparseModel sparse = new NewSparseModel(100, true);
+            dump.loadTo(sparse);
+            Assert.assertEquals(990, sparse.size());
+            assertModel(sparse, true);
+            Assert.assertEquals(2, dir.listFiles().length);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testSparseModelWithStringFeatures() throws IOException {
+        File dir = createTempDir();
+        try {
+            File file = new File(dir, "000000_0");
+            PrintWriter pw = new PrintWriter(file);
+            for (int i = 1; i <= 1000; i++) {
+                pw.println("f" + i + "\001" + (i * 0.1f));
+            }
+            pw.println("\\N\0011.0");
+            pw.close();
+            MapredContextAccessor.create(true, null);
+
+            ModelDump dump = ModelDump.map(file,
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector, false);
+            Assert.assertEquals(1000, dump.size());
+            NewSparseModel model = new NewSparseModel(100, false);
+            dump.loadTo(model);
+            Assert.assertEquals(1000, model.size());
+            for (int i = 1; i <= 1000; i++) {
+                Assert.assertEquals(i * 0.1f, model.getWeight(new Text("f" + i)), 0.f);
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static void assertModel(PredictionModel model, boolean hasCovar) {
+        for (int i = 1; i <= 1000; i++) {
+            IntWritable k = new IntWritable(i);
+            if (i % 100 == 0) {
+                Assert.assertEquals(0.f, model.getWeight(k), 0.f);
+            } else {
+                Assert.assertEquals(i * 0.1f, model.getWeight(k), 0.f);
+                if (hasCovar) {
+                    float expected = (i % 10 == 0) ? 1.f : 1.f / i;
+                    Assert.assertEquals(expected, model.getCovariance(k), 0.f);
+                }
+            }
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("model", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EachTopKPartialUDTFTest {
+
+    @Test
+    public void testTopK() throws HiveException {
+        runTest(3, 1 << 20);
+    }
+
+    @Test
+    public void testTailK() throws HiveException {
+        runTest(-3, 1 << 20);
+    }
+
+    @Test
+    public void testFlushByCap() throws HiveException {
+        runTest(5, 50);
+    }
+
+    private static void runTest(final int k, final int maxBufferedRows) throws HiveException {
+        final int numGroups = 20;
+        final int numRows = 10000;
+
+        EachTopKPartialUDTF udtf = new EachTopKPartialUDTF();
+        udtf.setMaxBufferedRows(maxBufferedRows);
+        ObjectInspector[] argOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(k)),
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector};
+        udtf.initialize(argOIs);
+
+        final Map<String, List<Double>> outputs = new HashMap<String, List<Double>>();
+        final int[] numForwarded = new int[1];
+        udtf.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                Assert.assertEquals(3, row.length);
+                String group = row[0].toString();
+                double key = ((DoubleWritable) row[1]).get();
+                Assert.assertEquals((int) key, ((Integer) row[2]).intValue());
+                List<Double> keys = outputs.get(group);
+                if (keys == null) {
+                    keys = new ArrayList<Double>();
+                    outputs.put(group, keys);
+                }
+                keys.add(key);
+                numForwarded[0]++;
+            }
+        });
+
+        // a few hot groups get most of the rows
+        final Map<String, List<Double>> inputs = new HashMap<String, List<Double>>();
+        final Random rand = new Random(43L);
+        for (int i = 0; i < numRows; i++) {
+            int g = (rand.nextInt(4) == 0) ? rand.nextInt(numGroups) : rand.nextInt(2);
+            String group = "g" + g;
+            int value = rand.nextInt(100000);
+            udtf.process(new Object[] {null, new Text(group), Double.valueOf(value),
+                    Integer.valueOf(value)});
+            List<Double> keys = inputs.get(group);
+            if (keys == null) {
+                keys = new ArrayList<Double>();
+                inputs.put(group, keys);
+            }
+            keys.add(Double.valueOf(value));
+        }
+        udtf.close();
+
+        final int absK = Math.abs(k);
+        Assert.assertEquals(inputs.keySet(), outputs.keySet());
+        for (Map.Entry<String, List<Double>> e : inputs.entrySet()) {
+            List<Double> expected = e.getValue();
+            List<Double> actual = outputs.get(e.getKey());
+            if (k > 0) {
+                Collections.sort(expected, Collections.reverseOrder());
+                Collections.sort(actual, Collections.reverseOrder());
+            } else {
+                Collections.sort(expected);
+                Collections.sort(actual);
+            }
+            int n = Math.min(absK, expected.size());
+            Assert.assertEquals(expected.subList(0, n), actual.subList(0, n));
+        }
+
+        if (maxBufferedRows >= numRows) {
+            Assert.assertTrue(numForwarded[0] <= numGroups * absK);
+        } else {
+            Assert.assertTrue(numForwarded[0] < numRows);
+        }
+    }
+
+}
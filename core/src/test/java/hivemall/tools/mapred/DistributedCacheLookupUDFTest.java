@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools.mapred;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.exec.MapredContextAccessor;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistributedCacheLookupUDFTest {
+
+    @Test
+    public void testLookupTable() {
+        LookupTable.Builder builder = new LookupTable.Builder();
+        for (int i = 0; i < 10000; i++) {
+            builder.add(bytes("k" + i), bytes("v" + i));
+        }
+        builder.add(bytes("k7"), bytes("overwritten"));
+        builder.add(bytes("null"), null);
+        LookupTable table = new LookupTable(ByteBuffer.wrap(builder.build()));
+
+        Assert.assertEquals(10001, table.size());
+        for (int i = 0; i < 10000; i++) {
+            String expected = (i == 7) ? "overwritten" : "v" + i;
+            Assert.assertEquals(expected, get(table, "k" + i));
+        }
+        Assert.assertEquals(-1, table.find(bytes("k10000"), 6));
+        int i = table.find(bytes("null"), 4);
+        Assert.assertTrue(i >= 0);
+        Assert.assertEquals(-1, table.valueLength(i));
+
+        // merge
+        LookupTable.Builder merged = new LookupTable.Builder();
+        merged.addAll(table);
+        merged.add(bytes("k1"), bytes("merged"));
+        table = new LookupTable(ByteBuffer.wrap(merged.build()));
+        Assert.assertEquals(10001, table.size());
+        Assert.assertEquals("merged", get(table, "k1"));
+        Assert.assertEquals("overwritten", get(table, "k7"));
+    }
+
+    @Test
+    public void testDistcacheGets() throws IOException, HiveException {
+        File dir = File.createTempFile("lookup", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            // two shards built by two aggregations
+            writeLines(new File(dir, "000000_0"), buildShard(0, 500), buildShard(500, 1000));
+            writeLines(new File(dir, "_SUCCESS"));
+            MapredContextAccessor.create(true, null);
+
+            DistributedCacheLookupUDF udf = new DistributedCacheLookupUDF();
+            udf.initialize(new ObjectInspector[] {
+                    PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        TypeInfoFactory.stringTypeInfo, new Text(dir.getAbsolutePath())),
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                    PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        TypeInfoFactory.floatTypeInfo, new FloatWritable(-1.f))});
+            for (int i = 0; i < 1000; i++) {
+                Object v = udf.evaluate(new DeferredObject[] {null,
+                        new DeferredJavaObject(Integer.valueOf(i)), null});
+                if (i % 10 == 0) {
+                    Assert.assertEquals(-1.f, ((FloatWritable) v).get(), 0.f);
+                } else {
+                    Assert.assertEquals(i * 0.5f, ((FloatWritable) v).get(), 0.f);
+                }
+            }
+            Object v = udf.evaluate(new DeferredObject[] {null,
+                    new DeferredJavaObject(Integer.valueOf(1000)), null});
+            Assert.assertEquals(-1.f, ((FloatWritable) v).get(), 0.f);
+
+            // multiple keys
+            DistributedCacheLookupUDF udf2 = new DistributedCacheLookupUDF();
+            udf2.initialize(new ObjectInspector[] {
+                    PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        TypeInfoFactory.stringTypeInfo, new Text(dir.getAbsolutePath())),
+                    ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector),
+                    PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        TypeInfoFactory.floatTypeInfo, new FloatWritable(-1.f))});
+            @SuppressWarnings("unchecked")
+            Map<Object, Object> map = (Map<Object, Object>) udf2.evaluate(new DeferredObject[] {
+                    null, new DeferredJavaObject(Arrays.asList(1, 2, 10)), null});
+            Assert.assertEquals(3, map.size());
+            Assert.assertEquals(0.5f, ((FloatWritable) map.get(1)).get(), 0.f);
+            Assert.assertEquals(1.f, ((FloatWritable) map.get(2)).get(), 0.f);
+            Assert.assertEquals(-1.f, ((FloatWritable) map.get(10)).get(), 0.f);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testFileClassification() throws IOException, HiveException {
+        File dir = File.createTempFile("lookup", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            // a key-value text file having no '\001' in the first line is not a lookup table
+            writeLines(new File(dir, "000000_0"), "k0", "k1\0010.5");
+            writeLines(new File(dir, "000001_0"));
+            Assert.assertNull(DistributedCacheLookupUDF.loadLookupTables(dir));
+
+            writeLines(new File(dir, "000002_0"), buildShard(0, 100));
+            try {
+                DistributedCacheLookupUDF.loadLookupTables(dir);
+                Assert.fail("mixed files should not be loaded");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("mixed"));
+            }
+
+            new File(dir, "000000_0").delete();
+            LookupTable[] tables = DistributedCacheLookupUDF.loadLookupTables(dir);
+            Assert.assertNotNull(tables);
+            Assert.assertEquals(1, tables.length);
+            Assert.assertEquals(90, tables[0].size());
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Nonnull
+    private static String buildShard(final int start, final int end) throws HiveException {
+        BuildLookupTableUDAF resolver = new BuildLookupTableUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(new TypeInfo[] {
+                TypeInfoFactory.intTypeInfo, TypeInfoFactory.floatTypeInfo});
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                PrimitiveObjectInspectorFactory.writableFloatObjectInspector};
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+
+        // split inputs into two partial aggregations
+        final List<BytesWritable> partials = new ArrayList<BytesWritable>();
+        final int mid = (start + end) / 2;
+        for (int[] range : new int[][] { {start, mid}, {mid, end}}) {
+            @SuppressWarnings("deprecation")
+            AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = range[0]; i < range[1]; i++) {
+                if (i % 10 == 0) {
+                    continue;
+                }
+                partial.iterate(agg, new Object[] {new IntWritable(i), new FloatWritable(i * 0.5f)});
+            }
+            partials.add((BytesWritable) partial.terminatePartial(agg));
+        }
+
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(new TypeInfo[] {
+                TypeInfoFactory.intTypeInfo, TypeInfoFactory.floatTypeInfo});
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg = finalEval.getNewAggregationBuffer();
+        for (BytesWritable b : partials) {
+            finalEval.merge(agg, b);
+        }
+        return finalEval.terminate(agg).toString();
+    }
+
+    private static void writeLines(@Nonnull File file, @Nonnull String... lines)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Nonnull
+    private static byte[] bytes(@Nonnull String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Nonnull
+    private static String get(@Nonnull LookupTable table, @Nonnull String key) {
+        byte[] k = bytes(key);
+        int i = table.find(k, k.length);
+        Assert.assertTrue(key, i >= 0);
+        byte[] v = new byte[table.valueLength(i)];
+        table.copyValue(i, v);
+        return new String(v, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApproxQuantilesUDAFTest {
+
+    @Test
+    public void testScalar() throws HiveException {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.doubleTypeInfo, new DoubleWritable(0.5d))};
+        GenericUDAFEvaluator eval = new ApproxQuantilesUDAF().getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        eval.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+
+        @SuppressWarnings("deprecation")
+        AggregationBuffer agg = eval.getNewAggregationBuffer();
+        Assert.assertNull(eval.terminate(agg));
+        for (int i = 1; i <= 101; i++) {
+            eval.iterate(agg, new Object[] {i});
+        }
+        eval.iterate(agg, new Object[] {null});
+        Assert.assertEquals(51.d, ((DoubleWritable) eval.terminate(agg)).get(), 0.d);
+    }
+
+    @Test
+    public void testMerge() throws HiveException {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                ObjectInspectorFactory.getStandardConstantListObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableDoubleObjectInspector,
+                    Arrays.asList(new DoubleWritable(0.d), new DoubleWritable(0.1d),
+                        new DoubleWritable(0.5d), new DoubleWritable(0.99d),
+                        new DoubleWritable(1.d))),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(400))};
+        ApproxQuantilesUDAF resolver = new ApproxQuantilesUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+
+        final int n = 100000;
+        for (int p = 0; p < 10; p++) {
+            @SuppressWarnings("deprecation")
+            AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = p; i < n; i += 10) {
+                partial.iterate(agg, new Object[] {Double.valueOf(i)});
+            }
+            finalEval.merge(merged, partial.terminatePartial(agg));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<DoubleWritable> result = (List<DoubleWritable>) finalEval.terminate(merged);
+        Assert.assertEquals(5, result.size());
+        Assert.assertEquals(0.d, result.get(0).get(), 0.d);
+        Assert.assertEquals(0.1d * n, result.get(1).get(), 0.01d * n);
+        Assert.assertEquals(0.5d * n, result.get(2).get(), 0.01d * n);
+        Assert.assertEquals(0.99d * n, result.get(3).get(), 0.01d * n);
+        Assert.assertEquals(n - 1, result.get(4).get(), 0.d);
+    }
+
+    @Test
+    public void testSeed() throws HiveException {
+        ObjectInspector valueOI = PrimitiveObjectInspectorFactory.javaDoubleObjectInspector;
+        ObjectInspector quantilesOI = ObjectInspectorFactory.getStandardConstantListObjectInspector(
+            PrimitiveObjectInspectorFactory.writableDoubleObjectInspector,
+            Arrays.asList(new DoubleWritable(0.1d), new DoubleWritable(0.5d),
+                new DoubleWritable(0.9d)));
+
+        // the same query returns the same result
+        ObjectInspector[] inputOIs = new ObjectInspector[] {valueOI, quantilesOI};
+        List<Double> expected = mergeSkewed(inputOIs);
+        Assert.assertEquals(expected, mergeSkewed(inputOIs));
+
+        inputOIs = new ObjectInspector[] {valueOI, quantilesOI,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(50)),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-seed 43"))};
+        List<Double> seeded = mergeSkewed(inputOIs);
+        Assert.assertEquals(seeded, mergeSkewed(inputOIs));
+        Assert.assertNotEquals(mergeSkewed(new ObjectInspector[] {valueOI, quantilesOI,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(50)),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.stringTypeInfo, new Text("-seed 44"))}), seeded);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(expected.get(i).doubleValue(), seeded.get(i).doubleValue(),
+                0.05d * 100000);
+        }
+    }
+
+    @Nonnull
+    private static List<Double> mergeSkewed(@Nonnull final ObjectInspector[] inputOIs)
+            throws HiveException {
+        ApproxQuantilesUDAF resolver = new ApproxQuantilesUDAF();
+        GenericUDAFEvaluator partial = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        ObjectInspector partialOI = partial.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator finalEval = resolver.getEvaluator(new SimpleGenericUDAFParameterInfo(
+            inputOIs, false, false));
+        finalEval.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        @SuppressWarnings("deprecation")
+        AggregationBuffer merged = finalEval.getNewAggregationBuffer();
+
+        for (int p = 0; p < 4; p++) {
+            @SuppressWarnings("deprecation")
+            AggregationBuffer agg = partial.getNewAggregationBuffer();
+            for (int i = p; i < 100000; i += 4) {
+                partial.iterate(agg, new Object[] {Double.valueOf(i)});
+            }
+            finalEval.merge(merged, partial.terminatePartial(agg));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<DoubleWritable> result = (List<DoubleWritable>) finalEval.terminate(merged);
+        List<Double> values = new ArrayList<Double>(result.size());
+        for (DoubleWritable v : result) {
+            values.add(v.get());
+        }
+        return values;
+    }
+
+}
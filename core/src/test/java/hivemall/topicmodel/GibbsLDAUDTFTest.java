@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.topicmodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GibbsLDAUDTFTest {
+    private static final boolean DEBUG = false;
+
+    @Test
+    public void test() throws HiveException {
+        GibbsLDAUDTF udtf = new GibbsLDAUDTF();
+
+        ObjectInspector[] argOIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-topics 2 -alpha 0.1 -eta 0.01 -iter 50")};
+
+        udtf.initialize(argOIs);
+
+        String[] doc1 = new String[] {"fruits:3", "healthy:3", "vegetables:3"};
+        String[] doc2 = new String[] {"apples:3", "avocados:3", "colds:3", "flu:3", "like:6",
+                "oranges:3"};
+        for (int i = 0; i < 5; i++) {
+            udtf.process(new Object[] {Arrays.asList(doc1)});
+            udtf.process(new Object[] {Arrays.asList(doc2)});
+        }
+
+        udtf.closeWithoutModelReset();
+
+        for (int k = 0; k < 2; k++) {
+            println("Topic " + k + ":");
+            println("========");
+            SortedMap<Float, List<String>> topicWords = udtf.getTopicWords(k);
+            for (Map.Entry<Float, List<String>> e : topicWords.entrySet()) {
+                for (String word : e.getValue()) {
+                    println(e.getKey() + " " + word);
+                }
+            }
+            println("========");
+        }
+
+        final int k1 = (udtf.getWordProbability("vegetables", 0) > udtf.getWordProbability(
+            "vegetables", 1)) ? 0 : 1;
+        final int k2 = 1 - k1;
+
+        Assert.assertTrue("`vegetables` SHOULD be more suitable topic word than `flu` in topic "
+                + k1, udtf.getWordProbability("vegetables", k1) > udtf.getWordProbability("flu",
+            k1));
+        Assert.assertTrue("`avocados` SHOULD be more suitable topic word than `healthy` in topic "
+                + k2, udtf.getWordProbability("avocados", k2) > udtf.getWordProbability(
+            "healthy", k2));
+    }
+
+    @Test
+    public void testManyTopics() throws HiveException {
+        final int numTopics = 20;
+        final int wordsPerTopic = 10;
+
+        GibbsLDAUDTF udtf = new GibbsLDAUDTF();
+        ObjectInspector[] argOIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-topics "
+                            + numTopics + " -alpha 0.05 -eta 0.01 -iter 100")};
+        udtf.initialize(argOIs);
+
+        // each document is generated from a single topic of disjoint words
+        final Random rnd = new Random(43L);
+        for (int d = 0; d < 400; d++) {
+            final int z = d % numTopics;
+            final List<String> doc = new ArrayList<String>();
+            for (int j = 0; j < wordsPerTopic; j++) {
+                doc.add("w" + z + "_" + j + ":" + (1 + rnd.nextInt(3)));
+            }
+            udtf.process(new Object[] {doc});
+        }
+
+        udtf.closeWithoutModelReset();
+
+        // words of a true topic SHOULD be assigned to the same learned topic
+        int recovered = 0;
+        for (int z = 0; z < numTopics; z++) {
+            final int best = argmaxTopic(udtf, "w" + z + "_0", numTopics);
+            boolean consistent = true;
+            for (int j = 1; j < wordsPerTopic; j++) {
+                if (argmaxTopic(udtf, "w" + z + "_" + j, numTopics) != best) {
+                    consistent = false;
+                }
+            }
+            if (consistent) {
+                recovered++;
+            }
+        }
+        println("Recovered " + recovered + " of " + numTopics + " topics");
+        Assert.assertTrue("Recovered only " + recovered + " topics", recovered >= numTopics * 0.8);
+    }
+
+    private static int argmaxTopic(GibbsLDAUDTF udtf, String word, int numTopics) {
+        int best = -1;
+        float bestProb = -1.f;
+        for (int k = 0; k < numTopics; k++) {
+            float p = udtf.getWordProbability(word, k);
+            if (p > bestProb) {
+                bestProb = p;
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    private static void println(String msg) {
+        if (DEBUG) {
+            System.out.println(msg);
+        }
+    }
+}
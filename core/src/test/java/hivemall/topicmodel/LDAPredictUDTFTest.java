@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.topicmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.MapredContextAccessor;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LDAPredictUDTFTest {
+
+    @Test
+    public void testSameAsOnlineLDAModel() throws HiveException, IOException {
+        final String[] doc1 = new String[] {"fruits:1", "healthy:1", "vegetables:1"};
+        final String[] doc2 = new String[] {"apples:1", "avocados:1", "colds:1", "flu:1",
+                "like:2", "oranges:1"};
+
+        // train a model and dump it to a file as <label, word, lambda>
+        final File modelFile = File.createTempFile("hivemall_lda_model", ".txt");
+        modelFile.deleteOnExit();
+        final Map<String, float[]> lambdaMap = new HashMap<String, float[]>();
+        final PrintWriter pw = new PrintWriter(modelFile, "UTF-8");
+        LDAUDTF train = new LDAUDTF();
+        train.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                int label = ((IntWritable) row[0]).get();
+                String word = row[1].toString();
+                float lambda = ((FloatWritable) row[2]).get();
+                pw.println(label + "\001" + word + "\001" + lambda);
+
+                float[] lambda_word = lambdaMap.get(word);
+                if (lambda_word == null) {
+                    lambda_word = new float[2];
+                    lambdaMap.put(word, lambda_word);
+                }
+                lambda_word[label] = lambda;
+            }
+        });
+        train.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-topics 2 -num_docs 2 -s 1 -iter 32 -eps 1e-3")});
+        train.process(new Object[] {Arrays.asList(doc1)});
+        train.process(new Object[] {Arrays.asList(doc2)});
+        train.close();
+        pw.close();
+
+        // predict on map-side
+        LDAPredictUDTF udtf = new LDAPredictUDTF();
+        MapredContext mapredContext = MapredContextAccessor.create(true, null);
+        udtf.configure(mapredContext);
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                rows.add(new Object[] {((IntWritable) row[0]).get(),
+                        ((FloatWritable) row[1]).get()});
+            }
+        });
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    modelFile.getAbsolutePath()),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-topics 2")});
+
+        for (String[] doc : new String[][] {doc1, doc2}) {
+            rows.clear();
+            udtf.process(new Object[] {Arrays.asList(doc)});
+            Assert.assertEquals(2, rows.size());
+
+            // expected result of lda_predict
+            OnlineLDAModel model = new OnlineLDAModel(2, 1.f / 2, LDAUDTF.DEFAULT_DELTA);
+            for (String wc : doc) {
+                String word = wc.split(":")[0];
+                float[] lambda_word = lambdaMap.get(word);
+                for (int k = 0; k < 2; k++) {
+                    model.setLambda(word, k, lambda_word[k]);
+                }
+            }
+            float[] expected = model.getTopicDistribution(doc);
+
+            float prev = Float.MAX_VALUE;
+            for (Object[] row : rows) {
+                int label = ((Integer) row[0]).intValue();
+                float prob = ((Float) row[1]).floatValue();
+                Assert.assertEquals(expected[label], prob, 1E-5f);
+                Assert.assertTrue(prob <= prev);
+                prev = prob;
+            }
+        }
+
+        // unknown words are ignored
+        rows.clear();
+        udtf.process(new Object[] {Arrays.asList("unknown:1")});
+        Assert.assertEquals(0, rows.size());
+
+        udtf.close();
+    }
+
+}
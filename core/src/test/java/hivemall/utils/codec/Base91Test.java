@@ -21,6 +21,7 @@ package hivemall.utils.codec;
 import hivemall.utils.codec.Base91;
 import hivemall.utils.io.IOUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
@@ -42,6 +43,20 @@ public class Base91Test {
         Assert.assertArrayEquals(expected2, actual2);
     }
 
+    @Test
+    public void testEncodeDecodeWithOffset() throws IOException {
+        byte[] expected = "This is a test".getBytes();
+        byte[] padded = "##This is a test##".getBytes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Base91.encode(padded, 2, expected.length, out);
+        byte[] encoded = out.toByteArray();
+        Assert.assertArrayEquals(Base91.encode(expected), encoded);
+
+        byte[] prefixed = new byte[encoded.length + 3];
+        System.arraycopy(encoded, 0, prefixed, 3, encoded.length);
+        Assert.assertArrayEquals(expected, Base91.decode(prefixed, 3, encoded.length));
+    }
+
     @Test
     public void testLongEncodeDecode() throws IOException {
         byte[] expected1 = IOUtils.toString(
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.codec;
+
+import hivemall.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LZ4CodecTest {
+
+    @Test
+    public void testNonString() throws IOException {
+        LZ4Codec codec = new LZ4Codec();
+        byte[] original1 = IOUtils.toString(
+            LZ4CodecTest.class.getResourceAsStream("LZ4CodecTest.class")).getBytes();
+        byte[] compressed1 = codec.compress(original1);
+        byte[] decompressed1 = codec.decompress(compressed1);
+        Assert.assertTrue("compressed size (" + compressed1.length + " bytes) < original size ("
+                + original1.length + " bytes)", compressed1.length < original1.length);
+        Assert.assertArrayEquals(original1, decompressed1);
+        codec.close();
+    }
+
+    @Test
+    public void testRepetitive() throws IOException {
+        LZ4Codec codec = new LZ4Codec();
+        // long runs exercise extended literal/match lengths and overlapping copies
+        byte[] original = new byte[100000];
+        Random rnd = new Random(31L);
+        for (int i = 0; i < original.length;) {
+            int run = 1 + rnd.nextInt(600);
+            byte b = (byte) rnd.nextInt(4);
+            for (int j = 0; j < run && i < original.length; j++) {
+                original[i++] = b;
+            }
+        }
+        byte[] compressed = codec.compress(original);
+        Assert.assertTrue(compressed.length < original.length / 10);
+        Assert.assertArrayEquals(original, codec.decompress(compressed));
+        codec.close();
+    }
+
+    @Test
+    public void testIncompressible() throws IOException {
+        LZ4Codec codec = new LZ4Codec();
+        byte[] original = new byte[70000];
+        new Random(43L).nextBytes(original);
+        byte[] compressed = codec.compress(original);
+        Assert.assertEquals(4 + original.length, compressed.length);
+        Assert.assertArrayEquals(original, codec.decompress(compressed));
+        codec.close();
+    }
+
+    @Test
+    public void testReuseWithOffset() throws IOException {
+        LZ4Codec codec = new LZ4Codec();
+        Random rnd = new Random(47L);
+        for (int trial = 0; trial < 50; trial++) {
+            byte[] original = new byte[rnd.nextInt(5000)];
+            for (int i = 0; i < original.length; i++) {
+                original[i] = (byte) rnd.nextInt(8);
+            }
+            int off = rnd.nextInt(original.length + 1);
+            int len = original.length - off;
+            byte[] compressed = codec.compress(original, off, len);
+
+            byte[] padded = new byte[compressed.length + 7];
+            System.arraycopy(compressed, 0, padded, 3, compressed.length);
+            byte[] decompressed = codec.decompress(padded, 3, compressed.length);
+            Assert.assertArrayEquals(Arrays.copyOfRange(original, off, original.length),
+                decompressed);
+        }
+        codec.close();
+    }
+
+    @Test
+    public void testNoCompression() throws IOException {
+        LZ4Codec codec = new LZ4Codec();
+        byte[] original0 = new byte[0];
+        byte[] compressed0 = codec.compress(original0);
+        Assert.assertEquals(4 + original0.length, compressed0.length);
+        Assert.assertArrayEquals(original0, codec.decompress(compressed0));
+
+        byte[] original1 = new byte[] {1};
+        byte[] compressed1 = codec.compress(original1);
+        Assert.assertEquals(4 + original1.length, compressed1.length);
+        Assert.assertArrayEquals(original1, codec.decompress(compressed1));
+        codec.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws IOException {
+        LZ4Codec codec = new LZ4Codec();
+        byte[] original = new byte[1000];
+        byte[] compressed = codec.compress(original);
+        compressed = Arrays.copyOf(compressed, compressed.length - 3);
+        codec.decompress(compressed);
+    }
+
+}
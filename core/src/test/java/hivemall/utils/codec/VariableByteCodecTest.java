@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.codec;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VariableByteCodecTest {
+
+    @Test
+    public void testEncodeDecodeUnsignedIntByteBuffer() {
+        final int[] values = new int[] {0, 1, 127, 128, 255, 16383, 16384, 1000000,
+                Integer.MAX_VALUE};
+
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        int expectedBytes = 0;
+        for (int v : values) {
+            VariableByteCodec.encodeUnsignedInt(v, buf);
+            expectedBytes += VariableByteCodec.requiredBytes(v);
+        }
+        Assert.assertEquals(expectedBytes, buf.position());
+
+        buf.flip();
+        for (int v : values) {
+            Assert.assertEquals(v, VariableByteCodec.decodeUnsignedInt(buf));
+        }
+        Assert.assertEquals(0, buf.remaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeNegativeByteBuffer() {
+        VariableByteCodec.encodeUnsignedInt(-1, ByteBuffer.allocate(8));
+    }
+
+}
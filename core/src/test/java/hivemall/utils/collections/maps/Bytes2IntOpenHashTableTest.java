@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections.maps;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Bytes2IntOpenHashTableTest {
+
+    @Test
+    public void testAddTo() {
+        Bytes2IntOpenHashTable table = new Bytes2IntOpenHashTable(4);
+        final int numEntries = 100000;
+        for (int i = 0; i < numEntries; i++) {
+            byte[] k = bytes("term" + i);
+            Assert.assertEquals(i, table.addTo(k, 0, k.length, i));
+        }
+        byte[] k = bytes("term7");
+        Assert.assertEquals(10, table.addTo(k, 0, k.length, 3));
+        Assert.assertEquals(numEntries, table.size());
+
+        for (int i = 0; i < numEntries; i++) {
+            k = bytes("term" + i);
+            Assert.assertEquals(i, table.find(k, 0, k.length));
+            Assert.assertEquals((i == 7) ? 10 : i, table.get(k, 0, k.length));
+
+            byte[] key = new byte[table.getKeyLength(i)];
+            table.getKey(i, key, 0);
+            Assert.assertArrayEquals(k, key);
+        }
+        k = bytes("term" + numEntries);
+        Assert.assertEquals(-1, table.find(k, 0, k.length));
+        Assert.assertEquals(0, table.get(k, 0, k.length));
+    }
+
+    @Test
+    public void testSlices() {
+        Bytes2IntOpenHashTable table = new Bytes2IntOpenHashTable();
+        byte[] b = bytes("abcabc");
+        table.addTo(b, 0, 3, 1);
+        table.addTo(b, 3, 3, 1);
+        table.addTo(b, 1, 2, 1);
+        table.addTo(b, 0, 0, 1);
+        Assert.assertEquals(3, table.size());
+        Assert.assertEquals(2, table.get(bytes("abc"), 0, 3));
+        Assert.assertEquals(1, table.get(bytes("bc"), 0, 2));
+        Assert.assertEquals(1, table.get(b, 0, 0));
+
+        // merging with the stored hash values
+        Bytes2IntOpenHashTable merged = new Bytes2IntOpenHashTable();
+        for (int i = 0; i < table.size(); i++) {
+            byte[] key = new byte[table.getKeyLength(i)];
+            table.getKey(i, key, 0);
+            merged.addTo(table.getHash(i), key, 0, key.length, table.getValue(i));
+        }
+        merged.addTo(b, 0, 3, 1);
+        Assert.assertEquals(3, merged.get(bytes("abc"), 0, 3));
+
+        table.clear();
+        Assert.assertEquals(0, table.size());
+        Assert.assertEquals(-1, table.find(bytes("abc"), 0, 3));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
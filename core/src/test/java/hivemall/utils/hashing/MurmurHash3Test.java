@@ -18,6 +18,7 @@
  */
 package hivemall.utils.hashing;
 
+import java.nio.charset.Charset;
 import java.util.Random;
 
 import org.junit.Test;
@@ -35,4 +36,22 @@ public class MurmurHash3Test {
         }
     }
 
+    @Test
+    public void testMurmurhash3Bytes() {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final Random rand = new Random(43L);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder buf = new StringBuilder();
+            for (int j = rand.nextInt(20); j > 0; j--) {
+                buf.append((char) (rand.nextBoolean() ? 'a' + rand.nextInt(26)
+                        : 0x80 + rand.nextInt(0xD000)));
+            }
+            String s = buf.toString();
+            byte[] b = ("xy" + s).getBytes(utf8);
+            int seed = rand.nextInt();
+            Assert.assertEquals(MurmurHash3.murmurhash3_x86_32(s, seed),
+                MurmurHash3.murmurhash3_x86_32(b, 2, b.length - 2, seed));
+        }
+    }
+
 }
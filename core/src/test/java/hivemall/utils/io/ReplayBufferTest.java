@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.io;
+
+import hivemall.utils.codec.CompressionCodec;
+import hivemall.utils.codec.DeflateCodec;
+import hivemall.utils.codec.LZ4Codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplayBufferTest {
+
+    @Test
+    public void testOnMemory() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 16384, 2, 0L);
+        writeRecords(rb, 50, 31L);
+        Assert.assertFalse(rb.isSpilled());
+        Assert.assertNull(rb.getFile());
+        for (int epoch = 0; epoch < 3; epoch++) {
+            rb.rewind();
+            verifyRecords(rb, 50, 31L);
+        }
+        rb.close();
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 4096, 2, 0L);
+        writeRecords(rb, 5000, 41L);
+        Assert.assertTrue(rb.isSpilled());
+        File file = rb.getFile();
+        Assert.assertNotNull(file);
+        for (int epoch = 0; epoch < 3; epoch++) {
+            rb.rewind();
+            verifyRecords(rb, 5000, 41L);
+        }
+        Assert.assertEquals(rb.getSpilledBytes(), file.length());
+        rb.close();
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSpillWithManyBuffers() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 4, 0L);
+        writeRecords(rb, 5000, 43L);
+        for (int epoch = 0; epoch < 3; epoch++) {
+            rb.rewind();
+            verifyRecords(rb, 5000, 43L);
+        }
+        rb.close();
+    }
+
+    @Test
+    public void testMmap() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 4096, 2, Long.MAX_VALUE);
+        writeRecords(rb, 5000, 47L);
+        Assert.assertTrue(rb.isSpilled());
+        for (int epoch = 0; epoch < 3; epoch++) {
+            rb.rewind();
+            verifyRecords(rb, 5000, 47L);
+        }
+        rb.close();
+    }
+
+    @Test
+    public void testSpillDeflate() throws IOException {
+        testCompressedSpill(new DeflateCodec());
+    }
+
+    @Test
+    public void testSpillLZ4() throws IOException {
+        testCompressedSpill(new LZ4Codec());
+    }
+
+    private static void testCompressedSpill(CompressionCodec codec) throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 4096, 2, Long.MAX_VALUE, codec);
+        Random rnd = new Random(59L);
+        for (int i = 0; i < 5000; i++) {
+            int n = rnd.nextInt(30);
+            ByteBuffer buf = rb.reserve(4 + 4 * n);
+            buf.putInt(n);
+            for (int j = 0; j < n; j++) {
+                buf.putInt(j % 7);
+            }
+        }
+        Assert.assertTrue(rb.isSpilled());
+        Assert.assertTrue(rb.isCompressed());
+        for (int epoch = 0; epoch < 3; epoch++) {
+            rb.rewind();
+            rnd = new Random(59L);
+            for (int i = 0; i < 5000; i++) {
+                ByteBuffer buf = rb.next();
+                Assert.assertNotNull(buf);
+                int n = rnd.nextInt(30);
+                Assert.assertEquals(n, buf.getInt());
+                for (int j = 0; j < n; j++) {
+                    Assert.assertEquals(j % 7, buf.getInt());
+                }
+            }
+            Assert.assertNull(rb.next());
+            Assert.assertEquals(rb.getRawSpilledBytes(), rb.getDecodedBytes());
+        }
+        File file = rb.getFile();
+        Assert.assertEquals(rb.getSpilledBytes(), file.length());
+        Assert.assertTrue(rb.getSpilledBytes() < rb.getRawSpilledBytes() / 2);
+        rb.close();
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testIncompressibleSpill() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 4096, 2, 0L, new LZ4Codec());
+        writeRecords(rb, 5000, 61L);
+        for (int epoch = 0; epoch < 2; epoch++) {
+            rb.rewind();
+            verifyRecords(rb, 5000, 61L);
+        }
+        rb.close();
+    }
+
+    @Test
+    public void testMultipleBlocksOnMemory() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 2, 1024 * 1024, 0L, null);
+        writeRecords(rb, 2000, 67L);
+        Assert.assertFalse(rb.isSpilled());
+        Assert.assertTrue(rb.getNumBlocks() > 1);
+        for (int epoch = 0; epoch < 3; epoch++) {
+            rb.rewind();
+            verifyRecords(rb, 2000, 67L);
+        }
+        rb.close();
+    }
+
+    @Test
+    public void testShuffleOnMemory() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 2, 1024 * 1024, 0L, null);
+        testShuffle(rb, false);
+    }
+
+    @Test
+    public void testShuffleSpill() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 2, 4096, 0L, null);
+        testShuffle(rb, true);
+    }
+
+    @Test
+    public void testShuffleMmap() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 2, 4096, Long.MAX_VALUE, null);
+        testShuffle(rb, true);
+    }
+
+    @Test
+    public void testShuffleCompressedSpill() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 2, 4096, 0L, new LZ4Codec());
+        testShuffle(rb, true);
+    }
+
+    private static void testShuffle(ReplayBuffer rb, boolean spilled) throws IOException {
+        final int numRecords = 3000;
+        rb.setShuffle(71L);
+        for (int i = 0; i < numRecords; i++) {
+            ByteBuffer buf = rb.reserve(8);
+            buf.putInt(i);
+            buf.putInt(~i);
+        }
+        Assert.assertEquals(spilled, rb.isSpilled());
+
+        List<Integer> prev = null;
+        for (int epoch = 0; epoch < 3; epoch++) {
+            rb.rewind();
+            List<Integer> order = new ArrayList<Integer>(numRecords);
+            ByteBuffer buf;
+            while ((buf = rb.next()) != null) {
+                int i = buf.getInt();
+                Assert.assertEquals(~i, buf.getInt());
+                order.add(i);
+            }
+            Assert.assertEquals(numRecords, order.size());
+            if (prev != null) {
+                Assert.assertNotEquals(prev, order);
+            }
+            prev = new ArrayList<Integer>(order);
+            Collections.sort(order);
+            for (int i = 0; i < numRecords; i++) {
+                Assert.assertEquals(i, order.get(i).intValue());
+            }
+        }
+        rb.close();
+    }
+
+    @Test
+    public void testRewindInTheMiddle() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 2, 0L);
+        writeRecords(rb, 1000, 53L);
+        rb.rewind();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotNull(rb.next());
+        }
+        rb.rewind();
+        verifyRecords(rb, 1000, 53L);
+        rb.close();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test");
+        rb.rewind();
+        Assert.assertNull(rb.next());
+        Assert.assertEquals(0L, rb.getNumRecords());
+        rb.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooLargeRecord() throws IOException {
+        ReplayBuffer rb = new ReplayBuffer("hivemall_test", 1024, 2, 0L);
+        try {
+            rb.reserve(1024);
+        } finally {
+            rb.close();
+        }
+    }
+
+    private static void writeRecords(ReplayBuffer rb, int numRecords, long seed)
+            throws IOException {
+        Random rnd = new Random(seed);
+        for (int i = 0; i < numRecords; i++) {
+            int n = rnd.nextInt(30);
+            ByteBuffer buf = rb.reserve(4 + 8 * n);
+            buf.putInt(n);
+            for (int j = 0; j < n; j++) {
+                buf.putLong(rnd.nextLong());
+            }
+        }
+        Assert.assertEquals(numRecords, rb.getNumRecords());
+    }
+
+    private static void verifyRecords(ReplayBuffer rb, int numRecords, long seed)
+            throws IOException {
+        Random rnd = new Random(seed);
+        for (int i = 0; i < numRecords; i++) {
+            ByteBuffer buf = rb.next();
+            Assert.assertNotNull(buf);
+            int n = rnd.nextInt(30);
+            Assert.assertEquals(n, buf.getInt());
+            for (int j = 0; j < n; j++) {
+                Assert.assertEquals(rnd.nextLong(), buf.getLong());
+            }
+        }
+        Assert.assertNull(rb.next());
+        Assert.assertNull(rb.next());
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.math;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KLLSketchTest {
+
+    @Test
+    public void testExactForSmallInputs() {
+        KLLSketch sketch = new KLLSketch();
+        Assert.assertTrue(Double.isNaN(sketch.quantile(0.5d)));
+        for (int i = 100; i >= 1; i--) {
+            sketch.update(i);
+        }
+        sketch.update(Double.NaN);
+        Assert.assertEquals(100L, sketch.getN());
+        Assert.assertEquals(100, sketch.getNumRetained());
+        Assert.assertEquals(1.d, sketch.quantile(0.d), 0.d);
+        Assert.assertEquals(1.d, sketch.quantile(0.01d), 0.d);
+        Assert.assertEquals(50.d, sketch.quantile(0.5d), 0.d);
+        Assert.assertEquals(100.d, sketch.quantile(1.d), 0.d);
+        Assert.assertEquals(0.25d, sketch.rank(25.d), 0.d);
+    }
+
+    @Test
+    public void testRankError() {
+        final int n = 1000000;
+        KLLSketch sketch = new KLLSketch();
+        double[] data = new double[n];
+        Random rnd = new Random(43L);
+        for (int i = 0; i < n; i++) {
+            double x = Math.exp(rnd.nextGaussian() * 3.d); // skewed
+            data[i] = x;
+            sketch.update(x);
+        }
+        Assert.assertTrue(sketch.getNumRetained() < 4 * KLLSketch.DEFAULT_K);
+        assertRankError(sketch, data, 0.0133d);
+    }
+
+    @Test
+    public void testMerge() {
+        final int n = 1000000;
+        double[] data = new double[n];
+        Random rnd = new Random(31L);
+        KLLSketch merged = new KLLSketch();
+        KLLSketch sketch = new KLLSketch();
+        for (int i = 0; i < n; i++) {
+            double x = rnd.nextDouble();
+            data[i] = x;
+            sketch.update(x);
+            if (i % 10000 == 9999) {
+                byte[] b = sketch.serialize();
+                merged.merge(KLLSketch.deserialize(b, 0, b.length));
+                sketch.reset();
+            }
+        }
+        Assert.assertEquals(n, merged.getN());
+        Assert.assertTrue(merged.getNumRetained() < 4 * KLLSketch.DEFAULT_K);
+        assertRankError(merged, data, 0.0133d);
+    }
+
+    @Test
+    public void testMergeManyPartials() {
+        // partials built by many tasks, each of which compacts its own items
+        final int numPartials = 200, partialSize = 5000;
+        final double[] data = new double[numPartials * partialSize];
+        final Random rnd = new Random(37L);
+        KLLSketch merged = new KLLSketch();
+        for (int p = 0; p < numPartials; p++) {
+            KLLSketch partial = new KLLSketch();
+            for (int i = 0; i < partialSize; i++) {
+                double x = rnd.nextGaussian();
+                data[p * partialSize + i] = x;
+                partial.update(x);
+            }
+            byte[] b = partial.serialize();
+            merged.merge(KLLSketch.deserialize(b, 0, b.length));
+        }
+        Assert.assertEquals(data.length, merged.getN());
+        Assert.assertTrue(merged.getNumRetained() < 4 * KLLSketch.DEFAULT_K);
+        assertRankError(merged, data, 0.0133d);
+    }
+
+    @Test
+    public void testSeed() {
+        KLLSketch sketch1 = new KLLSketch(KLLSketch.DEFAULT_K, 43L);
+        KLLSketch sketch2 = new KLLSketch(KLLSketch.DEFAULT_K, 43L);
+        KLLSketch sketch3 = new KLLSketch();
+        KLLSketch sketch4 = new KLLSketch();
+        for (int i = 0; i < 100000; i++) {
+            sketch1.update(i);
+            sketch2.update(i);
+            sketch3.update(i);
+            sketch4.update(i);
+        }
+        // the same seed gives the same sketch, and others are seeded independently
+        Assert.assertArrayEquals(sketch1.serialize(), sketch2.serialize());
+        Assert.assertFalse(Arrays.equals(sketch3.serialize(), sketch4.serialize()));
+
+        // a deserialized sketch is seeded as given
+        byte[] b = sketch1.serialize();
+        KLLSketch copy1 = KLLSketch.deserialize(b, 0, b.length, 7L);
+        KLLSketch copy2 = KLLSketch.deserialize(b, 0, b.length, 7L);
+        for (int i = 0; i < 100000; i++) {
+            copy1.update(i);
+            copy2.update(i);
+        }
+        Assert.assertArrayEquals(copy1.serialize(), copy2.serialize());
+    }
+
+    @Test
+    public void testSerialize() {
+        KLLSketch sketch = new KLLSketch(64);
+        for (int i = 0; i < 10000; i++) {
+            sketch.update(i);
+        }
+        byte[] b = sketch.serialize();
+        byte[] padded = new byte[b.length + 3];
+        System.arraycopy(b, 0, padded, 3, b.length);
+        KLLSketch copy = KLLSketch.deserialize(padded, 3, b.length);
+        Assert.assertEquals(64, copy.getK());
+        Assert.assertEquals(sketch.getN(), copy.getN());
+        Assert.assertEquals(sketch.getNumRetained(), copy.getNumRetained());
+        double[] phis = new double[] {0.d, 0.1d, 0.5d, 0.9d, 1.d};
+        Assert.assertArrayEquals(sketch.quantiles(phis), copy.quantiles(phis), 0.d);
+    }
+
+    private static void assertRankError(KLLSketch sketch, double[] data, double eps) {
+        Arrays.sort(data);
+        final int n = data.length;
+        for (int i = 1; i < 100; i++) {
+            double phi = i / 100.d;
+            double q = sketch.quantile(phi);
+            int rank = Arrays.binarySearch(data, q) + 1;
+            Assert.assertTrue(rank > 0);
+            Assert.assertEquals("phi=" + phi, phi, (double) rank / n, eps);
+        }
+    }
+
+}
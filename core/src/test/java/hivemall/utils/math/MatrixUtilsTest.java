@@ -248,6 +248,22 @@ public class MatrixUtilsTest {
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void testLanczosTridiagonalizationArray() {
+        double[][] C = new double[][] {new double[] {1, 2, 3, 4}, new double[] {2, 1, 4, 3},
+                new double[] {3, 4, 1, 2}, new double[] {4, 3, 2, 1}};
+        double[] a = new double[] {0.5, 0.5, 0.5, 0.5};
+
+        RealMatrix expected = new Array2DRowRealMatrix(new double[3][3]);
+        MatrixUtils.lanczosTridiagonalization(new Array2DRowRealMatrix(C), a, expected);
+        RealMatrix actual = new Array2DRowRealMatrix(new double[3][3]);
+        MatrixUtils.lanczosTridiagonalization(C, a, actual);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertArrayEquals(expected.getRow(i), actual.getRow(i), 1E-10d);
+        }
+    }
+
     @Test
     public void testTridiagonalEigen() {
         // Tridiagonal Matrix
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.sampling;
+
+import hivemall.math.random.PRNG;
+import hivemall.math.random.RandomNumberGeneratorFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AliasTableTest {
+
+    @Test
+    public void testSample() {
+        final double[] weights = new double[] {1.d, 0.d, 3.d, 6.d};
+        AliasTable table = new AliasTable();
+        table.build(weights, weights.length);
+        Assert.assertEquals(4, table.size());
+        Assert.assertEquals(10.d, table.sum(), 1E-10d);
+        Assert.assertEquals(3.d, table.weight(2), 0.d);
+
+        PRNG rnd = RandomNumberGeneratorFactory.createPRNG(31L);
+        final int n = 100000;
+        final int[] counts = new int[weights.length];
+        for (int i = 0; i < n; i++) {
+            counts[table.sample(rnd)]++;
+        }
+        Assert.assertEquals(0, counts[1]);
+        for (int i = 0; i < weights.length; i++) {
+            Assert.assertEquals(weights[i] / 10.d, (double) counts[i] / n, 0.01d);
+        }
+    }
+
+    @Test
+    public void testRebuild() {
+        AliasTable table = new AliasTable(2);
+        table.build(new double[] {1.d, 1.d}, 2);
+        table.build(new double[] {0.d, 0.d, 5.d}, 3);
+
+        PRNG rnd = RandomNumberGeneratorFactory.createPRNG(31L);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(2, table.sample(rnd));
+        }
+    }
+
+}
@@ -63,6 +63,20 @@ private[sql] class InternalRowPriorityQueue(
 
   override def clear() { underlying.clear() }
 
+  /**
+   * Returns true if an element with `score` would be kept, that is, the queue is not full yet or
+   * `score` is better than the current k-th one. Use this to prune candidates before materializing
+   * them.
+   */
+  def accepts(score: Any): Boolean = {
+    if (size < maxSize) {
+      true
+    } else {
+      val head = underlying.peek()
+      head != null && compareFunc(score, head._1) > 0
+    }
+  }
+
   private def maybeReplaceLowest(a: (Any, InternalRow)): Boolean = {
     val head = underlying.peek()
     if (head != null && ordering.gt(a, head)) {
@@ -32,6 +32,7 @@ import org.apache.spark.sql.types._
 
 abstract class PriorityQueueShim {
 
+  def accepts(score: Any): Boolean
   def insert(score: Any, row: InternalRow): Unit
   def get(): Iterator[InternalRow]
   def clear(): Unit
@@ -59,7 +60,8 @@ case class ShuffledHashJoinTopKExec(
     UnsafeProjection.create(scoreExpr :: Nil, left.output ++ right.output)
 
   private lazy val boundCondition = if (condition.isDefined) {
-    (r: InternalRow) => newPredicate(condition.get, streamedPlan.output ++ buildPlan.output).eval(r)
+    val predicate = newPredicate(condition.get, streamedPlan.output ++ buildPlan.output)
+    (r: InternalRow) => predicate.eval(r)
   } else {
     (r: InternalRow) => true
   }
@@ -71,11 +73,13 @@ case class ShuffledHashJoinTopKExec(
     private val q: InternalRowPriorityQueue = queue
     private val joinedRow = new JoinedRow
 
+    override def accepts(score: Any): Boolean = q.accepts(score)
+
     override def insert(score: Any, row: InternalRow): Unit = {
       q += Tuple2(score, row)
     }
 
-    override def get(): Iterator[InternalRow] = {
+    override def get(): Iterator[InternalRow] = if (q.size > 0) {
       val outputRows = queue.iterator.toSeq.reverse
       val (headScore, _) = outputRows.head
       val rankNum = outputRows.scanLeft((1, headScore)) { case ((rank, prevScore), (score, _)) =>
@@ -93,6 +97,9 @@ case class ShuffledHashJoinTopKExec(
         topKRow.setTotalSize(bufferHolder.totalSize())
         joinedRow.apply(topKRow, row)
       }.iterator
+    } else {
+      // All the matches are filtered out by the join condition
+      Iterator.empty
     }
 
     override def clear(): Unit = q.clear()
@@ -135,8 +142,13 @@ case class ShuffledHashJoinTopKExec(
       val joinKeys = joinKeysProj(srow) // `joinKeys` is also a grouping key
       val matches = hashedRelation.get(joinKeys)
       if (matches != null) {
-        matches.map(joinRow.withRight).filter(boundCondition).foreach { resultRow =>
-          _priorityQueue.insert(scoreProjection(resultRow).get(0, scoreType), resultRow)
+        while (matches.hasNext) {
+          val resultRow = joinRow.withRight(matches.next())
+          // Evaluates a score first and skips the rows that cannot be in the current top-K
+          val score = scoreProjection(resultRow).get(0, scoreType)
+          if (_priorityQueue.accepts(score) && boundCondition(resultRow)) {
+            _priorityQueue.insert(score, resultRow)
+          }
         }
         val iter = _priorityQueue.get()
         _priorityQueue.clear()
@@ -379,10 +391,12 @@ case class ShuffledHashJoinTopKExec(
        |  while ($matches.hasNext()) {
        |    ${beforeLoop.trim}
        |    InternalRow $rightRow = (InternalRow) $matches.next();
-       |    ${condCheck.trim}
        |    InternalRow row = $joinedRow.apply($leftRow, $rightRow);
        |    // Compute a score for the `row`
        |    ${scoreVar.code}
+       |    // Skip the `row` if its score does not exceed the current k-th one
+       |    if (!$pQueue.accepts(${scoreVar.value})) continue;
+       |    ${condCheck.trim}
        |    $pQueue.insert(${scoreVar.value}, row);
        |  }
        |
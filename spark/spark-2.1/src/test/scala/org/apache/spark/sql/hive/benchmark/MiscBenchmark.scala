@@ -264,4 +264,33 @@ class MiscBenchmark extends BenchmarkBase {
         distance.as("score"))
     }
   }
+
+  TestUtils.benchmark("top-k join with a join condition at scale") {
+    /**
+     * A score is evaluated before a join condition so that the candidates whose scores do not
+     * exceed the running k-th one skip the condition and the insertion into a priority queue.
+     */
+    val topK = 10
+    val N = 1L << 16
+    val M = 1L << 16
+    val numGroup = 16
+    val inputDf = sparkSession.range(N).selectExpr(
+      s"CAST(rand() * $numGroup AS INT) AS group", "id AS userId", "rand() AS x", "rand() AS y"
+    ).cache
+    val masterDf = sparkSession.range(M).selectExpr(
+      s"id % $numGroup AS group", "id AS posId", "rand() AS x", "rand() AS y",
+      "CAST(id AS STRING) AS name"
+    ).cache
+
+    // First, cache data
+    inputDf.count
+    masterDf.count
+
+    // Define a score column
+    val score = (inputDf("x") * masterDf("x") + inputDf("y") * masterDf("y")).as("score")
+    runBenchmark("top_k_join", N) {
+      inputDf.top_k_join(lit(topK), masterDf,
+        inputDf("group") === masterDf("group") && !masterDf("name").endsWith("7"), score)
+    }
+  }
 }